@@ -17,34 +17,78 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding;
 
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
+import static java.util.Arrays.asList;
+
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.apache.uima.cas.CAS;
 
 import de.tudarmstadt.ukp.clarin.webanno.agreement.PairwiseAnnotationResult;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasure_ImplBase;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.DefaultAgreementTraits;
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 
 public abstract class CodingAgreementMeasure_ImplBase<T extends DefaultAgreementTraits>
     extends AgreementMeasure_ImplBase<PairwiseAnnotationResult<CodingAgreementResult>, T>
 {
-    public CodingAgreementMeasure_ImplBase(AnnotationFeature aFeature, T aTraits)
+    private final AnnotationSchemaService annotationService;
+
+    public CodingAgreementMeasure_ImplBase(AnnotationFeature aFeature, T aTraits,
+            AnnotationSchemaService aAnnotationService)
     {
         super(aFeature, aTraits);
+        annotationService = aAnnotationService;
     }
 
     @Override
     public PairwiseAnnotationResult<CodingAgreementResult> getAgreement(
             Map<String, List<CAS>> aCasMap)
+    {
+        return getAgreement(aCasMap, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Calculate the agreement between all pairs of annotators. The differences between the
+     * annotators are calculated only once and the differences between each pair are derived from
+     * them. The pairs are evaluated in parallel using the given pool. If the calling thread is
+     * interrupted while waiting for the results, pairs which have not been evaluated yet are
+     * cancelled.
+     * 
+     * @param aCasMap
+     *            the CASes of the annotators.
+     * @param aPool
+     *            the pool used to calculate the differences and to evaluate the pairs.
+     * @return the pairwise agreement.
+     * @throws CancellationException
+     *             if the calling thread has been interrupted.
+     */
+    public PairwiseAnnotationResult<CodingAgreementResult> getAgreement(
+            Map<String, List<CAS>> aCasMap, ForkJoinPool aPool)
     {
         PairwiseAnnotationResult<CodingAgreementResult> result = new PairwiseAnnotationResult<>(
                 getFeature(), getTraits());
         List<Entry<String, List<CAS>>> entryList = new ArrayList<>(aCasMap.entrySet());
+        if (entryList.size() < 2) {
+            return result;
+        }
+
+        CasDiff diff = doDiff(getDiffAdapters(), getTraits().getLinkCompareBehavior(), aCasMap, -1,
+                -1, aPool);
+
+        List<String[]> pairs = new ArrayList<>();
+        List<ForkJoinTask<CodingAgreementResult>> tasks = new ArrayList<>();
         for (int m = 0; m < entryList.size(); m++) {
             for (int n = 0; n < entryList.size(); n++) {
                 // Triangle matrix mirrored
@@ -52,13 +96,63 @@ public abstract class CodingAgreementMeasure_ImplBase<T extends DefaultAgreement
                     Map<String, List<CAS>> pairwiseCasMap = new LinkedHashMap<>();
                     pairwiseCasMap.put(entryList.get(m).getKey(), entryList.get(m).getValue());
                     pairwiseCasMap.put(entryList.get(n).getKey(), entryList.get(n).getValue());
-                    CodingAgreementResult res = calculatePairAgreement(pairwiseCasMap);
-                    result.add(entryList.get(m).getKey(), entryList.get(n).getKey(), res);
+                    pairs.add(new String[] { entryList.get(m).getKey(),
+                            entryList.get(n).getKey() });
+                    tasks.add(aPool.submit(() -> calculatePairAgreement(
+                            diff.subset(pairwiseCasMap.keySet()), pairwiseCasMap)));
                 }
             }
         }
+
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                result.add(pairs.get(i)[0], pairs.get(i)[1], tasks.get(i).get());
+            }
+        }
+        catch (InterruptedException e) {
+            tasks.forEach(task -> task.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Agreement calculation has been interrupted");
+        }
+        catch (ExecutionException e) {
+            tasks.forEach(task -> task.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+
         return result;
     }
 
-    public abstract CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap);
+    /**
+     * Calculate the agreement between a pair of annotators from scratch.
+     * 
+     * @param aCasMap
+     *            the CASes of the two annotators.
+     * @return the agreement.
+     */
+    public CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap)
+    {
+        CasDiff diff = doDiff(getDiffAdapters(), getTraits().getLinkCompareBehavior(), aCasMap);
+
+        return calculatePairAgreement(diff, aCasMap);
+    }
+
+    /**
+     * Calculate the agreement between a pair of annotators.
+     * 
+     * @param aDiff
+     *            the differences between the two annotators.
+     * @param aCasMap
+     *            the CASes of the two annotators.
+     * @return the agreement.
+     */
+    protected abstract CodingAgreementResult calculatePairAgreement(CasDiff aDiff,
+            Map<String, List<CAS>> aCasMap);
+
+    private List<DiffAdapter> getDiffAdapters()
+    {
+        return CasDiff.getDiffAdapters(annotationService, asList(getFeature().getLayer()));
+    }
 }
@@ -17,18 +17,34 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.agreement.measures;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.SINGLE_TOKEN;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
 import static java.lang.Double.NaN;
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
 import org.dkpro.statistics.agreement.coding.ICodingAnnotationItem;
 import org.dkpro.statistics.agreement.coding.ICodingAnnotationStudy;
 import org.junit.Before;
 import org.junit.Test;
 
 import de.tudarmstadt.ukp.clarin.webanno.agreement.PairwiseAnnotationResult;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.cohenkappa.CohenKappaAgreementMeasure;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.cohenkappa.CohenKappaAgreementMeasureSupport;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
 
 public class CohenKappaAgreementMeasureTest
     extends AgreementMeasureTestSuite_ImplBase
@@ -124,4 +140,71 @@ public class CohenKappaAgreementMeasureTest
         assertEquals(4, result.getRelevantSetCount());
         assertEquals(0.333, result.getAgreement(), 0.01);
     }
+
+    @Test
+    public void sharedDiffProducesSameResultAsPairwiseDiff() throws Exception
+    {
+        AnnotationLayer layer = new AnnotationLayer(POS.class.getName(), POS.class.getSimpleName(),
+                SPAN_TYPE, project, false, SINGLE_TOKEN, NO_OVERLAP);
+        layer.setId(1l);
+        layers.add(layer);
+
+        AnnotationFeature feature = new AnnotationFeature(project, layer, "PosValue", "PosValue",
+                CAS.TYPE_NAME_STRING);
+        feature.setId(1l);
+        features.add(feature);
+
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(makeCas("NN", "VB", "NN", null)));
+        casByUser.put("user2", asList(makeCas("NN", "NN", "NN", "JJ")));
+        casByUser.put("user3", asList(makeCas(null, "VB", "JJ", "JJ")));
+        casByUser.put("user4", asList(makeCas("NN", "VB", null, "JJ")));
+
+        CohenKappaAgreementMeasure measure = (CohenKappaAgreementMeasure) sut
+                .createMeasure(feature, traits);
+
+        PairwiseAnnotationResult<CodingAgreementResult> agreement;
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            agreement = measure.getAgreement(casByUser, pool);
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        for (String user1 : casByUser.keySet()) {
+            for (String user2 : casByUser.keySet()) {
+                if (user1.compareTo(user2) >= 0) {
+                    continue;
+                }
+
+                Map<String, List<CAS>> pairCasMap = new LinkedHashMap<>();
+                pairCasMap.put(user1, casByUser.get(user1));
+                pairCasMap.put(user2, casByUser.get(user2));
+                CodingAgreementResult expected = measure.calculatePairAgreement(pairCasMap);
+                CodingAgreementResult actual = agreement.getStudy(user1, user2);
+
+                assertEquals(expected.getAgreement(), actual.getAgreement(), 0.000001d);
+                assertEquals(expected.getTotalSetCount(), actual.getTotalSetCount());
+                assertEquals(expected.getRelevantSetCount(), actual.getRelevantSetCount());
+                assertEquals(expected.getSetsWithDifferences().size(),
+                        actual.getSetsWithDifferences().size());
+                assertEquals(expected.getIncompleteSetsByPosition().size(),
+                        actual.getIncompleteSetsByPosition().size());
+            }
+        }
+    }
+
+    private static CAS makeCas(String... aTags) throws Exception
+    {
+        JCas jcas = JCasFactory.createText("a b c d");
+        for (int i = 0; i < aTags.length; i++) {
+            if (aTags[i] != null) {
+                POS pos = new POS(jcas, i * 2, i * 2 + 1);
+                pos.setPosValue(aTags[i]);
+                pos.addToIndexes();
+            }
+        }
+        return jcas.getCas();
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.select;
+import static org.apache.uima.fit.util.CasUtil.selectCovered;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Measures the overhead of the thread ownership checks of the different
+ * {@link CasThreadLockMode CAS thread lock modes} on typical rendering loops. The loops access
+ * the CAS once per sentence and the feature structures once per token - only the former calls go
+ * through the proxy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CasThreadLockBenchmark
+{
+    /**
+     * {@code NONE} and {@code SESSION} both use the plain CAS.
+     */
+    @Param({ "NONE", "SAMPLED", "PROXY" })
+    public CasThreadLockMode mode;
+
+    @Param({ "200" })
+    public int sentences;
+
+    private CAS cas;
+    private Type sentenceType;
+    private Type tokenType;
+    private Feature posFeature;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        StringBuilder text = new StringBuilder();
+        for (int s = 0; s < sentences; s++) {
+            int sentenceBegin = text.length();
+            for (int t = 0; t < 20; t++) {
+                int begin = text.length();
+                text.append("token ");
+                Token token = new Token(jcas, begin, begin + 5);
+                POS pos = new POS(jcas, begin, begin + 5);
+                pos.setPosValue("NN");
+                pos.addToIndexes();
+                token.setPos(pos);
+                token.addToIndexes();
+            }
+            new Sentence(jcas, sentenceBegin, text.length()).addToIndexes();
+        }
+        jcas.setDocumentText(text.toString());
+
+        CAS realCas = jcas.getCas();
+        switch (mode) {
+        case SAMPLED:
+            cas = wrap(realCas, new ThreadLockingInvocationHandler(realCas, 64, false));
+            break;
+        case PROXY:
+            cas = wrap(realCas, new ThreadLockingInvocationHandler(realCas));
+            break;
+        default:
+            cas = realCas;
+        }
+
+        sentenceType = getType(cas, Sentence.class);
+        tokenType = getType(cas, Token.class);
+        posFeature = tokenType.getFeatureByBaseName("pos");
+    }
+
+    private static CAS wrap(CAS aCas, ThreadLockingInvocationHandler aHandler)
+    {
+        return (CAS) Proxy.newProxyInstance(aCas.getClass().getClassLoader(),
+                new Class[] { CAS.class }, aHandler);
+    }
+
+    @Benchmark
+    public int selectCoveredPerSentence()
+    {
+        int count = 0;
+        for (AnnotationFS sentence : select(cas, sentenceType)) {
+            List<AnnotationFS> tokens = selectCovered(cas, tokenType, sentence);
+            for (AnnotationFS token : tokens) {
+                if (token.getFeatureValue(posFeature) != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int casCallsPerToken()
+    {
+        int count = 0;
+        for (AnnotationFS token : select(cas, tokenType)) {
+            // Typical lookups done by renderers for every annotation
+            Type type = cas.getTypeSystem().getType(token.getType().getName());
+            if (type != null && cas.getDocumentText() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder().include(CasThreadLockBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -33,6 +33,7 @@ import org.apache.uima.fit.util.CasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.CasModificationTracker;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -196,7 +197,8 @@ public interface TypeAdapter
 
     /**
      * Disable the adapter from dispatching any events. This is useful for backend bulk operations
-     * that should not be tracked in detail.
+     * that should not be tracked in detail. Such operations must report the CASes they modify to
+     * the {@link CasModificationTracker}.
      */
     void silenceEvents();
 
@@ -17,10 +17,9 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging;
 
-import static org.apache.commons.lang3.StringUtils.splitPreserveAllTokens;
-
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 import org.apache.uima.cas.CAS;
 import org.apache.wicket.Component;
@@ -29,6 +28,7 @@ import org.apache.wicket.model.IModel;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.page.AnnotationPageBase;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.OffsetIndex;
 
 public class LineOrientedPagingStrategy
     implements PagingStrategy
@@ -38,24 +38,51 @@ public class LineOrientedPagingStrategy
     @Override
     public List<Unit> units(CAS aCas, int aFirstIndex, int aLastIndex)
     {
-        // We need to preserve all tokens so we can add a +1 for the line breaks of empty lines.
-        String[] lines = splitPreserveAllTokens(aCas.getDocumentText(), '\n');
+        OffsetIndex lines = OffsetIndex.ofLines(aCas);
 
         List<Unit> units = new ArrayList<>();
-        int beginOffset = 0;
-        for (int i = 0; i < Math.min(lines.length, aLastIndex); i++) {
-
-            if (i >= aFirstIndex) {
-                units.add(new Unit(i + 1, beginOffset, beginOffset + lines[i].length()));
-            }
-
-            // The +1 below accounts for the line break which is not included in the token
-            beginOffset += lines[i].length() + 1;
+        for (int i = Math.max(aFirstIndex, 0); i < Math.min(lines.size(), aLastIndex); i++) {
+            units.add(toUnit(lines, i));
         }
 
         return units;
     }
 
+    @Override
+    public int unitCount(CAS aCas)
+    {
+        return OffsetIndex.ofLines(aCas).size();
+    }
+
+    @Override
+    public Unit unitAtIndex(CAS aCas, int aIndex)
+    {
+        OffsetIndex lines = OffsetIndex.ofLines(aCas);
+        return toUnit(lines, Math.min(Math.max(aIndex, 1), lines.size()) - 1);
+    }
+
+    @Override
+    public Optional<Unit> unitAtOffset(CAS aCas, int aOffset)
+    {
+        OffsetIndex lines = OffsetIndex.ofLines(aCas);
+        int i = lines.indexOfContaining(aOffset);
+        return i != -1 ? Optional.of(toUnit(lines, i)) : Optional.empty();
+    }
+
+    @Override
+    public List<Unit> unitsStartingAtOffset(CAS aCas, int aOffset, int aCount)
+    {
+        OffsetIndex lines = OffsetIndex.ofLines(aCas);
+        int first = lines.indexOfFirstStartingAt(aOffset);
+        return units(aCas, first, (int) Math.min((long) first + aCount, Integer.MAX_VALUE));
+    }
+
+    private Unit toUnit(OffsetIndex aLines, int aIndex)
+    {
+        // The unit indexes are 1-based
+        return new Unit(aIndex + 1, aLines.getBegin(aIndex), aLines.getEnd(aIndex));
+    }
+
     @Override
     public Component createPositionLabel(String aId, IModel<AnnotatorState> aModel)
     {
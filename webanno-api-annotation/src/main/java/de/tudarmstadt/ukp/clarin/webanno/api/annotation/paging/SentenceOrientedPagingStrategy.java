@@ -17,10 +17,9 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging;
 
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectSentences;
-
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.text.AnnotationFS;
@@ -32,6 +31,7 @@ import org.apache.wicket.model.IModel;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.page.AnnotationPageBase;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.OffsetIndex;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 
 public class SentenceOrientedPagingStrategy
@@ -42,18 +42,15 @@ public class SentenceOrientedPagingStrategy
     @Override
     public List<Unit> units(CAS aCas, int aFirstIndex, int aLastIndex)
     {
-        List<Unit> units = new ArrayList<>();
-        int i = 1;
-        for (AnnotationFS sentence : selectSentences(aCas)) {
-            if (i > aLastIndex) {
-                break;
-            }
+        OffsetIndex sentences = getSentenceIndex(aCas);
 
-            if (i >= aFirstIndex) {
-                units.add(toUnit(i, sentence));
-            }
+        // The unit indexes are 1-based
+        int first = Math.max(aFirstIndex, 1);
+        int last = Math.min(aLastIndex, sentences.size());
 
-            i++;
+        List<Unit> units = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            units.add(toUnit(i, sentences.getAnnotation(i - 1)));
         }
         return units;
     }
@@ -65,6 +62,36 @@ public class SentenceOrientedPagingStrategy
         return aCas.getAnnotationIndex(CasUtil.getType(aCas, Sentence.class)).size();
     }
 
+    @Override
+    public Unit unitAtIndex(CAS aCas, int aIndex)
+    {
+        OffsetIndex sentences = getSentenceIndex(aCas);
+        int index = Math.min(Math.max(aIndex, 1), sentences.size());
+        return toUnit(index, sentences.getAnnotation(index - 1));
+    }
+
+    @Override
+    public Optional<Unit> unitAtOffset(CAS aCas, int aOffset)
+    {
+        OffsetIndex sentences = getSentenceIndex(aCas);
+        int i = sentences.indexOfContaining(aOffset);
+        return i != -1 ? Optional.of(toUnit(i + 1, sentences.getAnnotation(i)))
+                : Optional.empty();
+    }
+
+    @Override
+    public List<Unit> unitsStartingAtOffset(CAS aCas, int aOffset, int aCount)
+    {
+        OffsetIndex sentences = getSentenceIndex(aCas);
+        int first = sentences.indexOfFirstStartingAt(aOffset);
+        return units(aCas, first + 1, (int) Math.min((long) first + aCount, Integer.MAX_VALUE));
+    }
+
+    private OffsetIndex getSentenceIndex(CAS aCas)
+    {
+        return OffsetIndex.of(aCas, CasUtil.getType(aCas, Sentence.class));
+    }
+
     private Unit toUnit(int aIndex, AnnotationFS aSentence)
     {
         // If there is a sentence ID, then make it accessible to the user via a sentence-level
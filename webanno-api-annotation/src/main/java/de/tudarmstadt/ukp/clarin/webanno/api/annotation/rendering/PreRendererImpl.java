@@ -17,29 +17,58 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.stream.Collectors.toList;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.AnnotationEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.DocumentOpenedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VArc;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VComment;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VMarker;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VSpan;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.CasModificationTracker;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 
+/**
+ * Renders the annotation layers into a {@link VDocument}.
+ * <p>
+ * The rendering of every layer is cached per CAS and window. An annotation action usually only
+ * affects a single layer, so on the next request only that layer (and the layers connected to it
+ * through attachments or features) is rendered again while the rendering of all other layers is
+ * taken from the cache. Cached renderings are invalidated by the {@link AnnotationEvent annotation
+ * events} as well as by changes to the number of annotations of the layer. Bulk operations which
+ * change a CAS without sending annotation events must report this to the
+ * {@link CasModificationTracker} which invalidates all cached renderings of the CAS.
+ */
 @Component
 public class PreRendererImpl
     implements PreRenderer
@@ -50,6 +79,12 @@ public class PreRendererImpl
     private LoadingCache<Project, List<AnnotationFeature>> supportedFeaturesCache;
     private LoadingCache<Project, List<AnnotationFeature>> allFeaturesCache;
 
+    // Cached renderings per CAS (by identity) and layer
+    private final Cache<CAS, Map<Long, LayerRendering>> renderingCache;
+    // Incremented whenever the annotations on a layer or anywhere in a project change
+    private final ConcurrentMap<Long, AtomicLong> layerGenerations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, AtomicLong> projectGenerations = new ConcurrentHashMap<>();
+
     @Autowired
     public PreRendererImpl(LayerSupportRegistry aLayerSupportRegistry,
             AnnotationSchemaService aAnnotationService)
@@ -61,6 +96,8 @@ public class PreRendererImpl
                 .maximumSize(10 * 1024).build(annotationService::listSupportedFeatures);
         allFeaturesCache = Caffeine.newBuilder().expireAfterAccess(5, MINUTES)
                 .maximumSize(10 * 1024).build(annotationService::listAnnotationFeature);
+        renderingCache = Caffeine.newBuilder().weakKeys().expireAfterAccess(5, MINUTES)
+                .maximumSize(1024).build();
     }
 
     @Override
@@ -82,8 +119,31 @@ public class PreRendererImpl
         List<AnnotationFeature> supportedFeatures = supportedFeaturesCache.get(project);
         List<AnnotationFeature> allFeatures = allFeaturesCache.get(project);
 
+        Map<Long, Set<Long>> connectedLayers = getConnectedLayers(aLayers, allFeatures);
+        Map<Long, LayerRendering> casRenderings = renderingCache.get(getRealCas(aCas),
+                k -> new ConcurrentHashMap<>());
+        long projectGeneration = getGeneration(projectGenerations, project.getId());
+        long casModifications = CasModificationTracker.getModificationCount(aCas);
+
         // Render (custom) layers
         for (AnnotationLayer layer : aLayers) {
+            // Read the generation before rendering such that changes made while rendering cause
+            // the layer to be rendered again the next time
+            long generation = projectGeneration;
+            for (Long layerId : connectedLayers.get(layer.getId())) {
+                generation += getGeneration(layerGenerations, layerId);
+            }
+            int annotationCount = getAnnotationCount(aCas, layer);
+
+            // Layers which have not been persisted yet cannot be tracked by the events
+            boolean cacheable = layer.getId() != null;
+            LayerRendering cached = cacheable ? casRenderings.get(layer.getId()) : null;
+            if (cached != null && cached.isValid(windowBegin, windowEnd, generation,
+                    annotationCount, casModifications)) {
+                cached.addTo(aResponse);
+                continue;
+            }
+
             List<AnnotationFeature> layerSupportedFeatures = supportedFeatures.stream() //
                     .filter(feature -> feature.getLayer().equals(layer)) //
                     .collect(toList());
@@ -95,7 +155,15 @@ public class PreRendererImpl
             // the same because otherwise the IDs of armed slots would be inconsistent
             Renderer renderer = layerSupportRegistry.getLayerSupport(layer) //
                     .createRenderer(layer, () -> layerAllFeatures);
-            renderer.render(aCas, layerSupportedFeatures, aResponse, windowBegin, windowEnd);
+            VDocument layerResponse = new VDocument();
+            renderer.render(aCas, layerSupportedFeatures, layerResponse, windowBegin, windowEnd);
+
+            LayerRendering rendering = new LayerRendering(windowBegin, windowEnd, generation,
+                    annotationCount, casModifications, layerResponse);
+            if (cacheable) {
+                casRenderings.put(layer.getId(), rendering);
+            }
+            rendering.addTo(aResponse);
         }
     }
 
@@ -104,5 +172,147 @@ public class PreRendererImpl
     {
         supportedFeaturesCache.asMap().keySet()
                 .removeIf(key -> Objects.equals(key.getId(), aEvent.getProject().getId()));
+        allFeaturesCache.asMap().keySet()
+                .removeIf(key -> Objects.equals(key.getId(), aEvent.getProject().getId()));
+        invalidate(aEvent.getProject(), null);
+    }
+
+    @EventListener
+    public void onAnnotationEvent(AnnotationEvent aEvent)
+    {
+        invalidate(aEvent.getProject(), aEvent.getLayer());
+    }
+
+    @EventListener
+    public void onDocumentOpened(DocumentOpenedEvent aEvent)
+    {
+        // The CAS may have been upgraded in place when the document was opened
+        if (aEvent.getCas() != null) {
+            renderingCache.invalidate(getRealCas(aEvent.getCas()));
+        }
+    }
+
+    private void invalidate(Project aProject, AnnotationLayer aLayer)
+    {
+        if (aLayer != null && aLayer.getId() != null) {
+            getGenerationCounter(layerGenerations, aLayer.getId()).incrementAndGet();
+        }
+        else if (aProject != null && aProject.getId() != null) {
+            getGenerationCounter(projectGenerations, aProject.getId()).incrementAndGet();
+        }
+        else {
+            renderingCache.invalidateAll();
+        }
+    }
+
+    private static AtomicLong getGenerationCounter(ConcurrentMap<Long, AtomicLong> aGenerations,
+            Long aId)
+    {
+        return aGenerations.computeIfAbsent(aId, k -> new AtomicLong());
+    }
+
+    private static long getGeneration(ConcurrentMap<Long, AtomicLong> aGenerations, Long aId)
+    {
+        if (aId == null) {
+            return 0;
+        }
+
+        AtomicLong generation = aGenerations.get(aId);
+        return generation != null ? generation.get() : 0;
+    }
+
+    /**
+     * Determines for every layer the layers whose rendering may be affected by a change to it.
+     * These are the layer itself, the layers it is attached to or which are attached to it and
+     * the layers which it references via features or which reference it via features.
+     */
+    private static Map<Long, Set<Long>> getConnectedLayers(List<AnnotationLayer> aLayers,
+            List<AnnotationFeature> aFeatures)
+    {
+        Map<String, Long> layerIdsByType = new HashMap<>();
+        for (AnnotationFeature feature : aFeatures) {
+            layerIdsByType.put(feature.getLayer().getName(), feature.getLayer().getId());
+        }
+        for (AnnotationLayer layer : aLayers) {
+            layerIdsByType.put(layer.getName(), layer.getId());
+        }
+
+        Map<Long, Set<Long>> connected = new HashMap<>();
+        for (AnnotationLayer layer : aLayers) {
+            connected.computeIfAbsent(layer.getId(), k -> new HashSet<>()).add(layer.getId());
+            if (layer.getAttachType() != null) {
+                connect(connected, layer.getId(), layer.getAttachType().getId());
+            }
+        }
+        for (AnnotationFeature feature : aFeatures) {
+            Long targetLayerId = layerIdsByType.get(feature.getType());
+            if (targetLayerId != null) {
+                connect(connected, feature.getLayer().getId(), targetLayerId);
+            }
+        }
+        return connected;
+    }
+
+    private static void connect(Map<Long, Set<Long>> aConnected, Long aLayerId1, Long aLayerId2)
+    {
+        aConnected.computeIfAbsent(aLayerId1, k -> new HashSet<>()).add(aLayerId2);
+        aConnected.computeIfAbsent(aLayerId2, k -> new HashSet<>()).add(aLayerId1);
+    }
+
+    private static int getAnnotationCount(CAS aCas, AnnotationLayer aLayer)
+    {
+        Type type = aCas.getTypeSystem().getType(aLayer.getName());
+        if (type == null || !aCas.getTypeSystem().subsumes(aCas.getAnnotationType(), type)) {
+            return -1;
+        }
+        return aCas.getAnnotationIndex(type).size();
+    }
+
+    private static class LayerRendering
+    {
+        private final int windowBegin;
+        private final int windowEnd;
+        private final long generation;
+        private final int annotationCount;
+        private final long casModifications;
+        private final List<VSpan> spans;
+        private final List<VArc> arcs;
+        private final List<VComment> comments;
+        private final List<VMarker> markers;
+
+        public LayerRendering(int aWindowBegin, int aWindowEnd, long aGeneration,
+                int aAnnotationCount, long aCasModifications, VDocument aLayerResponse)
+        {
+            windowBegin = aWindowBegin;
+            windowEnd = aWindowEnd;
+            generation = aGeneration;
+            annotationCount = aAnnotationCount;
+            casModifications = aCasModifications;
+            spans = new ArrayList<>(aLayerResponse.spans());
+            arcs = new ArrayList<>(aLayerResponse.arcs());
+            comments = new ArrayList<>(aLayerResponse.comments());
+            markers = new ArrayList<>(aLayerResponse.getMarkers());
+        }
+
+        public boolean isValid(int aWindowBegin, int aWindowEnd, long aGeneration,
+                int aAnnotationCount, long aCasModifications)
+        {
+            return windowBegin == aWindowBegin && windowEnd == aWindowEnd
+                    && generation == aGeneration && annotationCount == aAnnotationCount
+                    && casModifications == aCasModifications;
+        }
+
+        /**
+         * Adds the rendering to the given response. Spans and arcs are mutable and the response
+         * may be modified by its consumer (or a concurrent request for the same CAS), so the
+         * response receives copies of them. Comments and markers are immutable and are shared.
+         */
+        public void addTo(VDocument aResponse)
+        {
+            spans.forEach(span -> aResponse.add(new VSpan(span)));
+            arcs.forEach(arc -> aResponse.add(new VArc(arc)));
+            comments.forEach(aResponse::add);
+            markers.forEach(aResponse::add);
+        }
     }
 }
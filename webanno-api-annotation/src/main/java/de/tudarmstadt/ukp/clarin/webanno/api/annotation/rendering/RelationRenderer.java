@@ -18,19 +18,20 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectAnnotationByAddr;
 import static java.util.Collections.emptyList;
 import static java.util.Comparator.comparingInt;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.stream.Collectors;
 
 import org.apache.uima.cas.CAS;
@@ -54,6 +55,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VArc;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VComment;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VCommentType;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 
 /**
@@ -110,11 +112,10 @@ public class RelationRenderer
         FeatureStructure dependentFs;
         FeatureStructure governorFs;
 
-        Map<Integer, Set<Integer>> relationLinks = getRelationLinks(aCas, aWindowBegin, aWindowEnd,
-                type, dependentFeature, governorFeature, arcSpanFeature);
-
+        // Relations in the window used to compute the yields of the governors
+        Map<AnnotationFS, List<AnnotationFS>> yieldEdges = new LinkedHashMap<>();
         // if this is a governor for more than one dependent, avoid duplicate yield
-        List<Integer> yieldDeps = new ArrayList<>();
+        Set<AnnotationFS> yieldGovernors = new LinkedHashSet<>();
 
         // Index mapping annotations to the corresponding rendered arcs
         Map<AnnotationFS, VArc> annoToArcIdx = new HashMap<>();
@@ -134,6 +135,9 @@ public class RelationRenderer
                     visibleFeatures);
 
             if (dependentFs == null || governorFs == null) {
+                log.warn("Relation [" + typeAdapter.getLayer().getName() + "] with id ["
+                        + getAddr(fs) + "] has loose ends - cannot render.");
+
                 StringBuilder message = new StringBuilder();
 
                 message.append("Relation [" + typeAdapter.getLayer().getName() + "] with id ["
@@ -165,18 +169,20 @@ public class RelationRenderer
             // Render errors if required features are missing
             renderRequiredFeatureErrors(visibleFeatures, fs, aResponse);
 
-            if (relationLinks.keySet().contains(getAddr(governorFs))
-                    && !yieldDeps.contains(getAddr(governorFs))) {
-                yieldDeps.add(getAddr(governorFs));
-
-                // sort the annotations (begin, end)
-                List<Integer> sortedDepFs = new ArrayList<>(relationLinks.get(getAddr(governorFs)));
-                sortedDepFs
-                        .sort(comparingInt(arg0 -> selectAnnotationByAddr(aCas, arg0).getBegin()));
+            yieldEdges.computeIfAbsent((AnnotationFS) governorFs, k -> new ArrayList<>())
+                    .add((AnnotationFS) dependentFs);
+            yieldEdges.computeIfAbsent((AnnotationFS) dependentFs, k -> new ArrayList<>());
+            yieldGovernors.add((AnnotationFS) governorFs);
+        }
 
-                String cm = getYieldMessage(aCas, sortedDepFs);
-                aResponse.add(new VComment(governorFs, VCommentType.YIELD, cm));
-            }
+        // The yields can only be computed once all relations in the window are known. Computing
+        // them is deferred until the comments are requested, which only happens for the governors
+        // that are actually displayed. The rendered comments may be shared between requests, so
+        // the graph is complete before it becomes visible to them.
+        YieldGraph yieldGraph = new YieldGraph(yieldEdges);
+        for (AnnotationFS governor : yieldGovernors) {
+            aResponse.add(new VComment(governor, VCommentType.YIELD,
+                    () -> yieldGraph.getYieldMessage(governor)));
         }
 
         for (RelationLayerBehavior behavior : behaviors) {
@@ -185,90 +191,111 @@ public class RelationRenderer
     }
 
     /**
-     * The relations yield message
+     * Graph of the relations within the rendered window. The yield of a governor consists of the
+     * governor itself and all the annotations reachable from it via relations. Yields are only
+     * computed for the governors they are requested for and are memoized such that sub-trees
+     * which are shared by several governors are traversed only once. The graph cannot be changed
+     * once it has been created and can be used by several threads.
      */
-    private String getYieldMessage(CAS aCas, List<Integer> sortedDepFs)
+    private static class YieldGraph
     {
-        StringBuilder cm = new StringBuilder();
-        int end = -1;
-        for (Integer depFs : sortedDepFs) {
-            if (end == -1) {
-                cm.append(selectAnnotationByAddr(aCas, depFs).getCoveredText());
-                end = selectAnnotationByAddr(aCas, depFs).getEnd();
-            }
-            // if no space between token and punct
-            else if (end == selectAnnotationByAddr(aCas, depFs).getBegin()) {
-                cm.append(selectAnnotationByAddr(aCas, depFs).getCoveredText());
-                end = selectAnnotationByAddr(aCas, depFs).getEnd();
+        // Nodes sorted by their position in the text - the node IDs are indexes into this array
+        private final AnnotationFS[] nodes;
+        private final Map<AnnotationFS, Integer> nodeIds;
+        // Dependents of every node in compressed sparse row format
+        private final int[] dependentOffsets;
+        private final int[] dependents;
+        // Memoized yields as sets of node IDs - guarded by the graph
+        private final BitSet[] yields;
+
+        public YieldGraph(Map<AnnotationFS, List<AnnotationFS>> aEdges)
+        {
+            nodes = aEdges.keySet().toArray(new AnnotationFS[aEdges.size()]);
+            Arrays.sort(nodes, comparingInt(AnnotationFS::getBegin)
+                    .thenComparingInt(WebAnnoCasUtil::getAddr));
+
+            nodeIds = new HashMap<>();
+            for (int i = 0; i < nodes.length; i++) {
+                nodeIds.put(nodes[i], i);
             }
-            else if (end + 1 != selectAnnotationByAddr(aCas, depFs).getBegin()) {
-                cm.append(" ... ").append(selectAnnotationByAddr(aCas, depFs).getCoveredText());
-                end = selectAnnotationByAddr(aCas, depFs).getEnd();
+
+            dependentOffsets = new int[nodes.length + 1];
+            for (int i = 0; i < nodes.length; i++) {
+                dependentOffsets[i + 1] = dependentOffsets[i] + aEdges.get(nodes[i]).size();
             }
-            else {
-                cm.append(" ").append(selectAnnotationByAddr(aCas, depFs).getCoveredText());
-                end = selectAnnotationByAddr(aCas, depFs).getEnd();
+            dependents = new int[dependentOffsets[nodes.length]];
+            for (int i = 0; i < nodes.length; i++) {
+                int n = dependentOffsets[i];
+                for (AnnotationFS dependent : aEdges.get(nodes[i])) {
+                    dependents[n++] = nodeIds.get(dependent);
+                }
             }
 
+            yields = new BitSet[nodes.length];
         }
-        return cm.toString();
-    }
 
-    /**
-     * Get relation links to display in relation yield
-     */
-    private Map<Integer, Set<Integer>> getRelationLinks(CAS aCas, int aWindowBegin, int aWindowEnd,
-            Type type, Feature dependentFeature, Feature governorFeature, Feature arcSpanFeature)
-    {
-        RelationAdapter typeAdapter = getTypeAdapter();
-        FeatureStructure dependentFs;
-        FeatureStructure governorFs;
-        Map<Integer, Set<Integer>> relations = new ConcurrentHashMap<>();
-
-        for (AnnotationFS fs : selectCovered(aCas, type, aWindowBegin, aWindowEnd)) {
-            if (typeAdapter.getAttachFeatureName() != null) {
-                dependentFs = fs.getFeatureValue(dependentFeature).getFeatureValue(arcSpanFeature);
-                governorFs = fs.getFeatureValue(governorFeature).getFeatureValue(arcSpanFeature);
-            }
-            else {
-                dependentFs = fs.getFeatureValue(dependentFeature);
-                governorFs = fs.getFeatureValue(governorFeature);
-            }
-            if (dependentFs == null || governorFs == null) {
-                log.warn("Relation [" + typeAdapter.getLayer().getName() + "] with id ["
-                        + getAddr(fs) + "] has loose ends - cannot render.");
-                continue;
-            }
-            Set<Integer> links = relations.get(getAddr(governorFs));
-            if (links == null) {
-                links = new ConcurrentSkipListSet<>();
+        public String getYieldMessage(AnnotationFS aGovernor)
+        {
+            StringBuilder cm = new StringBuilder();
+            BitSet yield = getYield(nodeIds.get(aGovernor));
+            int end = -1;
+            for (int i = yield.nextSetBit(0); i >= 0; i = yield.nextSetBit(i + 1)) {
+                AnnotationFS depFs = nodes[i];
+                if (end == -1) {
+                    cm.append(depFs.getCoveredText());
+                }
+                // if no space between token and punct
+                else if (end == depFs.getBegin()) {
+                    cm.append(depFs.getCoveredText());
+                }
+                else if (end + 1 != depFs.getBegin()) {
+                    cm.append(" ... ").append(depFs.getCoveredText());
+                }
+                else {
+                    cm.append(" ").append(depFs.getCoveredText());
+                }
+                end = depFs.getEnd();
             }
-
-            links.add(getAddr(dependentFs));
-            relations.put(getAddr(governorFs), links);
+            return cm.toString();
         }
 
-        // Update other subsequent links
-        for (int i = 0; i < relations.keySet().size(); i++) {
-            for (Integer fs : relations.keySet()) {
-                updateLinks(relations, fs);
+        /**
+         * @return the yield of the given node. The returned set must not be modified.
+         */
+        private synchronized BitSet getYield(int aNode)
+        {
+            if (yields[aNode] != null) {
+                return yields[aNode];
             }
-        }
-        // to start displaying the text from the governor, include it
-        for (Integer fs : relations.keySet()) {
-            relations.get(fs).add(fs);
-        }
-        return relations;
-    }
 
-    private void updateLinks(Map<Integer, Set<Integer>> aRelLinks, Integer aGov)
-    {
-        for (Integer dep : aRelLinks.get(aGov)) {
-            if (aRelLinks.containsKey(dep)
-                    && !aRelLinks.get(aGov).containsAll(aRelLinks.get(dep))) {
-                aRelLinks.get(aGov).addAll(aRelLinks.get(dep));
-                updateLinks(aRelLinks, dep);
+            // Breadth-first traversal which re-uses the yields already computed for other nodes.
+            // Using a traversal instead of recursion also handles cyclic relations.
+            BitSet yield = new BitSet(nodes.length);
+            yield.set(aNode);
+            int[] queue = new int[nodes.length];
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = aNode;
+            while (head < tail) {
+                int node = queue[head++];
+                for (int i = dependentOffsets[node]; i < dependentOffsets[node + 1]; i++) {
+                    int dependent = dependents[i];
+                    if (yield.get(dependent)) {
+                        continue;
+                    }
+
+                    if (yields[dependent] != null) {
+                        yield.or(yields[dependent]);
+                    }
+                    else {
+                        yield.set(dependent);
+                        queue[tail++] = dependent;
+                    }
+                }
             }
+
+            yields[aNode] = yield;
+            return yield;
         }
     }
 }
@@ -23,7 +23,7 @@ public class VAnnotationMarker
     extends VMarker
 {
     private final VID[] vid;
-    private String type;
+    private final String type;
 
     public VAnnotationMarker(String aType, VID aVid)
     {
@@ -66,6 +66,13 @@ public class VArc
         target = aTarget;
     }
 
+    public VArc(VArc aOther)
+    {
+        super(aOther);
+        source = aOther.source;
+        target = aOther.target;
+    }
+
     public VID getSource()
     {
         return source;
@@ -19,6 +19,8 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
 
+import java.util.function.Supplier;
+
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.uima.cas.FeatureStructure;
 
@@ -28,7 +30,8 @@ public class VComment
 {
     private final VID vid;
     private final VCommentType commentType;
-    private final String comment;
+    private final Supplier<String> comment;
+    private volatile String commentText;
 
     public VComment(FeatureStructure aFS, VCommentType aCommentType, String aComment)
     {
@@ -36,6 +39,22 @@ public class VComment
     }
 
     public VComment(VID aVid, VCommentType aCommentType, String aComment)
+    {
+        this(aVid, aCommentType, () -> aComment);
+    }
+
+    /**
+     * Creates a comment whose text is only generated when it is requested, e.g. because it is
+     * expensive to compute and only needed if the annotation it refers to is actually displayed.
+     * The text is cached once it has been generated. Concurrent requests may generate it more than
+     * once, so the supplier must be thread-safe.
+     */
+    public VComment(FeatureStructure aFS, VCommentType aCommentType, Supplier<String> aComment)
+    {
+        this(new VID(getAddr(aFS)), aCommentType, aComment);
+    }
+
+    public VComment(VID aVid, VCommentType aCommentType, Supplier<String> aComment)
     {
         vid = aVid;
         commentType = aCommentType;
@@ -54,13 +73,19 @@ public class VComment
 
     public String getComment()
     {
-        return comment;
+        String text = commentText;
+        if (text == null) {
+            text = comment.get();
+            commentText = text;
+        }
+        return text;
     }
 
     @Override
     public String toString()
     {
+        // Does not generate the text of a lazy comment
         return new ToStringBuilder(this).append("vid", vid).append("commentType", commentType)
-                .append("comment", comment).toString();
+                .append("comment", commentText).toString();
     }
 }
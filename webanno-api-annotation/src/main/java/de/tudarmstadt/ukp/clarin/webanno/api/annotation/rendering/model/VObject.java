@@ -55,6 +55,23 @@ public abstract class VObject
         equivalenceSet = aEquivalenceSet;
     }
 
+    /**
+     * Creates a copy of the given object. The features, hover features and lazy details are copied
+     * such that changing them on the copy does not affect the original.
+     */
+    protected VObject(VObject aOther)
+    {
+        layer = aOther.layer;
+        vid = aOther.vid;
+        type = aOther.type;
+        features = new HashMap<>(aOther.features);
+        hoverFeatures = aOther.hoverFeatures != null ? new HashMap<>(aOther.hoverFeatures) : null;
+        lazyDetails = new ArrayList<>(aOther.lazyDetails);
+        equivalenceSet = aOther.equivalenceSet;
+        colorHint = aOther.colorHint;
+        label = aOther.label;
+    }
+
     public VID getVid()
     {
         return vid;
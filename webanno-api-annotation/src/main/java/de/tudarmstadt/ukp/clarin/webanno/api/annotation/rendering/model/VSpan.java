@@ -85,6 +85,12 @@ public class VSpan
         ranges = aOffsets != null ? aOffsets : new ArrayList<>();
     }
 
+    public VSpan(VSpan aOther)
+    {
+        super(aOther);
+        ranges = new ArrayList<>(aOther.ranges);
+    }
+
     public List<VRange> getOffsets()
     {
         return ranges;
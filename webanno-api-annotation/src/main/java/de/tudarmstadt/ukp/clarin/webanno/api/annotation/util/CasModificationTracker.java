@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.uima.cas.CAS;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.AnnotationEvent;
+
+/**
+ * Counts the modifications of a CAS which are made without sending {@link AnnotationEvent
+ * annotation events}, e.g. by bulk operations which {@link TypeAdapter#silenceEvents() silence}
+ * the events of the type adapters. Code caching information derived from a CAS can compare the
+ * modification count to detect such changes.
+ */
+public final class CasModificationTracker
+{
+    private static final Cache<CAS, AtomicLong> MODIFICATIONS = Caffeine.newBuilder().weakKeys()
+            .build();
+
+    private CasModificationTracker()
+    {
+        // No instances
+    }
+
+    /**
+     * Records that the given CAS has been modified without sending annotation events.
+     */
+    public static void markModified(CAS aCas)
+    {
+        MODIFICATIONS.get(getRealCas(aCas), k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * @return the number of modifications of the given CAS which have been made without sending
+     *         annotation events.
+     */
+    public static long getModificationCount(CAS aCas)
+    {
+        AtomicLong count = MODIFICATIONS.getIfPresent(getRealCas(aCas));
+        return count != null ? count.get() : 0;
+    }
+}
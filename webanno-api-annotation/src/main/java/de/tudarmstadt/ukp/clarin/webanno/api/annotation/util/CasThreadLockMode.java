@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+/**
+ * Strategies to detect CASes being accessed by a thread other than the one owning them. Select
+ * using the system property {@code webanno.debug.cas_thread_lock_mode}.
+ */
+public enum CasThreadLockMode
+{
+    /**
+     * Do not check ownership.
+     */
+    NONE,
+
+    /**
+     * Only check ownership when a CAS crosses a boundary such as being added to a
+     * {@code CasStorageSession} or being checked for write access. Method calls on the CAS itself
+     * are not intercepted, so this mode has no overhead in code working with the CAS.
+     */
+    SESSION,
+
+    /**
+     * Wrap CASes in a proxy which checks ownership on every n-th method call. The interval is set
+     * using the system property {@code webanno.debug.cas_thread_lock_sample_interval}.
+     */
+    SAMPLED,
+
+    /**
+     * Wrap CASes in a proxy which checks ownership on every method call and which records where
+     * the CAS has been created. Meant for debugging.
+     */
+    PROXY;
+}
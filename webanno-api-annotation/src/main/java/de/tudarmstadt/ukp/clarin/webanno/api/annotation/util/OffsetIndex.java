@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Index of the offsets of the annotations of a particular type (or of the lines of the document
+ * text) in a CAS. The offsets are kept in arrays in the order of the annotation index such that
+ * annotations at a given position can be located using a binary search instead of iterating over
+ * the annotation index.
+ * <p>
+ * The indexes are cached per CAS. CASes wrapped by a {@link ThreadLockingInvocationHandler} are
+ * unwrapped first, so all wrappers of a CAS share the indexes of the real CAS. An index is
+ * rebuilt when annotations have been created in or removed from the CAS or when the CAS has been
+ * reset since it has been built. WebAnno never changes the offsets of indexed annotations in
+ * place. Code which does must call {@link #invalidate(CAS)} afterwards.
+ */
+public final class OffsetIndex
+{
+    private static final Object LINES = new Object();
+
+    private static final Cache<CAS, Map<Object, OffsetIndex>> INDEXES = Caffeine.newBuilder()
+            .weakKeys().expireAfterAccess(5, MINUTES).build();
+
+    private final int[] begins;
+    private final int[] ends;
+    // Maximum end offset of all the annotations up to the given position - unlike the end offsets
+    // themselves, this is sorted even if annotations are nested or overlap
+    private final int[] maxEnds;
+    private final AnnotationFS[] annotations;
+
+    // Used to detect whether the CAS has been changed since the index has been built
+    private final Object source;
+    private final int nextFsId;
+    private final int casResets;
+
+    private OffsetIndex(int[] aBegins, int[] aEnds, AnnotationFS[] aAnnotations, Object aSource,
+            int aNextFsId, int aCasResets)
+    {
+        begins = aBegins;
+        ends = aEnds;
+        annotations = aAnnotations;
+        source = aSource;
+        nextFsId = aNextFsId;
+        casResets = aCasResets;
+
+        maxEnds = new int[ends.length];
+        int maxEnd = -1;
+        for (int i = 0; i < ends.length; i++) {
+            maxEnd = Math.max(maxEnd, ends[i]);
+            maxEnds[i] = maxEnd;
+        }
+    }
+
+    /**
+     * @return the index of the annotations of the given type.
+     */
+    public static OffsetIndex of(CAS aCas, Type aType)
+    {
+        CASImpl cas = (CASImpl) getRealCas(aCas);
+        Map<Object, OffsetIndex> casIndexes = INDEXES.get(cas, k -> new ConcurrentHashMap<>());
+
+        OffsetIndex index = casIndexes.get(aType.getName());
+        if (index == null || index.source != aType || index.nextFsId != cas.peekNextFsId()
+                || index.casResets != cas.getCasResets()
+                || index.size() != cas.getAnnotationIndex(aType).size()) {
+            index = build(cas, aType);
+            casIndexes.put(aType.getName(), index);
+        }
+
+        return index;
+    }
+
+    /**
+     * @return the index of the lines of the document text. Line breaks are not part of the lines.
+     */
+    public static OffsetIndex ofLines(CAS aCas)
+    {
+        CAS cas = getRealCas(aCas);
+        Map<Object, OffsetIndex> casIndexes = INDEXES.get(cas, k -> new ConcurrentHashMap<>());
+
+        OffsetIndex index = casIndexes.get(LINES);
+        String text = cas.getDocumentText();
+        if (index == null || index.source != text) {
+            index = buildLines(text);
+            casIndexes.put(LINES, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Drops the cached indexes of the given CAS.
+     */
+    public static void invalidate(CAS aCas)
+    {
+        INDEXES.invalidate(getRealCas(aCas));
+    }
+
+    private static OffsetIndex build(CASImpl aCas, Type aType)
+    {
+        int nextFsId = aCas.peekNextFsId();
+        int casResets = aCas.getCasResets();
+        List<AnnotationFS> annotations = new ArrayList<>(CasUtil.select(aCas, aType));
+        int[] begins = new int[annotations.size()];
+        int[] ends = new int[annotations.size()];
+        for (int i = 0; i < begins.length; i++) {
+            begins[i] = annotations.get(i).getBegin();
+            ends[i] = annotations.get(i).getEnd();
+        }
+
+        return new OffsetIndex(begins, ends, annotations.toArray(new AnnotationFS[begins.length]),
+                aType, nextFsId, casResets);
+    }
+
+    private static OffsetIndex buildLines(String aText)
+    {
+        // An empty document has no lines at all
+        if (aText == null || aText.isEmpty()) {
+            return new OffsetIndex(new int[0], new int[0], null, aText, -1, -1);
+        }
+
+        String text = aText;
+        int lineCount = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lineCount++;
+            }
+        }
+
+        int[] begins = new int[lineCount];
+        int[] ends = new int[lineCount];
+        int line = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                ends[line] = i;
+                line++;
+                begins[line] = i + 1;
+            }
+        }
+        ends[line] = text.length();
+
+        return new OffsetIndex(begins, ends, null, aText, -1, -1);
+    }
+
+    public int size()
+    {
+        return begins.length;
+    }
+
+    public int getBegin(int aIndex)
+    {
+        return begins[aIndex];
+    }
+
+    public int getEnd(int aIndex)
+    {
+        return ends[aIndex];
+    }
+
+    /**
+     * @return the annotation at the given position or {@code null} if this is an index of lines.
+     */
+    public AnnotationFS getAnnotation(int aIndex)
+    {
+        return annotations != null ? annotations[aIndex] : null;
+    }
+
+    /**
+     * @return the position of the first annotation which covers the given offset
+     *         ({@code begin <= offset < end}) or -1 if there is none.
+     */
+    public int indexOfCovering(int aOffset)
+    {
+        return indexOfCovering(aOffset, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the position of the first annotation which covers the given offset
+     *         ({@code begin <= offset < end}) and which ends at or before the given maximum end
+     *         offset or -1 if there is none.
+     */
+    public int indexOfCovering(int aOffset, int aMaxEnd)
+    {
+        for (int i = firstWithMaxEndAbove(aOffset); i < size() && begins[i] <= aOffset; i++) {
+            if (aOffset < ends[i] && ends[i] <= aMaxEnd) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the first annotation which contains the given offset including its
+     *         end offset ({@code begin <= offset <= end}) or -1 if there is none.
+     */
+    public int indexOfContaining(int aOffset)
+    {
+        for (int i = firstWithMaxEndAbove(aOffset - 1); i < size()
+                && begins[i] <= aOffset; i++) {
+            if (aOffset <= ends[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the first annotation starting at or after the given offset or
+     *         {@link #size()} if there is none.
+     */
+    public int indexOfFirstStartingAt(int aOffset)
+    {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (begins[mid] < aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the annotations overlapping with the given range in index order. Annotations which
+     *         only touch the range are not included.
+     */
+    public List<AnnotationFS> selectOverlapping(int aBegin, int aEnd)
+    {
+        List<AnnotationFS> result = new ArrayList<>();
+        for (int i = firstWithMaxEndAbove(aBegin); i < size() && begins[i] < aEnd; i++) {
+            if (ends[i] > aBegin) {
+                result.add(annotations[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the first position at which an annotation ends after the given offset has been
+     *         seen. No annotation before this position ends after the offset.
+     */
+    private int firstWithMaxEndAbove(int aOffset)
+    {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (maxEnds[mid] <= aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
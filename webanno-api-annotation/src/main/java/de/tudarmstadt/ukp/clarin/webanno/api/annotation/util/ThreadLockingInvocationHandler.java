@@ -17,40 +17,59 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
 
-import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.joining;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.util.List;
 import java.util.stream.Stream;
 
 public class ThreadLockingInvocationHandler
     implements InvocationHandler
 {
-    private final List<String> UNCHECKED_METHODS = asList("toString", "hashCode", "equals");
+    private final Object target;
+    private final StackTraceElement[] trace;
+    private final int sampleInterval;
 
     private Thread owner;
-    private Object target;
-    private StackTraceElement[] trace;
+    private int calls;
 
     public ThreadLockingInvocationHandler(Object aTarget)
+    {
+        this(aTarget, 1, true);
+    }
+
+    /**
+     * @param aTarget
+     *            the object to guard.
+     * @param aSampleInterval
+     *            check ownership only on every n-th method call.
+     * @param aRecordTrace
+     *            whether to record where the object was created. This is very helpful for
+     *            debugging, but capturing the stack trace is expensive.
+     */
+    public ThreadLockingInvocationHandler(Object aTarget, int aSampleInterval,
+            boolean aRecordTrace)
     {
         target = aTarget;
         owner = Thread.currentThread();
-        trace = new Exception().getStackTrace();
+        sampleInterval = Math.max(1, aSampleInterval);
+        trace = aRecordTrace ? new Exception().getStackTrace() : null;
     }
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
     {
-        Thread current = Thread.currentThread();
-
-        if (current != owner && !UNCHECKED_METHODS.contains(method.getName())) {
-            throw new IllegalStateException("Object " + target + " bound to thread " + owner
-                    + " but method " + method + " was called by thread " + current
-                    + ". Object originally created at:\n" + getTrace());
-
+        // Methods inherited from Object (toString, hashCode, equals) are never checked. The
+        // counter is not synchronized - if it is updated concurrently, we are about to detect
+        // an ownership violation anyway.
+        if (method.getDeclaringClass() != Object.class
+                && (sampleInterval == 1 || ++calls % sampleInterval == 0)) {
+            Thread current = Thread.currentThread();
+            if (current != owner) {
+                throw new IllegalStateException("Object " + target + " bound to thread " + owner
+                        + " but method " + method + " was called by thread " + current
+                        + ". Object originally created at:\n" + getTrace());
+            }
         }
 
         return method.invoke(target, args);
@@ -75,6 +94,11 @@ public class ThreadLockingInvocationHandler
 
     private String getTrace()
     {
+        if (trace == null) {
+            return "\t * unknown - set webanno.debug.cas_thread_lock_mode=PROXY to record\n"
+                    + "--- END OF CREATION TRACE ---\n";
+        }
+
         return Stream.of(trace).map(e -> "\t * " + e.toString()).collect(joining("\n"))
                 + "--- END OF CREATION TRACE ---\n";
     }
@@ -17,6 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.CasThreadLockMode.NONE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.CasThreadLockMode.PROXY;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.CasThreadLockMode.SAMPLED;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.CasThreadLockMode.SESSION;
+import static java.util.Collections.synchronizedMap;
 import static org.apache.uima.cas.CAS.FEATURE_BASE_NAME_BEGIN;
 import static org.apache.uima.cas.CAS.FEATURE_BASE_NAME_END;
 import static org.apache.uima.cas.CAS.FEATURE_BASE_NAME_LANGUAGE;
@@ -26,13 +31,17 @@ import static org.apache.uima.fit.util.CasUtil.selectAt;
 import static org.apache.uima.fit.util.CasUtil.selectCovering;
 import static org.apache.uima.fit.util.CasUtil.selectSingle;
 
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.stream.StreamSupport;
 
 import org.apache.commons.lang3.StringUtils;
@@ -64,20 +73,75 @@ import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 public class WebAnnoCasUtil
 {
     private static final String PROP_ENFORCE_CAS_THREAD_LOCK = "webanno.debug.enforce_cas_thread_lock";
+    private static final String PROP_CAS_THREAD_LOCK_MODE = "webanno.debug.cas_thread_lock_mode";
+    private static final String PROP_CAS_THREAD_LOCK_SAMPLE_INTERVAL = "webanno.debug.cas_thread_lock_sample_interval";
 
-    private static final boolean ENFORCE_CAS_THREAD_LOCK = System
-            .getProperty(PROP_ENFORCE_CAS_THREAD_LOCK, "true").equals("true");
+    private static final CasThreadLockMode CAS_THREAD_LOCK_MODE = initCasThreadLockMode();
 
-    public static CAS createCas(TypeSystemDescription aTSD) throws ResourceInitializationException
+    private static final int CAS_THREAD_LOCK_SAMPLE_INTERVAL = Integer
+            .getInteger(PROP_CAS_THREAD_LOCK_SAMPLE_INTERVAL, 64);
+
+    private static final boolean ENFORCE_CAS_THREAD_LOCK = CAS_THREAD_LOCK_MODE == SAMPLED
+            || CAS_THREAD_LOCK_MODE == PROXY;
+
+    /**
+     * Owners of the CASes in {@link CasThreadLockMode#SESSION} mode. The map is keyed by the base
+     * CAS. {@link CASImpl} does not override {@link Object#equals}, so this is effectively a weak
+     * identity map.
+     */
+    private static final Map<CAS, Thread> CAS_OWNERS = synchronizedMap(new WeakHashMap<>());
+
+    private static CasThreadLockMode initCasThreadLockMode()
     {
-        CAS cas = CasCreationUtils.createCas(aTSD, null, null);
+        String mode = System.getProperty(PROP_CAS_THREAD_LOCK_MODE);
+        if (mode != null) {
+            return CasThreadLockMode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        }
 
-        if (ENFORCE_CAS_THREAD_LOCK) {
-            cas = (CAS) Proxy.newProxyInstance(cas.getClass().getClassLoader(),
-                    new Class[] { CAS.class }, new ThreadLockingInvocationHandler(cas));
+        // Honor the legacy switch which enabled the per-call checks
+        String enforce = System.getProperty(PROP_ENFORCE_CAS_THREAD_LOCK);
+        if (enforce != null) {
+            return "true".equals(enforce) ? PROXY : NONE;
         }
 
-        return cas;
+        return SESSION;
+    }
+
+    public static CasThreadLockMode getCasThreadLockMode()
+    {
+        return CAS_THREAD_LOCK_MODE;
+    }
+
+    public static CAS createCas(TypeSystemDescription aTSD) throws ResourceInitializationException
+    {
+        return bindToCurrentThread(CasCreationUtils.createCas(aTSD, null, null));
+    }
+
+    /**
+     * Binds the given CAS to the current thread. Depending on the {@link CasThreadLockMode}, the
+     * CAS is wrapped such that its use by other threads is detected or the current thread is
+     * only recorded as its owner.
+     * 
+     * @param aCas
+     *            a CAS which is not yet wrapped.
+     * @return the CAS to be used by the caller.
+     */
+    public static CAS bindToCurrentThread(CAS aCas)
+    {
+        switch (CAS_THREAD_LOCK_MODE) {
+        case SESSION:
+            CAS_OWNERS.put(((CASImpl) aCas).getBaseCAS(), Thread.currentThread());
+            return aCas;
+        case SAMPLED:
+            return (CAS) Proxy.newProxyInstance(aCas.getClass().getClassLoader(),
+                    new Class[] { CAS.class }, new ThreadLockingInvocationHandler(aCas,
+                            CAS_THREAD_LOCK_SAMPLE_INTERVAL, false));
+        case PROXY:
+            return (CAS) Proxy.newProxyInstance(aCas.getClass().getClassLoader(),
+                    new Class[] { CAS.class }, new ThreadLockingInvocationHandler(aCas));
+        default:
+            return aCas;
+        }
     }
 
     public static CAS createCas() throws ResourceInitializationException
@@ -87,21 +151,27 @@ public class WebAnnoCasUtil
 
     public static CAS getRealCas(CAS aCas)
     {
-        if (!ENFORCE_CAS_THREAD_LOCK) {
+        // Checking the class is cheap, so we do it independent of the thread lock mode. This also
+        // unwraps CASes which have been wrapped explicitly, e.g. in tests.
+        if (!Proxy.isProxyClass(aCas.getClass())) {
             return aCas;
         }
 
-        if (!Proxy.isProxyClass(aCas.getClass())) {
+        InvocationHandler handler = Proxy.getInvocationHandler(aCas);
+        if (!(handler instanceof ThreadLockingInvocationHandler)) {
             return aCas;
         }
 
-        ThreadLockingInvocationHandler handler = (ThreadLockingInvocationHandler) Proxy
-                .getInvocationHandler(aCas);
-        return (CAS) handler.getTarget();
+        return (CAS) ((ThreadLockingInvocationHandler) handler).getTarget();
     }
 
     public static void transferCasOwnershipToCurrentThread(CAS aCas)
     {
+        if (CAS_THREAD_LOCK_MODE == SESSION) {
+            CAS_OWNERS.put(((CASImpl) aCas).getBaseCAS(), Thread.currentThread());
+            return;
+        }
+
         if (!ENFORCE_CAS_THREAD_LOCK) {
             return;
         }
@@ -115,6 +185,38 @@ public class WebAnnoCasUtil
         handler.transferOwnershipToCurrentThread();
     }
 
+    /**
+     * Checks that the given CAS is owned by the current thread. This is meant to be called when a
+     * CAS crosses a boundary, e.g. when it is added to a session. CASes which have not been bound
+     * to a thread are not checked.
+     * 
+     * @param aCas
+     *            a CAS.
+     * @throws IllegalStateException
+     *             if the CAS is owned by another thread.
+     */
+    public static void assertCasOwnedByCurrentThread(CAS aCas)
+    {
+        switch (CAS_THREAD_LOCK_MODE) {
+        case SESSION: {
+            Thread current = Thread.currentThread();
+            Thread owner = CAS_OWNERS.get(((CASImpl) aCas).getBaseCAS());
+            if (owner != null && owner != current) {
+                throw new IllegalStateException("CAS " + aCas + " bound to thread " + owner
+                        + " but was used by thread " + current);
+            }
+            break;
+        }
+        case SAMPLED: // fall-through
+        case PROXY:
+            // Unwrapping checks the owner
+            getRealCas(aCas);
+            break;
+        default:
+            // Nothing to do
+        }
+    }
+
     /**
      * Return true if these two annotations agree on every non slot features
      */
@@ -349,10 +451,14 @@ public class WebAnnoCasUtil
      * @param aEnd
      *            end offset.
      * @return a return value.
+     * @see OffsetIndex#selectOverlapping(int, int) for repeated lookups in a CAS which is not
+     *      changed in between
      */
     public static List<AnnotationFS> selectOverlapping(CAS aCas, Type aType, int aBegin, int aEnd)
     {
-
+        // Scanning the index directly is cheaper than using an OffsetIndex here because callers
+        // often change the CAS between lookups (e.g. creating a span in a merge), which would
+        // require rebuilding the OffsetIndex for every lookup
         List<AnnotationFS> annotations = new ArrayList<>();
         for (AnnotationFS t : select(aCas, aType)) {
             if (t.getBegin() >= aEnd) {
@@ -399,15 +505,9 @@ public class WebAnnoCasUtil
      */
     public static AnnotationFS getCurrentSentence(CAS aCas, int aBegin, int aEnd)
     {
-        AnnotationFS currentSentence = null;
-        for (AnnotationFS sentence : selectSentences(aCas)) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin
-                    && sentence.getEnd() <= aEnd) {
-                currentSentence = sentence;
-                break;
-            }
-        }
-        return currentSentence;
+        OffsetIndex sentences = OffsetIndex.of(aCas, getType(aCas, Sentence.class));
+        int i = sentences.indexOfCovering(aBegin, aEnd);
+        return i != -1 ? sentences.getAnnotation(i) : null;
     }
 
     /**
@@ -421,14 +521,9 @@ public class WebAnnoCasUtil
      */
     public static AnnotationFS selectSentenceCovering(CAS aCas, int aBegin)
     {
-        AnnotationFS currentSentence = null;
-        for (AnnotationFS sentence : select(aCas, getType(aCas, Sentence.class))) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin) {
-                currentSentence = sentence;
-                break;
-            }
-        }
-        return currentSentence;
+        OffsetIndex sentences = OffsetIndex.of(aCas, getType(aCas, Sentence.class));
+        int i = sentences.indexOfCovering(aBegin);
+        return i != -1 ? sentences.getAnnotation(i) : null;
     }
 
     public static AnnotationFS getNextToken(CAS aCas, int aBegin, int aEnd)
@@ -463,22 +558,14 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceNumber(CAS aCas, int aBeginOffset)
     {
-        int sentenceNumber = 0;
-
-        Type sentenceType = getType(aCas, Sentence.class);
-        Collection<AnnotationFS> sentences = select(aCas, sentenceType);
-        if (sentences.isEmpty()) {
+        OffsetIndex sentences = OffsetIndex.of(aCas, getType(aCas, Sentence.class));
+        if (sentences.size() == 0) {
             throw new IndexOutOfBoundsException("No sentences");
         }
 
-        for (AnnotationFS sentence : select(aCas, sentenceType)) {
-            if (sentence.getBegin() <= aBeginOffset && aBeginOffset <= sentence.getEnd()) {
-                sentenceNumber++;
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
+        // If no sentence contains the offset, the number of the last sentence is returned
+        int i = sentences.indexOfContaining(aBeginOffset);
+        return i != -1 ? i + 1 : sentences.size();
     }
 
     public static Collection<AnnotationFS> selectSentences(CAS aCas)
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PROJECT_TYPE_ANNOTATION;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.TOKENS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.ANY_OVERLAP;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VRange;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VSpan;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.CasModificationTracker;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+public class PreRendererImplTest
+{
+    private Project project;
+    private AnnotationLayer neLayer;
+    private AnnotationLayer posLayer;
+    private List<AnnotationLayer> layers;
+    private Map<Long, Integer> renderCounts;
+    private JCas jcas;
+    private PreRendererImpl sut;
+
+    @Before
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void setup() throws Exception
+    {
+        jcas = JCasFactory.createText("John loves Mary .");
+
+        project = new Project();
+        project.setId(1l);
+        project.setMode(PROJECT_TYPE_ANNOTATION);
+
+        neLayer = new AnnotationLayer(NamedEntity.class.getName(), "NE", SPAN_TYPE, project, true,
+                TOKENS, ANY_OVERLAP);
+        neLayer.setId(1l);
+
+        posLayer = new AnnotationLayer(POS.class.getName(), "POS", SPAN_TYPE, project, true,
+                TOKENS, ANY_OVERLAP);
+        posLayer.setId(2l);
+
+        layers = asList(neLayer, posLayer);
+        renderCounts = new HashMap<>();
+
+        AnnotationSchemaService schemaService = mock(AnnotationSchemaService.class);
+        when(schemaService.listSupportedFeatures(any(Project.class))).thenReturn(emptyList());
+        when(schemaService.listAnnotationFeature(any(Project.class))).thenReturn(emptyList());
+
+        LayerSupport layerSupport = mock(LayerSupport.class);
+        when(layerSupport.createRenderer(any(), any())).thenAnswer(call -> {
+            AnnotationLayer layer = call.getArgument(0);
+            Renderer renderer = mock(Renderer.class);
+            doAnswer(render -> {
+                renderCounts.merge(layer.getId(), 1, Integer::sum);
+                VDocument vdoc = render.getArgument(2);
+                vdoc.add(new VSpan(layer, new VID(layer.getId().intValue()), layer.getName(),
+                        new VRange(0, 4), emptyMap(), emptyMap()));
+                return null;
+            }).when(renderer).render(any(), any(), any(), anyInt(), anyInt());
+            return renderer;
+        });
+
+        LayerSupportRegistry layerSupportRegistry = mock(LayerSupportRegistry.class);
+        when(layerSupportRegistry.getLayerSupport(any(AnnotationLayer.class)))
+                .thenReturn(layerSupport);
+
+        sut = new PreRendererImpl(layerSupportRegistry, schemaService);
+    }
+
+    @Test
+    public void thatUnchangedLayersAreTakenFromCache()
+    {
+        VDocument vdoc1 = render(0, 17);
+        VDocument vdoc2 = render(0, 17);
+
+        assertThat(renderCounts).containsEntry(1l, 1).containsEntry(2l, 1);
+        assertThat(vdoc2.spans()).extracting(VSpan::getVid)
+                .containsExactlyElementsOf(vdoc1.spans().stream().map(VSpan::getVid)
+                        .collect(toList()));
+        assertThat(vdoc2.spans(neLayer.getId())).hasSize(1);
+        assertThat(vdoc2.spans(posLayer.getId())).hasSize(1);
+    }
+
+    @Test
+    public void thatCachedRenderingIsNotModifiedThroughResponse()
+    {
+        VDocument vdoc1 = render(0, 17);
+        VSpan span1 = vdoc1.spans(neLayer.getId()).iterator().next();
+        span1.setColorHint("red");
+        span1.addHoverFeature("feature", "value");
+
+        VDocument vdoc2 = render(0, 17);
+        VSpan span2 = vdoc2.spans(neLayer.getId()).iterator().next();
+
+        assertThat(renderCounts).containsEntry(1l, 1);
+        assertThat(span2).isNotSameAs(span1);
+        assertThat(span2.getVid()).isEqualTo(span1.getVid());
+        assertThat(span2.getColorHint()).isNull();
+        assertThat(span2.getHoverFeatures()).isEmpty();
+    }
+
+    @Test
+    public void thatOnlyLayerAffectedByEventIsRenderedAgain()
+    {
+        render(0, 17);
+
+        sut.onAnnotationEvent(new SpanCreatedEvent(this, null, "user", neLayer, null));
+        render(0, 17);
+
+        assertThat(renderCounts).containsEntry(1l, 2).containsEntry(2l, 1);
+    }
+
+    @Test
+    public void thatLayerIsRenderedAgainWhenAnnotationsChangeWithoutEvent()
+    {
+        render(0, 17);
+
+        new NamedEntity(jcas, 0, 4).addToIndexes();
+        render(0, 17);
+
+        assertThat(renderCounts).containsEntry(1l, 2).containsEntry(2l, 1);
+    }
+
+    @Test
+    public void thatAllLayersAreRenderedAgainWhenCasIsModifiedWithoutEvents()
+    {
+        render(0, 17);
+
+        // E.g. a bulk merge which only updates feature values without sending events
+        CasModificationTracker.markModified(jcas.getCas());
+        render(0, 17);
+        render(0, 17);
+
+        assertThat(renderCounts).containsEntry(1l, 2).containsEntry(2l, 2);
+    }
+
+    @Test
+    public void thatAllLayersAreRenderedAgainForOtherWindow()
+    {
+        render(0, 17);
+        render(5, 17);
+
+        assertThat(renderCounts).containsEntry(1l, 2).containsEntry(2l, 2);
+    }
+
+    @Test
+    public void thatAllLayersAreRenderedAgainWhenLayerConfigurationChanges()
+    {
+        render(0, 17);
+
+        sut.beforeLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, project));
+        render(0, 17);
+
+        assertThat(renderCounts).containsEntry(1l, 2).containsEntry(2l, 2);
+    }
+
+    private VDocument render(int aWindowBegin, int aWindowEnd)
+    {
+        VDocument vdoc = new VDocument();
+        sut.render(vdoc, aWindowBegin, aWindowEnd, jcas.getCas(), layers);
+        return vdoc;
+    }
+}
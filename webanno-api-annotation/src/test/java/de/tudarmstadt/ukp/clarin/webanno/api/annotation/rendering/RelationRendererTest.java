@@ -160,6 +160,53 @@ public class RelationRendererTest
                 new VComment(dep, ERROR, "Crossing sentence boundaries is not permitted."));
     }
 
+    @Test
+    public void thatYieldsOfGovernorsAreRendered() throws Exception
+    {
+        TokenBuilder<Token, Sentence> builder = new TokenBuilder<>(Token.class, Sentence.class);
+        builder.buildTokens(jcas, "John loves Mary very much .");
+
+        for (Token t : select(jcas, Token.class)) {
+            POS pos = new POS(jcas, t.getBegin(), t.getEnd());
+            t.setPos(pos);
+            pos.addToIndexes();
+        }
+
+        RelationAdapter adapter = new RelationAdapter(layerSupportRegistry, featureSupportRegistry,
+                null, depLayer, FEAT_REL_TARGET, FEAT_REL_SOURCE,
+                () -> asList(dependencyLayerGovernor, dependencyLayerDependent), behaviors);
+
+        List<POS> pos = new ArrayList<>(select(jcas, POS.class));
+        POS john = pos.get(0);
+        POS loves = pos.get(1);
+        POS mary = pos.get(2);
+        POS very = pos.get(3);
+        POS much = pos.get(4);
+        POS punct = pos.get(5);
+
+        depLayer.setOverlapMode(ANY_OVERLAP);
+        adapter.add(document, username, loves, john, jcas.getCas());
+        adapter.add(document, username, loves, mary, jcas.getCas());
+        adapter.add(document, username, mary, punct, jcas.getCas());
+        // Cyclic relations
+        adapter.add(document, username, very, much, jcas.getCas());
+        adapter.add(document, username, much, very, jcas.getCas());
+
+        RelationRenderer sut = new RelationRenderer(adapter, layerSupportRegistry,
+                featureSupportRegistry, asList());
+
+        VDocument vdoc = new VDocument();
+        sut.render(jcas.getCas(), asList(), vdoc, 0, jcas.getDocumentText().length());
+
+        assertThat(vdoc.comments()).filteredOn(c -> YIELD.equals(c.getCommentType()))
+                .usingFieldByFieldElementComparator()
+                .containsExactlyInAnyOrder(
+                        new VComment(loves, YIELD, "John loves Mary ... ."),
+                        new VComment(mary, YIELD, "Mary ... ."),
+                        new VComment(very, YIELD, "very much"),
+                        new VComment(much, YIELD, "very much"));
+    }
+
     @Test
     public void thatRelationOverlapBehaviorOnRenderGeneratesErrors() throws Exception
     {
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getCurrentSentence;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getSentenceNumber;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectOverlapping;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectSentenceCovering;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging.LineOrientedPagingStrategy;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging.SentenceOrientedPagingStrategy;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging.Unit;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+public class OffsetIndexTest
+{
+    private JCas jcas;
+    private List<Sentence> sentences;
+
+    @Before
+    public void setup() throws Exception
+    {
+        jcas = JCasFactory.createText("One two.\nThree four.\n\nFive.");
+        new Sentence(jcas, 0, 8).addToIndexes();
+        new Sentence(jcas, 9, 20).addToIndexes();
+        new Sentence(jcas, 22, 27).addToIndexes();
+        sentences = jcas.select(Sentence.class).asList();
+    }
+
+    @Test
+    public void thatSentencesAreLocated()
+    {
+        assertThat(selectSentenceCovering(jcas.getCas(), 0)).isSameAs(sentences.get(0));
+        assertThat(selectSentenceCovering(jcas.getCas(), 8)).isNull();
+        assertThat(selectSentenceCovering(jcas.getCas(), 15)).isSameAs(sentences.get(1));
+        assertThat(selectSentenceCovering(jcas.getCas(), 26)).isSameAs(sentences.get(2));
+
+        assertThat(getCurrentSentence(jcas.getCas(), 10, 20)).isSameAs(sentences.get(1));
+        assertThat(getCurrentSentence(jcas.getCas(), 10, 19)).isNull();
+
+        assertThat(getSentenceNumber(jcas.getCas(), 0)).isEqualTo(1);
+        assertThat(getSentenceNumber(jcas.getCas(), 8)).isEqualTo(1);
+        assertThat(getSentenceNumber(jcas.getCas(), 21)).isEqualTo(3);
+        assertThat(getSentenceNumber(jcas.getCas(), 22)).isEqualTo(3);
+    }
+
+    @Test
+    public void thatOverlappingAnnotationsAreSelected()
+    {
+        NamedEntity outer = new NamedEntity(jcas, 0, 20);
+        outer.addToIndexes();
+        NamedEntity inner = new NamedEntity(jcas, 4, 7);
+        inner.addToIndexes();
+        NamedEntity other = new NamedEntity(jcas, 9, 14);
+        other.addToIndexes();
+
+        assertThat(selectOverlapping(jcas.getCas(), getType(jcas.getCas(), NamedEntity.class),
+                10, 12)).containsExactly(outer, other);
+        assertThat(selectOverlapping(jcas.getCas(), getType(jcas.getCas(), NamedEntity.class),
+                7, 9)).containsExactly(outer);
+        assertThat(selectOverlapping(jcas.getCas(), getType(jcas.getCas(), Sentence.class),
+                7, 10)).containsExactly(sentences.get(0), sentences.get(1));
+    }
+
+    @Test
+    public void thatIndexIsUpdatedWhenSentencesChange()
+    {
+        assertThat(selectSentenceCovering(jcas.getCas(), 20)).isNull();
+
+        new Sentence(jcas, 20, 22).addToIndexes();
+        assertThat(selectSentenceCovering(jcas.getCas(), 20)).isNotNull();
+        assertThat(getSentenceNumber(jcas.getCas(), 26)).isEqualTo(4);
+
+        sentences.get(0).removeFromIndexes();
+        assertThat(selectSentenceCovering(jcas.getCas(), 0)).isNull();
+        assertThat(getSentenceNumber(jcas.getCas(), 26)).isEqualTo(3);
+    }
+
+    @Test
+    public void thatIndexOfThreadLockedCasIsSharedWithRealCas()
+    {
+        CAS cas = jcas.getCas();
+        CAS proxy = (CAS) Proxy.newProxyInstance(cas.getClass().getClassLoader(),
+                new Class[] { CAS.class }, new ThreadLockingInvocationHandler(cas));
+        Type sentenceType = getType(cas, Sentence.class);
+
+        assertThat(OffsetIndex.of(proxy, sentenceType))
+                .isSameAs(OffsetIndex.of(cas, sentenceType));
+        assertThat(selectSentenceCovering(proxy, 15)).isSameAs(sentences.get(1));
+        assertThat(getSentenceNumber(proxy, 26)).isEqualTo(3);
+
+        new Sentence(jcas, 20, 22).addToIndexes();
+        assertThat(selectSentenceCovering(proxy, 20)).isNotNull();
+        assertThat(getSentenceNumber(proxy, 26)).isEqualTo(4);
+    }
+
+    @Test
+    public void thatSentenceUnitsAreLocated()
+    {
+        SentenceOrientedPagingStrategy sut = new SentenceOrientedPagingStrategy();
+
+        assertThat(sut.units(jcas.getCas(), 2, 10)).extracting(Unit::getIndex,
+                Unit::getBegin).containsExactly(tuple(2, 9), tuple(3, 22));
+        assertThat(sut.unitAtIndex(jcas.getCas(), 10).getIndex()).isEqualTo(3);
+        assertThat(sut.unitAtOffset(jcas.getCas(), 20)).get().extracting(Unit::getIndex)
+                .isEqualTo(2);
+        assertThat(sut.unitsStartingAtOffset(jcas.getCas(), 1, 5)).extracting(Unit::getIndex)
+                .containsExactly(2, 3);
+    }
+
+    @Test
+    public void thatLineUnitsAreLocated()
+    {
+        LineOrientedPagingStrategy sut = new LineOrientedPagingStrategy();
+
+        assertThat(sut.units(jcas.getCas())).extracting(Unit::getIndex, Unit::getBegin,
+                Unit::getEnd).containsExactly(tuple(1, 0, 8), tuple(2, 9, 20), tuple(3, 21, 21),
+                        tuple(4, 22, 27));
+        assertThat(sut.unitCount(jcas.getCas())).isEqualTo(4);
+        assertThat(sut.unitAtIndex(jcas.getCas(), 0).getIndex()).isEqualTo(1);
+        assertThat(sut.unitAtOffset(jcas.getCas(), 21)).get().extracting(Unit::getIndex)
+                .isEqualTo(3);
+        assertThat(sut.unitsStartingAtOffset(jcas.getCas(), 10, 1)).extracting(Unit::getIndex)
+                .containsExactly(3);
+    }
+}
@@ -17,13 +17,20 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.assertCasOwnedByCurrentThread;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createCas;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.transferCasOwnershipToCurrentThread;
 import static org.apache.uima.cas.CAS.TYPE_NAME_DOCUMENT_ANNOTATION;
 import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.CasFactory;
 import org.apache.uima.jcas.tcas.DocumentAnnotation;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.junit.Test;
@@ -60,4 +67,53 @@ public class WebAnnoCasUtilTest
         assertThat(cas.select(DocumentAnnotation.class).asList()).as("Language survived upgrade")
                 .extracting(DocumentAnnotation::getLanguage).containsExactly("en");
     }
+
+    @Test
+    public void thatCasOwnedByOtherThreadIsDetected() throws Exception
+    {
+        CAS cas = CompletableFuture.supplyAsync(() -> {
+            try {
+                return createCas();
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).get();
+
+        assertThatThrownBy(() -> assertCasOwnedByCurrentThread(cas))
+                .isInstanceOf(IllegalStateException.class);
+
+        transferCasOwnershipToCurrentThread(cas);
+
+        assertCasOwnedByCurrentThread(cas);
+    }
+
+    @Test
+    public void thatSampledProxyOnlyChecksEveryNthCall() throws Throwable
+    {
+        CAS cas = CasFactory.createCas();
+        ThreadLockingInvocationHandler handler = new ThreadLockingInvocationHandler(cas, 3,
+                false);
+        Method getDocumentText = CAS.class.getMethod("getDocumentText");
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                handler.invoke(null, getDocumentText, null);
+                handler.invoke(null, getDocumentText, null);
+            }
+            catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }).get();
+
+        assertThatThrownBy(() -> CompletableFuture.runAsync(() -> {
+            try {
+                handler.invoke(null, getDocumentText, null);
+            }
+            catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }).get()).hasRootCauseInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("bound to thread");
+    }
 }
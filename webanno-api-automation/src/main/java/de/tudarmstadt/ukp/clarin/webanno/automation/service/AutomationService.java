@@ -123,6 +123,15 @@ public interface AutomationService
      */
     MiraTemplate getMiraTemplate(AnnotationFeature feature);
 
+    /**
+     * Get the MIRA template with the given ID
+     * 
+     * @param id
+     *            the template ID.
+     * @return the template.
+     */
+    MiraTemplate getMiraTemplate(long id);
+
     /**
      * Check if a MIRA template is already created for this layer
      * 
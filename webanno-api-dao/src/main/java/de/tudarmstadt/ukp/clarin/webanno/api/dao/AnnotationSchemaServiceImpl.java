@@ -17,15 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
-import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.INCOMING;
-import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.LOOP;
-import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.OUTGOING;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isNativeUimaType;
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isSame;
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.getTypeSystemVersion;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.setTypeSystemVersion;
 import static java.util.Arrays.asList;
 import static java.util.Objects.isNull;
 import static java.util.concurrent.TimeUnit.MINUTES;
@@ -43,8 +39,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -59,8 +57,6 @@ import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
-import org.apache.uima.fit.factory.CasFactory;
-import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.FeatureDescription;
 import org.apache.uima.resource.metadata.TypeDescription;
@@ -75,7 +71,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 
@@ -89,10 +89,11 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.LinkWithRoleModel;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeSystemAnalysis;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeSystemAnalysis.RelationDetails;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasPool;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.TagCreatedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.TagDeletedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.TagUpdatedEvent;
@@ -126,6 +127,13 @@ public class AnnotationSchemaServiceImpl
     private final LayerSupportRegistry layerSupportRegistry;
     private final FeatureSupportRegistry featureSupportRegistry;
     private final LoadingCache<TagSet, List<ImmutableTag>> immutableTagsCache;
+    private final Cache<Long, ProjectTypeSystem> projectTypeSystemCache;
+    // Incremented whenever the type system of a project is flushed from the cache
+    private final Map<Long, Long> projectTypeSystemGenerations = new ConcurrentHashMap<>();
+    // Type systems (by identity) which are compatible with a version of a project type system
+    private final Cache<TypeSystem, String> compatibleTypeSystems;
+    // Indexes of the attached relations and links per CAS (by identity)
+    private final Cache<CAS, AttachedAnnotationIndex> attachedAnnotationIndexes;
     private final TypeSystemDescription builtInTypes;
 
     @Autowired
@@ -140,6 +148,15 @@ public class AnnotationSchemaServiceImpl
         immutableTagsCache = Caffeine.newBuilder().expireAfterAccess(5, MINUTES)
                 .maximumSize(10 * 1024).build(this::loadImmutableTags);
 
+        projectTypeSystemCache = Caffeine.newBuilder().expireAfterAccess(30, MINUTES)
+                .maximumSize(100).build();
+
+        compatibleTypeSystems = Caffeine.newBuilder().weakKeys().expireAfterAccess(30, MINUTES)
+                .maximumSize(1024).build();
+
+        attachedAnnotationIndexes = Caffeine.newBuilder().weakKeys()
+                .expireAfterAccess(5, MINUTES).maximumSize(1024).build();
+
         try {
             builtInTypes = createTypeSystemDescription();
         }
@@ -261,6 +278,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aLayer);
         }
 
+        flushProjectTypeSystemCache(aLayer.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -280,6 +299,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aFeature);
         }
 
+        flushProjectTypeSystemCache(aFeature.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aFeature.getProject().getId()))) {
             Project project = aFeature.getProject();
@@ -827,6 +848,8 @@ public class AnnotationSchemaServiceImpl
         entityManager.remove(
                 entityManager.contains(aFeature) ? aFeature : entityManager.merge(aFeature));
 
+        flushProjectTypeSystemCache(aFeature.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aFeature.getProject().getId()))) {
             Project project = aFeature.getProject();
@@ -857,6 +880,8 @@ public class AnnotationSchemaServiceImpl
 
         entityManager.remove(layer);
 
+        flushProjectTypeSystemCache(aLayer.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -1067,6 +1092,64 @@ public class AnnotationSchemaServiceImpl
         return mergeTypeSystems(typeSystems);
     }
 
+    /**
+     * @return the full type system of the project including the internal types. The result is
+     *         cached until the layers or features of the project change.
+     */
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject)
+        throws ResourceInitializationException
+    {
+        long projectId = aProject.getId();
+        ProjectTypeSystem cached = projectTypeSystemCache.getIfPresent(projectId);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = projectTypeSystemGenerations.getOrDefault(projectId, 0L);
+        ProjectTypeSystem pts = new ProjectTypeSystem(getFullProjectTypeSystem(aProject, true));
+        // If the cache has been flushed while the type system was created, then the type system
+        // may already be outdated and must not be cached
+        projectTypeSystemCache.asMap().compute(projectId,
+                (id, current) -> projectTypeSystemGenerations.getOrDefault(id, 0L) == generation
+                        ? pts
+                        : current);
+        return pts;
+    }
+
+    private void flushProjectTypeSystemCache(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+
+        long projectId = aProject.getId();
+        projectTypeSystemGenerations.merge(projectId, 1L, Long::sum);
+        projectTypeSystemCache.invalidate(projectId);
+
+        // Other transactions only see the changes once they have been committed. If they request
+        // the type system before, the outdated type system would be cached again.
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronization()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            projectTypeSystemGenerations.merge(projectId, 1L, Long::sum);
+                            projectTypeSystemCache.invalidate(projectId);
+                        }
+                    });
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void beforeLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        flushProjectTypeSystemCache(aEvent.getProject());
+        // The attach features or the relation endpoints may have changed
+        attachedAnnotationIndexes.invalidateAll();
+    }
+
     @Override
     public void upgradeCas(CAS aCas, AnnotationDocument aAnnotationDocument)
         throws UIMAException, IOException
@@ -1121,8 +1204,23 @@ public class AnnotationSchemaServiceImpl
     @Override
     public void upgradeCas(CAS aCas, Project aProject) throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aProject);
-        upgradeCas(aCas, ts);
+        upgradeCas(aCas, getProjectTypeSystem(aProject));
+    }
+
+    private void upgradeCas(CAS aCas, ProjectTypeSystem aTypeSystem)
+        throws UIMAException, IOException
+    {
+        // Creating the CAS from the committed type system avoids compiling the type system
+        // description again for every upgrade
+        CAS templateCas = CasPool.getSharedInstance().borrowCas(aTypeSystem.getVersion(),
+                aTypeSystem.getTypeSystem());
+        try {
+            upgradeCas(aCas, aCas, templateCas);
+        }
+        finally {
+            templateCas.release();
+        }
+        setTypeSystemVersion(aCas, aTypeSystem.getVersion());
     }
 
     @Override
@@ -1143,7 +1241,7 @@ public class AnnotationSchemaServiceImpl
     public boolean upgradeCasIfRequired(Iterable<CAS> aCasIter, Project aProject)
         throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aProject);
+        ProjectTypeSystem ts = getProjectTypeSystem(aProject);
 
         // Check if the current CAS already contains the required type system
         boolean upgradePerformed = false;
@@ -1200,6 +1298,23 @@ public class AnnotationSchemaServiceImpl
     @Override
     public void upgradeCas(CAS aSourceCas, CAS aTargetCas, TypeSystemDescription aTargetTypeSystem)
         throws UIMAException, IOException
+    {
+        CAS templateCas = CasPool.getSharedInstance().borrowCas(
+                ProjectTypeSystem.calculateVersion(aTargetTypeSystem), aTargetTypeSystem);
+        try {
+            upgradeCas(aSourceCas, aTargetCas, templateCas);
+        }
+        finally {
+            templateCas.release();
+        }
+    }
+
+    /**
+     * Load the contents from the source CAS and write them to the target CAS which is
+     * re-initialized with the type system of the given template CAS.
+     */
+    private void upgradeCas(CAS aSourceCas, CAS aTargetCas, CAS aTemplateCas)
+        throws UIMAException, IOException
     {
         CasStorageSession.get().assertWritingPermitted(aTargetCas);
 
@@ -1218,8 +1333,8 @@ public class AnnotationSchemaServiceImpl
         CAS realTargetCas = getRealCas(aTargetCas);
         // UIMA-6162 Workaround: synchronize CAS during de/serialization
         synchronized (((CASImpl) realTargetCas).getBaseCAS()) {
-            CAS tempCas = CasFactory.createCas(aTargetTypeSystem);
-            CASCompleteSerializer serializer = serializeCASComplete((CASImpl) tempCas);
+            CASCompleteSerializer serializer = serializeCASComplete(
+                    (CASImpl) getRealCas(aTemplateCas));
             deserializeCASComplete(serializer, (CASImpl) realTargetCas);
 
             // Leniently load the source CAS contents into the target CAS
@@ -1228,6 +1343,33 @@ public class AnnotationSchemaServiceImpl
         }
     }
 
+    /**
+     * Check if the current CAS already contains the required type system. If the CAS shares the
+     * committed project type system, has been upgraded to the current version of the project type
+     * system or its type system has been found to be compatible with that version before, this
+     * check is cheap. Compatible CASes are not modified.
+     */
+    private boolean isUpgradeRequired(CAS aCas, ProjectTypeSystem aTargetTypeSystem)
+    {
+        TypeSystem ts = aCas.getTypeSystem();
+        if (aTargetTypeSystem.isCommittedTypeSystem(ts)) {
+            return false;
+        }
+
+        String version = aTargetTypeSystem.getVersion();
+        if (version.equals(getTypeSystemVersion(aCas).orElse(null))
+                || version.equals(compatibleTypeSystems.getIfPresent(ts))) {
+            return false;
+        }
+
+        if (isUpgradeRequired(aCas, aTargetTypeSystem.getDescription())) {
+            return true;
+        }
+
+        compatibleTypeSystems.put(ts, version);
+        return false;
+    }
+
     /**
      * Check if the current CAS already contains the required type system.
      */
@@ -1373,84 +1515,11 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<AttachedAnnotation> getAttachedRels(AnnotationLayer aLayer, AnnotationFS aFs)
     {
-        CAS cas = aFs.getCAS();
+        AttachedAnnotationIndex index = getAttachedAnnotationIndex(aFs.getCAS());
         List<AttachedAnnotation> result = new ArrayList<>();
         for (AnnotationLayer relationLayer : listAttachedRelationLayers(aLayer)) {
             RelationAdapter relationAdapter = (RelationAdapter) getAdapter(relationLayer);
-            Type relationType = CasUtil.getType(cas, relationLayer.getName());
-            Feature sourceFeature = relationType
-                    .getFeatureByBaseName(relationAdapter.getSourceFeatureName());
-            Feature targetFeature = relationType
-                    .getFeatureByBaseName(relationAdapter.getTargetFeatureName());
-
-            // This code is already prepared for the day that relations can go between
-            // different layers and may have different attach features for the source and
-            // target layers.
-            Feature relationSourceAttachFeature = null;
-            Feature relationTargetAttachFeature = null;
-            if (relationAdapter.getAttachFeatureName() != null) {
-                relationSourceAttachFeature = sourceFeature.getRange()
-                        .getFeatureByBaseName(relationAdapter.getAttachFeatureName());
-                relationTargetAttachFeature = targetFeature.getRange()
-                        .getFeatureByBaseName(relationAdapter.getAttachFeatureName());
-            }
-
-            for (AnnotationFS relationFS : CasUtil.select(cas, relationType)) {
-                if (!(relationFS instanceof AnnotationFS)) {
-                    continue;
-                }
-
-                // Here we get the annotations that the relation is pointing to in the UI
-                AnnotationFS sourceFS;
-                if (relationSourceAttachFeature != null) {
-                    sourceFS = (AnnotationFS) relationFS.getFeatureValue(sourceFeature)
-                            .getFeatureValue(relationSourceAttachFeature);
-                }
-                else {
-                    sourceFS = (AnnotationFS) relationFS.getFeatureValue(sourceFeature);
-                }
-
-                AnnotationFS targetFS;
-                if (relationTargetAttachFeature != null) {
-                    targetFS = (AnnotationFS) relationFS.getFeatureValue(targetFeature)
-                            .getFeatureValue(relationTargetAttachFeature);
-                }
-                else {
-                    targetFS = (AnnotationFS) relationFS.getFeatureValue(targetFeature);
-                }
-
-                if (sourceFS == null || targetFS == null) {
-                    StringBuilder message = new StringBuilder();
-
-                    message.append("Relation [" + relationAdapter.getLayer().getName()
-                            + "] with id [" + getAddr(relationFS)
-                            + "] has loose ends - cannot identify attached annotations.");
-                    if (relationAdapter.getAttachFeatureName() != null) {
-                        message.append("\nRelation [" + relationAdapter.getLayer().getName()
-                                + "] attached to feature [" + relationAdapter.getAttachFeatureName()
-                                + "].");
-                    }
-                    message.append("\nSource: " + sourceFS);
-                    message.append("\nTarget: " + targetFS);
-                    log.warn("{}", message.toString());
-                    continue;
-                }
-
-                boolean isIncoming = isSame(targetFS, aFs);
-                boolean isOutgoing = isSame(sourceFS, aFs);
-
-                if (isIncoming && isOutgoing) {
-                    result.add(new AttachedAnnotation(relationLayer, relationFS, sourceFS, LOOP));
-                }
-                else if (isIncoming) {
-                    result.add(
-                            new AttachedAnnotation(relationLayer, relationFS, sourceFS, INCOMING));
-                }
-                else if (isOutgoing) {
-                    result.add(
-                            new AttachedAnnotation(relationLayer, relationFS, targetFS, OUTGOING));
-                }
-            }
+            result.addAll(index.getAttachedRels(relationLayer, relationAdapter, aFs));
         }
 
         return result;
@@ -1460,38 +1529,22 @@ public class AnnotationSchemaServiceImpl
     @Transactional
     public List<AttachedAnnotation> getAttachedLinks(AnnotationLayer aLayer, AnnotationFS aFs)
     {
-        CAS cas = aFs.getCAS();
         List<AttachedAnnotation> result = new ArrayList<>();
         TypeAdapter adapter = getAdapter(aLayer);
         if (adapter instanceof SpanAdapter) {
             for (AnnotationFeature linkFeature : listAttachedLinkFeatures(aLayer)) {
                 if (MultiValueMode.ARRAY.equals(linkFeature.getMultiValueMode())
                         && LinkMode.WITH_ROLE.equals(linkFeature.getLinkMode())) {
-                    // Fetch slot hosts that could link to the current FS and check if any of
-                    // them actually links to the current FS
-                    Type linkHost = CasUtil.getType(cas, linkFeature.getLayer().getName());
-                    for (FeatureStructure linkFS : CasUtil.selectFS(cas, linkHost)) {
-                        if (!(linkFS instanceof AnnotationFS)) {
-                            continue;
-                        }
-
-                        List<LinkWithRoleModel> links = adapter.getFeatureValue(linkFeature,
-                                linkFS);
-                        for (int li = 0; li < links.size(); li++) {
-                            LinkWithRoleModel link = links.get(li);
-                            AnnotationFS linkTarget = selectByAddr(cas, AnnotationFS.class,
-                                    link.targetAddr);
-                            // If the current annotation fills a slot, then add the slot host to
-                            // our list of attached links.
-                            if (isSame(linkTarget, aFs)) {
-                                result.add(new AttachedAnnotation(linkFeature.getLayer(),
-                                        (AnnotationFS) linkFS, INCOMING));
-                            }
-                        }
-                    }
+                    result.addAll(getAttachedAnnotationIndex(aFs.getCAS())
+                            .getAttachedLinks(linkFeature, adapter, aFs));
                 }
             }
         }
         return result;
     }
+
+    private AttachedAnnotationIndex getAttachedAnnotationIndex(CAS aCas)
+    {
+        return attachedAnnotationIndexes.get(aCas, AttachedAnnotationIndex::new);
+    }
 }
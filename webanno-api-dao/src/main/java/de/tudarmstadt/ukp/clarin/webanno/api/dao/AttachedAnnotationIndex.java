@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.INCOMING;
+import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.LOOP;
+import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.OUTGOING;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static java.util.Collections.emptyList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.LowLevelException;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.RelationAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.LinkWithRoleModel;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+
+/**
+ * Index of the relations and link feature slots attached to the annotations in a particular CAS.
+ * The index is built lazily per relation layer and link feature on first access. Before every
+ * access, the index checks whether the CAS has been modified since. Relations which have been
+ * added since are added to the index. Any other change (e.g. the deletion of a relation or a change
+ * to a slot) causes the index to be rebuilt. Incremental updates require the CAS to hold on to all
+ * feature structures ({@link CASImpl#ALWAYS_HOLD_ONTO_FSS}) as WebAnno does - otherwise, the index
+ * is rebuilt whenever relations have been added.
+ * <p>
+ * Changes to the endpoints of existing relations which neither create nor delete feature
+ * structures are not detected. WebAnno never changes the endpoints of a relation in place.
+ */
+class AttachedAnnotationIndex
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AttachedAnnotationIndex.class);
+
+    /**
+     * Maximum number of new feature structures which are inspected to update the index. If more
+     * feature structures have been created, the index is rebuilt.
+     */
+    private static final int MAX_INCREMENTAL_UPDATE = 1000;
+
+    private final CASImpl cas;
+    private int casResets;
+    private final Map<Long, RelationIndex> relationIndexes = new HashMap<>();
+    private final Map<Long, LinkIndex> linkIndexes = new HashMap<>();
+
+    public AttachedAnnotationIndex(CAS aCas)
+    {
+        cas = (CASImpl) aCas;
+        casResets = cas.getCasResets();
+    }
+
+    public synchronized List<AttachedAnnotation> getAttachedRels(AnnotationLayer aRelationLayer,
+            RelationAdapter aAdapter, AnnotationFS aFs)
+    {
+        dropIfReset();
+
+        Type type = CasUtil.getType(cas, aRelationLayer.getName());
+
+        RelationIndex index = relationIndexes.get(aRelationLayer.getId());
+        if (index == null || !index.update(type)) {
+            index = new RelationIndex(aRelationLayer, aAdapter, type);
+            relationIndexes.put(aRelationLayer.getId(), index);
+        }
+
+        return index.get(aFs);
+    }
+
+    public synchronized List<AttachedAnnotation> getAttachedLinks(AnnotationFeature aLinkFeature,
+            TypeAdapter aAdapter, AnnotationFS aFs)
+    {
+        dropIfReset();
+
+        Type type = CasUtil.getType(cas, aLinkFeature.getLayer().getName());
+
+        LinkIndex index = linkIndexes.get(aLinkFeature.getId());
+        if (index == null || !index.isUpToDate(type)) {
+            index = new LinkIndex(aLinkFeature, aAdapter, type);
+            linkIndexes.put(aLinkFeature.getId(), index);
+        }
+
+        return index.get(aFs);
+    }
+
+    /**
+     * If the CAS has been reset (e.g. to load a new version of the annotations into it), all
+     * indexed feature structures are gone.
+     */
+    private void dropIfReset()
+    {
+        if (casResets != cas.getCasResets()) {
+            relationIndexes.clear();
+            linkIndexes.clear();
+            casResets = cas.getCasResets();
+        }
+    }
+
+    private int getIndexedCount(Type aType)
+    {
+        return cas.getAnnotationIndex(aType).size();
+    }
+
+    private static void add(Map<Integer, List<AttachedAnnotation>> aIndex, FeatureStructure aFs,
+            AttachedAnnotation aAttachedAnnotation)
+    {
+        aIndex.computeIfAbsent(getAddr(aFs), k -> new ArrayList<>()).add(aAttachedAnnotation);
+    }
+
+    private static List<AttachedAnnotation> get(Map<Integer, List<AttachedAnnotation>> aIndex,
+            AnnotationFS aFs)
+    {
+        List<AttachedAnnotation> result = aIndex.get(getAddr(aFs));
+        return result != null ? new ArrayList<>(result) : emptyList();
+    }
+
+    private class RelationIndex
+    {
+        private final AnnotationLayer layer;
+        private final Type type;
+        private final Feature sourceFeature;
+        private final Feature targetFeature;
+        private final Feature sourceAttachFeature;
+        private final Feature targetAttachFeature;
+        private final String attachFeatureName;
+        private final Map<Integer, List<AttachedAnnotation>> index = new HashMap<>();
+
+        private int nextFsId;
+        private int indexedCount;
+
+        public RelationIndex(AnnotationLayer aLayer, RelationAdapter aAdapter, Type aType)
+        {
+            layer = aLayer;
+            type = aType;
+            sourceFeature = type.getFeatureByBaseName(aAdapter.getSourceFeatureName());
+            targetFeature = type.getFeatureByBaseName(aAdapter.getTargetFeatureName());
+
+            // This code is already prepared for the day that relations can go between
+            // different layers and may have different attach features for the source and
+            // target layers.
+            attachFeatureName = aAdapter.getAttachFeatureName();
+            if (attachFeatureName != null) {
+                sourceAttachFeature = sourceFeature.getRange()
+                        .getFeatureByBaseName(attachFeatureName);
+                targetAttachFeature = targetFeature.getRange()
+                        .getFeatureByBaseName(attachFeatureName);
+            }
+            else {
+                sourceAttachFeature = null;
+                targetAttachFeature = null;
+            }
+
+            nextFsId = cas.peekNextFsId();
+            indexedCount = getIndexedCount(type);
+            for (AnnotationFS relationFS : CasUtil.select(cas, type)) {
+                add(relationFS);
+            }
+        }
+
+        /**
+         * Adds the relations created since the last update to the index.
+         * 
+         * @return whether the index could be updated. If not, it needs to be rebuilt.
+         */
+        public boolean update(Type aType)
+        {
+            // The type system has changed
+            if (type != aType) {
+                return false;
+            }
+
+            int currentNextFsId = cas.peekNextFsId();
+            int currentIndexedCount = getIndexedCount(type);
+            if (currentNextFsId == nextFsId && currentIndexedCount == indexedCount) {
+                return true;
+            }
+
+            if (currentIndexedCount < indexedCount
+                    || currentNextFsId - nextFsId > MAX_INCREMENTAL_UPDATE) {
+                return false;
+            }
+
+            List<AnnotationFS> added = new ArrayList<>();
+            for (int id = nextFsId; id < currentNextFsId; id++) {
+                FeatureStructure fs;
+                try {
+                    fs = cas.getLowLevelCAS().ll_getFSForRef(id);
+                }
+                catch (LowLevelException e) {
+                    // Feature structures can only be looked up by their ID if the CAS holds on to
+                    // all of them (CASImpl.ALWAYS_HOLD_ONTO_FSS). Otherwise, we cannot tell which
+                    // relations have been added.
+                    return false;
+                }
+
+                if (fs instanceof AnnotationFS && fs.getType() == type) {
+                    added.add((AnnotationFS) fs);
+                }
+            }
+
+            // If the new relations do not account for the change in the number of relations, then
+            // relations have also been deleted or some of the new relations are not indexed
+            if (added.size() != currentIndexedCount - indexedCount) {
+                return false;
+            }
+
+            added.forEach(this::add);
+            nextFsId = currentNextFsId;
+            indexedCount = currentIndexedCount;
+            return true;
+        }
+
+        public List<AttachedAnnotation> get(AnnotationFS aFs)
+        {
+            return AttachedAnnotationIndex.get(index, aFs);
+        }
+
+        private void add(AnnotationFS aRelationFS)
+        {
+            // Here we get the annotations that the relation is pointing to in the UI
+            AnnotationFS sourceFS;
+            if (sourceAttachFeature != null) {
+                sourceFS = (AnnotationFS) aRelationFS.getFeatureValue(sourceFeature)
+                        .getFeatureValue(sourceAttachFeature);
+            }
+            else {
+                sourceFS = (AnnotationFS) aRelationFS.getFeatureValue(sourceFeature);
+            }
+
+            AnnotationFS targetFS;
+            if (targetAttachFeature != null) {
+                targetFS = (AnnotationFS) aRelationFS.getFeatureValue(targetFeature)
+                        .getFeatureValue(targetAttachFeature);
+            }
+            else {
+                targetFS = (AnnotationFS) aRelationFS.getFeatureValue(targetFeature);
+            }
+
+            if (sourceFS == null || targetFS == null) {
+                StringBuilder message = new StringBuilder();
+
+                message.append("Relation [" + layer.getName() + "] with id ["
+                        + getAddr(aRelationFS)
+                        + "] has loose ends - cannot identify attached annotations.");
+                if (attachFeatureName != null) {
+                    message.append("\nRelation [" + layer.getName() + "] attached to feature ["
+                            + attachFeatureName + "].");
+                }
+                message.append("\nSource: " + sourceFS);
+                message.append("\nTarget: " + targetFS);
+                LOG.warn("{}", message.toString());
+                return;
+            }
+
+            if (getAddr(sourceFS) == getAddr(targetFS)) {
+                AttachedAnnotationIndex.add(index, sourceFS,
+                        new AttachedAnnotation(layer, aRelationFS, sourceFS, LOOP));
+            }
+            else {
+                AttachedAnnotationIndex.add(index, targetFS,
+                        new AttachedAnnotation(layer, aRelationFS, sourceFS, INCOMING));
+                AttachedAnnotationIndex.add(index, sourceFS,
+                        new AttachedAnnotation(layer, aRelationFS, targetFS, OUTGOING));
+            }
+        }
+    }
+
+    private class LinkIndex
+    {
+        private final Type type;
+        private final Map<Integer, List<AttachedAnnotation>> index = new HashMap<>();
+
+        private final int nextFsId;
+        private final int indexedCount;
+
+        public LinkIndex(AnnotationFeature aLinkFeature, TypeAdapter aAdapter, Type aType)
+        {
+            type = aType;
+            nextFsId = cas.peekNextFsId();
+            indexedCount = getIndexedCount(type);
+
+            // Filling a slot replaces the link array of the slot host, so any change to the
+            // slots is detected as a new feature structure and causes the index to be rebuilt
+            for (AnnotationFS linkFS : CasUtil.select(cas, type)) {
+                List<LinkWithRoleModel> links = aAdapter.getFeatureValue(aLinkFeature, linkFS);
+                for (LinkWithRoleModel link : links) {
+                    index.computeIfAbsent(link.targetAddr, k -> new ArrayList<>())
+                            .add(new AttachedAnnotation(aLinkFeature.getLayer(), linkFS,
+                                    INCOMING));
+                }
+            }
+        }
+
+        public boolean isUpToDate(Type aType)
+        {
+            return type == aType && nextFsId == cas.peekNextFsId()
+                    && indexedCount == getIndexedCount(type);
+        }
+
+        public List<AttachedAnnotation> get(AnnotationFS aFs)
+        {
+            return AttachedAnnotationIndex.get(index, aFs);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 import org.apache.uima.cas.CAS;
@@ -172,6 +173,46 @@ public class CasMetadataUtils
         aCas.addFsToIndexes(cmd);
     }
 
+    /**
+     * @return the version of the project type system the CAS has last been found to be compatible
+     *         with or an empty result if the version has not been recorded in the CAS.
+     */
+    public static Optional<String> getTypeSystemVersion(CAS aCas)
+    {
+        Type casMetadataType = aCas.getTypeSystem().getType(CASMetadata.class.getName());
+        if (casMetadataType == null) {
+            return Optional.empty();
+        }
+
+        Feature feature = casMetadataType.getFeatureByBaseName("typeSystemVersion");
+        if (feature == null) {
+            return Optional.empty();
+        }
+
+        return aCas.select(casMetadataType).map(cmd -> cmd.getStringValue(feature))
+                .filter(Objects::nonNull).findFirst();
+    }
+
+    /**
+     * Records the version of the project type system the CAS is compatible with. If the CAS does
+     * not contain a {@link CASMetadata} annotation yet, the version is not recorded. It is then
+     * recorded the next time the compatibility of the CAS is checked.
+     */
+    public static void setTypeSystemVersion(CAS aCas, String aVersion)
+    {
+        Type casMetadataType = aCas.getTypeSystem().getType(CASMetadata.class.getName());
+        if (casMetadataType == null) {
+            return;
+        }
+
+        Feature feature = casMetadataType.getFeatureByBaseName("typeSystemVersion");
+        if (feature == null) {
+            return;
+        }
+
+        aCas.select(casMetadataType).forEach(cmd -> cmd.setStringValue(feature, aVersion));
+    }
+
     public static Optional<String> getSourceDocumentName(CAS aCas)
     {
         try {
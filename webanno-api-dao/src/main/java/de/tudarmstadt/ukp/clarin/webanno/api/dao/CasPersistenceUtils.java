@@ -21,54 +21,122 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
 import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.SerialFormat;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.util.CasIOUtils;
+import org.apache.uima.util.CasLoadMode;
 import org.apache.uima.util.TypeSystemUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasPool;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 
 public final class CasPersistenceUtils
 {
     private final static Logger LOG = LoggerFactory.getLogger(CasPersistenceUtils.class);
 
+    // Java serialization streams always start with these two bytes (STREAM_MAGIC)
+    private static final int JAVA_SERIALIZATION_MAGIC_1 = 0xAC;
+    private static final int JAVA_SERIALIZATION_MAGIC_2 = 0xED;
+
     private CasPersistenceUtils()
     {
         // No instances
     }
 
-    public static void writeSerializedCas(CAS aCas, File aFile) throws IOException
+    /**
+     * Writes the given CAS to the given file using the given storage format. Before the file is
+     * written, the serialized CAS is verified by deserializing it into a new CAS.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aFile
+     *            the target file.
+     * @param aFormat
+     *            the storage format.
+     * @throws IOException
+     *             if the CAS could not be written.
+     */
+    public static void writeCas(CAS aCas, File aFile, CasStorageFormat aFormat) throws IOException
     {
-        FileUtils.forceMkdir(aFile.getParentFile());
+        SerializedCas serializedCas = serializeCas(aCas, aFile, aFormat);
+
+        try {
+            serializedCas.verify();
+        }
+        catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                preserveForDebugging(aFile, aCas, serializedCas.serializer);
+            }
+            throw e;
+        }
+
+        serializedCas.writeTo(aFile);
+    }
 
+    /**
+     * Serializes the given CAS into memory using the given storage format. The result can then be
+     * verified and written to disk independently of the CAS.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aFile
+     *            the file the CAS is going to be written to (used to preserve debugging
+     *            information if the serialization fails).
+     * @param aFormat
+     *            the storage format.
+     * @return the serialized CAS.
+     * @throws IOException
+     *             if the CAS could not be serialized.
+     */
+    public static SerializedCas serializeCas(CAS aCas, File aFile, CasStorageFormat aFormat)
+        throws IOException
+    {
         CASCompleteSerializer serializer = null;
 
         CAS realCas = getRealCas(aCas);
         // UIMA-6162 Workaround: synchronize CAS during de/serialization
         synchronized (((CASImpl) realCas).getBaseCAS()) {
             try {
-                serializer = serializeCASComplete((CASImpl) getRealCas(aCas));
-
-                // BEGIN SAFEGUARD --------------
-                // Safeguard that we do NOT write a CAS which can afterwards not be read and thus
-                // would render the document broken within the project
-                // Reason we do this: https://issues.apache.org/jira/browse/UIMA-6162
-                CAS dummy = WebAnnoCasUtil.createCas();
-                deserializeCASComplete(serializer, (CASImpl) getRealCas(dummy));
-                // END SAFEGUARD --------------
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+                switch (aFormat) {
+                case SERIALIZED_CAS:
+                    serializer = serializeCASComplete((CASImpl) realCas);
+                    try (ObjectOutputStream os = new ObjectOutputStream(buffer)) {
+                        os.writeObject(serializer);
+                    }
+                    break;
+                case COMPRESSED_BINARY:
+                    CasIOUtils.save(realCas, buffer, SerialFormat.COMPRESSED_FILTERED_TSI);
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unsupported CAS storage format [" + aFormat + "]");
+                }
+
+                return new SerializedCas(aFormat, serializer, buffer.toByteArray());
             }
             catch (Exception e) {
                 if (LOG.isDebugEnabled()) {
@@ -76,11 +144,68 @@ public final class CasPersistenceUtils
                 }
                 throw new IOException(e);
             }
+        }
+    }
+
+    /**
+     * Reads the given file into the given CAS. The storage format of the file is detected
+     * automatically.
+     * 
+     * @param aCas
+     *            the CAS. Its type system is replaced with the one stored in the file.
+     * @param aFile
+     *            the source file.
+     * @return the format the file was stored in.
+     * @throws IOException
+     *             if the CAS could not be read.
+     */
+    public static CasStorageFormat readCas(CAS aCas, File aFile) throws IOException
+    {
+        CasStorageFormat format = detectFormat(aFile);
+
+        switch (format) {
+        case SERIALIZED_CAS:
+            readSerializedCas(aCas, aFile);
+            break;
+        case COMPRESSED_BINARY:
+            readCompressedCas(aCas, aFile);
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported CAS storage format [" + format + "]");
+        }
+
+        return format;
+    }
 
-            try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(aFile))) {
-                os.writeObject(serializer);
+    public static CasStorageFormat detectFormat(File aFile) throws IOException
+    {
+        try (InputStream is = new FileInputStream(aFile)) {
+            if (is.read() == JAVA_SERIALIZATION_MAGIC_1
+                    && is.read() == JAVA_SERIALIZATION_MAGIC_2) {
+                return CasStorageFormat.SERIALIZED_CAS;
             }
         }
+
+        return CasStorageFormat.COMPRESSED_BINARY;
+    }
+
+    public static void writeSerializedCas(CAS aCas, File aFile) throws IOException
+    {
+        writeCas(aCas, aFile, CasStorageFormat.SERIALIZED_CAS);
+    }
+
+    public static void writeCompressedCas(CAS aCas, File aFile) throws IOException
+    {
+        writeCas(aCas, aFile, CasStorageFormat.COMPRESSED_BINARY);
+    }
+
+    /**
+     * Stores the given CAS as XMI next to the given file along with its type system and - if
+     * available - the serialized form that failed verification.
+     */
+    public static void preserveForDebugging(File aFile, CAS aCas, SerializedCas aSerializedCas)
+    {
+        preserveForDebugging(aFile, aCas, aSerializedCas.serializer);
     }
 
     private static void preserveForDebugging(File aFile, CAS aCas,
@@ -104,6 +229,10 @@ public final class CasPersistenceUtils
             LOG.error("Debug type system serialization failed: {}", e2.getMessage(), e2);
         }
 
+        if (aSerializer == null) {
+            return;
+        }
+
         try (ObjectOutputStream os = new ObjectOutputStream(
                 new FileOutputStream(new File(aFile.getPath() + ".borked-" + ts + ".ser")))) {
             os.writeObject(aSerializer);
@@ -118,23 +247,146 @@ public final class CasPersistenceUtils
         CAS realCas = getRealCas(aCas);
         // UIMA-6162 Workaround: synchronize CAS during de/serialization
         synchronized (((CASImpl) realCas).getBaseCAS()) {
-            try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(aFile))) {
+            try (ObjectInputStream is = new ObjectInputStream(
+                    new BufferedInputStream(new FileInputStream(aFile)))) {
                 CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
                 deserializeCASComplete(serializer, (CASImpl) realCas);
 
-                // Workaround for UIMA adding back deleted DocumentAnnotations
-                // https://issues.apache.org/jira/browse/UIMA-6199
-                // If there is a DocumentMetaData annotation, then we can drop any of the default
-                // UIMA DocumentAnnotation instances (excluding the DocumentMetaData of course)
-                if (!aCas.select(DocumentMetaData.class.getName()).isEmpty()) {
-                    aCas.select(CAS.TYPE_NAME_DOCUMENT_ANNOTATION).filter(
-                            fs -> !DocumentMetaData.class.getName().equals(fs.getType().getName()))
-                            .forEach(aCas::removeFsFromIndexes);
-                }
+                removeDuplicateDocumentAnnotations(aCas);
             }
             catch (ClassNotFoundException e) {
                 throw new IOException(e);
             }
         }
     }
+
+    public static void readCompressedCas(CAS aCas, File aFile) throws IOException
+    {
+        CAS realCas = getRealCas(aCas);
+        // UIMA-6162 Workaround: synchronize CAS during de/serialization
+        synchronized (((CASImpl) realCas).getBaseCAS()) {
+            try (InputStream is = new BufferedInputStream(new FileInputStream(aFile))) {
+                CasIOUtils.load(is, null, realCas, CasLoadMode.REINIT);
+
+                removeDuplicateDocumentAnnotations(aCas);
+            }
+        }
+    }
+
+    private static void removeDuplicateDocumentAnnotations(CAS aCas)
+    {
+        // Workaround for UIMA adding back deleted DocumentAnnotations
+        // https://issues.apache.org/jira/browse/UIMA-6199
+        // If there is a DocumentMetaData annotation, then we can drop any of the default
+        // UIMA DocumentAnnotation instances (excluding the DocumentMetaData of course)
+        if (!aCas.select(DocumentMetaData.class.getName()).isEmpty()) {
+            aCas.select(CAS.TYPE_NAME_DOCUMENT_ANNOTATION).filter(
+                    fs -> !DocumentMetaData.class.getName().equals(fs.getType().getName()))
+                    .forEach(aCas::removeFsFromIndexes);
+        }
+    }
+
+    /**
+     * A CAS serialized into memory. It does not refer to the CAS it was created from and can
+     * therefore be verified and written while the CAS itself is used (and changed) further.
+     */
+    public static final class SerializedCas
+    {
+        private final CasStorageFormat format;
+        private final CASCompleteSerializer serializer;
+        private final byte[] data;
+
+        private SerializedCas(CasStorageFormat aFormat, CASCompleteSerializer aSerializer,
+                byte[] aData)
+        {
+            format = aFormat;
+            serializer = aSerializer;
+            data = aData;
+        }
+
+        public CasStorageFormat getFormat()
+        {
+            return format;
+        }
+
+        public int size()
+        {
+            return data.length;
+        }
+
+        public long getChecksum()
+        {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            return crc.getValue();
+        }
+
+        /**
+         * Checks that the serialized CAS can be deserialized again. This is a safeguard against
+         * writing a CAS which can afterwards not be read and thus would render the document broken
+         * within the project (cf. https://issues.apache.org/jira/browse/UIMA-6162).
+         * 
+         * @throws IOException
+         *             if the serialized CAS cannot be deserialized.
+         */
+        public void verify() throws IOException
+        {
+            CAS dummy = null;
+            try {
+                dummy = CasPool.getSharedInstance().borrowCas();
+                switch (format) {
+                case SERIALIZED_CAS:
+                    deserializeCASComplete(serializer, (CASImpl) getRealCas(dummy));
+                    break;
+                case COMPRESSED_BINARY:
+                    CasIOUtils.load(new ByteArrayInputStream(data), null, getRealCas(dummy),
+                            CasLoadMode.REINIT);
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unsupported CAS storage format [" + format + "]");
+                }
+            }
+            catch (Exception e) {
+                throw new IOException(e);
+            }
+            finally {
+                if (dummy != null) {
+                    dummy.release();
+                }
+            }
+        }
+
+        /**
+         * Checks that the given file contains exactly the serialized CAS by comparing checksums.
+         * This is much cheaper than {@link #verify()} but only detects problems that occurred
+         * while writing the data to disk.
+         * 
+         * @param aFile
+         *            the file the serialized CAS has been written to.
+         * @throws IOException
+         *             if the file content does not match the serialized CAS.
+         */
+        public void verifyChecksum(File aFile) throws IOException
+        {
+            try (CheckedInputStream is = new CheckedInputStream(
+                    new BufferedInputStream(new FileInputStream(aFile)), new CRC32())) {
+                long length = IOUtils.consume(is);
+                if (length != data.length || is.getChecksum().getValue() != getChecksum()) {
+                    throw new IOException("Checksum of [" + aFile + "] (" + length
+                            + " bytes) does not match the serialized CAS (" + data.length
+                            + " bytes)");
+                }
+            }
+        }
+
+        public void writeTo(File aFile) throws IOException
+        {
+            FileUtils.forceMkdir(aFile.getParentFile());
+
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(aFile))) {
+                os.write(data);
+            }
+        }
+    }
 }
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.SERIALIZED_CAS;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasVerificationMode.ROUND_TRIP;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.ExclusiveAccessMode.POOL;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasVerificationMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.ExclusiveAccessMode;
+
+@Component
+@ConfigurationProperties("cas-storage")
+public class CasStorageProperties
+{
+    private CasStorageFormat format = SERIALIZED_CAS;
+    private boolean migrateOnRead = true;
+    private final VerificationOptions verification = new VerificationOptions();
+    private final WriteBehindOptions writeBehind = new WriteBehindOptions();
+    private final JournalOptions journal = new JournalOptions();
+    private final SharedCacheOptions sharedCache = new SharedCacheOptions();
+    private final BulkReadOptions bulkRead = new BulkReadOptions();
+    private final ExclusiveAccessOptions exclusiveAccess = new ExclusiveAccessOptions();
+
+    public CasStorageFormat getFormat()
+    {
+        return format;
+    }
+
+    public void setFormat(CasStorageFormat aFormat)
+    {
+        format = aFormat;
+    }
+
+    /**
+     * @return whether a CAS stored in a format other than the configured {@link #getFormat()
+     *         format} is converted to the configured format when it is read.
+     */
+    public boolean isMigrateOnRead()
+    {
+        return migrateOnRead;
+    }
+
+    public void setMigrateOnRead(boolean aMigrateOnRead)
+    {
+        migrateOnRead = aMigrateOnRead;
+    }
+
+    public VerificationOptions getVerification()
+    {
+        return verification;
+    }
+
+    public WriteBehindOptions getWriteBehind()
+    {
+        return writeBehind;
+    }
+
+    public JournalOptions getJournal()
+    {
+        return journal;
+    }
+
+    public SharedCacheOptions getSharedCache()
+    {
+        return sharedCache;
+    }
+
+    public BulkReadOptions getBulkRead()
+    {
+        return bulkRead;
+    }
+
+    public ExclusiveAccessOptions getExclusiveAccess()
+    {
+        return exclusiveAccess;
+    }
+
+    public static class VerificationOptions
+    {
+        private CasVerificationMode mode = ROUND_TRIP;
+        private int sampleInterval = 10;
+        private int queueSize = 100;
+
+        public CasVerificationMode getMode()
+        {
+            return mode;
+        }
+
+        public void setMode(CasVerificationMode aMode)
+        {
+            mode = aMode;
+        }
+
+        public int getSampleInterval()
+        {
+            return sampleInterval;
+        }
+
+        public void setSampleInterval(int aSampleInterval)
+        {
+            sampleInterval = aSampleInterval;
+        }
+
+        public int getQueueSize()
+        {
+            return queueSize;
+        }
+
+        public void setQueueSize(int aQueueSize)
+        {
+            queueSize = aQueueSize;
+        }
+    }
+
+    public static class WriteBehindOptions
+    {
+        private boolean enabled = false;
+        private long maxStaleness = 5;
+        private int maxPending = 1000;
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        /**
+         * @return maximum time in seconds that changes to a CAS may be kept in memory before they
+         *         are written to disk.
+         */
+        public long getMaxStaleness()
+        {
+            return maxStaleness;
+        }
+
+        public void setMaxStaleness(long aMaxStaleness)
+        {
+            maxStaleness = aMaxStaleness;
+        }
+
+        /**
+         * @return maximum number of CASes with changes not yet written to disk. If this number is
+         *         reached, further CASes are written immediately.
+         */
+        public int getMaxPending()
+        {
+            return maxPending;
+        }
+
+        public void setMaxPending(int aMaxPending)
+        {
+            maxPending = aMaxPending;
+        }
+    }
+
+    public static class JournalOptions
+    {
+        private boolean enabled = false;
+        private int maxEntries = 100;
+        private int compactionThreshold = 50;
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        /**
+         * @return maximum number of changes appended to the journal of a CAS before a full
+         *         snapshot is written instead.
+         */
+        public int getMaxEntries()
+        {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int aMaxEntries)
+        {
+            maxEntries = aMaxEntries;
+        }
+
+        /**
+         * @return maximum size of the journal of a CAS in percent of the size of its snapshot
+         *         before a full snapshot is written instead.
+         */
+        public int getCompactionThreshold()
+        {
+            return compactionThreshold;
+        }
+
+        public void setCompactionThreshold(int aCompactionThreshold)
+        {
+            compactionThreshold = aCompactionThreshold;
+        }
+    }
+
+    public static class SharedCacheOptions
+    {
+        private DataSize memoryBudget = DataSize.ofMegabytes(1024);
+
+        /**
+         * @return maximum estimated heap size of all CASes in the shared read-only cache.
+         */
+        public DataSize getMemoryBudget()
+        {
+            return memoryBudget;
+        }
+
+        public void setMemoryBudget(DataSize aMemoryBudget)
+        {
+            memoryBudget = aMemoryBudget;
+        }
+    }
+
+    public static class BulkReadOptions
+    {
+        private int threads = 4;
+
+        /**
+         * @return maximum number of threads used to load CASes in parallel when multiple CASes
+         *         are requested at once.
+         */
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public void setThreads(int aThreads)
+        {
+            threads = aThreads;
+        }
+    }
+
+    public static class ExclusiveAccessOptions
+    {
+        private ExclusiveAccessMode mode = POOL;
+        private long timeout = 180;
+
+        public ExclusiveAccessMode getMode()
+        {
+            return mode;
+        }
+
+        public void setMode(ExclusiveAccessMode aMode)
+        {
+            mode = aMode;
+        }
+
+        /**
+         * @return maximum time in seconds to wait for exclusive access to a CAS.
+         */
+        public long getTimeout()
+        {
+            return timeout;
+        }
+
+        public void setTimeout(long aTimeout)
+        {
+            timeout = aTimeout;
+        }
+    }
+}
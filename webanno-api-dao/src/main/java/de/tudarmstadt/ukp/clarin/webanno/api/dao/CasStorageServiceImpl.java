@@ -34,28 +34,43 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl.Re
 import static java.lang.System.currentTimeMillis;
 import static java.nio.file.Files.move;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static java.util.Collections.newSetFromMap;
-import static java.util.Collections.synchronizedSet;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toSet;
 import static org.apache.commons.lang3.ArrayUtils.contains;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.comparator.LastModifiedFileComparator;
 import org.apache.commons.lang3.Validate;
-import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
-import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.AbstractCas;
 import org.apache.uima.cas.CAS;
@@ -63,30 +78,48 @@ import org.apache.uima.cas.impl.CASImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.session.SessionDestroyedEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.event.TransactionalEventListener;
-import org.springframework.util.ConcurrentReferenceHashMap;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasProvider;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.DocumentOpenedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasBulkReadException;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceAction;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceLoader;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils.SerializedCas;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasHolder;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasJournal;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasKey;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
-import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.PooledCasHolderFactory;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageStatistics;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasWeigher;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasWriteVerifier;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.ExclusiveAccessManager;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.ExclusiveAccessManager.SharedAccess;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.ExclusiveAccessStatistics;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.LockingExclusiveAccessManager;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.PooledExclusiveAccessManager;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.SessionManagedCas;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
@@ -98,23 +131,25 @@ import de.tudarmstadt.ukp.clarin.webanno.support.wicket.WicketUtil;
 
 @Component(CasStorageService.SERVICE_NAME)
 public class CasStorageServiceImpl
-    implements CasStorageService
+    implements CasStorageService, CasStorageStatistics, DisposableBean
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final long EVICT_IDLE_CASES_AFTER_MINUTES = 5;
-    private final long SHARED_CAS_CACHE_SIZE = 10_000;
-    private final long CAS_BORROW_WAIT_TIMEOUT_MINUTES = 3;
 
     private final CasDoctor casDoctor;
     private final AnnotationSchemaService schemaService;
     private final RepositoryProperties repositoryProperties;
     private final BackupProperties backupProperties;
+    private final CasStorageProperties casStorageProperties;
 
-    private final GenericKeyedObjectPool<CasKey, CasHolder> exclusiveAccessPool;
-    private final Set<CasHolder> exclusiveAccessHolders = synchronizedSet(
-            newSetFromMap(new WeakHashMap<>()));
+    private final ExclusiveAccessManager exclusiveAccessManager;
     private final Cache<CasKey, CasHolder> sharedAccessCache;
+    private final CasWriteVerifier casWriteVerifier;
+    private final CasJournal casJournal;
+    private final Map<CasKey, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService writeBehindFlusher;
+    private final ExecutorService bulkReadExecutor;
 
     public static enum RepairAndUpgradeFlags
     {
@@ -125,50 +160,63 @@ public class CasStorageServiceImpl
         ISOLATED_SESSION;
     }
 
+    /**
+     * Creates a CAS storage using the default {@link CasStorageProperties}.
+     */
+    public CasStorageServiceImpl(CasDoctor aCasDoctor, AnnotationSchemaService aSchemaService,
+            RepositoryProperties aRepositoryProperties, BackupProperties aBackupProperties)
+    {
+        this(aCasDoctor, aSchemaService, aRepositoryProperties, aBackupProperties,
+                new CasStorageProperties());
+    }
+
     /**
      * @param aCasDoctor
      *            (optional) if present, CAS validation can take place
      * @param aSchemaService
      *            (optional) if present, CAS upgrades can be performed
      */
+    @Autowired
     public CasStorageServiceImpl(@Autowired(required = false) CasDoctor aCasDoctor,
             @Autowired(required = false) AnnotationSchemaService aSchemaService,
-            @Autowired RepositoryProperties aRepositoryProperties,
-            @Autowired BackupProperties aBackupProperties)
+            RepositoryProperties aRepositoryProperties, BackupProperties aBackupProperties,
+            CasStorageProperties aCasStorageProperties)
     {
         casDoctor = aCasDoctor;
         schemaService = aSchemaService;
         repositoryProperties = aRepositoryProperties;
         backupProperties = aBackupProperties;
-
-        GenericKeyedObjectPoolConfig<CasHolder> config = new GenericKeyedObjectPoolConfig<>();
-        // Since we want the pool to control exclusive access to a particular CAS, we only ever
-        // must have one instance per key (the key uniquely identifies the CAS)
-        config.setMaxTotalPerKey(1);
-        // Setting this to 0 because we do not want any CAS to stick around in memory indefinitely
-        config.setMinIdlePerKey(0);
-        // Run an evictor thread every 5 minutes
-        config.setTimeBetweenEvictionRunsMillis(MINUTES.toMillis(EVICT_IDLE_CASES_AFTER_MINUTES));
-        // Allow the evictor to drop idle CASes from the pool after 5 minutes (i.e. on each run)
-        config.setMinEvictableIdleTimeMillis(MINUTES.toMillis(EVICT_IDLE_CASES_AFTER_MINUTES));
-        // Allow the evictor to drop all idle CASes on every eviction run
-        config.setNumTestsPerEvictionRun(-1);
-        // Allow viewing the pool in JMX
-        config.setJmxEnabled(true);
-        config.setJmxNameBase(getClass().getPackage().getName() + ":type="
-                + getClass().getSimpleName() + ",name=");
-        config.setJmxNamePrefix("exclusiveCasAccessPool");
-        // Check if the CAS is still valid or needs to be replaced when it is borrowed and when it
-        // is returned
-        config.setTestOnReturn(true);
-        config.setTestOnBorrow(true);
-        config.setMaxWaitMillis(MINUTES.toMillis(CAS_BORROW_WAIT_TIMEOUT_MINUTES));
-        // We do not have to set maxTotal because the default is already to have no limit (-1)
-        exclusiveAccessPool = new GenericKeyedObjectPool<>(new PooledCasHolderFactory(), config);
-
+        casStorageProperties = aCasStorageProperties;
+
+        long exclusiveAccessTimeout = SECONDS
+                .toMillis(casStorageProperties.getExclusiveAccess().getTimeout());
+        long maxIdleTime = MINUTES.toMillis(EVICT_IDLE_CASES_AFTER_MINUTES);
+        // Never evict a CAS which has changes that have not been written to disk yet
+        Predicate<CasKey> retain = pendingWrites::containsKey;
+        switch (casStorageProperties.getExclusiveAccess().getMode()) {
+        case LOCK:
+            exclusiveAccessManager = new LockingExclusiveAccessManager(exclusiveAccessTimeout,
+                    maxIdleTime, retain);
+            break;
+        case POOL:
+            exclusiveAccessManager = new PooledExclusiveAccessManager(exclusiveAccessTimeout,
+                    maxIdleTime, getClass().getPackage().getName() + ":type="
+                            + getClass().getSimpleName() + ",name=",
+                    retain);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown exclusive access mode ["
+                    + casStorageProperties.getExclusiveAccess().getMode() + "]");
+        }
+
+        // The cache is bounded by the estimated heap size of the CASes (in KB) because the size
+        // of the documents varies considerably
+        long sharedCacheBudget = casStorageProperties.getSharedCache().getMemoryBudget()
+                .toKilobytes();
         sharedAccessCache = Caffeine.newBuilder()
                 .expireAfterAccess(EVICT_IDLE_CASES_AFTER_MINUTES, MINUTES)
-                .maximumSize(SHARED_CAS_CACHE_SIZE).recordStats().build();
+                .maximumWeight(sharedCacheBudget).weigher(new CasWeigher()).recordStats()
+                .build();
 
         if (casDoctor == null) {
             log.info("CAS doctor not available - unable to check/repair CASes");
@@ -182,6 +230,73 @@ public class CasStorageServiceImpl
         else {
             log.info("CAS backups disabled");
         }
+
+        log.info("Shared CAS cache memory budget: {}MB",
+                casStorageProperties.getSharedCache().getMemoryBudget().toMegabytes());
+
+        log.info("CAS storage format: {} (migrate on read: {})", casStorageProperties.getFormat(),
+                casStorageProperties.isMigrateOnRead());
+
+        log.info("CAS exclusive access mode: {} (timeout: {}sec)",
+                casStorageProperties.getExclusiveAccess().getMode(),
+                casStorageProperties.getExclusiveAccess().getTimeout());
+
+        int bulkReadThreads = Math.max(1, casStorageProperties.getBulkRead().getThreads());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(bulkReadThreads, bulkReadThreads, 1,
+                MINUTES, new LinkedBlockingQueue<>(),
+                new BasicThreadFactory.Builder().namingPattern("cas-bulk-read-%d").daemon(true)
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        bulkReadExecutor = executor;
+
+        casWriteVerifier = new CasWriteVerifier(casStorageProperties.getVerification().getMode(),
+                casStorageProperties.getVerification().getSampleInterval(),
+                casStorageProperties.getVerification().getQueueSize());
+
+        log.info("CAS verification mode: {}", casWriteVerifier.getMode());
+
+        // Existing journals are always replayed, even if journaling is disabled
+        casJournal = new CasJournal(casStorageProperties.getJournal().getMaxEntries(),
+                casStorageProperties.getJournal().getCompactionThreshold());
+        if (casStorageProperties.getJournal().isEnabled()) {
+            log.info("CAS journal enabled - max-entries: {}  compaction-threshold: {}%",
+                    casStorageProperties.getJournal().getMaxEntries(),
+                    casStorageProperties.getJournal().getCompactionThreshold());
+        }
+        else {
+            log.info("CAS journal disabled");
+        }
+
+        if (casStorageProperties.getWriteBehind().isEnabled()) {
+            writeBehindFlusher = new ScheduledThreadPoolExecutor(1,
+                    new BasicThreadFactory.Builder().namingPattern("cas-write-behind-%d")
+                            .daemon(true).build());
+            writeBehindFlusher.scheduleWithFixedDelay(this::flushStalePendingWrites, 1, 1,
+                    SECONDS);
+            log.info("CAS write-behind enabled - max-staleness: {}sec  max-pending: {}",
+                    casStorageProperties.getWriteBehind().getMaxStaleness(),
+                    casStorageProperties.getWriteBehind().getMaxPending());
+        }
+        else {
+            writeBehindFlusher = null;
+            log.info("CAS write-behind disabled");
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception
+    {
+        bulkReadExecutor.shutdownNow();
+
+        if (writeBehindFlusher != null) {
+            writeBehindFlusher.shutdown();
+            writeBehindFlusher.awaitTermination(30, SECONDS);
+            flushPendingWrites(key -> true);
+        }
+
+        casWriteVerifier.shutdown();
+
+        exclusiveAccessManager.destroy();
     }
 
     @Override
@@ -218,10 +333,16 @@ public class CasStorageServiceImpl
                         + mCas.get().getSourceDocumentId() + "]");
             }
 
-            realWriteCas(aDocument, aUserName, aCas);
+            if (!deferWrite(aDocument, aUserName, aCas)) {
+                realWriteCas(aDocument, aUserName, aCas);
+            }
         }
         else {
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUserName)) {
+                // Whatever CAS we write here supersedes any changes to the CAS in the exclusive
+                // access pool which are still waiting to be written
+                pendingWrites.remove(access.getKey());
+
                 realWriteCas(aDocument, aUserName, aCas);
 
                 // If the CAS which was written does not match the CAS in the session for the given
@@ -251,16 +372,255 @@ public class CasStorageServiceImpl
         session.getManagedState(aCas).ifPresent(SessionManagedCas::incrementWriteCount);
     }
 
+    /**
+     * Records that the given CAS needs to be written instead of writing it immediately. This is
+     * only possible if write-behind is enabled and if the CAS lives in the exclusive access pool -
+     * because only then it is still available when the write is eventually performed.
+     * 
+     * @return whether the write has been deferred.
+     */
+    private boolean deferWrite(SourceDocument aDocument, String aUserName, CAS aCas)
+    {
+        if (writeBehindFlusher == null) {
+            return false;
+        }
+
+        CasKey key = new CasKey(aDocument, aUserName);
+
+        CAS realCas = getRealCas(aCas);
+        if (exclusiveAccessManager.getHolders(key::equals).stream()
+                .noneMatch(h -> h.isCasSet() && getRealCas(h.getCas()) == realCas)) {
+            return false;
+        }
+
+        PendingWrite pending = pendingWrites.get(key);
+
+        // If the previous attempt to write the CAS in the background failed, we write it in the
+        // foreground now so the caller gets to see the problem
+        if (pending != null && pending.getFailure() != null) {
+            pendingWrites.remove(key);
+            return false;
+        }
+
+        if (pending == null && pendingWrites.size() >= casStorageProperties.getWriteBehind()
+                .getMaxPending()) {
+            log.debug("Too many pending CAS writes - writing CAS immediately");
+            return false;
+        }
+
+        pendingWrites.compute(key, (k, p) -> p != null ? p.coalesce()
+                : new PendingWrite(aDocument, aUserName));
+
+        return true;
+    }
+
+    private void flushStalePendingWrites()
+    {
+        long cutoff = currentTimeMillis()
+                - SECONDS.toMillis(casStorageProperties.getWriteBehind().getMaxStaleness());
+
+        try {
+            flushPendingWrites(key -> {
+                PendingWrite pending = pendingWrites.get(key);
+                // Pending writes which failed are not retried in the background. They get
+                // written in the foreground on the next write or when the CAS is accessed.
+                return pending != null && pending.getFailure() == null
+                        && pending.getSince() <= cutoff;
+            });
+        }
+        catch (Exception e) {
+            // Do not let the exception escape - that would cancel the periodic flushing
+            log.error("Unable to flush pending CAS writes", e);
+        }
+    }
+
+    /**
+     * Writes all pending CAS writes matching the given filter.
+     */
+    private void flushPendingWrites(Predicate<CasKey> aFilter)
+    {
+        List<CasKey> keys = new ArrayList<>(pendingWrites.keySet());
+        keys.removeIf(aFilter.negate());
+
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        // Use a nested session because we may be called during a request which already has a
+        // session or from a thread which has no session at all. The session must not be isolated
+        // because otherwise we might try borrowing a CAS which the parent session already holds.
+        try (CasStorageSession session = CasStorageSession.openNested()) {
+            for (CasKey key : keys) {
+                try {
+                    flushPendingWrite(key);
+                }
+                catch (Exception e) {
+                    PendingWrite pending = pendingWrites.get(key);
+                    if (pending != null) {
+                        pending.setFailure(e);
+                    }
+                    log.error("Unable to write pending changes for user [{}] on document [{}]({}) "
+                            + "in project [{}]({})", key.getUserId(), key.getDocumentName(),
+                            key.getDocumentId(), key.getProjectName(), key.getProjectId(), e);
+                }
+            }
+        }
+    }
+
+    private void flushPendingWrite(CasKey aKey) throws IOException
+    {
+        PendingWrite pending = pendingWrites.get(aKey);
+        if (pending == null) {
+            return;
+        }
+
+        try (WithExclusiveAccess access = new WithExclusiveAccess(pending.getDocument(),
+                pending.getUser())) {
+            flushPendingWrite(access);
+        }
+    }
+
+    /**
+     * Writes the CAS in the given exclusive access context to disk if there are changes which have
+     * not been written yet.
+     */
+    private void flushPendingWrite(WithExclusiveAccess aAccess) throws IOException
+    {
+        PendingWrite pending = pendingWrites.remove(aAccess.getKey());
+        if (pending == null) {
+            return;
+        }
+
+        if (!aAccess.isCasSet()) {
+            log.warn("CAS for user [{}] on document [{}]({}) has pending changes but is no "
+                    + "longer available", pending.getUser(), pending.getDocument().getName(),
+                    pending.getDocument().getId());
+            return;
+        }
+
+        writePendingCas(pending, aAccess.getCas());
+    }
+
+    private void writePendingCas(PendingWrite aPending, CAS aCas) throws IOException
+    {
+        try {
+            realWriteCas(aPending.getDocument(), aPending.getUser(), aCas);
+        }
+        catch (IOException | RuntimeException e) {
+            // Keep the changes pending unless they have been superseded in the meantime
+            pendingWrites.putIfAbsent(new CasKey(aPending.getDocument(), aPending.getUser()),
+                    aPending);
+            throw e;
+        }
+
+        log.trace("Wrote pending changes for user [{}] on document [{}]({}) coalescing {} writes "
+                + "after {}ms", aPending.getUser(), aPending.getDocument().getName(),
+                aPending.getDocument().getId(), aPending.getCount(),
+                currentTimeMillis() - aPending.getSince());
+    }
+
+    /**
+     * Called just before a CAS is returned to the exclusive access pool. If the holder is going to
+     * be dropped from the pool, then we must make sure that pending changes are written before.
+     */
+    private void beforeReturningToPool(CasKey aKey, CasHolder aHolder)
+    {
+        if (aHolder.isDeleted()) {
+            pendingWrites.remove(aKey);
+            return;
+        }
+
+        if (aHolder.isTypeSystemOutdated() && aHolder.isCasSet()) {
+            PendingWrite pending = pendingWrites.remove(aKey);
+            if (pending != null) {
+                try {
+                    writePendingCas(pending, aHolder.getCas());
+                }
+                catch (Exception e) {
+                    pendingWrites.remove(aKey);
+                    log.error("Unable to write pending changes for user [{}] on document [{}]({}) "
+                            + "in project [{}]({}) - changes are lost", aKey.getUserId(),
+                            aKey.getDocumentName(), aKey.getDocumentId(), aKey.getProjectName(),
+                            aKey.getProjectId(), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public CacheStats getSharedCasCacheStats()
+    {
+        return sharedAccessCache.stats();
+    }
+
+    @Override
+    public ExclusiveAccessStatistics getExclusiveAccessStatistics()
+    {
+        return exclusiveAccessManager.getStatistics();
+    }
+
+    @Override
+    public long getSharedCasCacheSize()
+    {
+        return sharedAccessCache.estimatedSize();
+    }
+
+    @Override
+    public long getSharedCasCacheWeight()
+    {
+        // The weight is only updated when the cache performs its pending maintenance
+        sharedAccessCache.cleanUp();
+        return sharedAccessCache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0)).orElse(0l);
+    }
+
     /*
      * For testing
      */
-    void writeSerializedCas(CAS aCas, File aFile) throws IOException
+    int getPendingWriteCount()
+    {
+        return pendingWrites.size();
+    }
+
+    /*
+     * For testing
+     */
+    void writeSerializedCas(CAS aCas, File aFile, File aPreviousVersion, CasKey aKey)
+        throws IOException
     {
-        CasPersistenceUtils.writeSerializedCas(aCas, aFile);
+        SerializedCas serializedCas = CasPersistenceUtils.serializeCas(aCas, aFile,
+                casStorageProperties.getFormat());
+
+        try {
+            casWriteVerifier.write(aKey, serializedCas, aFile, aPreviousVersion);
+        }
+        catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                CasPersistenceUtils.preserveForDebugging(aFile, aCas, serializedCas);
+            }
+            throw e;
+        }
+    }
+
+    CasWriteVerifier getCasWriteVerifier()
+    {
+        return casWriteVerifier;
     }
 
     private void realWriteCas(SourceDocument aDocument, String aUserName, CAS aCas)
         throws IOException
+    {
+        realWriteCas(aDocument, aUserName, aCas, false);
+    }
+
+    /**
+     * @param aForceSnapshot
+     *            whether to write a full snapshot of the CAS even if the changes could be
+     *            appended to the journal of the CAS.
+     */
+    private void realWriteCas(SourceDocument aDocument, String aUserName, CAS aCas,
+            boolean aForceSnapshot)
+        throws IOException
     {
         long t0 = currentTimeMillis();
 
@@ -279,6 +639,24 @@ public class CasStorageServiceImpl
             failOnConcurrentModification(aCas, currentVersion, aDocument, aUserName);
         }
 
+        // Try appending only the changes to the journal of the CAS. Backups must be copies of a
+        // full snapshot, so we write one if a backup is due.
+        if (casStorageProperties.getJournal().isEnabled() && !aForceSnapshot
+                && currentVersion.exists() && !isHistoryDue(aDocument, aUserName)) {
+            setDocumentId(aCas, aUserName);
+            if (casJournal.append(aCas, currentVersion)) {
+                log.debug("Journaled changes for user [{}] on document [{}]({}) in project "
+                        + "[{}]({})", aUserName, aDocument.getName(), aDocument.getId(),
+                        aDocument.getProject().getName(), aDocument.getProject().getId());
+
+                CasMetadataUtils.addOrUpdateCasMetadata(aCas, currentVersion, aDocument,
+                        aUserName);
+
+                WicketUtil.serverTiming("realWriteCas", currentTimeMillis() - t0);
+                return;
+            }
+        }
+
         // Save current version
         try {
             // Make a backup of the current version of the file before overwriting
@@ -289,15 +667,24 @@ public class CasStorageServiceImpl
             // Now write the new version to "<username>.ser" or CURATION_USER.ser
             long start = currentTimeMillis();
             setDocumentId(aCas, aUserName);
-            writeSerializedCas(aCas, currentVersion);
+            writeSerializedCas(aCas, currentVersion, oldVersion,
+                    new CasKey(aDocument, aUserName));
+            CasJournal.discard(currentVersion);
+            // Must happen before the CAS metadata is updated below because the snapshot does
+            // not contain the updated metadata
+            if (casStorageProperties.getJournal().isEnabled()) {
+                casJournal.checkpoint(aCas, currentVersion);
+            }
             long duration = currentTimeMillis() - start;
 
             try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                     String.valueOf(aDocument.getProject().getId()))) {
                 log.debug(
-                        "Updated annotations for user [{}] on document [{}]({}) in project [{}]({}) in {}ms",
+                        "Updated annotations for user [{}] on document [{}]({}) in project [{}]({}) "
+                                + "in {}ms ({} bytes as {})",
                         aUserName, aDocument.getName(), aDocument.getId(),
-                        aDocument.getProject().getName(), aDocument.getProject().getId(), duration);
+                        aDocument.getProject().getName(), aDocument.getProject().getId(), duration,
+                        currentVersion.length(), casStorageProperties.getFormat());
             }
         }
         catch (Exception e) {
@@ -352,20 +739,9 @@ public class CasStorageServiceImpl
         WicketUtil.serverTiming("realWriteCas", currentTimeMillis() - t0);
     }
 
-    private void manageHistory(File aCurrentVersion, SourceDocument aDocument, String aUserName)
-        throws IOException
+    private File[] listHistory(File aAnnotationFolder, String aUserName)
     {
-        if (backupProperties.getInterval() <= 0) {
-            return;
-        }
-
-        File annotationFolder = getAnnotationFolder(aDocument);
-
-        // Determine the reference point in time based on the current version
-        long now = aCurrentVersion.lastModified();
-
-        // Get all history files for the current user
-        File[] history = annotationFolder.listFiles(new FileFilter()
+        File[] history = aAnnotationFolder.listFiles(new FileFilter()
         {
             private final Matcher matcher = Pattern
                     .compile(Pattern.quote(aUserName) + "\\.ser\\.[0-9]+\\.bak").matcher("");
@@ -381,6 +757,38 @@ public class CasStorageServiceImpl
         // Sort the files (oldest one first)
         Arrays.sort(history, LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
 
+        return history;
+    }
+
+    /**
+     * @return whether writing the CAS now would create a new history file.
+     */
+    private boolean isHistoryDue(SourceDocument aDocument, String aUserName) throws IOException
+    {
+        if (backupProperties.getInterval() <= 0) {
+            return false;
+        }
+
+        File[] history = listHistory(getAnnotationFolder(aDocument), aUserName);
+        return history.length == 0 || history[history.length - 1].lastModified()
+                + (backupProperties.getInterval() * 1000) < currentTimeMillis();
+    }
+
+    private void manageHistory(File aCurrentVersion, SourceDocument aDocument, String aUserName)
+        throws IOException
+    {
+        if (backupProperties.getInterval() <= 0) {
+            return;
+        }
+
+        File annotationFolder = getAnnotationFolder(aDocument);
+
+        // Determine the reference point in time based on the current version
+        long now = aCurrentVersion.lastModified();
+
+        // Get all history files for the current user (oldest one first)
+        File[] history = listHistory(annotationFolder, aUserName);
+
         // Check if we need to make a new history file
         boolean historyFileCreated = false;
         File historyFile = new File(annotationFolder, aUserName + ".ser." + now + ".bak");
@@ -505,7 +913,7 @@ public class CasStorageServiceImpl
                         session.hashCode(), aUsername, aDocument.getName(), aDocument.getId());
 
                 key = new CasKey(aDocument, aUsername);
-                holder = borrowCas(key);
+                holder = exclusiveAccessManager.acquire(key);
 
                 // If the CAS has not been loaded into the exclusive access pool, then we need to
                 // load it
@@ -562,8 +970,7 @@ public class CasStorageServiceImpl
                             session.hashCode(), holder.getCasHashCode(), aUsername,
                             aDocument.getName(), aDocument.getId());
                     try {
-                        exclusiveAccessPool.returnObject(key, holder);
-                        logExclusiveAccessHolders();
+                        exclusiveAccessManager.release(key, holder);
                     }
                     catch (Exception e1) {
                         log.error("Unable to return CAS to exclusive access pool", e1);
@@ -582,6 +989,8 @@ public class CasStorageServiceImpl
             // Ensure that the CAS is not being re-written and temporarily unavailable while we
             // check for its existence
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
+                flushPendingWrite(access);
+
                 // Since we promise to only read the CAS, we don't have to worry about it being
                 // locked to a particular thread...
                 casHolder = sharedAccessCache.get(new CasKey(aDocument, aUsername),
@@ -595,6 +1004,8 @@ public class CasStorageServiceImpl
             // Ensure that the CAS is not being re-written and temporarily unavailable while we
             // check for its existence
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
+                flushPendingWrite(access);
+
                 casHolder = CasHolder.of(new CasKey(aDocument, aUsername),
                         () -> readOrCreateUnmanagedCas(aDocument, aUsername, aSupplier,
                                 aUpgradeMode));
@@ -605,6 +1016,8 @@ public class CasStorageServiceImpl
             // Ensure that the CAS is not being re-written and temporarily unavailable while we
             // check for its existence
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
+                flushPendingWrite(access);
+
                 casHolder = CasHolder.of(new CasKey(aDocument, aUsername),
                         () -> readUnmanagedCas(aDocument, aUsername));
             }
@@ -631,21 +1044,89 @@ public class CasStorageServiceImpl
         return cas;
     }
 
-    private CasHolder borrowCas(CasKey aKey)
+    @Override
+    public Map<Pair<SourceDocument, String>, CAS> readOrCreateCases(
+            Collection<Pair<SourceDocument, String>> aDocumentsAndUsers,
+            CasUpgradeMode aUpgradeMode, Function<SourceDocument, CasProvider> aSupplier,
+            CasAccessMode aAccessMode)
+        throws IOException, CasSessionException
     {
-        try {
-            CasHolder holder = exclusiveAccessPool.borrowObject(aKey);
-            // Add the holder to the set of known holder. Because this set it using weak
-            // references, and because we use the set only to inform holders when they become
-            // invalid we do never have to explicitly remove the holder from the set
-            exclusiveAccessHolders.add(holder);
-            log.trace("Added to exclusiveAccessHolders: {}", holder);
-            logExclusiveAccessHolders();
-            return holder;
+        Validate.isTrue(
+                SHARED_READ_ONLY_ACCESS.equals(aAccessMode)
+                        || UNMANAGED_ACCESS.equals(aAccessMode),
+                "Reading multiple CASes is only supported in [%s] and [%s] mode",
+                SHARED_READ_ONLY_ACCESS, UNMANAGED_ACCESS);
+
+        CasStorageSession session = CasStorageSession.get();
+
+        Map<Pair<SourceDocument, String>, CAS> cases = new LinkedHashMap<>();
+        Map<Pair<SourceDocument, String>, Exception> failures = new LinkedHashMap<>();
+        Map<Pair<SourceDocument, String>, Future<CAS>> pending = new LinkedHashMap<>();
+        for (Pair<SourceDocument, String> docAndUser : aDocumentsAndUsers) {
+            SourceDocument doc = docAndUser.getKey();
+            String user = docAndUser.getValue();
+            CasProvider supplier = aSupplier != null ? aSupplier.apply(doc) : null;
+
+            // Reserve the position in the result
+            cases.put(docAndUser, null);
+
+            // CASes which are already known to the session are not loaded in the background. In
+            // particular, a CAS which the session has borrowed exclusively could not be loaded by
+            // another thread until the session is closed.
+            if (session.getManagedState(doc.getId(), user).isPresent()) {
+                try {
+                    cases.put(docAndUser,
+                            readOrCreateCas(doc, user, aUpgradeMode, supplier, aAccessMode));
+                }
+                catch (IOException e) {
+                    failures.put(docAndUser, e);
+                }
+                continue;
+            }
+
+            pending.put(docAndUser, bulkReadExecutor.submit(() -> {
+                try (CasStorageSession loaderSession = CasStorageSession.open()) {
+                    return readOrCreateCas(doc, user, aUpgradeMode, supplier, aAccessMode);
+                }
+            }));
         }
-        catch (Exception e) {
-            throw new CasSessionException("Unable to borrow CAS", e);
+
+        for (Entry<Pair<SourceDocument, String>, Future<CAS>> e : pending.entrySet()) {
+            try {
+                CAS cas = e.getValue().get();
+                cases.put(e.getKey(), cas);
+
+                // Unmanaged CASes have been created by the loader thread and now belong to the
+                // caller. Shared CASes do not belong to any thread.
+                if (UNMANAGED_ACCESS.equals(aAccessMode)) {
+                    transferCasOwnershipToCurrentThread(cas);
+                }
+
+                // The loader session is already closed, so we transfer the CAS to the session of
+                // the caller
+                if (aAccessMode.isSessionManaged()) {
+                    session.add(e.getKey().getKey().getId(), e.getKey().getValue(), aAccessMode,
+                            cas).incrementReadCount();
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                pending.values().forEach(future -> future.cancel(true));
+                throw new IOException("Interrupted while reading CASes", ex);
+            }
+            catch (ExecutionException ex) {
+                failures.put(e.getKey(),
+                        ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+            }
         }
+
+        if (!failures.isEmpty()) {
+            // Let the caller use the CASes which could be read and only retry the others
+            failures.keySet().forEach(cases::remove);
+            throw new CasBulkReadException(cases, failures);
+        }
+
+        return cases;
     }
 
     /**
@@ -658,8 +1139,8 @@ public class CasStorageServiceImpl
         try {
             log.trace("Returning borrowed CAS [{}] for [{}]@[{}]({})", cas.hashCode(),
                     aKey.getUserId(), aKey.getDocumentName(), aKey.getDocumentId());
-            exclusiveAccessPool.returnObject(aKey, aHolder);
-            logExclusiveAccessHolders();
+            beforeReturningToPool(aKey, aHolder);
+            exclusiveAccessManager.release(aKey, aHolder);
         }
         catch (Exception e) {
             log.error("Unable to return CAS [{}] for [{}]@[{}]({}) to exclusive access pool",
@@ -721,7 +1202,7 @@ public class CasStorageServiceImpl
         String source;
 
         // If the CAS exists on disk already, load it from there
-        File casFile = getCasFile(aDocument, aUsername);
+        File casFile = getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUsername);
         if (casFile.exists()) {
             log.debug("Reading annotation document [{}] ({}) for user [{}] in project [{}] ({})",
                     aDocument.getName(), aDocument.getId(), aUsername,
@@ -788,7 +1269,20 @@ public class CasStorageServiceImpl
         }
 
         try {
-            CasPersistenceUtils.readSerializedCas(cas, casFile);
+            CasStorageFormat format = CasPersistenceUtils.readCas(cas, casFile);
+
+            // Apply the changes which have been journaled since the snapshot was written
+            boolean journalReplayed = casJournal.replay(cas, casFile,
+                    casStorageProperties.getJournal().isEnabled());
+            if (!journalReplayed && casStorageProperties.getJournal().isEnabled()) {
+                casJournal.checkpoint(cas, casFile);
+            }
+
+            if (casStorageProperties.isMigrateOnRead()
+                    && !casStorageProperties.getFormat().equals(format)) {
+                migrateCasFile(aDocument, aUser, cas, casFile, format);
+            }
+
             // Add/update the CAS metadata
             CasMetadataUtils.addOrUpdateCasMetadata(cas, casFile, aDocument, aUser);
         }
@@ -803,13 +1297,63 @@ public class CasStorageServiceImpl
         return cas;
     }
 
+    /**
+     * Re-writes a CAS file which has been stored in a format other than the configured format. The
+     * CAS must have just been read from the file. If the migration fails, the original file is
+     * restored and the CAS remains usable - it is then migrated on the next regular write.
+     */
+    private void migrateCasFile(SourceDocument aDocument, String aUser, CAS aCas, File aCasFile,
+            CasStorageFormat aSourceFormat)
+    {
+        File oldVersion = new File(aCasFile.getPath() + ".old");
+        long originalSize = aCasFile.length();
+        long start = currentTimeMillis();
+
+        try {
+            move(aCasFile.toPath(), oldVersion.toPath());
+            writeSerializedCas(aCas, aCasFile, oldVersion, new CasKey(aDocument, aUser));
+            CasJournal.discard(aCasFile);
+            if (casStorageProperties.getJournal().isEnabled()) {
+                casJournal.checkpoint(aCas, aCasFile);
+            }
+            FileUtils.forceDelete(oldVersion);
+
+            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                    String.valueOf(aDocument.getProject().getId()))) {
+                log.info(
+                        "Migrated annotations for user [{}] on document [{}]({}) in project "
+                                + "[{}]({}) from {} ({} bytes) to {} ({} bytes) in {}ms",
+                        aUser, aDocument.getName(), aDocument.getId(),
+                        aDocument.getProject().getName(), aDocument.getProject().getId(),
+                        aSourceFormat, originalSize, casStorageProperties.getFormat(),
+                        aCasFile.length(), currentTimeMillis() - start);
+            }
+        }
+        catch (Exception e) {
+            log.error("Unable to migrate annotations for user [{}] on document [{}]({}) in "
+                    + "project [{}]({}) to {}", aUser, aDocument.getName(), aDocument.getId(),
+                    aDocument.getProject().getName(), aDocument.getProject().getId(),
+                    casStorageProperties.getFormat(), e);
+
+            if (oldVersion.exists()) {
+                try {
+                    move(oldVersion.toPath(), aCasFile.toPath(), REPLACE_EXISTING);
+                }
+                catch (Exception ex) {
+                    log.error("Unable to restore previous annotations: [{}]", oldVersion, ex);
+                }
+            }
+        }
+    }
+
     @Override
     public boolean deleteCas(SourceDocument aDocument, String aUsername)
         throws IOException, CasSessionException
     {
         try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
-            boolean fileWasDeleted = new File(getAnnotationFolder(aDocument), aUsername + ".ser")
-                    .delete();
+            File casFile = new File(getAnnotationFolder(aDocument), aUsername + ".ser");
+            boolean fileWasDeleted = casFile.delete();
+            CasJournal.discard(casFile);
 
             // Drop the CAS from the shared CAS it doesn't ghost around. Also set the deleted flag
             // in the holder in case anybody might still be holding on to the holder and needs to
@@ -821,15 +1365,13 @@ public class CasStorageServiceImpl
             }
             sharedAccessCache.invalidate(key);
 
+            // Changes which have not been written yet are obsolete now
+            pendingWrites.remove(key);
+
             // Drop the CAS from the exclusive access pool. This is done my marking it as deleted
             // and then releasing it (returning it to the pool). Upon return, the deleted flag
             // causes the CAS to be invalidated and dropped from the pool.
-            exclusiveAccessHolders.forEach(h -> {
-                // Must use the forEach here because stream() is not synchronized!
-                if (Objects.equals(h.getKey(), key)) {
-                    h.setDeleted(true);
-                }
-            });
+            exclusiveAccessManager.getHolders(key::equals).forEach(h -> h.setDeleted(true));
             access.release();
 
             // Drop the CAS from the current session
@@ -942,7 +1484,48 @@ public class CasStorageServiceImpl
         Validate.notNull(aDocument, "Source document must be specified");
         Validate.notBlank(aUser, "User must be specified");
 
-        return getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUser);
+        // Callers of this method usually access the file directly (e.g. to export it), so make
+        // sure that it is up-to-date
+        CasKey key = new CasKey(aDocument, aUser);
+        if (pendingWrites.containsKey(key)) {
+            flushPendingWrites(key::equals);
+        }
+
+        File casFile = getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUser);
+        if (CasJournal.exists(casFile)) {
+            compactJournal(aDocument, aUser);
+        }
+
+        return casFile;
+    }
+
+    /**
+     * Writes a full snapshot of the CAS including all changes from its journal. The timestamp of
+     * the CAS file is preserved since the contents of the CAS do not change.
+     */
+    private void compactJournal(SourceDocument aDocument, String aUser) throws IOException
+    {
+        try (CasStorageSession session = CasStorageSession.openNested(true)) {
+            try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
+                File casFile = getCasFile(aDocument.getProject().getId(), aDocument.getId(),
+                        aUser);
+                if (!CasJournal.exists(casFile)) {
+                    return;
+                }
+
+                long timestamp = casFile.lastModified();
+                realWriteCas(aDocument, aUser, readUnmanagedCas(aDocument, aUser), true);
+                if (!casFile.setLastModified(timestamp)) {
+                    log.warn("Unable to restore timestamp of [{}]", casFile);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
     }
 
     public File getCasFile(long aProjectId, long aDocumentId, String aUser) throws IOException
@@ -973,6 +1556,9 @@ public class CasStorageServiceImpl
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
                 session.add(aDocument.getId(), aUser, EXCLUSIVE_WRITE_ACCESS, access.getHolder());
 
+                // The loader may read the CAS from disk, so make sure it is up-to-date there
+                flushPendingWrite(access);
+
                 CAS cas = aLoader.load(aDocument, aUser);
                 access.setCas(cas);
 
@@ -1002,8 +1588,8 @@ public class CasStorageServiceImpl
 
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
         // for its existence
-        try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
-            return getCasFile(aDocument, aUser).exists();
+        try (SharedAccess access = acquireSharedAccess(aDocument, aUser)) {
+            return getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUser).exists();
         }
         catch (IOException e) {
             throw e;
@@ -1013,6 +1599,23 @@ public class CasStorageServiceImpl
         }
     }
 
+    /**
+     * Ensures that nobody obtains exclusive access to the CAS while its file is inspected. Other
+     * callers inspecting the file at the same time are not blocked. If the current session already
+     * has exclusive access to the CAS, nothing needs to be done.
+     */
+    private SharedAccess acquireSharedAccess(SourceDocument aDocument, String aUser)
+        throws CasSessionException
+    {
+        if (CasStorageSession.get().hasExclusiveAccess(aDocument, aUser)) {
+            return () -> {
+                // Nothing to release
+            };
+        }
+
+        return exclusiveAccessManager.acquireShared(new CasKey(aDocument, aUser));
+    }
+
     private class WithExclusiveAccess
         implements AutoCloseable
     {
@@ -1036,7 +1639,7 @@ public class CasStorageServiceImpl
                 log.trace("CAS storage session [{}]: trying to briefly borrow CAS [{}]@[{}]({})",
                         session.hashCode(), aUser, aDocument.getName(), aDocument.getId());
 
-                holder = borrowCas(key);
+                holder = exclusiveAccessManager.acquire(key);
 
                 log.trace("CAS storage session [{}]: briefly borrowed CAS [{}]@[{}]({})",
                         session.hashCode(), aUser, aDocument.getName(), aDocument.getId());
@@ -1120,9 +1723,9 @@ public class CasStorageServiceImpl
         public void release()
         {
             if (holder != null) {
-                exclusiveAccessPool.returnObject(key, holder);
+                beforeReturningToPool(key, holder);
+                exclusiveAccessManager.release(key, holder);
                 holder = null;
-                logExclusiveAccessHolders();
             }
             else {
                 getCas().release();
@@ -1135,8 +1738,8 @@ public class CasStorageServiceImpl
             if (holder != null) {
                 log.trace("Returning briefly borrowed CAS [{}]@[{}]({})", username, documentName,
                         documentId);
-                exclusiveAccessPool.returnObject(key, holder);
-                logExclusiveAccessHolders();
+                beforeReturningToPool(key, holder);
+                exclusiveAccessManager.release(key, holder);
             }
         }
     }
@@ -1148,14 +1751,19 @@ public class CasStorageServiceImpl
         Validate.notBlank(aUser, "User must be specified");
 
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
-        // for its existence
-        try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
-            File casFile = getCasFile(aDocument, aUser);
-            if (!casFile.exists()) {
-                return Optional.empty();
+        // for its existence. Exclusive access is only required if there are changes which have
+        // not been written yet.
+        try {
+            try (SharedAccess access = acquireSharedAccess(aDocument, aUser)) {
+                if (!pendingWrites.containsKey(new CasKey(aDocument, aUser))) {
+                    return getCasFileTimestamp(aDocument, aUser);
+                }
             }
-            else {
-                return Optional.of(casFile.lastModified());
+
+            try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
+                flushPendingWrite(access);
+
+                return getCasFileTimestamp(aDocument, aUser);
             }
         }
         catch (IOException e) {
@@ -1166,6 +1774,18 @@ public class CasStorageServiceImpl
         }
     }
 
+    private Optional<Long> getCasFileTimestamp(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        File casFile = getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUser);
+        if (!casFile.exists()) {
+            return Optional.empty();
+        }
+        else {
+            return Optional.of(casFile.lastModified());
+        }
+    }
+
     /**
      * Get the folder where the annotations are stored. Creates the folder if necessary.
      *
@@ -1192,46 +1812,127 @@ public class CasStorageServiceImpl
         return annotationFolder;
     }
 
-    /**
-     * When using the Spring {@link ConcurrentReferenceHashMap} for the
-     * {@link #exclusiveAccessHolders}, we had some trouble that CASHolders disappeared from the set
-     * even though they had not yet been garbage collected (i.e. still referenced from the
-     * {@link #exclusiveAccessPool}. To fix this, we switch to a simple synchronized
-     * {@link WeakHashMap} turned into a set. We keep the debug/logging code around for a little
-     * more to facilitate debugging this again if need be.
-     */
-    private void logExclusiveAccessHolders()
-    {
-        if (log.isTraceEnabled()) {
-            if (exclusiveAccessHolders.isEmpty()) {
-                log.trace("exclusiveAccessHolders: empty!");
-            }
-            else {
-                log.trace("exclusiveAccessHolders: {}", exclusiveAccessHolders);
-            }
-        }
-    }
-
     @TransactionalEventListener(fallbackExecution = true)
     @Transactional
     public void beforeLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
     {
+        // CASes with an outdated type system are dropped from the exclusive access pool, so any
+        // changes to them which have not been written yet must be written now
+        flushPendingWrites(
+                key -> Objects.equals(key.getProjectId(), aEvent.getProject().getId()));
+
         // Tell the known CAS holders for the given project that their type system is outdated
         // so they can be refreshed when next returned or borrowed
-        logExclusiveAccessHolders();
-
-        exclusiveAccessHolders.forEach(h -> {
-            // Must use the forEach here because stream() is not synchronized!
-            if (Objects.equals(h.getKey().getProjectId(), aEvent.getProject().getId())) {
-                h.setTypeSystemOutdated(true);
-            }
-        });
-
-        logExclusiveAccessHolders();
+        exclusiveAccessManager
+                .getHolders(key -> Objects.equals(key.getProjectId(), aEvent.getProject().getId()))
+                .forEach(h -> h.setTypeSystemOutdated(true));
 
         // Drop all cached CASes from the updated project from the cache so the CASes get loaded
         // with an updated type system on next access
         sharedAccessCache.asMap().keySet()
                 .removeIf(key -> Objects.equals(key.getProjectId(), aEvent.getProject().getId()));
     }
+
+    @EventListener
+    public void onDocumentOpened(DocumentOpenedEvent aEvent)
+    {
+        // When the user switches to another document, the changes to the previous document should
+        // not linger in memory
+        long documentId = aEvent.getDocument().getId();
+        String user = aEvent.getAnnotator();
+        flushPendingWrites(key -> Objects.equals(key.getUserId(), user)
+                && key.getDocumentId() != documentId);
+    }
+
+    @EventListener
+    public void onSessionDestroyed(SessionDestroyedEvent aEvent)
+    {
+        // Write the changes made by the user whose session ended. Mind that a curator may also
+        // have edited CASes owned by other users.
+        Set<String> users = aEvent.getSecurityContexts().stream()
+                .map(SecurityContext::getAuthentication).filter(Objects::nonNull)
+                .map(Authentication::getName).collect(toSet());
+
+        if (!users.isEmpty()) {
+            flushPendingWrites(key -> {
+                PendingWrite pending = pendingWrites.get(key);
+                return users.contains(key.getUserId())
+                        || (pending != null && users.contains(pending.getEditor()));
+            });
+        }
+    }
+
+    /**
+     * Changes to a CAS which have been accepted by {@link #writeCas} but have not been written to
+     * disk yet.
+     */
+    private static final class PendingWrite
+    {
+        private final SourceDocument document;
+        private final String user;
+        private final String editor;
+        private final long since;
+        private int count;
+        private volatile Exception failure;
+
+        public PendingWrite(SourceDocument aDocument, String aUser)
+        {
+            document = aDocument;
+            user = aUser;
+            editor = currentUsername();
+            since = currentTimeMillis();
+            count = 1;
+        }
+
+        public PendingWrite coalesce()
+        {
+            count++;
+            return this;
+        }
+
+        public SourceDocument getDocument()
+        {
+            return document;
+        }
+
+        public String getUser()
+        {
+            return user;
+        }
+
+        /**
+         * @return the user who made the changes - this is not necessarily the owner of the CAS.
+         */
+        public String getEditor()
+        {
+            return editor;
+        }
+
+        public long getSince()
+        {
+            return since;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+
+        public Exception getFailure()
+        {
+            return failure;
+        }
+
+        public void setFailure(Exception aFailure)
+        {
+            failure = aFailure;
+        }
+
+        private static String currentUsername()
+        {
+            Authentication authentication = SecurityContextHolder.getContext()
+                    .getAuthentication();
+            return authentication != null ? authentication.getName() : null;
+        }
+    }
 }
@@ -29,7 +29,12 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.UNM
 import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.addOrUpdateCasMetadata;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IGNORE;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
 import static java.util.Objects.isNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
 import static org.apache.commons.io.IOUtils.copyLarge;
 
 import java.io.File;
@@ -40,13 +45,17 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TreeMap;
 
 import javax.persistence.EntityManager;
@@ -55,6 +64,7 @@ import javax.persistence.PersistenceContext;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
@@ -69,9 +79,13 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.event.TransactionPhase;
 import org.springframework.transaction.event.TransactionalEventListener;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentStatistics;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
@@ -110,6 +124,8 @@ public class DocumentServiceImpl
     private final ApplicationEventPublisher applicationEventPublisher;
     private final RepositoryProperties repositoryProperties;
 
+    private final Cache<Long, DocumentStatistics> statisticsCache;
+
     @Autowired
     public DocumentServiceImpl(RepositoryProperties aRepositoryProperties,
             CasStorageService aCasStorageService, ImportExportService aImportExportService,
@@ -122,6 +138,9 @@ public class DocumentServiceImpl
         importExportService = aImportExportService;
         projectService = aProjectService;
         applicationEventPublisher = aApplicationEventPublisher;
+
+        statisticsCache = Caffeine.newBuilder().expireAfterWrite(10, SECONDS).maximumSize(10_000)
+                .build();
     }
 
     public DocumentServiceImpl(RepositoryProperties aRepositoryProperties,
@@ -442,6 +461,94 @@ public class DocumentServiceImpl
                 .setParameter("state", AnnotationDocumentState.FINISHED).getResultList();
     }
 
+    @Override
+    @Transactional
+    public DocumentStatistics getStatistics(Project aProject)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+
+        return getStatistics(asList(aProject)).get(aProject.getId());
+    }
+
+    @Override
+    @Transactional
+    public Map<Long, DocumentStatistics> getStatistics(Collection<Project> aProjects)
+    {
+        List<Long> projectIds = aProjects.stream().map(Project::getId).collect(toList());
+        return statisticsCache.getAll(projectIds, this::loadStatistics);
+    }
+
+    private Map<Long, DocumentStatistics> loadStatistics(Iterable<? extends Long> aProjectIds)
+    {
+        List<Long> projectIds = new ArrayList<>();
+        aProjectIds.forEach(projectIds::add);
+
+        // Source documents per project and state - like listSourceDocuments(), this ignores
+        // documents in the TAB_SEP format
+        String sourceDocumentQuery = String.join("\n",
+                "SELECT d.project.id, d.state, COUNT(*)",
+                "FROM SourceDocument d",
+                "WHERE d.project.id IN (:projects)",
+                "  AND d.format <> :format",
+                "GROUP BY d.project.id, d.state");
+        Map<Long, Map<SourceDocumentState, Long>> sourceDocuments = new HashMap<>();
+        for (Object[] row : entityManager.createQuery(sourceDocumentQuery, Object[].class)
+                .setParameter("projects", projectIds)
+                .setParameter("format", WebAnnoConst.TAB_SEP)
+                .getResultList()) {
+            sourceDocuments.computeIfAbsent((Long) row[0], k -> new HashMap<>())
+                    .put((SourceDocumentState) row[1], (Long) row[2]);
+        }
+
+        // Annotators per project - like getAllAnnotators(), this ignores deleted users
+        String annotatorQuery = String.join("\n",
+                "SELECT DISTINCT p.project.id, p.user",
+                "FROM ProjectPermission p, User u",
+                "WHERE p.project.id IN (:projects)",
+                "  AND p.level = :level",
+                "  AND p.user  = u.username");
+        Map<Long, Set<String>> annotators = new HashMap<>();
+        for (Object[] row : entityManager.createQuery(annotatorQuery, Object[].class)
+                .setParameter("projects", projectIds)
+                .setParameter("level", ANNOTATOR)
+                .getResultList()) {
+            annotators.computeIfAbsent((Long) row[0], k -> new HashSet<>()).add((String) row[1]);
+        }
+
+        // Annotation documents per project, user and state - users who are not annotators are
+        // filtered out by DocumentStatistics
+        String annotationDocumentQuery = String.join("\n",
+                "SELECT d.project.id, d.user, d.state, COUNT(*)",
+                "FROM AnnotationDocument d",
+                "WHERE d.project.id IN (:projects)",
+                "GROUP BY d.project.id, d.user, d.state");
+        Map<Long, Map<String, Map<AnnotationDocumentState, Long>>> annotationDocuments =
+                new HashMap<>();
+        for (Object[] row : entityManager.createQuery(annotationDocumentQuery, Object[].class)
+                .setParameter("projects", projectIds)
+                .getResultList()) {
+            annotationDocuments.computeIfAbsent((Long) row[0], k -> new HashMap<>())
+                    .computeIfAbsent((String) row[1], k -> new HashMap<>())
+                    .put((AnnotationDocumentState) row[2], (Long) row[3]);
+        }
+
+        Map<Long, DocumentStatistics> statistics = new HashMap<>();
+        for (Long projectId : projectIds) {
+            statistics.put(projectId, new DocumentStatistics(projectId,
+                    sourceDocuments.getOrDefault(projectId, emptyMap()),
+                    annotators.getOrDefault(projectId, emptySet()),
+                    annotationDocuments.getOrDefault(projectId, emptyMap())));
+        }
+        return statistics;
+    }
+
+    private void invalidateStatistics(Project aProject)
+    {
+        if (aProject != null && aProject.getId() != null) {
+            statisticsCache.invalidate(aProject.getId());
+        }
+    }
+
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public List<SourceDocument> listSourceDocuments(Project aProject)
@@ -687,6 +794,21 @@ public class DocumentServiceImpl
         return cas;
     }
 
+    // NO TRANSACTION REQUIRED - This does not do any should not do a database access, so we do not
+    // need to be in a transaction here. Avoiding the transaction speeds up the call.
+    @Override
+    public Map<Pair<SourceDocument, String>, CAS> readAnnotationCases(
+            Collection<Pair<SourceDocument, String>> aDocumentsAndUsers,
+            CasUpgradeMode aUpgradeMode, CasAccessMode aMode)
+        throws IOException
+    {
+        // If there is no CAS yet for the source document, create one.
+        return casStorageService.readOrCreateCases(aDocumentsAndUsers, aUpgradeMode,
+                // Convert the source file into an annotation CAS
+                doc -> () -> createOrReadInitialCas(doc, NO_CAS_UPGRADE, UNMANAGED_ACCESS, null),
+                aMode);
+    }
+
     // NO TRANSACTION REQUIRED - This does not do any should not do a database access, so we do not
     // need to be in a transaction here. Avoiding the transaction speeds up the call.
     @Override
@@ -1011,6 +1133,36 @@ public class DocumentServiceImpl
                 AnnotationDocumentStateTransition.transition(aTransition));
     }
 
+    @TransactionalEventListener(fallbackExecution = true)
+    public void invalidateStatisticsOnDocumentStateChange(DocumentStateChangedEvent aEvent)
+    {
+        invalidateStatistics(aEvent.getDocument().getProject());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void invalidateStatisticsOnAnnotationStateChange(AnnotationStateChangeEvent aEvent)
+    {
+        invalidateStatistics(aEvent.getDocument().getProject());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void invalidateStatisticsOnDocumentCreated(AfterDocumentCreatedEvent aEvent)
+    {
+        invalidateStatistics(aEvent.getDocument().getProject());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void invalidateStatisticsOnDocumentRemoved(BeforeDocumentRemovedEvent aEvent)
+    {
+        invalidateStatistics(aEvent.getDocument().getProject());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void invalidateStatisticsOnProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        invalidateStatistics(aEvent.getProject());
+    }
+
     @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
     public void onDocumentStateChangeEvent(DocumentStateChangedEvent aEvent)
     {
@@ -87,8 +87,8 @@ import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasPool;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
 import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -459,7 +459,8 @@ public class ImportExportServiceImpl
         try (CasStorageSession session = CasStorageSession.openNested()) {
             // Update type system the CAS, compact it (remove all non-reachable feature structures)
             // and remove all internal feature structures in the process
-            CAS exportCas = WebAnnoCasUtil.createCas();
+            // The export CAS is returned to the pool when the session is closed
+            CAS exportCas = CasPool.getSharedInstance().borrowCas();
             session.add(EXPORT_CAS, CasAccessMode.EXCLUSIVE_WRITE_ACCESS, exportCas);
             annotationService.prepareCasForExport(aCas, exportCas, aDocument, exportTypeSystem);
 
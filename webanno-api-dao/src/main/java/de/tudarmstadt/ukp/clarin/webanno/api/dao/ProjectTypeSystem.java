@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Comparator.comparing;
+
+import java.util.Arrays;
+
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.AllowedValue;
+import org.apache.uima.resource.metadata.FeatureDescription;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.springframework.util.DigestUtils;
+
+/**
+ * The full type system of a project together with its version and the committed UIMA type system.
+ * The version is derived from the contents of the type system description, so it remains stable
+ * across restarts and changes whenever the layers or features of the project change.
+ */
+final class ProjectTypeSystem
+{
+    private final TypeSystemDescription description;
+    private final String version;
+    private volatile TypeSystem typeSystem;
+
+    ProjectTypeSystem(TypeSystemDescription aDescription)
+    {
+        description = aDescription;
+        version = calculateVersion(aDescription);
+    }
+
+    /**
+     * @return the type system description. It is shared between all users of this object, so it
+     *         must not be modified.
+     */
+    public TypeSystemDescription getDescription()
+    {
+        return description;
+    }
+
+    public String getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return the committed type system. UIMA re-uses an existing committed type system when a CAS
+     *         with an equal type system is created, so as long as this object is alive, all CASes
+     *         of the project share this instance.
+     */
+    public TypeSystem getTypeSystem() throws ResourceInitializationException
+    {
+        TypeSystem ts = typeSystem;
+        if (ts == null) {
+            synchronized (this) {
+                ts = typeSystem;
+                if (ts == null) {
+                    ts = CasCreationUtils.createCas(description, null, null).getTypeSystem();
+                    typeSystem = ts;
+                }
+            }
+        }
+        return ts;
+    }
+
+    /**
+     * @return whether the type system is known to be the committed type system of this object.
+     *         Does not commit the type system if this has not happened yet.
+     */
+    public boolean isCommittedTypeSystem(TypeSystem aTypeSystem)
+    {
+        return typeSystem != null && typeSystem == aTypeSystem;
+    }
+
+    static String calculateVersion(TypeSystemDescription aDescription)
+    {
+        StringBuilder sb = new StringBuilder();
+
+        TypeDescription[] types = aDescription.getTypes().clone();
+        Arrays.sort(types, comparing(TypeDescription::getName));
+        for (TypeDescription type : types) {
+            sb.append(type.getName()).append('<').append(type.getSupertypeName()).append('{');
+
+            FeatureDescription[] features = type.getFeatures().clone();
+            Arrays.sort(features, comparing(FeatureDescription::getName));
+            for (FeatureDescription feature : features) {
+                sb.append(feature.getName()).append(':').append(feature.getRangeTypeName())
+                        .append('[').append(feature.getElementType()).append(']')
+                        .append(feature.getMultipleReferencesAllowed()).append(';');
+            }
+
+            if (type.getAllowedValues() != null) {
+                for (AllowedValue value : type.getAllowedValues()) {
+                    sb.append('=').append(value.getString());
+                }
+            }
+
+            sb.append('}');
+        }
+
+        return DigestUtils.md5DigestAsHex(sb.toString().getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,1041 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static java.lang.System.currentTimeMillis;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.synchronizedMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CommonArrayFS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.TypeImpl;
+import org.apache.uima.jcas.cas.AnnotationBase;
+import org.apache.uima.jcas.cas.BooleanArray;
+import org.apache.uima.jcas.cas.ByteArray;
+import org.apache.uima.jcas.cas.DoubleArray;
+import org.apache.uima.jcas.cas.FSArray;
+import org.apache.uima.jcas.cas.FloatArray;
+import org.apache.uima.jcas.cas.IntegerArray;
+import org.apache.uima.jcas.cas.LongArray;
+import org.apache.uima.jcas.cas.ShortArray;
+import org.apache.uima.jcas.cas.Sofa;
+import org.apache.uima.jcas.cas.StringArray;
+import org.apache.uima.jcas.cas.TOP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the changes made to a CAS since it was last written as a full snapshot.
+ * The journal is stored next to the snapshot file and is replayed when the snapshot is read.
+ * <p>
+ * Feature structures are identified in the journal by their position in the ID-sorted list of
+ * feature structures reachable in the snapshot. Feature structures created later are numbered
+ * consecutively in the order in which they appear in the journal. Thus, the journal does not depend
+ * on feature structure IDs being preserved when the snapshot is read.
+ * <p>
+ * Changes are detected by comparing a fingerprint of every reachable feature structure against the
+ * fingerprint recorded when the CAS was last written or read. The change tracking of the CAS itself
+ * (cf. {@link CAS#createMarker()}) is not used because a CAS supports only a single marker which
+ * cannot be reset and which records changes for the remaining lifetime of the CAS. Each journal
+ * entry contains the feature structures which have been created, changed or which have become
+ * unreachable. Changes which cannot be represented in the journal (e.g. adding a view) cause
+ * {@link #append} to decline such that the caller needs to write a full snapshot instead.
+ */
+public class CasJournal
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasJournal.class);
+
+    private static final String SUFFIX = ".journal";
+
+    private static final int MAGIC = 0x57414A4C; // WAJL
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 4;
+    private static final int ENTRY_HEADER_LENGTH = 4 + 8;
+
+    private static final byte OP_CREATE = 1;
+    private static final byte OP_SET = 2;
+    private static final byte OP_DELETE = 3;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int maxEntries;
+    private final int compactionThreshold;
+    private final Map<CAS, State> states = synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * @param aMaxEntries
+     *            maximum number of entries in a journal before a full snapshot is written.
+     * @param aCompactionThreshold
+     *            maximum size of the journal in percent of the snapshot size before a full
+     *            snapshot is written.
+     */
+    public CasJournal(int aMaxEntries, int aCompactionThreshold)
+    {
+        maxEntries = aMaxEntries;
+        compactionThreshold = aCompactionThreshold;
+    }
+
+    public static File getJournalFile(File aCasFile)
+    {
+        return new File(aCasFile.getPath() + SUFFIX);
+    }
+
+    public static boolean exists(File aCasFile)
+    {
+        return getJournalFile(aCasFile).exists();
+    }
+
+    /**
+     * Deletes the journal belonging to the given snapshot file. This must be done whenever a new
+     * full snapshot has been written.
+     */
+    public static void discard(File aCasFile) throws IOException
+    {
+        Files.deleteIfExists(getJournalFile(aCasFile).toPath());
+    }
+
+    /**
+     * Records the current state of the CAS as the state stored in the given snapshot file. This
+     * must be called right after the CAS has been written to or read from the file - before any
+     * further changes are made to the CAS.
+     */
+    public void checkpoint(CAS aCas, File aCasFile)
+    {
+        CASImpl cas = getBaseCas(aCas);
+
+        List<TOP> fss = reachable(cas);
+        State state = new State(cas.getTypeSystem(), fss.size());
+        for (TOP fs : fss) {
+            state.assign(fs, state.nextJid++);
+        }
+
+        if (state.fingerprintAll(cas, fss)) {
+            state.baseLength = aCasFile.length();
+            state.lastModified = aCasFile.lastModified();
+            states.put(cas, state);
+        }
+        else {
+            states.remove(cas);
+        }
+    }
+
+    /**
+     * Tries appending the changes made to the CAS since it was last written or read to the journal
+     * of the given snapshot file.
+     *
+     * @return {@code true} if the changes have been appended. If {@code false} is returned, the
+     *         caller must write a full snapshot instead.
+     * @throws IOException
+     *             if the journal could not be written. In this case, the journal is restored to
+     *             its previous state.
+     */
+    public boolean append(CAS aCas, File aCasFile) throws IOException
+    {
+        CASImpl cas = getBaseCas(aCas);
+
+        State state = states.get(cas);
+        if (state == null || state.typeSystem != cas.getTypeSystem()) {
+            return false;
+        }
+
+        File journalFile = getJournalFile(aCasFile);
+
+        // Check that neither the snapshot nor the journal have been changed by somebody else
+        if (aCasFile.length() != state.baseLength || aCasFile.lastModified() != state.lastModified
+                || journalFile.length() != state.journalLength) {
+            return false;
+        }
+
+        if (state.entries >= maxEntries || (journalFile.length() * 100) > (aCasFile.length()
+                * compactionThreshold)) {
+            return false;
+        }
+
+        Delta delta = state.diff(cas);
+        if (delta == null) {
+            return false;
+        }
+
+        if (state.baseChecksum == null) {
+            state.baseChecksum = checksum(aCasFile);
+        }
+
+        boolean newJournal = !journalFile.exists();
+        try (OutputStream os = new FileOutputStream(journalFile, true)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+            if (newJournal) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(state.baseLength);
+                out.writeLong(state.baseChecksum);
+                out.writeInt(state.baseCount);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(delta.payload);
+            out.writeInt(delta.payload.length);
+            out.writeLong(crc.getValue());
+            out.write(delta.payload);
+            out.flush();
+        }
+        catch (IOException e) {
+            // Remove whatever we may have managed to write
+            if (newJournal) {
+                Files.deleteIfExists(journalFile.toPath());
+            }
+            else {
+                try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                    raf.setLength(state.journalLength);
+                }
+            }
+            throw e;
+        }
+
+        // The snapshot file is not touched when changes are journaled, but its timestamp is used
+        // to detect changes, so we update it
+        if (!aCasFile.setLastModified(currentTimeMillis())) {
+            LOG.warn("Unable to update timestamp of [{}]", aCasFile);
+        }
+
+        state.commit(delta);
+        state.journalLength = journalFile.length();
+        state.lastModified = aCasFile.lastModified();
+        state.entries++;
+
+        return true;
+    }
+
+    /**
+     * Applies the journal belonging to the given snapshot file to the CAS. The CAS must just have
+     * been read from the snapshot file. A journal which does not belong to the current snapshot
+     * (e.g. because the application terminated before the journal could be deleted after writing
+     * a new snapshot) is ignored. An incompletely written entry at the end of the journal is
+     * ignored as well.
+     *
+     * @param aRecordState
+     *            whether to record the state of the CAS after the replay such that further
+     *            changes can be appended to the journal.
+     * @return whether the journal has been applied.
+     */
+    public boolean replay(CAS aCas, File aCasFile, boolean aRecordState) throws IOException
+    {
+        File journalFile = getJournalFile(aCasFile);
+        if (!journalFile.exists()) {
+            return false;
+        }
+
+        CASImpl cas = getBaseCas(aCas);
+        State state = new State(cas.getTypeSystem(), 0);
+        List<TOP> fss = reachable(cas);
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("[" + journalFile + "] is not a CAS journal");
+            }
+
+            long baseLength = in.readLong();
+            long baseChecksum = in.readLong();
+            int baseCount = in.readInt();
+
+            if (baseLength != aCasFile.length() || baseChecksum != checksum(aCasFile)) {
+                LOG.warn("Ignoring journal [{}] which does not belong to the current version of "
+                        + "[{}]", journalFile, aCasFile);
+                return false;
+            }
+
+            if (baseCount != fss.size()) {
+                throw new IOException("Journal [" + journalFile + "] expects " + baseCount
+                        + " feature structures in [" + aCasFile + "] but found " + fss.size());
+            }
+
+            state.baseLength = baseLength;
+            state.baseChecksum = baseChecksum;
+            state.baseCount = baseCount;
+            state.journalLength = HEADER_LENGTH;
+
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    long expectedChecksum = in.readLong();
+                    payload = new byte[length];
+                    in.readFully(payload);
+
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if (crc.getValue() != expectedChecksum) {
+                        LOG.warn("Ignoring corrupt entry at the end of journal [{}]", journalFile);
+                        break;
+                    }
+                }
+                catch (EOFException e) {
+                    if (state.journalLength < journalFile.length()) {
+                        LOG.warn("Ignoring incomplete entry at the end of journal [{}]",
+                                journalFile);
+                    }
+                    break;
+                }
+
+                apply(cas, fss, payload);
+
+                state.journalLength += ENTRY_HEADER_LENGTH + payload.length;
+                state.entries++;
+            }
+        }
+
+        LOG.debug("Replayed {} journal entries from [{}]", state.entries, journalFile);
+
+        if (aRecordState) {
+            for (int i = 0; i < fss.size(); i++) {
+                state.assign(fss.get(i), i);
+            }
+            state.nextJid = fss.size();
+            state.lastModified = aCasFile.lastModified();
+
+            // FSes from the journal which are no longer reachable remain deleted
+            List<TOP> reachable = reachable(cas);
+            if (state.fingerprintAll(cas, reachable)) {
+                states.put(cas, state);
+            }
+            else {
+                states.remove(cas);
+            }
+        }
+        else {
+            states.remove(cas);
+        }
+
+        return true;
+    }
+
+    private void apply(CASImpl aCas, List<TOP> aFss, byte[] aPayload) throws IOException
+    {
+        TypeSystem ts = aCas.getTypeSystem();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(aPayload));
+        int ops = in.readInt();
+        for (int i = 0; i < ops; i++) {
+            byte op = in.readByte();
+            switch (op) {
+            case OP_CREATE: {
+                int jid = in.readInt();
+                String typeName = readString(in);
+                String viewName = readString(in);
+                int length = in.readInt();
+
+                if (jid != aFss.size()) {
+                    throw new IOException("Expected new feature structure number " + aFss.size()
+                            + " but got " + jid);
+                }
+
+                Type type = ts.getType(typeName);
+                if (type == null) {
+                    throw new IOException("Unknown type [" + typeName + "]");
+                }
+
+                TOP fs;
+                if (type.isArray()) {
+                    fs = aCas.createArray((TypeImpl) type, length);
+                }
+                else if (viewName != null) {
+                    fs = aCas.getView(viewName).createFS(type);
+                }
+                else {
+                    fs = aCas.createFS(type);
+                }
+                aFss.add(fs);
+                break;
+            }
+            case OP_SET: {
+                TOP fs = aFss.get(in.readInt());
+
+                int viewCount = in.readInt();
+                String[] views = new String[viewCount];
+                for (int v = 0; v < viewCount; v++) {
+                    views[v] = readString(in);
+                }
+
+                // Key features must not be changed while the FS is in the indexes
+                removeFromIndexes(aCas, fs);
+                readValues(in, fs, aFss);
+                for (String view : views) {
+                    aCas.getView(view).addFsToIndexes(fs);
+                }
+                break;
+            }
+            case OP_DELETE: {
+                removeFromIndexes(aCas, aFss.get(in.readInt()));
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal operation [" + op + "]");
+            }
+        }
+    }
+
+    private static void removeFromIndexes(CASImpl aCas, TOP aFs)
+    {
+        if (aFs instanceof AnnotationBase) {
+            ((AnnotationBase) aFs).getView().removeFsFromIndexes(aFs);
+        }
+        else {
+            Iterator<CAS> i = aCas.getViewIterator();
+            while (i.hasNext()) {
+                i.next().removeFsFromIndexes(aFs);
+            }
+        }
+    }
+
+    private static CASImpl getBaseCas(CAS aCas)
+    {
+        return ((CASImpl) getRealCas(aCas)).getBaseCAS();
+    }
+
+    private static List<TOP> reachable(CASImpl aCas)
+    {
+        return aCas.walkReachablePlusFSsSorted(fs -> {
+            // Nothing to do
+        }, null, null, null);
+    }
+
+    private static long checksum(File aFile) throws IOException
+    {
+        try (CheckedInputStream is = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(aFile)), new CRC32())) {
+            IOUtils.consume(is);
+            return is.getChecksum().getValue();
+        }
+    }
+
+    private static long fingerprint(byte[] aBuffer, int aLength)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < aLength; i++) {
+            hash ^= aBuffer[i] & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static boolean isSofaFeature(Feature aFeature)
+    {
+        return CAS.FEATURE_FULL_NAME_SOFA.equals(aFeature.getName());
+    }
+
+    private static void writeString(DataOutputStream aOut, String aValue) throws IOException
+    {
+        if (aValue == null) {
+            aOut.writeInt(-1);
+        }
+        else {
+            byte[] bytes = aValue.getBytes(UTF_8);
+            aOut.writeInt(bytes.length);
+            aOut.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream aIn) throws IOException
+    {
+        int length = aIn.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        aIn.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Writes the features values of the given FS. References to other FSes are written using
+     * their journal IDs.
+     */
+    private static void writeValues(DataOutputStream aOut, TOP aFs, JidResolver aJids)
+        throws IOException
+    {
+        if (aFs instanceof BooleanArray) {
+            BooleanArray array = (BooleanArray) aFs;
+            aOut.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                aOut.writeBoolean(array.get(i));
+            }
+        }
+        else if (aFs instanceof ByteArray) {
+            ByteArray array = (ByteArray) aFs;
+            aOut.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                aOut.writeByte(array.get(i));
+            }
+        }
+        else if (aFs instanceof ShortArray) {
+            ShortArray array = (ShortArray) aFs;
+            aOut.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                aOut.writeShort(array.get(i));
+            }
+        }
+        else if (aFs instanceof IntegerArray) {
+            IntegerArray array = (IntegerArray) aFs;
+            aOut.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                aOut.writeInt(array.get(i));
+            }
+        }
+        else if (aFs instanceof LongArray) {
+            LongArray array = (LongArray) aFs;
+            aOut.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                aOut.writeLong(array.get(i));
+            }
+        }
+        else if (aFs instanceof FloatArray) {
+            FloatArray array = (FloatArray) aFs;
+            aOut.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                aOut.writeFloat(array.get(i));
+            }
+        }
+        else if (aFs instanceof DoubleArray) {
+            DoubleArray array = (DoubleArray) aFs;
+            aOut.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                aOut.writeDouble(array.get(i));
+            }
+        }
+        else if (aFs instanceof StringArray) {
+            StringArray array = (StringArray) aFs;
+            aOut.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                writeString(aOut, array.get(i));
+            }
+        }
+        else if (aFs instanceof FSArray) {
+            FSArray<?> array = (FSArray<?>) aFs;
+            aOut.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                aOut.writeInt(aJids.jid(array.get(i)));
+            }
+        }
+        else {
+            for (Feature feature : aFs.getType().getFeatures()) {
+                if (isSofaFeature(feature)) {
+                    continue;
+                }
+
+                TypeImpl range = (TypeImpl) feature.getRange();
+                switch (range.getName()) {
+                case CAS.TYPE_NAME_BOOLEAN:
+                    aOut.writeBoolean(aFs.getBooleanValue(feature));
+                    break;
+                case CAS.TYPE_NAME_BYTE:
+                    aOut.writeByte(aFs.getByteValue(feature));
+                    break;
+                case CAS.TYPE_NAME_SHORT:
+                    aOut.writeShort(aFs.getShortValue(feature));
+                    break;
+                case CAS.TYPE_NAME_INTEGER:
+                    aOut.writeInt(aFs.getIntValue(feature));
+                    break;
+                case CAS.TYPE_NAME_LONG:
+                    aOut.writeLong(aFs.getLongValue(feature));
+                    break;
+                case CAS.TYPE_NAME_FLOAT:
+                    aOut.writeFloat(aFs.getFloatValue(feature));
+                    break;
+                case CAS.TYPE_NAME_DOUBLE:
+                    aOut.writeDouble(aFs.getDoubleValue(feature));
+                    break;
+                default:
+                    if (range.isStringOrStringSubtype()) {
+                        writeString(aOut, aFs.getStringValue(feature));
+                    }
+                    else {
+                        aOut.writeInt(aJids.jid(aFs.getFeatureValue(feature)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counterpart of {@link #writeValues}.
+     */
+    private static void readValues(DataInputStream aIn, TOP aFs, List<TOP> aFss)
+        throws IOException
+    {
+        if (aFs instanceof CommonArrayFS) {
+            int length = aIn.readInt();
+            if (length != ((CommonArrayFS<?>) aFs).size()) {
+                throw new IOException("Array length mismatch: expected "
+                        + ((CommonArrayFS<?>) aFs).size() + " but got " + length);
+            }
+        }
+
+        if (aFs instanceof BooleanArray) {
+            BooleanArray array = (BooleanArray) aFs;
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, aIn.readBoolean());
+            }
+        }
+        else if (aFs instanceof ByteArray) {
+            ByteArray array = (ByteArray) aFs;
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, aIn.readByte());
+            }
+        }
+        else if (aFs instanceof ShortArray) {
+            ShortArray array = (ShortArray) aFs;
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, aIn.readShort());
+            }
+        }
+        else if (aFs instanceof IntegerArray) {
+            IntegerArray array = (IntegerArray) aFs;
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, aIn.readInt());
+            }
+        }
+        else if (aFs instanceof LongArray) {
+            LongArray array = (LongArray) aFs;
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, aIn.readLong());
+            }
+        }
+        else if (aFs instanceof FloatArray) {
+            FloatArray array = (FloatArray) aFs;
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, aIn.readFloat());
+            }
+        }
+        else if (aFs instanceof DoubleArray) {
+            DoubleArray array = (DoubleArray) aFs;
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, aIn.readDouble());
+            }
+        }
+        else if (aFs instanceof StringArray) {
+            StringArray array = (StringArray) aFs;
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, readString(aIn));
+            }
+        }
+        else if (aFs instanceof FSArray) {
+            @SuppressWarnings("unchecked")
+            FSArray<TOP> array = (FSArray<TOP>) aFs;
+            for (int i = 0; i < array.size(); i++) {
+                int jid = aIn.readInt();
+                array.set(i, jid < 0 ? null : aFss.get(jid));
+            }
+        }
+        else {
+            for (Feature feature : aFs.getType().getFeatures()) {
+                if (isSofaFeature(feature)) {
+                    continue;
+                }
+
+                TypeImpl range = (TypeImpl) feature.getRange();
+                switch (range.getName()) {
+                case CAS.TYPE_NAME_BOOLEAN:
+                    aFs.setBooleanValue(feature, aIn.readBoolean());
+                    break;
+                case CAS.TYPE_NAME_BYTE:
+                    aFs.setByteValue(feature, aIn.readByte());
+                    break;
+                case CAS.TYPE_NAME_SHORT:
+                    aFs.setShortValue(feature, aIn.readShort());
+                    break;
+                case CAS.TYPE_NAME_INTEGER:
+                    aFs.setIntValue(feature, aIn.readInt());
+                    break;
+                case CAS.TYPE_NAME_LONG:
+                    aFs.setLongValue(feature, aIn.readLong());
+                    break;
+                case CAS.TYPE_NAME_FLOAT:
+                    aFs.setFloatValue(feature, aIn.readFloat());
+                    break;
+                case CAS.TYPE_NAME_DOUBLE:
+                    aFs.setDoubleValue(feature, aIn.readDouble());
+                    break;
+                default:
+                    if (range.isStringOrStringSubtype()) {
+                        aFs.setStringValue(feature, readString(aIn));
+                    }
+                    else {
+                        int jid = aIn.readInt();
+                        aFs.setFeatureValue(feature, jid < 0 ? null : aFss.get(jid));
+                    }
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private static interface JidResolver
+    {
+        int jid(FeatureStructure aFs);
+    }
+
+    /**
+     * Changes to be appended to the journal and the state to be recorded once they have been
+     * appended.
+     */
+    private static final class Delta
+    {
+        private byte[] payload;
+        private final Map<Integer, Integer> newJids = new HashMap<>();
+        private final Map<Integer, Long> newFingerprints = new HashMap<>();
+        private final BitSet newlyDeleted = new BitSet();
+        private int nextJid;
+    }
+
+    /**
+     * Maps the feature structures of a CAS to their journal IDs and records their fingerprints.
+     */
+    private static final class State
+    {
+        private final TypeSystem typeSystem;
+        private int baseCount;
+        private long baseLength;
+        private Long baseChecksum;
+        private long lastModified;
+        private long journalLength;
+        private int entries;
+
+        private int[] jidsById = new int[0];
+        private long[] fingerprints = new long[0];
+        private final BitSet deleted = new BitSet();
+        private int nextJid;
+
+        public State(TypeSystem aTypeSystem, int aBaseCount)
+        {
+            typeSystem = aTypeSystem;
+            baseCount = aBaseCount;
+        }
+
+        public int jid(FeatureStructure aFs)
+        {
+            if (aFs == null) {
+                return -1;
+            }
+
+            int id = aFs._id();
+            // Stored as jid + 1 such that 0 means "unknown"
+            return id < jidsById.length ? jidsById[id] - 1 : -1;
+        }
+
+        public void assign(FeatureStructure aFs, int aJid)
+        {
+            int id = aFs._id();
+            if (id >= jidsById.length) {
+                jidsById = Arrays.copyOf(jidsById, Math.max(id + 1, jidsById.length * 2));
+            }
+            jidsById[id] = aJid + 1;
+        }
+
+        private void setFingerprint(int aJid, long aFingerprint)
+        {
+            if (aJid >= fingerprints.length) {
+                fingerprints = Arrays.copyOf(fingerprints,
+                        Math.max(aJid + 1, fingerprints.length * 2));
+            }
+            fingerprints[aJid] = aFingerprint;
+        }
+
+        /**
+         * Records the fingerprints of the given FSes and marks all other known FSes as deleted.
+         *
+         * @return {@code false} if the FSes cannot be represented in the journal.
+         */
+        public boolean fingerprintAll(CASImpl aCas, List<TOP> aFss)
+        {
+            ViewMemberships memberships = ViewMemberships.of(aCas, aFss);
+            if (memberships == null) {
+                return false;
+            }
+
+            deleted.set(0, nextJid);
+            Serializer serializer = new Serializer();
+            try {
+                for (TOP fs : aFss) {
+                    int jid = jid(fs);
+                    if (jid < 0) {
+                        return false;
+                    }
+                    setFingerprint(jid, serializer.fingerprint(fs, jid, memberships, this::jid));
+                    deleted.clear(jid);
+                }
+            }
+            catch (IOException e) {
+                // Cannot happen since we are writing to memory
+                throw new IllegalStateException(e);
+            }
+
+            return true;
+        }
+
+        /**
+         * @return the changes since the last checkpoint or {@code null} if the changes cannot be
+         *         represented in the journal.
+         */
+        public Delta diff(CASImpl aCas) throws IOException
+        {
+            List<TOP> fss = reachable(aCas);
+            ViewMemberships memberships = ViewMemberships.of(aCas, fss);
+            if (memberships == null) {
+                return null;
+            }
+
+            Delta delta = new Delta();
+            delta.nextJid = nextJid;
+            JidResolver jids = fs -> {
+                int jid = jid(fs);
+                return jid >= 0 || fs == null ? jid : delta.newJids.getOrDefault(fs._id(), -1);
+            };
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            int ops = 0;
+
+            // Create new FSes first so that they can be referenced when setting feature values
+            for (TOP fs : fss) {
+                if (jid(fs) >= 0) {
+                    continue;
+                }
+
+                if (fs instanceof Sofa) {
+                    return null;
+                }
+
+                int jid = delta.nextJid++;
+                delta.newJids.put(fs._id(), jid);
+
+                out.writeByte(OP_CREATE);
+                out.writeInt(jid);
+                writeString(out, fs.getType().getName());
+                writeString(out, fs instanceof AnnotationBase
+                        ? ((AnnotationBase) fs).getView().getViewName()
+                        : null);
+                out.writeInt(fs instanceof CommonArrayFS ? ((CommonArrayFS<?>) fs).size() : -1);
+                ops++;
+            }
+
+            BitSet seen = new BitSet();
+            Serializer serializer = new Serializer();
+            for (TOP fs : fss) {
+                int jid = jids.jid(fs);
+                seen.set(jid);
+
+                long fingerprint = serializer.fingerprint(fs, jid, memberships, jids);
+                boolean isNew = jid >= nextJid;
+                if (!isNew && !deleted.get(jid) && fingerprints[jid] == fingerprint) {
+                    continue;
+                }
+
+                // We do not support changes to views
+                if (fs instanceof Sofa) {
+                    return null;
+                }
+
+                out.writeByte(OP_SET);
+                serializer.writeTo(out);
+                delta.newFingerprints.put(jid, fingerprint);
+                ops++;
+            }
+
+            // FSes which are no longer reachable must be removed from the indexes
+            for (int jid = 0; jid < nextJid; jid++) {
+                if (!seen.get(jid) && !deleted.get(jid)) {
+                    out.writeByte(OP_DELETE);
+                    out.writeInt(jid);
+                    delta.newlyDeleted.set(jid);
+                    ops++;
+                }
+            }
+
+            out.flush();
+
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(buffer.size() + 4);
+            new DataOutputStream(payload).writeInt(ops);
+            buffer.writeTo(payload);
+            delta.payload = payload.toByteArray();
+
+            return delta;
+        }
+
+        public void commit(Delta aDelta)
+        {
+            aDelta.newJids.forEach((id, jid) -> {
+                if (id >= jidsById.length) {
+                    jidsById = Arrays.copyOf(jidsById, Math.max(id + 1, jidsById.length * 2));
+                }
+                jidsById[id] = jid + 1;
+            });
+            nextJid = aDelta.nextJid;
+            aDelta.newFingerprints.forEach((jid, fingerprint) -> {
+                setFingerprint(jid, fingerprint);
+                deleted.clear(jid);
+            });
+            deleted.or(aDelta.newlyDeleted);
+        }
+    }
+
+    /**
+     * Serializes single FSes into a reusable buffer to fingerprint them and to write them to the
+     * journal.
+     */
+    private static final class Serializer
+    {
+        private final ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(buffer);
+
+        public long fingerprint(TOP aFs, int aJid, ViewMemberships aMemberships,
+                JidResolver aJids)
+            throws IOException
+        {
+            buffer.reset();
+            out.writeInt(aJid);
+
+            if (aFs instanceof Sofa) {
+                Sofa sofa = (Sofa) aFs;
+                writeString(out, sofa.getSofaID());
+                writeString(out, sofa.getSofaMime());
+                writeString(out, sofa.getSofaURI());
+                writeString(out, sofa.getLocalStringData());
+            }
+            else {
+                List<String> views = aMemberships.get(aFs);
+                out.writeInt(views.size());
+                for (String view : views) {
+                    writeString(out, view);
+                }
+                writeValues(out, aFs, aJids);
+            }
+
+            out.flush();
+            return CasJournal.fingerprint(buffer.getBuffer(), buffer.size());
+        }
+
+        public void writeTo(OutputStream aOut) throws IOException
+        {
+            buffer.writeTo(aOut);
+        }
+    }
+
+    /**
+     * The views in whose indexes each FS is contained.
+     */
+    private static final class ViewMemberships
+    {
+        private final List<String> viewNames;
+        private final int[] masksById;
+        private final Map<Integer, List<String>> cache = new HashMap<>();
+
+        private ViewMemberships(List<String> aViewNames, int[] aMasksById)
+        {
+            viewNames = aViewNames;
+            masksById = aMasksById;
+        }
+
+        public List<String> get(TOP aFs)
+        {
+            int id = aFs._id();
+            int mask = id < masksById.length ? masksById[id] : 0;
+            return cache.computeIfAbsent(mask, m -> {
+                List<String> views = new ArrayList<>();
+                for (int i = 0; i < viewNames.size(); i++) {
+                    if ((m & (1 << i)) != 0) {
+                        views.add(viewNames.get(i));
+                    }
+                }
+                return views;
+            });
+        }
+
+        /**
+         * @return the view memberships or {@code null} if there are too many views.
+         */
+        public static ViewMemberships of(CASImpl aCas, List<TOP> aFss)
+        {
+            int maxId = aFss.isEmpty() ? 0 : aFss.get(aFss.size() - 1)._id();
+            int[] masks = new int[maxId + 1];
+            List<String> viewNames = new ArrayList<>();
+
+            Iterator<CAS> i = aCas.getViewIterator();
+            while (i.hasNext()) {
+                CAS view = i.next();
+                int bit = viewNames.size();
+                if (bit >= Integer.SIZE) {
+                    return null;
+                }
+                viewNames.add(view.getViewName());
+
+                for (TOP fs : view.getIndexRepository().getIndexedFSs()) {
+                    int id = fs._id();
+                    if (id >= masks.length) {
+                        masks = Arrays.copyOf(masks, id + 1);
+                    }
+                    masks[id] |= 1 << bit;
+                }
+            }
+
+            return new ViewMemberships(viewNames, masks);
+        }
+    }
+
+    private static final class ExposedByteArrayOutputStream
+        extends ByteArrayOutputStream
+    {
+        public byte[] getBuffer()
+        {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.bindToCurrentThread;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.uima.cas.AbstractCas;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CasOwner;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.unit.DataSize;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Pool of CASes which are only needed temporarily, e.g. as the target of a verification or as the
+ * template for a type system upgrade. Creating a CAS is expensive because the type system needs to
+ * be committed and the indexes need to be set up, so re-using CASes pays off on busy servers.
+ * <p>
+ * The pool is partitioned by a key which identifies the type system of the CASes - typically the
+ * version of a project type system. CASes borrowed using {@link #borrowCas()} are meant to be
+ * re-initialized by the caller (e.g. by deserializing a CAS including its type system into them),
+ * so the type system they have when being borrowed is undefined.
+ * <p>
+ * A borrowed CAS is returned to the pool by calling {@link CAS#release()} on it. It is reset in
+ * the process. Since {@link CasStorageSession#close()} releases all CASes registered with the
+ * session, a borrowed CAS that has been added to a session is returned automatically when the
+ * session is closed. The CAS must not be used anymore after it has been released.
+ * <p>
+ * The pool keeps track of which thread has borrowed a CAS. Releasing a CAS which is not borrowed
+ * (e.g. because it has already been released) or which has been borrowed by another thread (e.g.
+ * because it has been released and then borrowed again) is logged and otherwise ignored, such that
+ * the CAS is never handed out twice.
+ * <p>
+ * Besides the number of idle CASes, the pool is bounded by their estimated heap size as
+ * determined by the {@link CasWeigher}. Since a reset CAS keeps the internal structures it has
+ * grown to, the size is estimated before the CAS is reset.
+ */
+public class CasPool
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasPool.class);
+
+    private static final String REINITIALIZABLE = "";
+
+    private static final CasPool SHARED_INSTANCE = new CasPool(4, 100,
+            DataSize.ofMegabytes(256), Duration.ofMinutes(30));
+
+    private final int maxIdlePerKey;
+    private final long memoryBudget;
+    private final Cache<String, Partition> partitions;
+    private final AtomicLong idleWeight = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param aMaxIdlePerKey
+     *            maximum number of idle CASes kept per type system.
+     * @param aMaxKeys
+     *            maximum number of type systems for which idle CASes are kept.
+     * @param aMemoryBudget
+     *            maximum estimated heap size of all idle CASes together.
+     * @param aExpireAfterAccess
+     *            time after which the idle CASes of a type system which has not been used are
+     *            dropped.
+     */
+    public CasPool(int aMaxIdlePerKey, long aMaxKeys, DataSize aMemoryBudget,
+            Duration aExpireAfterAccess)
+    {
+        maxIdlePerKey = aMaxIdlePerKey;
+        memoryBudget = aMemoryBudget.toKilobytes();
+        partitions = Caffeine.newBuilder() //
+                .maximumSize(aMaxKeys) //
+                .expireAfterAccess(aExpireAfterAccess) //
+                .executor(Runnable::run) //
+                .<String, Partition>removalListener((key, partition, cause) -> partition.drop()) //
+                .build();
+    }
+
+    /**
+     * @return the pool shared by all services.
+     */
+    public static CasPool getSharedInstance()
+    {
+        return SHARED_INSTANCE;
+    }
+
+    /**
+     * Borrows a CAS which is going to be re-initialized by the caller, e.g. using
+     * {@link org.apache.uima.cas.impl.Serialization#deserializeCASComplete} or
+     * {@link org.apache.uima.util.CasIOUtils#load} in {@code REINIT} mode.
+     * 
+     * @return a CAS bound to the current thread.
+     */
+    public CAS borrowCas() throws ResourceInitializationException
+    {
+        return borrowCas(REINITIALIZABLE,
+                () -> CasCreationUtils.createCas((TypeSystemDescription) null, null, null));
+    }
+
+    /**
+     * Borrows an empty CAS using the given committed type system.
+     * 
+     * @param aVersion
+     *            the version of the type system.
+     * @param aTypeSystem
+     *            the type system.
+     * @return a CAS bound to the current thread.
+     */
+    public CAS borrowCas(String aVersion, TypeSystem aTypeSystem)
+        throws ResourceInitializationException
+    {
+        return borrowCas(aVersion,
+                () -> CasCreationUtils.createCas(aTypeSystem, null, null, null));
+    }
+
+    /**
+     * Borrows an empty CAS using the given type system. The type system is only committed if no
+     * idle CAS for the given version is available.
+     * 
+     * @param aVersion
+     *            the version of the type system.
+     * @param aTypeSystem
+     *            the type system.
+     * @return a CAS bound to the current thread.
+     */
+    public CAS borrowCas(String aVersion, TypeSystemDescription aTypeSystem)
+        throws ResourceInitializationException
+    {
+        return borrowCas(aVersion, () -> CasCreationUtils.createCas(aTypeSystem, null, null));
+    }
+
+    private CAS borrowCas(String aKey, CasCreator aCreator) throws ResourceInitializationException
+    {
+        Partition partition = partitions.get(aKey, key -> new Partition());
+
+        CAS cas = partition.borrowIdle();
+        if (cas != null) {
+            hits.increment();
+        }
+        else {
+            misses.increment();
+            cas = aCreator.create();
+            ((CASImpl) cas).setOwner(partition);
+            partition.markBorrowed(cas);
+        }
+
+        return bindToCurrentThread(cas);
+    }
+
+    /**
+     * @return number of times a CAS could be taken from the pool.
+     */
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of times a new CAS had to be created.
+     */
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of idle CASes for the given type system version.
+     */
+    public int getIdleCount(String aVersion)
+    {
+        Partition partition = partitions.getIfPresent(aVersion);
+        return partition != null ? partition.getIdleCount() : 0;
+    }
+
+    /**
+     * @return estimated heap size of all idle CASes in kilobytes.
+     */
+    public long getIdleWeight()
+    {
+        return idleWeight.get();
+    }
+
+    /**
+     * Drops all idle CASes.
+     */
+    public void clear()
+    {
+        partitions.invalidateAll();
+        partitions.cleanUp();
+    }
+
+    @FunctionalInterface
+    private interface CasCreator
+    {
+        CAS create() throws ResourceInitializationException;
+    }
+
+    /**
+     * The idle and borrowed CASes of a single type system. The partition is the owner of all
+     * CASes created for it, so releasing the CAS puts it back here. If the partition has been
+     * evicted from the pool in the meantime, the CAS is simply dropped.
+     */
+    private final class Partition
+        implements CasOwner
+    {
+        // Most recently used CASes are at the head since they are most likely still warm
+        private final Deque<IdleCas> idle = new ArrayDeque<>();
+        // Borrowed base CASes and the threads which borrowed them. CASes do not override equals,
+        // so they are compared by identity. A CAS which is never released is not kept alive.
+        private final Map<CAS, Thread> borrowed = new WeakHashMap<>();
+        private boolean dropped;
+
+        private synchronized CAS borrowIdle()
+        {
+            IdleCas entry = idle.pollFirst();
+            if (entry == null) {
+                return null;
+            }
+
+            idleWeight.addAndGet(-entry.weight);
+            markBorrowed(entry.cas);
+            return entry.cas;
+        }
+
+        private synchronized void markBorrowed(CAS aCas)
+        {
+            borrowed.put(((CASImpl) aCas).getBaseCAS(), Thread.currentThread());
+        }
+
+        private synchronized int getIdleCount()
+        {
+            return idle.size();
+        }
+
+        private synchronized void drop()
+        {
+            dropped = true;
+            idle.forEach(entry -> idleWeight.addAndGet(-entry.weight));
+            idle.clear();
+        }
+
+        @Override
+        public synchronized void releaseCas(AbstractCas aCas)
+        {
+            // Releasing a CAS always releases the base CAS, but borrowers expect the initial view
+            // just like they get it from a newly created CAS
+            CAS cas = getRealCas((CAS) aCas).getView(CAS.NAME_DEFAULT_SOFA);
+            CAS baseCas = ((CASImpl) cas).getBaseCAS();
+
+            // The same CAS must never be handed out twice, so a release which does not come from
+            // the current borrower is rejected
+            Thread borrower = borrowed.get(baseCas);
+            if (borrower == null) {
+                LOG.error("Ignoring release of a CAS which is not borrowed from the pool",
+                        new IllegalStateException("CAS has already been released"));
+                return;
+            }
+            if (borrower != Thread.currentThread()) {
+                LOG.error("Ignoring release of a CAS which is borrowed by thread [{}]",
+                        borrower.getName(),
+                        new IllegalStateException("CAS is borrowed by another thread"));
+                return;
+            }
+            borrowed.remove(baseCas);
+
+            if (dropped || idle.size() >= maxIdlePerKey) {
+                return;
+            }
+
+            int weight = CasWeigher.estimateWeight(cas);
+            if (idleWeight.addAndGet(weight) > memoryBudget) {
+                idleWeight.addAndGet(-weight);
+                return;
+            }
+
+            cas.reset();
+            idle.offerFirst(new IdleCas(cas, weight));
+        }
+    }
+
+    private static final class IdleCas
+    {
+        private final CAS cas;
+        private final int weight;
+
+        private IdleCas(CAS aCas, int aWeight)
+        {
+            cas = aCas;
+            weight = aWeight;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+/**
+ * Formats in which the CAS storage can persist annotation documents. Independent of the format
+ * configured for writing, the format of an existing file is always detected when reading it, so
+ * files in different formats can co-exist within the same repository.
+ */
+public enum CasStorageFormat
+{
+    /**
+     * Java-serialized {@link org.apache.uima.cas.impl.CASCompleteSerializer}. This is the
+     * traditional storage format.
+     */
+    SERIALIZED_CAS,
+
+    /**
+     * UIMA compressed binary form 6 including the type system information. Files in this format
+     * are usually an order of magnitude smaller than {@link #SERIALIZED_CAS} files and faster to
+     * read and write.
+     */
+    COMPRESSED_BINARY;
+}
@@ -202,6 +202,8 @@ public class CasStorageSession
         SessionManagedCas managedCas = new SessionManagedCas(SPECIAL_PURPOSE, aSpecialPurpose,
                 aMode, aCas);
 
+        assertOwnedByCurrentThread(managedCas);
+
         Map<String, SessionManagedCas> casByUser = managedCases.computeIfAbsent(SPECIAL_PURPOSE,
                 key -> new LinkedHashMap<>());
         casByUser.put(aSpecialPurpose, managedCas);
@@ -294,6 +296,8 @@ public class CasStorageSession
 
     private void add(SessionManagedCas aMCas)
     {
+        assertOwnedByCurrentThread(aMCas);
+
         Map<String, SessionManagedCas> casByUser = managedCases
                 .computeIfAbsent(aMCas.getSourceDocumentId(), key -> new LinkedHashMap<>());
         SessionManagedCas oldMCas = casByUser.put(aMCas.getUserId(), aMCas);
@@ -418,5 +422,20 @@ public class CasStorageSession
                     + mCas.get().getUserId() + "] for document [" + mCas.get().getSourceDocumentId()
                     + "] is not permitted in the current sesssion");
         }
+
+        assertOwnedByCurrentThread(mCas.get());
+    }
+
+    /**
+     * Sessions are bound to a thread, so any CAS which may be written through a session must be
+     * owned by the thread of the session. Checking this here instead of on every access to the
+     * CAS catches CASes leaking to other threads without slowing down the code using the CAS. CASes
+     * which are only read may be shared between threads.
+     */
+    private void assertOwnedByCurrentThread(SessionManagedCas aMCas)
+    {
+        if (aMCas.isWritingPermitted() && aMCas.isCasSet()) {
+            WebAnnoCasUtil.assertCasOwnedByCurrentThread(aMCas.getCas());
+        }
     }
 }
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Statistics of the CAS storage which are exposed for monitoring.
+ */
+public interface CasStorageStatistics
+{
+    /**
+     * @return the statistics of the shared read-only CAS cache.
+     */
+    CacheStats getSharedCasCacheStats();
+
+    /**
+     * @return the number of CASes in the shared read-only CAS cache.
+     */
+    long getSharedCasCacheSize();
+
+    /**
+     * @return the estimated heap size of all CASes in the shared read-only CAS cache in KB.
+     */
+    long getSharedCasCacheWeight();
+
+    /**
+     * @return the statistics on waiting for exclusive access to CASes.
+     */
+    ExclusiveAccessStatistics getExclusiveAccessStatistics();
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+/**
+ * Strategies for verifying that a CAS written by the CAS storage can be read again.
+ */
+public enum CasVerificationMode
+{
+    /**
+     * Do not verify the written CAS.
+     */
+    NONE,
+
+    /**
+     * Deserialize every CAS into a new CAS before it is written. Only if this succeeds, the CAS is
+     * written. This is the safest but also the most expensive option.
+     */
+    ROUND_TRIP,
+
+    /**
+     * Like {@link #ROUND_TRIP} but only for every n-th save of a particular CAS.
+     */
+    SAMPLED,
+
+    /**
+     * Read the written file back and compare its checksum to the serialized CAS. This detects
+     * problems while writing to disk, but not CASes which cannot be deserialized.
+     */
+    CHECKSUM,
+
+    /**
+     * Write the CAS immediately and deserialize it in the background. If the verification fails,
+     * the serialized CAS is preserved in a quarantine file and all further saves of the CAS are
+     * verified using {@link #ROUND_TRIP}.
+     */
+    ASYNC;
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+
+import java.util.Iterator;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASImpl;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+
+/**
+ * Weighs cached CASes by their estimated heap size in kilobytes.
+ * <p>
+ * The estimate is based on the number of feature structures in the CAS and the length of the texts
+ * of its views. It is not exact, but it is cheap to compute and it grows with the size of the CAS
+ * such that a few large documents take up as much of the cache as many small ones.
+ */
+public class CasWeigher
+    implements Weigher<CasKey, CasHolder>
+{
+    /**
+     * Rough average heap size of a feature structure in UIMA 3 including its share of the index
+     * structures.
+     */
+    static final int BYTES_PER_FS = 128;
+
+    /**
+     * Document texts are stored as Java strings which use up to two bytes per character.
+     */
+    static final int BYTES_PER_CHAR = 2;
+
+    @Override
+    public int weigh(CasKey aKey, CasHolder aHolder)
+    {
+        if (!aHolder.isCasSet()) {
+            return 1;
+        }
+
+        return estimateWeight(aHolder.getCas());
+    }
+
+    /**
+     * @return the estimated heap size of the given CAS in kilobytes (at least 1).
+     */
+    public static int estimateWeight(CAS aCas)
+    {
+        long bytes = estimateSize(aCas);
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, bytes / 1024));
+    }
+
+    /**
+     * @return the estimated heap size of the given CAS in bytes.
+     */
+    public static long estimateSize(CAS aCas)
+    {
+        CASImpl cas = ((CASImpl) getRealCas(aCas)).getBaseCAS();
+
+        // Feature structure IDs are assigned sequentially, so the last used ID is a good
+        // approximation of the number of feature structures
+        long bytes = (long) cas.getLastUsedFsId() * BYTES_PER_FS;
+
+        Iterator<CAS> i = cas.getViewIterator();
+        while (i.hasNext()) {
+            String text = i.next().getDocumentText();
+            if (text != null) {
+                bytes += (long) text.length() * BYTES_PER_CHAR;
+            }
+        }
+
+        return bytes;
+    }
+}
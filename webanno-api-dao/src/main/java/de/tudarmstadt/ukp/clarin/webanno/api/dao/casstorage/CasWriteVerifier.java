@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils.SerializedCas;
+
+/**
+ * Writes serialized CASes to disk and verifies them according to the configured
+ * {@link CasVerificationMode}.
+ */
+public class CasWriteVerifier
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasWriteVerifier.class);
+
+    private final CasVerificationMode mode;
+    private final int sampleInterval;
+    private final Cache<CasKey, AtomicInteger> saveCounters;
+    private final Set<CasKey> quarantinedCases = ConcurrentHashMap.newKeySet();
+    private final Map<CasKey, PendingVerifications> pendingVerifications =
+            new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong verifiedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param aMode
+     *            the verification mode.
+     * @param aSampleInterval
+     *            every how many saves a CAS is verified in {@link CasVerificationMode#SAMPLED}
+     *            mode.
+     * @param aQueueSize
+     *            how many verifications may be pending in {@link CasVerificationMode#ASYNC} mode.
+     *            If the queue is full, the verification is performed synchronously.
+     */
+    public CasWriteVerifier(CasVerificationMode aMode, int aSampleInterval, int aQueueSize)
+    {
+        Validate.notNull(aMode, "Verification mode must be specified");
+        Validate.isTrue(aSampleInterval > 0, "Sample interval must be positive");
+        Validate.isTrue(aQueueSize > 0, "Queue size must be positive");
+
+        mode = aMode;
+        sampleInterval = aSampleInterval;
+
+        // It does no harm to forget the counter of a CAS that is not being saved anymore - the
+        // next save is then simply verified again
+        saveCounters = Caffeine.newBuilder().expireAfterAccess(30, MINUTES).build();
+
+        if (CasVerificationMode.ASYNC.equals(mode)) {
+            executor = new ThreadPoolExecutor(1, 1, 0, MILLISECONDS,
+                    new ArrayBlockingQueue<>(aQueueSize),
+                    new BasicThreadFactory.Builder().namingPattern("cas-verifier-%d").daemon(true)
+                            .build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        else {
+            executor = null;
+        }
+    }
+
+    public CasVerificationMode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Writes the given serialized CAS to the given file, verifying it according to the configured
+     * mode. If a verification mode is used which checks the CAS before writing and the check
+     * fails, the file is not written.
+     * <p>
+     * In {@link CasVerificationMode#ASYNC} mode, the previous version of the file is taken over
+     * and kept (see {@link #getLastVerifiedFile(File)}) until the new version has been verified.
+     * If the verification fails, the new version is moved aside and the previous version is
+     * restored.
+     * 
+     * @param aKey
+     *            the key of the CAS.
+     * @param aCas
+     *            the serialized CAS.
+     * @param aFile
+     *            the target file.
+     * @param aPreviousVersion
+     *            the previous version of the target file (may be {@code null} or not exist).
+     * @throws IOException
+     *             if the CAS could not be written or failed a synchronous verification.
+     */
+    public void write(CasKey aKey, SerializedCas aCas, File aFile, File aPreviousVersion)
+        throws IOException
+    {
+        CasVerificationMode effectiveMode = quarantinedCases.contains(aKey)
+                ? CasVerificationMode.ROUND_TRIP
+                : mode;
+
+        switch (effectiveMode) {
+        case NONE:
+            aCas.writeTo(aFile);
+            break;
+        case ROUND_TRIP:
+            verify(aCas);
+            aCas.writeTo(aFile);
+            break;
+        case SAMPLED:
+            if (isSampled(aKey)) {
+                verify(aCas);
+            }
+            aCas.writeTo(aFile);
+            break;
+        case CHECKSUM:
+            aCas.writeTo(aFile);
+            aCas.verifyChecksum(aFile);
+            verifiedCount.incrementAndGet();
+            break;
+        case ASYNC:
+            writeAndVerifyInBackground(aKey, aCas, aFile, aPreviousVersion);
+            break;
+        default:
+            throw new IllegalStateException("Unsupported verification mode [" + mode + "]");
+        }
+    }
+
+    private boolean isSampled(CasKey aKey)
+    {
+        AtomicInteger counter = saveCounters.get(aKey, _key -> new AtomicInteger());
+        return counter.getAndIncrement() % sampleInterval == 0;
+    }
+
+    private void verify(SerializedCas aCas) throws IOException
+    {
+        try {
+            check(aCas);
+            verifiedCount.incrementAndGet();
+        }
+        catch (IOException e) {
+            failedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /*
+     * Can be overridden by tests to simulate a CAS which cannot be read back.
+     */
+    void check(SerializedCas aCas) throws IOException
+    {
+        aCas.verify();
+    }
+
+    private void writeAndVerifyInBackground(CasKey aKey, SerializedCas aCas, File aFile,
+            File aPreviousVersion)
+        throws IOException
+    {
+        PendingVerifications pending;
+        long version;
+        while (true) {
+            pending = pendingVerifications.computeIfAbsent(aKey,
+                    _key -> new PendingVerifications());
+            synchronized (pending) {
+                // The verification of all previous saves has completed in the meantime
+                if (pending.completed) {
+                    continue;
+                }
+
+                aCas.writeTo(aFile);
+
+                // If the previous save has not been verified yet, the version kept for it is
+                // still the last verified one
+                File lastVerified = getLastVerifiedFile(aFile);
+                if (pending.count == 0 && aPreviousVersion != null
+                        && aPreviousVersion.exists()) {
+                    Files.move(aPreviousVersion.toPath(), lastVerified.toPath(),
+                            REPLACE_EXISTING);
+                }
+
+                pending.count++;
+                pending.latestVersion++;
+                pending.latestVerified = false;
+                version = pending.latestVersion;
+                break;
+            }
+        }
+
+        PendingVerifications finalPending = pending;
+        executor.execute(() -> verifyInBackground(aKey, aCas, aFile, finalPending, version));
+    }
+
+    private void verifyInBackground(CasKey aKey, SerializedCas aCas, File aFile,
+            PendingVerifications aPending, long aVersion)
+    {
+        IOException failure = null;
+        try {
+            verify(aCas);
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+
+        synchronized (aPending) {
+            aPending.count--;
+
+            if (failure != null) {
+                quarantine(aKey, aCas, aFile, aVersion == aPending.latestVersion, failure);
+            }
+            else if (aVersion == aPending.latestVersion) {
+                aPending.latestVerified = true;
+            }
+
+            if (aPending.count == 0) {
+                // The file on disk has been verified, so the previous version is not needed
+                // anymore
+                if (aPending.latestVerified) {
+                    try {
+                        Files.deleteIfExists(getLastVerifiedFile(aFile).toPath());
+                    }
+                    catch (IOException e) {
+                        LOG.error("Unable to delete [{}]", getLastVerifiedFile(aFile), e);
+                    }
+                }
+
+                aPending.completed = true;
+                pendingVerifications.remove(aKey, aPending);
+            }
+        }
+    }
+
+    /**
+     * @param aIsCurrent
+     *            whether the failed version is the one currently stored in the file. Otherwise,
+     *            the file has already been overwritten by a later save.
+     */
+    private void quarantine(CasKey aKey, SerializedCas aCas, File aFile, boolean aIsCurrent,
+            IOException aFailure)
+    {
+        quarantinedCases.add(aKey);
+
+        File quarantineFile = new File(
+                aFile.getPath() + ".quarantine-" + System.currentTimeMillis());
+        File lastVerified = getLastVerifiedFile(aFile);
+        boolean restored = false;
+        try {
+            if (aIsCurrent && lastVerified.exists()) {
+                Files.move(aFile.toPath(), quarantineFile.toPath());
+                Files.move(lastVerified.toPath(), aFile.toPath());
+                // The journal refers to the version which has been moved aside
+                CasJournal.discard(aFile);
+                restored = true;
+            }
+            else {
+                aCas.writeTo(quarantineFile);
+            }
+        }
+        catch (IOException e) {
+            LOG.error("Unable to quarantine [{}] in [{}]", aFile, quarantineFile, e);
+        }
+
+        if (restored) {
+            LOG.error("Annotations of user [{}] for document [{}]({}) in project [{}]({}) "
+                    + "written to [{}] cannot be read back and have been moved to [{}]. The "
+                    + "previous version has been restored. Further saves of these annotations "
+                    + "are verified before writing.", aKey.getUserId(), aKey.getDocumentName(),
+                    aKey.getDocumentId(), aKey.getProjectName(), aKey.getProjectId(), aFile,
+                    quarantineFile, aFailure);
+        }
+        else {
+            LOG.error("Annotations of user [{}] for document [{}]({}) in project [{}]({}) "
+                    + "written to [{}] cannot be read back and have been preserved in [{}]. "
+                    + "Further saves of these annotations are verified before writing.",
+                    aKey.getUserId(), aKey.getDocumentName(), aKey.getDocumentId(),
+                    aKey.getProjectName(), aKey.getProjectId(), aFile, quarantineFile, aFailure);
+        }
+    }
+
+    /**
+     * @param aFile
+     *            a CAS file.
+     * @return the file in which the last verified version of the given CAS file is kept while
+     *         newer versions are verified in the background.
+     */
+    public static File getLastVerifiedFile(File aFile)
+    {
+        return new File(aFile.getPath() + ".verified");
+    }
+
+    /**
+     * @return number of successfully verified CASes.
+     */
+    public long getVerifiedCount()
+    {
+        return verifiedCount.get();
+    }
+
+    /**
+     * @return number of CASes which failed verification.
+     */
+    public long getFailedCount()
+    {
+        return failedCount.get();
+    }
+
+    /**
+     * @return number of verifications waiting to be performed in the background.
+     */
+    public int getPendingCount()
+    {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    /**
+     * Completes all pending background verifications and stops accepting new ones.
+     */
+    public void shutdown()
+    {
+        if (executor == null) {
+            return;
+        }
+
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, SECONDS)) {
+                LOG.warn("Gave up waiting for {} pending CAS verifications",
+                        executor.getQueue().size());
+                executor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Background verifications of a particular CAS which have not completed yet.
+     */
+    private static class PendingVerifications
+    {
+        private int count;
+        private long latestVersion;
+        private boolean latestVerified;
+        private boolean completed;
+    }
+}
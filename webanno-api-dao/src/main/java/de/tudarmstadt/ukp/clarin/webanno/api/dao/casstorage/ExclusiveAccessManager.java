@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
+
+/**
+ * Controls exclusive access to the CASes of particular users on particular documents. At any time,
+ * at most one caller can have acquired a particular CAS. The {@link CasHolder} is retained after it
+ * has been released such that the CAS does not have to be loaded again on the next acquisition.
+ * Holders which are marked as {@link CasHolder#isDeleted() deleted} or as having an
+ * {@link CasHolder#isTypeSystemOutdated() outdated type system} are dropped instead.
+ */
+public interface ExclusiveAccessManager
+{
+    /**
+     * Acquires exclusive access to the CAS with the given key, waiting if necessary.
+     * 
+     * @throws CasSessionException
+     *             if access could not be obtained in time.
+     */
+    CasHolder acquire(CasKey aKey) throws CasSessionException;
+
+    /**
+     * Gives up exclusive access previously obtained via {@link #acquire(CasKey)}.
+     */
+    void release(CasKey aKey, CasHolder aHolder);
+
+    /**
+     * Acquires access to the CAS with the given key which only guarantees that nobody else has
+     * exclusive access at the same time. The holder of the CAS is not made available. Callers can
+     * use this e.g. to ensure that the CAS is not being written while they look at its file.
+     * 
+     * @throws CasSessionException
+     *             if access could not be obtained in time.
+     */
+    SharedAccess acquireShared(CasKey aKey) throws CasSessionException;
+
+    /**
+     * @return the holders currently known to the manager whose key matches the given filter.
+     */
+    List<CasHolder> getHolders(Predicate<CasKey> aFilter);
+
+    ExclusiveAccessStatistics getStatistics();
+
+    void destroy();
+
+    @FunctionalInterface
+    public static interface SharedAccess
+        extends AutoCloseable
+    {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+/**
+ * Strategies for controlling exclusive access to the CASes of particular users on particular
+ * documents.
+ */
+public enum ExclusiveAccessMode
+{
+    /**
+     * Check the CAS out of a keyed object pool which holds at most one CAS holder per document and
+     * user.
+     */
+    POOL,
+
+    /**
+     * Guard every CAS by its own fair read/write lock. Callers which only need to make sure that
+     * the CAS is not being written at the moment (e.g. when checking if it exists) can share the
+     * lock.
+     */
+    LOCK;
+}
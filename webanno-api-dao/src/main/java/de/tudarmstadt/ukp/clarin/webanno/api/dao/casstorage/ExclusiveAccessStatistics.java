@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long callers had to wait to obtain access to a CAS. Waiting times are collected in a
+ * histogram with exponentially growing buckets.
+ */
+public class ExclusiveAccessStatistics
+{
+    private static final long[] BUCKET_LIMITS_MILLIS = { 1, 10, 100, 1_000, 10_000 };
+
+    private final LongAdder acquisitionCount = new LongAdder();
+    private final LongAdder contendedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder totalWaitTime = new LongAdder();
+    private final LongAccumulator maxWaitTime = new LongAccumulator(Long::max, 0);
+    private final LongAdder[] waitTimeHistogram = new LongAdder[BUCKET_LIMITS_MILLIS.length + 1];
+
+    public ExclusiveAccessStatistics()
+    {
+        for (int i = 0; i < waitTimeHistogram.length; i++) {
+            waitTimeHistogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param aWaitNanos
+     *            time spent waiting for access.
+     * @param aContended
+     *            whether access could not be granted immediately because somebody else was
+     *            holding it.
+     */
+    public void recordAcquisition(long aWaitNanos, boolean aContended)
+    {
+        acquisitionCount.increment();
+        if (aContended) {
+            contendedCount.increment();
+        }
+        recordWait(aWaitNanos);
+    }
+
+    public void recordTimeout(long aWaitNanos)
+    {
+        timeoutCount.increment();
+        contendedCount.increment();
+        recordWait(aWaitNanos);
+    }
+
+    private void recordWait(long aWaitNanos)
+    {
+        totalWaitTime.add(aWaitNanos);
+        maxWaitTime.accumulate(aWaitNanos);
+
+        long waitMillis = NANOSECONDS.toMillis(aWaitNanos);
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_MILLIS.length && waitMillis >= BUCKET_LIMITS_MILLIS[bucket]) {
+            bucket++;
+        }
+        waitTimeHistogram[bucket].increment();
+    }
+
+    public long getAcquisitionCount()
+    {
+        return acquisitionCount.sum();
+    }
+
+    public long getContendedCount()
+    {
+        return contendedCount.sum();
+    }
+
+    public long getTimeoutCount()
+    {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * @return average time in milliseconds callers had to wait for access (including timeouts).
+     */
+    public double getAverageWaitTime()
+    {
+        long count = acquisitionCount.sum() + timeoutCount.sum();
+        if (count == 0) {
+            return 0.0;
+        }
+
+        return (double) totalWaitTime.sum() / count / NANOSECONDS.convert(1, MILLISECONDS);
+    }
+
+    /**
+     * @return longest time in milliseconds a caller had to wait for access.
+     */
+    public long getMaxWaitTime()
+    {
+        return NANOSECONDS.toMillis(maxWaitTime.get());
+    }
+
+    /**
+     * @return number of accesses per waiting time bucket. The keys are the upper limits of the
+     *         buckets (e.g. {@code <10ms}) in ascending order.
+     */
+    public Map<String, Long> getWaitTimeHistogram()
+    {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKET_LIMITS_MILLIS.length; i++) {
+            histogram.put("<" + BUCKET_LIMITS_MILLIS[i] + "ms", waitTimeHistogram[i].sum());
+        }
+        histogram.put(">=" + BUCKET_LIMITS_MILLIS[BUCKET_LIMITS_MILLIS.length - 1] + "ms",
+                waitTimeHistogram[BUCKET_LIMITS_MILLIS.length].sum());
+        return histogram;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
+
+/**
+ * Controls exclusive access using a separate fair read/write lock for every key. Unlike the
+ * {@link PooledExclusiveAccessManager}, there is no central data structure which needs to be
+ * locked when access is obtained or given up, so callers working on different CASes do not get in
+ * each other's way.
+ * <p>
+ * The locks are based on {@link Semaphore semaphores} instead of {@link
+ * java.util.concurrent.locks.ReentrantReadWriteLock} because a CAS is not always released by the
+ * thread which acquired it. Exclusive access takes all permits of the semaphore, shared access
+ * takes a single permit. Since the semaphores are fair, a caller waiting for exclusive access is
+ * not starved by a constant stream of callers requesting shared access.
+ */
+public class LockingExclusiveAccessManager
+    implements ExclusiveAccessManager
+{
+    private static final int EXCLUSIVE = Integer.MAX_VALUE;
+    private static final int SHARED = 1;
+
+    private final ConcurrentMap<CasKey, LockEntry> entries = new ConcurrentHashMap<>();
+    private final ExclusiveAccessStatistics statistics = new ExclusiveAccessStatistics();
+    private final long timeout;
+    private final long maxIdleTime;
+    private final Predicate<CasKey> retain;
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * @param aTimeout
+     *            maximum time in milliseconds to wait for access to a CAS.
+     * @param aMaxIdleTime
+     *            time in milliseconds after which CASes which have not been accessed are dropped.
+     * @param aRetain
+     *            holders whose key matches this filter are never dropped, even if they have been
+     *            idle for a long time.
+     */
+    public LockingExclusiveAccessManager(long aTimeout, long aMaxIdleTime,
+            Predicate<CasKey> aRetain)
+    {
+        timeout = aTimeout;
+        maxIdleTime = aMaxIdleTime;
+        retain = aRetain;
+
+        evictor = new ScheduledThreadPoolExecutor(1, new BasicThreadFactory.Builder()
+                .namingPattern("cas-exclusive-access-evictor-%d").daemon(true).build());
+        evictor.scheduleWithFixedDelay(this::evictIdle, aMaxIdleTime, aMaxIdleTime, MILLISECONDS);
+    }
+
+    @Override
+    public CasHolder acquire(CasKey aKey)
+    {
+        LockEntry entry = reference(aKey);
+        boolean acquired = false;
+        try {
+            lock(entry, EXCLUSIVE);
+            acquired = true;
+
+            // Replace holders which have become invalid while they were not in use
+            CasHolder holder = entry.holder;
+            if (holder == null || !isValid(holder)) {
+                holder = new CasHolder(aKey);
+                entry.holder = holder;
+            }
+            return holder;
+        }
+        finally {
+            if (!acquired) {
+                unreference(aKey);
+            }
+        }
+    }
+
+    @Override
+    public void release(CasKey aKey, CasHolder aHolder)
+    {
+        LockEntry entry = entries.get(aKey);
+        if (entry == null || entry.holder != aHolder) {
+            throw new IllegalStateException("CAS holder " + aHolder + " is not in use");
+        }
+
+        if (!isValid(aHolder)) {
+            entry.holder = null;
+        }
+        entry.lastUsed = System.nanoTime();
+        entry.permits.release(EXCLUSIVE);
+        unreference(aKey);
+    }
+
+    @Override
+    public SharedAccess acquireShared(CasKey aKey)
+    {
+        LockEntry entry = reference(aKey);
+        boolean acquired = false;
+        try {
+            lock(entry, SHARED);
+            acquired = true;
+            return () -> {
+                entry.permits.release(SHARED);
+                unreference(aKey);
+            };
+        }
+        finally {
+            if (!acquired) {
+                unreference(aKey);
+            }
+        }
+    }
+
+    @Override
+    public List<CasHolder> getHolders(Predicate<CasKey> aFilter)
+    {
+        return entries.entrySet().stream() //
+                .filter(e -> aFilter.test(e.getKey())) //
+                .map(e -> e.getValue().holder) //
+                .filter(h -> h != null) //
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public ExclusiveAccessStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    @Override
+    public void destroy()
+    {
+        evictor.shutdownNow();
+    }
+
+    /**
+     * @return the number of keys for which the manager currently holds a lock.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Drops the holders which have not been used for some time. Entries which are locked or which
+     * somebody is waiting for are never dropped.
+     */
+    void evictIdle()
+    {
+        evictIdle(System.nanoTime());
+    }
+
+    void evictIdle(long aNow)
+    {
+        for (CasKey key : entries.keySet()) {
+            entries.computeIfPresent(key,
+                    (k, e) -> e.references == 0 && !retain.test(k)
+                            && NANOSECONDS.toMillis(aNow - e.lastUsed) >= maxIdleTime ? null : e);
+        }
+    }
+
+    private void lock(LockEntry aEntry, int aPermits)
+    {
+        long start = System.nanoTime();
+        try {
+            // Unlike tryAcquire(int), this respects the fairness of the semaphore
+            if (aEntry.permits.tryAcquire(aPermits, 0, NANOSECONDS)) {
+                statistics.recordAcquisition(System.nanoTime() - start, false);
+                return;
+            }
+
+            if (aEntry.permits.tryAcquire(aPermits, timeout, MILLISECONDS)) {
+                statistics.recordAcquisition(System.nanoTime() - start, true);
+                return;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            statistics.recordTimeout(System.nanoTime() - start);
+            throw new CasSessionException("Interrupted while waiting for CAS", e);
+        }
+
+        statistics.recordTimeout(System.nanoTime() - start);
+        throw new CasSessionException("Timed out after " + timeout + "ms waiting for CAS");
+    }
+
+    /**
+     * Obtains the entry for the given key and makes sure that it is not dropped until the caller
+     * has {@link #unreference unreferenced} it again.
+     */
+    private LockEntry reference(CasKey aKey)
+    {
+        return entries.compute(aKey, (k, e) -> {
+            LockEntry entry = e != null ? e : new LockEntry();
+            entry.references++;
+            return entry;
+        });
+    }
+
+    private void unreference(CasKey aKey)
+    {
+        // Entries without a CAS are not worth keeping around once nobody uses them anymore
+        entries.computeIfPresent(aKey, (k, e) -> {
+            e.references--;
+            return e.references == 0 && (e.holder == null || !e.holder.isCasSet()) ? null : e;
+        });
+    }
+
+    private static boolean isValid(CasHolder aHolder)
+    {
+        return !aHolder.isTypeSystemOutdated() && !aHolder.isDeleted();
+    }
+
+    private static class LockEntry
+    {
+        private final Semaphore permits = new Semaphore(EXCLUSIVE, true);
+
+        // Only modified while the map entry is locked via compute
+        private int references;
+
+        // Only modified while holding exclusive access
+        private volatile CasHolder holder;
+        private volatile long lastUsed = System.nanoTime();
+    }
+}
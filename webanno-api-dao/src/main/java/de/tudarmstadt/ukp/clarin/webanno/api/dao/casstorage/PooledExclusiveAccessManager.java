@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.synchronizedSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultEvictionPolicy;
+import org.apache.commons.pool2.impl.EvictionConfig;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ConcurrentReferenceHashMap;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
+
+/**
+ * Controls exclusive access using a keyed object pool which holds at most one {@link CasHolder}
+ * per key.
+ */
+public class PooledExclusiveAccessManager
+    implements ExclusiveAccessManager
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final GenericKeyedObjectPool<CasKey, CasHolder> exclusiveAccessPool;
+    private final Set<CasHolder> exclusiveAccessHolders = synchronizedSet(
+            newSetFromMap(new WeakHashMap<>()));
+    private final ExclusiveAccessStatistics statistics = new ExclusiveAccessStatistics();
+
+    /**
+     * @param aTimeout
+     *            maximum time in milliseconds to wait for access to a CAS.
+     * @param aMaxIdleTime
+     *            time in milliseconds after which CASes which have not been accessed are dropped.
+     * @param aJmxNameBase
+     *            base name under which the pool is registered in JMX.
+     * @param aRetain
+     *            holders whose key matches this filter are never dropped, even if they have been
+     *            idle for a long time.
+     */
+    public PooledExclusiveAccessManager(long aTimeout, long aMaxIdleTime, String aJmxNameBase,
+            Predicate<CasKey> aRetain)
+    {
+        GenericKeyedObjectPoolConfig<CasHolder> config = new GenericKeyedObjectPoolConfig<>();
+        // Since we want the pool to control exclusive access to a particular CAS, we only ever
+        // must have one instance per key (the key uniquely identifies the CAS)
+        config.setMaxTotalPerKey(1);
+        // Setting this to 0 because we do not want any CAS to stick around in memory indefinitely
+        config.setMinIdlePerKey(0);
+        // Run an evictor thread once per idle period
+        config.setTimeBetweenEvictionRunsMillis(aMaxIdleTime);
+        // Allow the evictor to drop idle CASes from the pool after the idle period (i.e. on each
+        // run)
+        config.setMinEvictableIdleTimeMillis(aMaxIdleTime);
+        // Allow the evictor to drop all idle CASes on every eviction run
+        config.setNumTestsPerEvictionRun(-1);
+        // Allow viewing the pool in JMX
+        config.setJmxEnabled(true);
+        config.setJmxNameBase(aJmxNameBase);
+        config.setJmxNamePrefix("exclusiveCasAccessPool");
+        // Check if the CAS is still valid or needs to be replaced when it is borrowed and when it
+        // is returned
+        config.setTestOnReturn(true);
+        config.setTestOnBorrow(true);
+        config.setMaxWaitMillis(aTimeout);
+        // Never evict a CAS which has changes that have not been written to disk yet
+        config.setEvictionPolicy(new DefaultEvictionPolicy<CasHolder>()
+        {
+            @Override
+            public boolean evict(EvictionConfig aConfig, PooledObject<CasHolder> aUnderTest,
+                    int aIdleCount)
+            {
+                return !aRetain.test(aUnderTest.getObject().getKey())
+                        && super.evict(aConfig, aUnderTest, aIdleCount);
+            }
+        });
+        // We do not have to set maxTotal because the default is already to have no limit (-1)
+        exclusiveAccessPool = new GenericKeyedObjectPool<>(new PooledCasHolderFactory(), config);
+    }
+
+    @Override
+    public CasHolder acquire(CasKey aKey)
+    {
+        boolean contended = exclusiveAccessPool.getNumActive(aKey) > 0;
+        long start = System.nanoTime();
+        try {
+            CasHolder holder = exclusiveAccessPool.borrowObject(aKey);
+            statistics.recordAcquisition(System.nanoTime() - start, contended);
+            // Add the holder to the set of known holder. Because this set it using weak
+            // references, and because we use the set only to inform holders when they become
+            // invalid we do never have to explicitly remove the holder from the set
+            exclusiveAccessHolders.add(holder);
+            log.trace("Added to exclusiveAccessHolders: {}", holder);
+            logExclusiveAccessHolders();
+            return holder;
+        }
+        catch (Exception e) {
+            statistics.recordTimeout(System.nanoTime() - start);
+            throw new CasSessionException("Unable to borrow CAS", e);
+        }
+    }
+
+    @Override
+    public void release(CasKey aKey, CasHolder aHolder)
+    {
+        exclusiveAccessPool.returnObject(aKey, aHolder);
+        logExclusiveAccessHolders();
+    }
+
+    /**
+     * The pool does not distinguish between exclusive and shared access, so the CAS is briefly
+     * borrowed exclusively.
+     */
+    @Override
+    public SharedAccess acquireShared(CasKey aKey)
+    {
+        CasHolder holder = acquire(aKey);
+        return () -> release(aKey, holder);
+    }
+
+    @Override
+    public List<CasHolder> getHolders(Predicate<CasKey> aFilter)
+    {
+        List<CasHolder> holders = new ArrayList<>();
+        exclusiveAccessHolders.forEach(h -> {
+            // Must use the forEach here because stream() is not synchronized!
+            if (aFilter.test(h.getKey())) {
+                holders.add(h);
+            }
+        });
+        return holders;
+    }
+
+    @Override
+    public ExclusiveAccessStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    @Override
+    public void destroy()
+    {
+        exclusiveAccessPool.close();
+    }
+
+    /**
+     * When using the Spring {@link ConcurrentReferenceHashMap} for the
+     * {@link #exclusiveAccessHolders}, we had some trouble that CASHolders disappeared from the set
+     * even though they had not yet been garbage collected (i.e. still referenced from the
+     * {@link #exclusiveAccessPool}. To fix this, we switch to a simple synchronized
+     * {@link WeakHashMap} turned into a set. We keep the debug/logging code around for a little
+     * more to facilitate debugging this again if need be.
+     */
+    private void logExclusiveAccessHolders()
+    {
+        if (log.isTraceEnabled()) {
+            if (exclusiveAccessHolders.isEmpty()) {
+                log.trace("exclusiveAccessHolders: empty!");
+            }
+            else {
+                log.trace("exclusiveAccessHolders: {}", exclusiveAccessHolders);
+            }
+        }
+    }
+}
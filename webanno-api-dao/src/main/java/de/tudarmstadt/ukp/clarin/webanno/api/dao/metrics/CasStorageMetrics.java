@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.metrics;
+
+import java.util.Map;
+
+public interface CasStorageMetrics
+{
+    /**
+     * Retrieve the number of CASes in the shared read-only CAS cache
+     */
+    public long getSharedCasCacheSize();
+
+    /**
+     * Retrieve the estimated heap size of the CASes in the shared read-only CAS cache in KB
+     */
+    public long getSharedCasCacheWeight();
+
+    /**
+     * Retrieve the number of requests served from the shared read-only CAS cache
+     */
+    public long getSharedCasCacheHitCount();
+
+    /**
+     * Retrieve the number of requests which required loading a CAS into the shared read-only CAS
+     * cache
+     */
+    public long getSharedCasCacheMissCount();
+
+    /**
+     * Retrieve the ratio of requests served from the shared read-only CAS cache
+     */
+    public double getSharedCasCacheHitRate();
+
+    /**
+     * Retrieve the number of CASes evicted from the shared read-only CAS cache
+     */
+    public long getSharedCasCacheEvictionCount();
+
+    /**
+     * Retrieve the estimated heap size of the CASes evicted from the shared read-only CAS cache in
+     * KB
+     */
+    public long getSharedCasCacheEvictionWeight();
+
+    /**
+     * Retrieve the average time in milliseconds needed to load a CAS into the shared read-only CAS
+     * cache
+     */
+    public double getSharedCasCacheAverageLoadTime();
+
+    /**
+     * Retrieve the number of times exclusive access to a CAS was obtained
+     */
+    public long getExclusiveAccessCount();
+
+    /**
+     * Retrieve the number of times access to a CAS could not be obtained immediately because
+     * somebody else was holding it
+     */
+    public long getExclusiveAccessContendedCount();
+
+    /**
+     * Retrieve the number of times access to a CAS could not be obtained in time
+     */
+    public long getExclusiveAccessTimeoutCount();
+
+    /**
+     * Retrieve the average time in milliseconds needed to obtain access to a CAS
+     */
+    public double getExclusiveAccessAverageWaitTime();
+
+    /**
+     * Retrieve the longest time in milliseconds needed to obtain access to a CAS
+     */
+    public long getExclusiveAccessMaxWaitTime();
+
+    /**
+     * Retrieve the number of times access to a CAS was obtained per waiting time bucket
+     */
+    public Map<String, Long> getExclusiveAccessWaitTimeHistogram();
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.metrics;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageStatistics;
+
+@ManagedResource
+@Service
+@ConditionalOnProperty(prefix = "monitoring.metrics", name = "enabled", havingValue = "true")
+public class CasStorageMetricsImpl
+    implements CasStorageMetrics
+{
+    private final CasStorageStatistics casStorageStatistics;
+
+    @Autowired
+    public CasStorageMetricsImpl(CasStorageStatistics aCasStorageStatistics)
+    {
+        casStorageStatistics = aCasStorageStatistics;
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getSharedCasCacheSize()
+    {
+        return casStorageStatistics.getSharedCasCacheSize();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getSharedCasCacheWeight()
+    {
+        return casStorageStatistics.getSharedCasCacheWeight();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getSharedCasCacheHitCount()
+    {
+        return casStorageStatistics.getSharedCasCacheStats().hitCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getSharedCasCacheMissCount()
+    {
+        return casStorageStatistics.getSharedCasCacheStats().missCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public double getSharedCasCacheHitRate()
+    {
+        return casStorageStatistics.getSharedCasCacheStats().hitRate();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getSharedCasCacheEvictionCount()
+    {
+        return casStorageStatistics.getSharedCasCacheStats().evictionCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getSharedCasCacheEvictionWeight()
+    {
+        return casStorageStatistics.getSharedCasCacheStats().evictionWeight();
+    }
+
+    @Override
+    @ManagedAttribute
+    public double getSharedCasCacheAverageLoadTime()
+    {
+        return casStorageStatistics.getSharedCasCacheStats().averageLoadPenalty()
+                / NANOSECONDS.convert(1, MILLISECONDS);
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getExclusiveAccessCount()
+    {
+        return casStorageStatistics.getExclusiveAccessStatistics().getAcquisitionCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getExclusiveAccessContendedCount()
+    {
+        return casStorageStatistics.getExclusiveAccessStatistics().getContendedCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getExclusiveAccessTimeoutCount()
+    {
+        return casStorageStatistics.getExclusiveAccessStatistics().getTimeoutCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public double getExclusiveAccessAverageWaitTime()
+    {
+        return casStorageStatistics.getExclusiveAccessStatistics().getAverageWaitTime();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getExclusiveAccessMaxWaitTime()
+    {
+        return casStorageStatistics.getExclusiveAccessStatistics().getMaxWaitTime();
+    }
+
+    @Override
+    @ManagedAttribute
+    public Map<String, Long> getExclusiveAccessWaitTimeHistogram()
+    {
+        return casStorageStatistics.getExclusiveAccessStatistics().getWaitTimeHistogram();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.EXCLUSIVE_WRITE_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.getTypeSystemVersion;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.CasFactory;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class AnnotationSchemaServiceImplTest
+{
+    private AnnotationSchemaServiceImpl sut;
+    private CasStorageSession casStorageSession;
+    private Project project;
+
+    @Before
+    public void setup() throws Exception
+    {
+        sut = spy(new AnnotationSchemaServiceImpl());
+        doReturn(emptyList()).when(sut).listSupportedLayers(any());
+        doReturn(emptyList()).when(sut).listSupportedFeatures((Project) any());
+
+        project = new Project();
+        project.setId(1l);
+        project.setName("project");
+
+        casStorageSession = CasStorageSession.open();
+    }
+
+    @After
+    public void tearDown()
+    {
+        casStorageSession.close();
+    }
+
+    @Test
+    public void thatProjectTypeSystemIsCachedUntilLayerConfigurationChanges() throws Exception
+    {
+        CAS cas1 = createCas("cas1", createTypeSystemDescription());
+        CAS cas2 = createCas("cas2", createTypeSystemDescription());
+
+        assertThat(sut.upgradeCasIfRequired(asList(cas1, cas2), project)).isTrue();
+        assertThat(cas1.getTypeSystem())
+                .as("Upgraded CASes share the committed project type system")
+                .isSameAs(cas2.getTypeSystem());
+
+        assertThat(sut.upgradeCasIfRequired(asList(cas1, cas2), project)).isFalse();
+        verify(sut, times(1)).getFullProjectTypeSystem(project, true);
+
+        sut.beforeLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, project));
+
+        assertThat(sut.upgradeCasIfRequired(asList(cas1, cas2), project)).isFalse();
+        verify(sut, times(2)).getFullProjectTypeSystem(project, true);
+    }
+
+    @Test
+    public void thatProjectTypeSystemFlushedDuringCreationIsNotCached() throws Exception
+    {
+        // The layer configuration changes while the type system is being created
+        doAnswer(call -> {
+            TypeSystemDescription tsd = (TypeSystemDescription) call.callRealMethod();
+            sut.beforeLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, project));
+            return tsd;
+        }).doCallRealMethod().when(sut).getFullProjectTypeSystem(project, true);
+
+        CAS cas = createCas("cas", createTypeSystemDescription());
+        sut.upgradeCasIfRequired(asList(cas), project);
+        verify(sut, times(1)).getFullProjectTypeSystem(project, true);
+
+        sut.upgradeCasIfRequired(asList(cas), project);
+        verify(sut, times(2)).getFullProjectTypeSystem(project, true);
+    }
+
+    @Test
+    public void thatCompatibleCasIsNotModified() throws Exception
+    {
+        CAS cas = createCas("cas", mergeTypeSystems(asList(createTypeSystemDescription(),
+                CasMetadataUtils.getInternalTypeSystem())));
+        Type cmdType = cas.getTypeSystem().getType(CASMetadata.class.getName());
+        cas.addFsToIndexes(cas.createAnnotation(cmdType, 0, 0));
+
+        assertThat(sut.upgradeCasIfRequired(cas, makeSourceDocument())).isFalse();
+        assertThat(sut.upgradeCasIfRequired(cas, makeSourceDocument())).isFalse();
+
+        assertThat(getTypeSystemVersion(cas)).isEmpty();
+    }
+
+    @Test
+    public void thatVersionReflectsTypeSystemContents() throws Exception
+    {
+        TypeSystemDescription tsd1 = sut.getFullProjectTypeSystem(project, true);
+        TypeSystemDescription tsd2 = sut.getFullProjectTypeSystem(project, true);
+        TypeSystemDescription tsd3 = sut.getFullProjectTypeSystem(project, true);
+        tsd3.addType("custom.Span", "", CAS.TYPE_NAME_ANNOTATION);
+
+        assertThat(ProjectTypeSystem.calculateVersion(tsd1))
+                .isEqualTo(ProjectTypeSystem.calculateVersion(tsd2))
+                .isNotEqualTo(ProjectTypeSystem.calculateVersion(tsd3));
+    }
+
+    private CAS createCas(String aName, TypeSystemDescription aTsd) throws Exception
+    {
+        CAS cas = CasFactory.createCas(aTsd);
+        cas.setDocumentText("This is a test.");
+        casStorageSession.add(aName, EXCLUSIVE_WRITE_ACCESS, cas);
+        return cas;
+    }
+
+    private SourceDocument makeSourceDocument()
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setProject(project);
+        doc.setId(1l);
+        doc.setName("doc");
+        return doc;
+    }
+}
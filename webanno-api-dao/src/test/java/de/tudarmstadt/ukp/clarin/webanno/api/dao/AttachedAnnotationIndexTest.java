@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.INCOMING;
+import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.LOOP;
+import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.OUTGOING;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.SINGLE_TOKEN;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.ANY_OVERLAP;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.testing.factory.TokenBuilder;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.RelationAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.LinkWithRoleModel;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class AttachedAnnotationIndexTest
+{
+    static {
+        System.setProperty(CASImpl.ALWAYS_HOLD_ONTO_FSS, "true");
+    }
+
+    private JCas jcas;
+    private List<Token> tokens;
+    private AnnotationLayer depLayer;
+    private RelationAdapter depAdapter;
+    private AttachedAnnotationIndex sut;
+
+    @Before
+    public void setup() throws Exception
+    {
+        jcas = JCasFactory.createJCas();
+        TokenBuilder<Token, Sentence> builder = new TokenBuilder<>(Token.class, Sentence.class);
+        builder.buildTokens(jcas, "John loves Mary .");
+        tokens = jcas.select(Token.class).asList();
+
+        Project project = new Project();
+        project.setId(1l);
+
+        depLayer = new AnnotationLayer(Dependency.class.getName(), "Dependency", RELATION_TYPE,
+                project, true, SINGLE_TOKEN, ANY_OVERLAP);
+        depLayer.setId(1l);
+
+        depAdapter = mock(RelationAdapter.class);
+        when(depAdapter.getSourceFeatureName()).thenReturn("Governor");
+        when(depAdapter.getTargetFeatureName()).thenReturn("Dependent");
+
+        sut = new AttachedAnnotationIndex(jcas.getCas());
+    }
+
+    @Test
+    public void thatAttachedRelationsAreFound()
+    {
+        Dependency nsubj = addDependency(1, 0);
+        Dependency dobj = addDependency(1, 2);
+        Dependency loop = addDependency(3, 3);
+
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(1)))
+                .extracting(AttachedAnnotation::getRelation, AttachedAnnotation::getEndpoint,
+                        AttachedAnnotation::getDirection)
+                .containsExactly(tuple(nsubj, tokens.get(0), OUTGOING),
+                        tuple(dobj, tokens.get(2), OUTGOING));
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(0)))
+                .extracting(AttachedAnnotation::getRelation, AttachedAnnotation::getEndpoint,
+                        AttachedAnnotation::getDirection)
+                .containsExactly(tuple(nsubj, tokens.get(1), INCOMING));
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(3)))
+                .extracting(AttachedAnnotation::getRelation, AttachedAnnotation::getDirection)
+                .containsExactly(tuple(loop, LOOP));
+    }
+
+    @Test
+    public void thatAddedRelationsAreFound()
+    {
+        addDependency(1, 0);
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(2))).isEmpty();
+
+        // Unrelated changes do not affect the index
+        new NamedEntity(jcas, 0, 4).addToIndexes();
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(2))).isEmpty();
+
+        Dependency dobj = addDependency(1, 2);
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(2)))
+                .extracting(AttachedAnnotation::getRelation)
+                .containsExactly(dobj);
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(1))).hasSize(2);
+    }
+
+    @Test
+    public void thatDeletedRelationsAreNotFound()
+    {
+        Dependency nsubj = addDependency(1, 0);
+        Dependency dobj = addDependency(1, 2);
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(1))).hasSize(2);
+
+        nsubj.removeFromIndexes();
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(1)))
+                .extracting(AttachedAnnotation::getRelation)
+                .containsExactly(dobj);
+
+        // Delete one relation and add another one
+        dobj.removeFromIndexes();
+        Dependency other = addDependency(2, 1);
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(1)))
+                .extracting(AttachedAnnotation::getRelation, AttachedAnnotation::getDirection)
+                .containsExactly(tuple(other, INCOMING));
+    }
+
+    @Test
+    public void thatIndexIsDroppedWhenCasIsReset() throws Exception
+    {
+        addDependency(1, 0);
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(1))).hasSize(1);
+
+        // Load the same annotations again
+        jcas.reset();
+        TokenBuilder<Token, Sentence> builder = new TokenBuilder<>(Token.class, Sentence.class);
+        builder.buildTokens(jcas, "John loves Mary .");
+        tokens = jcas.select(Token.class).asList();
+        Dependency nsubj = addDependency(1, 0);
+
+        assertThat(sut.getAttachedRels(depLayer, depAdapter, tokens.get(1)))
+                .extracting(AttachedAnnotation::getRelation)
+                .containsExactly(nsubj);
+    }
+
+    @Test
+    public void thatAttachedLinksAreFound()
+    {
+        AnnotationLayer neLayer = new AnnotationLayer(NamedEntity.class.getName(), "NE",
+                SPAN_TYPE, depLayer.getProject(), true, SINGLE_TOKEN, ANY_OVERLAP);
+        neLayer.setId(2l);
+        AnnotationFeature linkFeature = new AnnotationFeature(1l, neLayer, "links",
+                Token.class.getName());
+
+        NamedEntity host = new NamedEntity(jcas, 0, 4);
+        host.addToIndexes();
+
+        TypeAdapter adapter = mock(TypeAdapter.class);
+        when(adapter.getFeatureValue(any(), any()))
+                .thenReturn(asList(new LinkWithRoleModel("role", "label", getAddr(tokens.get(2)))));
+
+        assertThat(sut.getAttachedLinks(linkFeature, adapter, tokens.get(2)))
+                .extracting(AttachedAnnotation::getEndpoint, AttachedAnnotation::getDirection)
+                .containsExactly(tuple(host, INCOMING));
+        assertThat(sut.getAttachedLinks(linkFeature, adapter, tokens.get(1))).isEmpty();
+    }
+
+    private Dependency addDependency(int aGovernor, int aDependent)
+    {
+        Dependency dep = new Dependency(jcas, tokens.get(aDependent).getBegin(),
+                tokens.get(aDependent).getEnd());
+        dep.setGovernor(tokens.get(aGovernor));
+        dep.setDependent(tokens.get(aDependent));
+        dep.addToIndexes();
+        return dep;
+    }
+}
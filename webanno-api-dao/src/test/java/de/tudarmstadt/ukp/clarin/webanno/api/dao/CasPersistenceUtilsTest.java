@@ -17,6 +17,10 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.COMPRESSED_BINARY;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.SERIALIZED_CAS;
+import static java.lang.System.currentTimeMillis;
+import static org.apache.commons.lang3.StringUtils.repeat;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.File;
@@ -31,11 +35,16 @@ import org.apache.uima.util.CasCreationUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 public class CasPersistenceUtilsTest
 {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
     public @Rule TemporaryFolder testFolder = new TemporaryFolder();
 
     {
@@ -67,4 +76,72 @@ public class CasPersistenceUtilsTest
                 .extracting(fs -> fs.getType().getName())
                 .containsExactly(DocumentMetaData.class.getName());
     }
+
+    @Test
+    public void thatDocumentAnnotationIsNotDuplicatedDuringCompressedLoad() throws Exception
+    {
+        CAS cas = CasFactory.createCas();
+
+        cas.setDocumentLanguage("en");
+
+        DocumentMetaData dmd = DocumentMetaData.create(cas);
+        dmd.setLanguage("en");
+
+        File file = testFolder.newFile();
+
+        CasPersistenceUtils.writeCas(cas, file, COMPRESSED_BINARY);
+
+        CAS cas2 = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+
+        assertThat(CasPersistenceUtils.readCas(cas2, file)).isEqualTo(COMPRESSED_BINARY);
+
+        assertThat((AnnotationFS) cas2.getDocumentAnnotation())
+                .isInstanceOf(DocumentMetaData.class);
+
+        assertThat(cas2.select(DocumentAnnotation.class).asList())
+                .extracting(fs -> fs.getType().getName())
+                .containsExactly(DocumentMetaData.class.getName());
+    }
+
+    @Test
+    public void thatFormatsCanBeReadInterchangeably() throws Exception
+    {
+        CAS cas = CasFactory.createText(repeat("This is a test . ", 20_000));
+        for (int i = 0; i < cas.getDocumentText().length(); i += 5) {
+            cas.addFsToIndexes(new Token(cas.getJCas(), i, i + 4));
+        }
+
+        File serializedFile = testFolder.newFile();
+        long t0 = currentTimeMillis();
+        CasPersistenceUtils.writeCas(cas, serializedFile, SERIALIZED_CAS);
+        long serializedWriteTime = currentTimeMillis() - t0;
+
+        File compressedFile = testFolder.newFile();
+        t0 = currentTimeMillis();
+        CasPersistenceUtils.writeCas(cas, compressedFile, COMPRESSED_BINARY);
+        long compressedWriteTime = currentTimeMillis() - t0;
+
+        CAS serializedCas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        t0 = currentTimeMillis();
+        assertThat(CasPersistenceUtils.readCas(serializedCas, serializedFile))
+                .isEqualTo(SERIALIZED_CAS);
+        long serializedReadTime = currentTimeMillis() - t0;
+
+        CAS compressedCas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        t0 = currentTimeMillis();
+        assertThat(CasPersistenceUtils.readCas(compressedCas, compressedFile))
+                .isEqualTo(COMPRESSED_BINARY);
+        long compressedReadTime = currentTimeMillis() - t0;
+
+        log.info("{}: {} bytes - write: {}ms - read: {}ms", SERIALIZED_CAS,
+                serializedFile.length(), serializedWriteTime, serializedReadTime);
+        log.info("{}: {} bytes - write: {}ms - read: {}ms", COMPRESSED_BINARY,
+                compressedFile.length(), compressedWriteTime, compressedReadTime);
+
+        assertThat(compressedFile.length()).isLessThan(serializedFile.length());
+        assertThat(compressedCas.getDocumentText()).isEqualTo(cas.getDocumentText());
+        assertThat(compressedCas.select(Token.class.getName()).count())
+                .isEqualTo(cas.select(Token.class).count())
+                .isEqualTo(serializedCas.select(Token.class.getName()).count());
+    }
 }
@@ -26,7 +26,10 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHA
 import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.UNMANAGED_ACCESS;
 import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.UNMANAGED_NON_INITIALIZING_ACCESS;
 import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.getInternalTypeSystem;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.COMPRESSED_BINARY;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.SERIALIZED_CAS;
 import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession.openNested;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.ExclusiveAccessMode.LOCK;
 import static java.lang.Thread.sleep;
 import static java.util.Arrays.asList;
 import static org.apache.commons.lang3.StringUtils.repeat;
@@ -36,6 +39,7 @@ import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -43,10 +47,12 @@ import java.io.IOException;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
 import org.apache.uima.cas.text.AnnotationFS;
@@ -61,11 +67,17 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.util.unit.DataSize;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasProvider;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasBulkReadException;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasJournal;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.ExclusiveAccessMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.ExclusiveAccessStatistics;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -224,6 +236,280 @@ public class CasStorageServiceImplTest
                 .isNotEqualTo(casIdentity3);
     }
 
+    @Test
+    public void testThatLayerChangeEventInvalidatesCachedCasUsingLocks() throws Exception
+    {
+        useExclusiveAccessMode(LOCK);
+
+        testThatLayerChangeEventInvalidatesCachedCas();
+    }
+
+    @Test
+    public void testExclusiveAccessStatisticsAreRecorded() throws Exception
+    {
+        useExclusiveAccessMode(LOCK);
+
+        SourceDocument doc = makeSourceDocument(15l, 15l, "test");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+
+        try (CasStorageSession session = openNested(true)) {
+            sut.readCas(doc, user);
+            assertThat(sut.existsCas(doc, user)).isTrue();
+            assertThat(sut.getCasTimestamp(doc, user)).isPresent();
+        }
+
+        ExclusiveAccessStatistics stats = sut.getExclusiveAccessStatistics();
+        assertThat(stats.getAcquisitionCount()).isGreaterThanOrEqualTo(1);
+        assertThat(stats.getTimeoutCount()).isZero();
+        assertThat(stats.getWaitTimeHistogram().values().stream().mapToLong(Long::longValue)
+                .sum()).isEqualTo(stats.getAcquisitionCount());
+    }
+
+    @Test
+    public void testCasFileIsMigratedToConfiguredFormatOnRead() throws Exception
+    {
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(8l, 8l, "test");
+        String user = "test";
+        String text = "This is a test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, text);
+        }
+
+        File casFile = sut.getCasFile(doc, user);
+        assertThat(CasPersistenceUtils.detectFormat(casFile)).isEqualTo(SERIALIZED_CAS);
+
+        CasStorageProperties casStorageProperties = new CasStorageProperties();
+        casStorageProperties.setFormat(COMPRESSED_BINARY);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Actual test
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            assertThat(cas.getDocumentText()).isEqualTo(text);
+            assertThat(CasPersistenceUtils.detectFormat(casFile)).isEqualTo(COMPRESSED_BINARY);
+
+            // Saving the migrated CAS must not be mistaken for a concurrent modification
+            sut.writeCas(doc, cas, user);
+        }
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, UNMANAGED_ACCESS);
+            assertThat(cas.getDocumentText()).isEqualTo(text);
+        }
+    }
+
+    @Test
+    public void testWriteBehindCoalescesWritesUntilCasIsAccessed() throws Exception
+    {
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(9l, 9l, "test");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+
+        CasStorageProperties casStorageProperties = new CasStorageProperties();
+        casStorageProperties.getWriteBehind().setEnabled(true);
+        casStorageProperties.getWriteBehind().setMaxStaleness(3600);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        File casFile = sut.getCasFile(doc, user);
+
+        // Actual test
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            for (int i = 0; i < 3; i++) {
+                cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), i, i + 1));
+                sut.writeCas(doc, cas, user);
+            }
+        }
+
+        assertThat(sut.getPendingWriteCount()).isEqualTo(1);
+        CAS casOnDisk = WebAnnoCasUtil.createCas();
+        CasPersistenceUtils.readCas(casOnDisk, casFile);
+        assertThat(countPlainAnnotations(casOnDisk))
+                .as("Changes have not been written to disk yet")
+                .isEqualTo(0);
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, UNMANAGED_ACCESS);
+            assertThat(countPlainAnnotations(cas))
+                    .as("Unmanaged access sees all changes")
+                    .isEqualTo(3);
+        }
+        assertThat(sut.getPendingWriteCount()).isEqualTo(0);
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 3, 4));
+            sut.writeCas(doc, cas, user);
+        }
+
+        sut.destroy();
+
+        assertThat(sut.getPendingWriteCount()).isEqualTo(0);
+        casOnDisk = WebAnnoCasUtil.createCas();
+        CasPersistenceUtils.readCas(casOnDisk, casFile);
+        assertThat(countPlainAnnotations(casOnDisk))
+                .as("Changes are written on shutdown")
+                .isEqualTo(4);
+    }
+
+    @Test
+    public void testJournalIsReplayedAndCompactedOnExport() throws Exception
+    {
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(10l, 10l, "test");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+
+        CasStorageProperties casStorageProperties = new CasStorageProperties();
+        casStorageProperties.getJournal().setEnabled(true);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        File casFile = sut.getCasFile(doc.getProject().getId(), doc.getId(), user);
+        long snapshotSize = casFile.length();
+
+        // Actual test
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            for (int i = 0; i < 3; i++) {
+                cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), i, i + 1));
+                sut.writeCas(doc, cas, user);
+            }
+        }
+
+        assertThat(CasJournal.getJournalFile(casFile)).exists();
+        assertThat(casFile.length()).isEqualTo(snapshotSize);
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, UNMANAGED_ACCESS);
+            assertThat(countPlainAnnotations(cas))
+                    .as("Journaled changes are replayed when reading the CAS")
+                    .isEqualTo(3);
+        }
+
+        long timestamp = casFile.lastModified();
+        assertThat(sut.getCasFile(doc, user)).isEqualTo(casFile);
+        assertThat(CasJournal.getJournalFile(casFile)).doesNotExist();
+        assertThat(casFile.lastModified()).isEqualTo(timestamp);
+        CAS casOnDisk = WebAnnoCasUtil.createCas();
+        CasPersistenceUtils.readCas(casOnDisk, casFile);
+        assertThat(countPlainAnnotations(casOnDisk))
+                .as("Journal is compacted into the snapshot when accessing the file")
+                .isEqualTo(3);
+    }
+
+    @Test
+    public void testSharedCasCacheRecordsStatisticsAndRespectsMemoryBudget() throws Exception
+    {
+        // Setup fixture
+        SourceDocument doc1 = makeSourceDocument(11l, 11l, "doc1");
+        SourceDocument doc2 = makeSourceDocument(11l, 12l, "doc2");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc1, user, repeat("This is a test. ", 1000));
+            createCasFile(doc2, user, repeat("This is a test. ", 1000));
+        }
+
+        CasStorageProperties casStorageProperties = new CasStorageProperties();
+        casStorageProperties.getSharedCache().setMemoryBudget(DataSize.ofKilobytes(50));
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Actual test
+        for (int i = 0; i < 2; i++) {
+            try (CasStorageSession session = openNested(true)) {
+                sut.readCas(doc1, user, SHARED_READ_ONLY_ACCESS);
+            }
+        }
+
+        assertThat(sut.getSharedCasCacheStats().missCount()).isEqualTo(1);
+        assertThat(sut.getSharedCasCacheStats().hitCount()).isEqualTo(1);
+        assertThat(sut.getSharedCasCacheWeight()).isGreaterThan(16);
+
+        try (CasStorageSession session = openNested(true)) {
+            sut.readCas(doc2, user, SHARED_READ_ONLY_ACCESS);
+        }
+
+        // Eviction happens asynchronously
+        for (int i = 0; i < 100 && sut.getSharedCasCacheSize() > 1; i++) {
+            sleep(50);
+        }
+
+        assertThat(sut.getSharedCasCacheSize())
+                .as("Both CASes do not fit into the memory budget together")
+                .isEqualTo(1);
+        assertThat(sut.getSharedCasCacheStats().evictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testReadMultipleCasesInParallel() throws Exception
+    {
+        // Setup fixture
+        List<Pair<SourceDocument, String>> docsAndUsers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            SourceDocument doc = makeSourceDocument(13l, 13l + i, "doc" + i);
+            try (CasStorageSession session = openNested(true)) {
+                createCasFile(doc, "user", "Document " + i);
+            }
+            docsAndUsers.add(Pair.of(doc, "user"));
+        }
+
+        // Actual test
+        try (CasStorageSession session = openNested(true)) {
+            // A CAS which the session holds exclusively must not block loading it again
+            CAS exclusiveCas = sut.readCas(docsAndUsers.get(2).getKey(), "user");
+
+            Map<Pair<SourceDocument, String>, CAS> cases = sut.readOrCreateCases(docsAndUsers,
+                    AUTO_CAS_UPGRADE, null, SHARED_READ_ONLY_ACCESS);
+
+            assertThat(cases.keySet()).containsExactlyElementsOf(docsAndUsers);
+            assertThat(cases.values()).extracting(CAS::getDocumentText).containsExactly(
+                    "Document 0", "Document 1", "Document 2", "Document 3", "Document 4");
+            assertThat(cases.get(docsAndUsers.get(2))).isSameAs(exclusiveCas);
+            for (Pair<SourceDocument, String> docAndUser : docsAndUsers) {
+                assertThat(session.contains(cases.get(docAndUser))).isTrue();
+            }
+        }
+    }
+
+    @Test
+    public void testReadMultipleCasesReportsMissingCas() throws Exception
+    {
+        SourceDocument existingDoc = makeSourceDocument(14l, 14l, "existing");
+        SourceDocument missingDoc = makeSourceDocument(14l, 15l, "missing");
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(existingDoc, "user", "Existing");
+        }
+        Pair<SourceDocument, String> existing = Pair.of(existingDoc, "user");
+        Pair<SourceDocument, String> missing = Pair.of(missingDoc, "user");
+        List<Pair<SourceDocument, String>> docsAndUsers = asList(missing, existing);
+
+        try (CasStorageSession session = openNested(true)) {
+            CasBulkReadException e = catchThrowableOfType(
+                    () -> sut.readOrCreateCases(docsAndUsers, AUTO_CAS_UPGRADE, null,
+                            SHARED_READ_ONLY_ACCESS),
+                    CasBulkReadException.class);
+
+            assertThat(e).hasCauseInstanceOf(FileNotFoundException.class);
+            assertThat(e.getFailures()).containsOnlyKeys(missing);
+            assertThat(e.getFailures().get(missing)).isInstanceOf(FileNotFoundException.class);
+            assertThat(e.getCases()).containsOnlyKeys(existing);
+            assertThat(e.getCases().get(existing).getDocumentText()).isEqualTo("Existing");
+            assertThat(session.contains(e.getCases().get(existing))).isTrue();
+        }
+    }
+
     @Test
     public void testConcurrentAccess() throws Exception
     {
@@ -364,6 +650,14 @@ public class CasStorageServiceImplTest
         assertThat(exception).isFalse();
     }
 
+    @Test
+    public void testHighConcurrencyIncludingDeletionUsingLocks() throws Exception
+    {
+        useExclusiveAccessMode(LOCK);
+
+        testHighConcurrencyIncludingDeletion();
+    }
+
     @Test
     public void testHighConcurrencyWithoutDeletion() throws Exception
     {
@@ -444,6 +738,14 @@ public class CasStorageServiceImplTest
         assertThat(exception).isFalse();
     }
 
+    private void useExclusiveAccessMode(ExclusiveAccessMode aMode)
+    {
+        CasStorageProperties casStorageProperties = new CasStorageProperties();
+        casStorageProperties.getExclusiveAccess().setMode(aMode);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+    }
+
     private class ExclusiveReadWriteTask
         extends Thread
     {
@@ -473,7 +775,7 @@ public class CasStorageServiceImplTest
                 try (CasStorageSession session = openNested()) {
                     CAS cas = sut.readOrCreateCas(doc, user, FORCE_CAS_UPGRADE, initializer,
                             EXCLUSIVE_WRITE_ACCESS);
-                    Thread.sleep(50);
+                    sleep(50);
                     AnnotationFS fs = cas.createAnnotation(cas.getAnnotationType(), 0, 10);
                     cas.addFsToIndexes(fs);
                     log.info("CAS size: {}", cas.getAnnotationIndex().size());
@@ -512,7 +814,7 @@ public class CasStorageServiceImplTest
                     sut.readOrCreateCas(doc, user, AUTO_CAS_UPGRADE, initializer,
                             SHARED_READ_ONLY_ACCESS);
                     managedReadCounter.incrementAndGet();
-                    Thread.sleep(50);
+                    sleep(50);
                 }
                 catch (Exception e) {
                     exception.set(true);
@@ -580,7 +882,7 @@ public class CasStorageServiceImplTest
                 try (CasStorageSession session = openNested()) {
                     sut.readOrCreateCas(doc, user, AUTO_CAS_UPGRADE, initializer, UNMANAGED_ACCESS);
                     unmanagedReadCounter.incrementAndGet();
-                    Thread.sleep(50);
+                    sleep(50);
                 }
                 catch (Exception e) {
                     exception.set(true);
@@ -610,7 +912,7 @@ public class CasStorageServiceImplTest
                 try (CasStorageSession session = openNested()) {
                     sut.readCas(doc, user, UNMANAGED_NON_INITIALIZING_ACCESS);
                     unmanagedNonInitializingReadCounter.incrementAndGet();
-                    Thread.sleep(50);
+                    sleep(50);
                 }
                 catch (FileNotFoundException e) {
                     // We ignore the FileNotFoundException, this could be hapening if the deleter
@@ -637,6 +939,12 @@ public class CasStorageServiceImplTest
         }
     }
 
+    private long countPlainAnnotations(CAS aCas)
+    {
+        return aCas.getAnnotationIndex().stream()
+                .filter(a -> a.getType().equals(aCas.getAnnotationType())).count();
+    }
+
     private JCas createCasFile(SourceDocument doc, String user, String text)
         throws CASException, CasSessionException, IOException
     {
@@ -17,9 +17,17 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IGNORE;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
+import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.CURATOR;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_FINISHED;
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.Map;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,9 +44,11 @@ import org.springframework.transaction.annotation.Transactional;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentStatistics;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
@@ -88,6 +98,101 @@ public class DocumentServiceImplDatabaseTest
         assertThat(documentService.listAnnotationDocuments(doc)).isEmpty();
     }
 
+    @Test
+    public void testThatStatisticsMatchListQueries() throws Exception
+    {
+        User user1 = new User("stats-user1");
+        userRepository.create(user1);
+        User user2 = new User("stats-user2");
+        userRepository.create(user2);
+        User curator = new User("stats-curator");
+        userRepository.create(curator);
+
+        Project project = new Project("stats-project");
+        projectService.createProject(project);
+        projectService.createProjectPermission(
+                new ProjectPermission(project, user1.getUsername(), ANNOTATOR));
+        projectService.createProjectPermission(
+                new ProjectPermission(project, user2.getUsername(), ANNOTATOR));
+        projectService.createProjectPermission(
+                new ProjectPermission(project, curator.getUsername(), CURATOR));
+
+        Project otherProject = new Project("stats-other-project");
+        projectService.createProject(otherProject);
+
+        SourceDocument doc1 = new SourceDocument("doc1", project, "text");
+        documentService.createSourceDocument(doc1);
+        SourceDocument doc2 = new SourceDocument("doc2", project, "text");
+        doc2.setState(CURATION_FINISHED);
+        documentService.createSourceDocument(doc2);
+        SourceDocument doc3 = new SourceDocument("doc3", project, "text");
+        documentService.createSourceDocument(doc3);
+
+        createAnnotationDocument(doc1, user1, FINISHED);
+        createAnnotationDocument(doc2, user1, FINISHED);
+        createAnnotationDocument(doc3, user1, IGNORE);
+        createAnnotationDocument(doc1, user2, IN_PROGRESS);
+        // Documents of users which are not annotators are not counted
+        createAnnotationDocument(doc1, curator, FINISHED);
+
+        Map<Long, DocumentStatistics> allStatistics = documentService
+                .getStatistics(asList(project, otherProject));
+        DocumentStatistics statistics = allStatistics.get(project.getId());
+
+        assertThat(statistics.getAnnotators()).containsExactlyInAnyOrder(user1.getUsername(),
+                user2.getUsername());
+        assertThat(statistics.getSourceDocumentCount()).isEqualTo(3);
+        assertThat(statistics.getCuratedDocumentCount()).isEqualTo(1);
+        assertThat(statistics.getFinishedDocumentCount(user1.getUsername())).isEqualTo(2);
+        assertThat(statistics.getAnnotatableDocumentCount(user1.getUsername())).isEqualTo(2);
+        assertThat(statistics.getFinishedDocumentCount(user2.getUsername())).isEqualTo(0);
+        assertThat(statistics.getAnnotatableDocumentCount(user2.getUsername())).isEqualTo(3);
+        assertThat(statistics.getFinishedDocumentCount(curator.getUsername())).isEqualTo(0);
+        assertThat(statistics.getFinishedAnnotationDocumentCount()).isEqualTo(
+                documentService.listFinishedAnnotationDocuments(project).size());
+        assertThat(statistics.getExpectedAnnotationDocumentCount())
+                .isEqualTo(documentService.numberOfExpectedAnnotationDocuments(project));
+
+        DocumentStatistics otherStatistics = allStatistics.get(otherProject.getId());
+        assertThat(otherStatistics.getAnnotators()).isEmpty();
+        assertThat(otherStatistics.getSourceDocumentCount()).isEqualTo(0);
+        assertThat(otherStatistics.getExpectedAnnotationDocumentCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testThatStatisticsAreUpdatedOnStateChange() throws Exception
+    {
+        User user = new User("state-user");
+        userRepository.create(user);
+
+        Project project = new Project("state-project");
+        projectService.createProject(project);
+        projectService.createProjectPermission(
+                new ProjectPermission(project, user.getUsername(), ANNOTATOR));
+
+        SourceDocument doc = new SourceDocument("doc", project, "text");
+        documentService.createSourceDocument(doc);
+        AnnotationDocument ann = createAnnotationDocument(doc, user, IN_PROGRESS);
+
+        assertThat(documentService.getStatistics(project)
+                .getFinishedDocumentCount(user.getUsername())).isEqualTo(0);
+
+        documentService.setAnnotationDocumentState(ann, FINISHED);
+
+        assertThat(documentService.getStatistics(project)
+                .getFinishedDocumentCount(user.getUsername())).isEqualTo(1);
+    }
+
+    private AnnotationDocument createAnnotationDocument(SourceDocument aDocument, User aUser,
+            AnnotationDocumentState aState)
+    {
+        AnnotationDocument ann = new AnnotationDocument(aDocument.getName(),
+                aDocument.getProject(), aUser.getUsername(), aDocument);
+        ann.setState(aState);
+        documentService.createAnnotationDocument(ann);
+        return ann;
+    }
+
     @Configuration
     public static class TestContext
     {
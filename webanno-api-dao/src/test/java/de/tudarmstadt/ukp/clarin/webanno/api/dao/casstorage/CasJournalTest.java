@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.COMPRESSED_BINARY;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.SERIALIZED_CAS;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.joining;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.CasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.cas.FSArray;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.constituent.Constituent;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+@RunWith(Parameterized.class)
+public class CasJournalTest
+{
+    static {
+        System.setProperty(CASImpl.ALWAYS_HOLD_ONTO_FSS, "true");
+    }
+
+    @Parameters(name = "{index}: {0}")
+    public static List<CasStorageFormat> formats()
+    {
+        return asList(SERIALIZED_CAS, COMPRESSED_BINARY);
+    }
+
+    public @Rule TemporaryFolder testFolder = new TemporaryFolder();
+
+    private final CasStorageFormat format;
+
+    private CasJournal sut;
+    private File casFile;
+    private JCas jcas;
+
+    public CasJournalTest(CasStorageFormat aFormat)
+    {
+        format = aFormat;
+    }
+
+    @Before
+    public void setup() throws Exception
+    {
+        sut = new CasJournal(100, 1000);
+        casFile = new File(testFolder.getRoot(), "user.ser");
+
+        jcas = CasFactory.createText("John loves Mary .").getJCas();
+        Token john = addToken(0, 4);
+        Token loves = addToken(5, 10);
+        addToken(11, 15);
+        addToken(16, 17);
+        new NamedEntity(jcas, 0, 4).addToIndexes();
+
+        Dependency dep = new Dependency(jcas, 0, 4);
+        dep.setGovernor(loves);
+        dep.setDependent(john);
+        dep.setDependencyType("nsubj");
+        dep.addToIndexes();
+
+        CasPersistenceUtils.writeCas(jcas.getCas(), casFile, format);
+        sut.checkpoint(jcas.getCas(), casFile);
+    }
+
+    @Test
+    public void thatJournaledChangesAreReplayed() throws Exception
+    {
+        List<Token> tokens = jcas.select(Token.class).asList();
+
+        // Add annotation
+        NamedEntity mary = new NamedEntity(jcas, 11, 15);
+        mary.setValue("PER");
+        mary.addToIndexes();
+        assertAppendedAndReplayed();
+
+        // Update primitive feature
+        mary.setValue("LOC");
+        assertAppendedAndReplayed();
+
+        // Change key feature of an indexed annotation
+        mary.removeFromIndexes();
+        mary.setBegin(16);
+        mary.setEnd(17);
+        mary.addToIndexes();
+        assertAppendedAndReplayed();
+
+        // Remove annotation
+        mary.removeFromIndexes();
+        jcas.select(NamedEntity.class).get(0).removeFromIndexes();
+        assertAppendedAndReplayed();
+
+        // Create and delete annotation between two writes
+        new NamedEntity(jcas, 5, 10).addToIndexes();
+        jcas.select(NamedEntity.class).get(0).removeFromIndexes();
+        assertAppendedAndReplayed();
+
+        // Set reference to a new feature structure and change a reference
+        POS pos = new POS(jcas, 5, 10);
+        pos.setPosValue("VERB");
+        pos.addToIndexes();
+        tokens.get(1).setPos(pos);
+        jcas.select(Dependency.class).get(0).setDependent(tokens.get(2));
+        assertAppendedAndReplayed();
+
+        // Arrays
+        Constituent sentence = new Constituent(jcas, 0, 17);
+        sentence.setConstituentType("S");
+        FSArray<Annotation> children = new FSArray<>(jcas, 2);
+        children.set(0, tokens.get(0));
+        children.set(1, tokens.get(1));
+        sentence.setChildren(children);
+        sentence.addToIndexes();
+        assertAppendedAndReplayed();
+
+        children.set(1, tokens.get(3));
+        assertAppendedAndReplayed();
+
+        // Set reference to a new feature structure which is not indexed
+        POS unindexedPos = new POS(jcas, 11, 15);
+        unindexedPos.setPosValue("NOUN");
+        tokens.get(2).setPos(unindexedPos);
+        assertAppendedAndReplayed();
+
+        unindexedPos.setPosValue("PROPN");
+        assertAppendedAndReplayed();
+
+        assertThat(CasJournal.getJournalFile(casFile)).exists();
+    }
+
+    @Test
+    public void thatChangesToFeatureStructuresFromPreviousSnapshotAreJournaled() throws Exception
+    {
+        // The annotation is created after the changes to the CAS started to be recorded
+        NamedEntity mary = new NamedEntity(jcas, 11, 15);
+        mary.addToIndexes();
+        assertAppendedAndReplayed();
+
+        CasPersistenceUtils.writeCas(jcas.getCas(), casFile, format);
+        CasJournal.discard(casFile);
+        sut.checkpoint(jcas.getCas(), casFile);
+
+        mary.setValue("PER");
+        assertAppendedAndReplayed();
+
+        mary.removeFromIndexes();
+        assertAppendedAndReplayed();
+    }
+
+    @Test
+    public void thatChangesCanBeAppendedAfterReplay() throws Exception
+    {
+        NamedEntity mary = new NamedEntity(jcas, 11, 15);
+        mary.addToIndexes();
+        assertThat(sut.append(jcas.getCas(), casFile)).isTrue();
+
+        CAS cas = readCas();
+        assertThat(sut.replay(cas, casFile, true)).isTrue();
+
+        // Modify both the FS from the journal and one from the snapshot
+        NamedEntity replayedMary = cas.getJCas().select(NamedEntity.class).get(1);
+        replayedMary.setValue("PER");
+        cas.getJCas().select(NamedEntity.class).get(0).removeFromIndexes();
+        new NamedEntity(cas.getJCas(), 16, 17).addToIndexes();
+        assertThat(sut.append(cas, casFile)).isTrue();
+
+        CAS cas2 = readCas();
+        assertThat(sut.replay(cas2, casFile, false)).isTrue();
+        assertThat(dump(cas2)).isEqualTo(dump(cas));
+    }
+
+    @Test
+    public void thatIncompleteEntryIsIgnored() throws Exception
+    {
+        new NamedEntity(jcas, 5, 10).addToIndexes();
+        assertThat(sut.append(jcas.getCas(), casFile)).isTrue();
+        String expected = dump(jcas.getCas());
+
+        new NamedEntity(jcas, 11, 15).addToIndexes();
+        assertThat(sut.append(jcas.getCas(), casFile)).isTrue();
+
+        File journalFile = CasJournal.getJournalFile(casFile);
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+            raf.setLength(journalFile.length() - 3);
+        }
+
+        CAS cas = readCas();
+        assertThat(sut.replay(cas, casFile, true)).isTrue();
+        assertThat(dump(cas)).isEqualTo(expected);
+        // The journal can no longer be appended to
+        assertThat(sut.append(cas, casFile)).isFalse();
+    }
+
+    @Test
+    public void thatJournalOfPreviousSnapshotIsIgnored() throws Exception
+    {
+        new NamedEntity(jcas, 5, 10).addToIndexes();
+        assertThat(sut.append(jcas.getCas(), casFile)).isTrue();
+
+        // Simulate that the journal was not discarded after a new snapshot has been written
+        new NamedEntity(jcas, 11, 15).addToIndexes();
+        CasPersistenceUtils.writeCas(jcas.getCas(), casFile, format);
+
+        CAS cas = readCas();
+        assertThat(sut.replay(cas, casFile, true)).isFalse();
+        assertThat(dump(cas)).isEqualTo(dump(jcas.getCas()));
+    }
+
+    @Test
+    public void thatNewViewRequiresSnapshot() throws Exception
+    {
+        jcas.createView("other").setDocumentText("Other text");
+
+        assertThat(sut.append(jcas.getCas(), casFile)).isFalse();
+    }
+
+    @Test
+    public void thatExternalModificationRequiresSnapshot() throws Exception
+    {
+        new NamedEntity(jcas, 5, 10).addToIndexes();
+        casFile.setLastModified(casFile.lastModified() - 10_000);
+
+        assertThat(sut.append(jcas.getCas(), casFile)).isFalse();
+    }
+
+    private Token addToken(int aBegin, int aEnd)
+    {
+        Token token = new Token(jcas, aBegin, aEnd);
+        token.addToIndexes();
+        return token;
+    }
+
+    private void assertAppendedAndReplayed() throws Exception
+    {
+        assertThat(sut.append(jcas.getCas(), casFile)).isTrue();
+
+        CAS cas = readCas();
+        assertThat(sut.replay(cas, casFile, false)).isTrue();
+        assertThat(dump(cas)).isEqualTo(dump(jcas.getCas()));
+    }
+
+    private CAS readCas() throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        CasPersistenceUtils.readCas(cas, casFile);
+        return cas;
+    }
+
+    private static String dump(CAS aCas)
+    {
+        return aCas.getAnnotationIndex().select().map(CasJournalTest::dump)
+                .collect(joining("\n"));
+    }
+
+    private static String dump(AnnotationFS aAnnotation)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(aAnnotation.getType().getShortName()).append(" [")
+                .append(aAnnotation.getBegin()).append("-").append(aAnnotation.getEnd())
+                .append("]");
+        if (aAnnotation instanceof NamedEntity) {
+            sb.append(" ").append(((NamedEntity) aAnnotation).getValue());
+        }
+        if (aAnnotation instanceof Token) {
+            POS pos = ((Token) aAnnotation).getPos();
+            sb.append(" ").append(pos != null ? pos.getPosValue() : null);
+        }
+        if (aAnnotation instanceof Dependency) {
+            Dependency dep = (Dependency) aAnnotation;
+            sb.append(" ").append(dep.getDependencyType()).append(" ")
+                    .append(dep.getGovernor().getCoveredText()).append(" -> ")
+                    .append(dep.getDependent().getCoveredText());
+        }
+        if (aAnnotation instanceof Constituent) {
+            sb.append(" ").append(((Constituent) aAnnotation).getChildren().select()
+                    .map(c -> ((AnnotationFS) c).getCoveredText()).collect(joining(" ")));
+        }
+        return sb.toString();
+    }
+}
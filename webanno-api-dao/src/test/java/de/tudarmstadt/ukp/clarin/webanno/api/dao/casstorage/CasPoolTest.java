@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.EXCLUSIVE_WRITE_ACCESS;
+import static org.apache.commons.lang3.StringUtils.repeat;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.unit.DataSize;
+
+public class CasPoolTest
+{
+    private CasPool sut;
+
+    @Before
+    public void setup()
+    {
+        sut = new CasPool(2, 10, DataSize.ofMegabytes(1), Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void thatReleasedCasIsResetAndReused() throws Exception
+    {
+        CAS cas = sut.borrowCas();
+        cas.setDocumentText("Some text");
+        cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 4));
+        CAS realCas = getRealCas(cas);
+        cas.release();
+
+        CAS cas2 = sut.borrowCas();
+
+        assertThat(getRealCas(cas2)).isSameAs(realCas);
+        assertThat(cas2.getDocumentText()).isNull();
+        assertThat(cas2.getAnnotationIndex()).isEmpty();
+        assertThat(sut.getHitCount()).isEqualTo(1);
+        assertThat(sut.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void thatCasIsOnlyReturnedOnce() throws Exception
+    {
+        CAS cas = sut.borrowCas();
+        cas.release();
+        cas.release();
+
+        assertThat(sut.getIdleCount("")).isEqualTo(1);
+        assertThat(getRealCas(sut.borrowCas())).isNotSameAs(getRealCas(sut.borrowCas()));
+    }
+
+    @Test
+    public void thatReleaseByPreviousBorrowerIsRejected() throws Exception
+    {
+        CAS cas = sut.borrowCas();
+        cas.release();
+
+        // Another thread borrows the CAS again while the first borrower still holds on to it
+        AtomicReference<CAS> borrowed = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                borrowed.set(sut.borrowCas());
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertThat(getRealCas(borrowed.get())).isSameAs(getRealCas(cas));
+
+        cas.release();
+
+        assertThat(sut.getIdleCount("")).isEqualTo(0);
+        assertThat(getRealCas(sut.borrowCas())).isNotSameAs(getRealCas(cas));
+    }
+
+    @Test
+    public void thatCasIsNotPooledIfItExceedsMemoryBudget() throws Exception
+    {
+        CAS small = sut.borrowCas();
+        small.setDocumentText("Small");
+        CAS large = sut.borrowCas();
+        large.setDocumentText(repeat("Large ", 100_000));
+
+        small.release();
+        large.release();
+
+        assertThat(sut.getIdleCount("")).isEqualTo(1);
+        assertThat(sut.getIdleWeight()).isGreaterThan(0).isLessThanOrEqualTo(1024);
+        assertThat(sut.borrowCas().getDocumentText()).isNull();
+        assertThat(sut.getIdleWeight()).isEqualTo(0);
+    }
+
+    @Test
+    public void thatClearDropsIdleWeight() throws Exception
+    {
+        sut.borrowCas().release();
+        assertThat(sut.getIdleWeight()).isGreaterThan(0);
+
+        sut.clear();
+
+        assertThat(sut.getIdleCount("")).isEqualTo(0);
+        assertThat(sut.getIdleWeight()).isEqualTo(0);
+    }
+
+    @Test
+    public void thatCasesArePartitionedByTypeSystemVersion() throws Exception
+    {
+        TypeSystemDescription tsd = TypeSystemDescriptionFactory.createTypeSystemDescription();
+        tsd.addType("custom.Span", "", CAS.TYPE_NAME_ANNOTATION);
+        TypeSystem ts = CasCreationUtils.createCas(tsd, null, null).getTypeSystem();
+
+        CAS plain = sut.borrowCas();
+        plain.release();
+
+        CAS cas = sut.borrowCas("v1", ts);
+        assertThat(getRealCas(cas)).isNotSameAs(getRealCas(plain));
+        assertThat(cas.getTypeSystem()).isSameAs(ts);
+        cas.release();
+
+        assertThat(sut.borrowCas("v1", ts).getTypeSystem().getType("custom.Span")).isNotNull();
+        assertThat(sut.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void thatClosingSessionReturnsCas() throws Exception
+    {
+        CAS realCas;
+        try (CasStorageSession session = CasStorageSession.openNested()) {
+            CAS cas = sut.borrowCas();
+            realCas = getRealCas(cas);
+            session.add("test", EXCLUSIVE_WRITE_ACCESS, cas);
+            assertThat(sut.getIdleCount("")).isEqualTo(0);
+        }
+
+        assertThat(sut.getIdleCount("")).isEqualTo(1);
+        assertThat(getRealCas(sut.borrowCas())).isSameAs(realCas);
+    }
+
+    @Test
+    public void thatIdleCasesAreBounded() throws Exception
+    {
+        CAS cas1 = sut.borrowCas();
+        CAS cas2 = sut.borrowCas();
+        CAS cas3 = sut.borrowCas();
+        cas1.release();
+        cas2.release();
+        cas3.release();
+
+        assertThat(sut.getIdleCount("")).isEqualTo(2);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.COMPRESSED_BINARY;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.SERIALIZED_CAS;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasVerificationMode.ASYNC;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasVerificationMode.CHECKSUM;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasVerificationMode.NONE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasVerificationMode.SAMPLED;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.CasFactory;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils.SerializedCas;
+
+public class CasWriteVerifierTest
+{
+    public @Rule TemporaryFolder testFolder = new TemporaryFolder();
+
+    private final CasKey key = new CasKey(1l, 1l, "user");
+
+    @Test
+    public void thatNoneDoesNotVerify() throws Exception
+    {
+        CasWriteVerifier sut = new CasWriteVerifier(NONE, 1, 1);
+
+        File file = write(sut, SERIALIZED_CAS);
+
+        assertThat(sut.getVerifiedCount()).isEqualTo(0);
+        assertReadable(file);
+    }
+
+    @Test
+    public void thatSampledVerifiesEveryNthSave() throws Exception
+    {
+        CasWriteVerifier sut = new CasWriteVerifier(SAMPLED, 3, 1);
+
+        for (int i = 0; i < 7; i++) {
+            write(sut, COMPRESSED_BINARY);
+        }
+
+        // Saves 1, 4 and 7 are verified
+        assertThat(sut.getVerifiedCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void thatChecksumIsVerified() throws Exception
+    {
+        CasWriteVerifier sut = new CasWriteVerifier(CHECKSUM, 1, 1);
+
+        File file = write(sut, COMPRESSED_BINARY);
+
+        assertThat(sut.getVerifiedCount()).isEqualTo(1);
+        assertReadable(file);
+    }
+
+    @Test
+    public void thatAsyncVerificationCompletesOnShutdown() throws Exception
+    {
+        CasWriteVerifier sut = new CasWriteVerifier(ASYNC, 1, 10);
+
+        File file = write(sut, SERIALIZED_CAS);
+        sut.shutdown();
+
+        assertThat(sut.getVerifiedCount()).isEqualTo(1);
+        assertThat(sut.getFailedCount()).isEqualTo(0);
+        assertThat(sut.getPendingCount()).isEqualTo(0);
+        assertReadable(file);
+    }
+
+    @Test
+    public void thatAsyncVerificationFailureRestoresPreviousVersion() throws Exception
+    {
+        // The verifications run one after the other, so the second one is the one of the
+        // second save
+        AtomicInteger checks = new AtomicInteger();
+        CasWriteVerifier sut = new CasWriteVerifier(ASYNC, 1, 10)
+        {
+            @Override
+            void check(SerializedCas aCas) throws IOException
+            {
+                if (checks.incrementAndGet() == 2) {
+                    throw new IOException("Simulated verification failure");
+                }
+                super.check(aCas);
+            }
+        };
+
+        File file = write(sut, SERIALIZED_CAS, "This is a test.");
+
+        write(sut, SERIALIZED_CAS, "This is broken.");
+        sut.shutdown();
+
+        assertThat(sut.getFailedCount()).isEqualTo(1);
+        assertReadable(file, "This is a test.");
+        assertThat(CasWriteVerifier.getLastVerifiedFile(file)).doesNotExist();
+        assertThat(testFolder.getRoot().listFiles((dir, name) -> name.contains(".quarantine-")))
+                .hasSize(1);
+    }
+
+    @Test
+    public void thatAsyncVerificationSuccessDiscardsPreviousVersion() throws Exception
+    {
+        CasWriteVerifier sut = new CasWriteVerifier(ASYNC, 1, 10);
+
+        write(sut, SERIALIZED_CAS, "This is a test.");
+        File file = write(sut, SERIALIZED_CAS, "This is another test.");
+        sut.shutdown();
+
+        assertThat(sut.getVerifiedCount()).isEqualTo(2);
+        assertReadable(file, "This is another test.");
+        assertThat(CasWriteVerifier.getLastVerifiedFile(file)).doesNotExist();
+    }
+
+    private File write(CasWriteVerifier aVerifier, CasStorageFormat aFormat) throws Exception
+    {
+        return write(aVerifier, aFormat, "This is a test.");
+    }
+
+    /**
+     * Writes the CAS like the CAS storage service does - the current version of the file is moved
+     * aside before the new version is written.
+     */
+    private File write(CasWriteVerifier aVerifier, CasStorageFormat aFormat, String aText)
+        throws Exception
+    {
+        CAS cas = CasFactory.createText(aText);
+        File file = new File(testFolder.getRoot(), "user.ser");
+        File oldVersion = new File(testFolder.getRoot(), "user.ser.old");
+        if (file.exists()) {
+            Files.move(file.toPath(), oldVersion.toPath());
+        }
+        SerializedCas serializedCas = CasPersistenceUtils.serializeCas(cas, file, aFormat);
+        aVerifier.write(key, serializedCas, file, oldVersion);
+        Files.deleteIfExists(oldVersion.toPath());
+        return file;
+    }
+
+    private void assertReadable(File aFile) throws Exception
+    {
+        assertReadable(aFile, "This is a test.");
+    }
+
+    private void assertReadable(File aFile, String aText) throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        CasPersistenceUtils.readCas(cas, aFile);
+        assertThat(cas.getDocumentText()).isEqualTo(aText);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.uima.fit.factory.CasFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.ExclusiveAccessManager.SharedAccess;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class LockingExclusiveAccessManagerTest
+{
+    private LockingExclusiveAccessManager sut;
+    private ExecutorService executor;
+    private CasKey key;
+
+    @Before
+    public void setup()
+    {
+        sut = new LockingExclusiveAccessManager(200, 60_000, k -> false);
+        executor = Executors.newCachedThreadPool();
+
+        Project project = new Project();
+        project.setId(1l);
+        project.setName("project");
+        SourceDocument doc = new SourceDocument();
+        doc.setId(1l);
+        doc.setName("doc");
+        doc.setProject(project);
+        key = new CasKey(doc, "user");
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        sut.destroy();
+    }
+
+    @Test
+    public void thatHolderIsRetainedAfterRelease() throws Exception
+    {
+        CasHolder holder = sut.acquire(key);
+        holder.setCas(CasFactory.createCas());
+        sut.release(key, holder);
+
+        assertThat(sut.getHolders(key::equals)).containsExactly(holder);
+
+        CasHolder holder2 = sut.acquire(key);
+        sut.release(key, holder2);
+
+        assertThat(holder2).isSameAs(holder);
+    }
+
+    @Test
+    public void thatInvalidHolderIsReplaced() throws Exception
+    {
+        CasHolder holder = sut.acquire(key);
+        holder.setCas(CasFactory.createCas());
+        sut.release(key, holder);
+
+        holder.setTypeSystemOutdated(true);
+
+        CasHolder holder2 = sut.acquire(key);
+        sut.release(key, holder2);
+
+        assertThat(holder2).isNotSameAs(holder);
+        assertThat(holder2.isCasSet()).isFalse();
+        assertThat(sut.size()).isZero();
+    }
+
+    @Test
+    public void thatExclusiveAccessTimesOut() throws Exception
+    {
+        CasHolder holder = sut.acquire(key);
+
+        Future<?> other = executor.submit(() -> sut.acquire(key));
+
+        assertThatExceptionOfType(Exception.class) //
+                .isThrownBy(() -> other.get(10, SECONDS)) //
+                .withCauseInstanceOf(CasSessionException.class);
+
+        sut.release(key, holder);
+
+        ExclusiveAccessStatistics stats = sut.getStatistics();
+        assertThat(stats.getAcquisitionCount()).isEqualTo(1);
+        assertThat(stats.getTimeoutCount()).isEqualTo(1);
+        assertThat(stats.getContendedCount()).isEqualTo(1);
+        assertThat(stats.getWaitTimeHistogram().get("<1000ms")).isEqualTo(1);
+        assertThat(sut.size()).isZero();
+    }
+
+    @Test
+    public void thatWaitingCallerObtainsAccessOnRelease() throws Exception
+    {
+        CasHolder holder = sut.acquire(key);
+
+        CountDownLatch started = new CountDownLatch(1);
+        Future<CasHolder> other = executor.submit(() -> {
+            started.countDown();
+            return sut.acquire(key);
+        });
+        started.await();
+        sut.release(key, holder);
+
+        CasHolder holder2 = other.get(10, SECONDS);
+        // The holder can be released by another thread than the one which acquired it
+        sut.release(key, holder2);
+
+        assertThat(sut.getStatistics().getAcquisitionCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void thatSharedAccessIsShared() throws Exception
+    {
+        try (SharedAccess access1 = sut.acquireShared(key)) {
+            Future<?> other = executor.submit(() -> {
+                sut.acquireShared(key).close();
+            });
+            other.get(10, SECONDS);
+
+            Future<?> exclusive = executor.submit(() -> sut.acquire(key));
+            assertThatExceptionOfType(Exception.class) //
+                    .isThrownBy(() -> exclusive.get(10, SECONDS)) //
+                    .withCauseInstanceOf(CasSessionException.class);
+        }
+
+        CasHolder holder = sut.acquire(key);
+        sut.release(key, holder);
+    }
+
+    @Test
+    public void thatIdleHoldersAreEvicted() throws Exception
+    {
+        CasHolder holder = sut.acquire(key);
+        holder.setCas(CasFactory.createCas());
+        sut.release(key, holder);
+        assertThat(sut.size()).isEqualTo(1);
+
+        sut.evictIdle(System.nanoTime());
+        assertThat(sut.size()).isEqualTo(1);
+
+        sut.evictIdle(System.nanoTime() + MINUTES.toNanos(2));
+        assertThat(sut.size()).isZero();
+    }
+
+    @Test
+    public void thatRetainedHoldersAreNotEvicted() throws Exception
+    {
+        sut.destroy();
+        sut = new LockingExclusiveAccessManager(200, 60_000, k -> true);
+
+        CasHolder holder = sut.acquire(key);
+        holder.setCas(CasFactory.createCas());
+        sut.release(key, holder);
+
+        sut.evictIdle(System.nanoTime() + MINUTES.toNanos(2));
+
+        assertThat(sut.getHolders(key::equals)).containsExactly(holder);
+    }
+}
@@ -19,11 +19,16 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasBulkReadException;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceAction;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceLoader;
@@ -118,6 +123,40 @@ public interface CasStorageService
             CasProvider aSupplier, CasAccessMode aAccessMode)
         throws IOException, CasSessionException;
 
+    /**
+     * Reads the CASes for multiple user/document combinations at once. The CASes are loaded in
+     * parallel. CASes obtained in {@link CasAccessMode#SHARED_READ_ONLY_ACCESS} mode are added to
+     * the current session just as if they had been obtained via {@link #readOrCreateCas}.
+     * <p>
+     * Only {@link CasAccessMode#SHARED_READ_ONLY_ACCESS} and {@link CasAccessMode#UNMANAGED_ACCESS}
+     * are supported because CASes obtained in exclusive mode are bound to the thread which loaded
+     * them.
+     *
+     * @param aDocumentsAndUsers
+     *            the user/document combinations to obtain the CASes for.
+     * @param aUpgradeMode
+     *            whether the CASes should be upgraded to the latest project type system.
+     * @param aSupplier
+     *            provides a supplier for each document that is used to create a new CAS if none
+     *            for the given user/document combination exists in the storage. May be
+     *            {@code null}.
+     * @param aAccessMode
+     *            the CAS access mode.
+     * @return the CASes in the order of the given user/document combinations.
+     * @throws CasBulkReadException
+     *             if some of the CASes could not be loaded or created. The exception provides the
+     *             CASes which could be obtained as well as the reason for each failure.
+     * @throws IOException
+     *             if reading the CASes was interrupted.
+     * @throws CasSessionException
+     *             if no CAS storage session in available for the current thread.
+     */
+    Map<Pair<SourceDocument, String>, CAS> readOrCreateCases(
+            Collection<Pair<SourceDocument, String>> aDocumentsAndUsers,
+            CasUpgradeMode aUpgradeMode, Function<SourceDocument, CasProvider> aSupplier,
+            CasAccessMode aAccessMode)
+        throws IOException, CasSessionException;
+
     /**
      * Delete a CAS from the storage and also remove it from the active session.
      * 
@@ -20,18 +20,21 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 import javax.persistence.NoResultException;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.springframework.security.access.prepost.PreAuthorize;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasBulkReadException;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition;
@@ -409,6 +412,29 @@ public interface DocumentService
             CasAccessMode aMode)
         throws IOException;
 
+    /**
+     * Gets the CASes for multiple user/document combinations at once. The CASes are loaded in
+     * parallel. If there is no CAS yet for a user, it is converted from the source document.
+     * Only {@link CasAccessMode#SHARED_READ_ONLY_ACCESS} and {@link CasAccessMode#UNMANAGED_ACCESS}
+     * are supported.
+     *
+     * @param aDocumentsAndUsers
+     *            the user/document combinations.
+     * @param aUpgradeMode
+     *            the CAS upgrade mode.
+     * @param aMode
+     *            the access mode.
+     * @return the CASes in the order of the given user/document combinations.
+     * @throws IOException
+     *             if there was an I/O error. If only some of the CASes could not be obtained, this
+     *             is a {@link CasBulkReadException} which provides the CASes which could be
+     *             obtained.
+     */
+    Map<Pair<SourceDocument, String>, CAS> readAnnotationCases(
+            Collection<Pair<SourceDocument, String>> aDocumentsAndUsers,
+            CasUpgradeMode aUpgradeMode, CasAccessMode aMode)
+        throws IOException;
+
     /**
      * Read the initial CAS for the given document. If the CAS does not exist then it is created.
      * This method does not perform an upgrade of the type system in the CAS.
@@ -544,6 +570,26 @@ public interface DocumentService
      */
     List<AnnotationDocument> listFinishedAnnotationDocuments(Project project);
 
+    /**
+     * Counts the source documents and the annotation documents of the annotators in the given
+     * project grouped by user and state. The statistics are obtained via aggregate queries and are
+     * cached for a short time, so they may lag behind slightly when permissions change.
+     *
+     * @param aProject
+     *            the project.
+     * @return the statistics.
+     */
+    DocumentStatistics getStatistics(Project aProject);
+
+    /**
+     * Obtains the {@link #getStatistics(Project) statistics} of several projects at once.
+     *
+     * @param aProjects
+     *            the projects.
+     * @return the statistics by project ID.
+     */
+    Map<Long, DocumentStatistics> getStatistics(Collection<Project> aProjects);
+
     /**
      * List all annotation documents for this source document (including in active and delted user
      * annotation and those created by project admins or super admins for Test purpose. This method
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+
+import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+
+/**
+ * Document counts of a single project as obtained from {@link DocumentService#getStatistics}.
+ * Only annotation documents of users who are annotators in the project are considered.
+ */
+public class DocumentStatistics
+    implements Serializable
+{
+    private static final long serialVersionUID = 2887012553396475383L;
+
+    private final long projectId;
+    private final Map<SourceDocumentState, Long> sourceDocuments;
+    private final Set<String> annotators;
+    private final Map<String, Map<AnnotationDocumentState, Long>> annotationDocuments;
+
+    public DocumentStatistics(long aProjectId, Map<SourceDocumentState, Long> aSourceDocuments,
+            Set<String> aAnnotators,
+            Map<String, Map<AnnotationDocumentState, Long>> aAnnotationDocuments)
+    {
+        projectId = aProjectId;
+        sourceDocuments = aSourceDocuments.isEmpty() ? emptyMap()
+                : unmodifiableMap(new EnumMap<>(aSourceDocuments));
+        annotators = unmodifiableSet(new LinkedHashSet<>(aAnnotators));
+
+        Map<String, Map<AnnotationDocumentState, Long>> annDocs = new LinkedHashMap<>();
+        for (String annotator : annotators) {
+            Map<AnnotationDocumentState, Long> counts = aAnnotationDocuments.get(annotator);
+            if (counts != null && !counts.isEmpty()) {
+                annDocs.put(annotator, unmodifiableMap(new EnumMap<>(counts)));
+            }
+        }
+        annotationDocuments = unmodifiableMap(annDocs);
+    }
+
+    public long getProjectId()
+    {
+        return projectId;
+    }
+
+    /**
+     * @return the users which are annotators in the project.
+     */
+    public Set<String> getAnnotators()
+    {
+        return annotators;
+    }
+
+    public long getSourceDocumentCount()
+    {
+        return sourceDocuments.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public long getSourceDocumentCount(SourceDocumentState aState)
+    {
+        return sourceDocuments.getOrDefault(aState, 0L);
+    }
+
+    public long getCuratedDocumentCount()
+    {
+        return getSourceDocumentCount(SourceDocumentState.CURATION_FINISHED);
+    }
+
+    public long getAnnotationDocumentCount(String aUser, AnnotationDocumentState aState)
+    {
+        return annotationDocuments.getOrDefault(aUser, emptyMap()).getOrDefault(aState, 0L);
+    }
+
+    public long getAnnotationDocumentCount(AnnotationDocumentState aState)
+    {
+        return annotationDocuments.values().stream()
+                .mapToLong(counts -> counts.getOrDefault(aState, 0L)).sum();
+    }
+
+    /**
+     * @return the number of documents the given user has finished. Annotation documents are only
+     *         counted for annotators.
+     */
+    public long getFinishedDocumentCount(String aUser)
+    {
+        return getAnnotationDocumentCount(aUser, AnnotationDocumentState.FINISHED);
+    }
+
+    /**
+     * @return the number of documents the given user is expected to annotate, i.e. all documents
+     *         in the project except for those which are ignored for the user.
+     */
+    public long getAnnotatableDocumentCount(String aUser)
+    {
+        return getSourceDocumentCount()
+                - getAnnotationDocumentCount(aUser, AnnotationDocumentState.IGNORE);
+    }
+
+    /**
+     * @return the number of annotation documents finished by all annotators.
+     * @see DocumentService#listFinishedAnnotationDocuments
+     */
+    public long getFinishedAnnotationDocumentCount()
+    {
+        return getAnnotationDocumentCount(AnnotationDocumentState.FINISHED);
+    }
+
+    /**
+     * @return the number of annotation documents expected from all annotators.
+     * @see DocumentService#numberOfExpectedAnnotationDocuments
+     */
+    public long getExpectedAnnotationDocumentCount()
+    {
+        return getSourceDocumentCount() * annotators.size()
+                - getAnnotationDocumentCount(AnnotationDocumentState.IGNORE);
+    }
+}
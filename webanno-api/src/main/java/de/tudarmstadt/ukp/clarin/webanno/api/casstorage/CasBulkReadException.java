@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.casstorage;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.uima.cas.CAS;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Indicates that some of the CASes requested at once could not be obtained. The CASes which could
+ * be obtained are still available from the exception, so only the failed ones need to be retried.
+ */
+public class CasBulkReadException
+    extends IOException
+{
+    private static final long serialVersionUID = -4207415309328795346L;
+
+    private final transient Map<Pair<SourceDocument, String>, CAS> cases;
+    private final transient Map<Pair<SourceDocument, String>, Exception> failures;
+
+    public CasBulkReadException(Map<Pair<SourceDocument, String>, CAS> aCases,
+            Map<Pair<SourceDocument, String>, Exception> aFailures)
+    {
+        super("Unable to obtain [" + aFailures.size() + "] of ["
+                + (aCases.size() + aFailures.size()) + "] CASes",
+                aFailures.values().iterator().next());
+        cases = aCases;
+        failures = aFailures;
+    }
+
+    /**
+     * @return the CASes which could be obtained in the order in which they were requested.
+     */
+    public Map<Pair<SourceDocument, String>, CAS> getCases()
+    {
+        return cases;
+    }
+
+    /**
+     * @return the reasons why the other CASes could not be obtained.
+     */
+    public Map<Pair<SourceDocument, String>, Exception> getFailures()
+    {
+        return failures;
+    }
+}
@@ -21,6 +21,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION_FO
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.SOURCE_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.MIRA;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.MIRA_FEATURE_CACHE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.MIRA_TEMPLATE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.TRAIN;
 import static java.util.Objects.isNull;
@@ -251,6 +252,13 @@ public class MiraAutomationServiceImpl
                 .setParameter("trainFeature", aFeature).getSingleResult();
     }
 
+    @Override
+    @Transactional
+    public MiraTemplate getMiraTemplate(long aId)
+    {
+        return entityManager.find(MiraTemplate.class, aId);
+    }
+
     @Override
     public boolean existsMiraTemplate(AnnotationFeature aFeature)
     {
@@ -354,6 +362,17 @@ public class MiraAutomationServiceImpl
             FileUtils.forceDelete(new File(path));
         }
 
+        // remove the MIRA features cached for the document
+        File[] cacheFiles = new File(dir, PROJECT_FOLDER + "/" + aDocument.getProject().getId()
+                + MIRA + MIRA_FEATURE_CACHE).listFiles();
+        if (cacheFiles != null) {
+            for (File cacheFile : cacheFiles) {
+                if (cacheFile.getName().startsWith(aDocument.getId() + "-")) {
+                    FileUtils.forceDelete(cacheFile);
+                }
+            }
+        }
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aDocument.getProject().getId()))) {
             Project project = aDocument.getProject();
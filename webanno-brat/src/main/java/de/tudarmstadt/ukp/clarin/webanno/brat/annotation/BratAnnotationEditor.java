@@ -59,7 +59,6 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.flipkart.zjsonpatch.JsonDiff;
 import com.googlecode.wicket.jquery.ui.settings.JQueryUILibrarySettings;
 import com.googlecode.wicket.jquery.ui.widget.menu.IMenuItem;
 
@@ -89,6 +88,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.message.SpanAnnotationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.VisualOptions;
 import de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics;
 import de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics.RenderType;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratDocumentDiff;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.NormalizationQueryResult;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Offsets;
@@ -145,8 +145,11 @@ public class BratAnnotationEditor
     private WebMarkupContainer vis;
     private AbstractAjaxBehavior requestHandler;
 
-    private transient JsonNode lastRenederedJsonParsed;
-    private String lastRenderedJson;
+    /**
+     * The last rendered document. It is only kept in memory - if the page is serialized, the next
+     * rendering is simply a full rendering.
+     */
+    private transient JsonNode lastRenderedModel;
     private int lastRenderedWindowStart = -1;
 
     public BratAnnotationEditor(String id, IModel<AnnotatorState> aModel,
@@ -544,16 +547,16 @@ public class BratAnnotationEditor
         String json;
         if (getModelObject().getProject() != null) {
             render(response, aCas);
-            json = toJson(response);
-            lastRenderedJson = json;
-            lastRenederedJsonParsed = null;
+            JsonNode model = JSONUtil.getObjectMapper().valueToTree(response);
+            json = toJson(model);
+            lastRenderedModel = model;
         }
         else {
             json = toJson(response);
         }
 
         timer.stop();
-        metrics.renderComplete(RenderType.FULL, timer.getTime(), json, null);
+        metrics.renderComplete(RenderType.FULL, timer.getTime(), 0, json, null);
         serverTiming("Brat-JSON", "Brat JSON generation (FULL)", timer.getTime());
 
         return json;
@@ -668,8 +671,8 @@ public class BratAnnotationEditor
         RenderType renderType = FULL;
         String cmd = "renderData";
         String responseJson = json;
-        JsonNode diff;
         String diffJsonStr = null;
+        long diffTime = 0; // nanoseconds
 
         // Here, we try to balance server CPU load against network load. So if we have a chance
         // of significantly reducing the data sent to the client via a differential update, then
@@ -677,58 +680,42 @@ public class BratAnnotationEditor
         // not even try. I.e. we apply some heuristics to see if large parts of the editor have
         // changed.
         AnnotatorState aState = getModelObject();
-        boolean tryDifferentialUpdate = lastRenderedWindowStart >= 0
+        boolean tryDifferentialUpdate = lastRenderedModel != null && lastRenderedWindowStart >= 0
                 // Check if we did a far scroll or switch pages
                 && Math.abs(lastRenderedWindowStart - aState.getWindowBeginOffset()) < aState
                         .getPreferences().getWindowSize() / 3;
 
         if (tryDifferentialUpdate) {
             // ... try to render diff
-            JsonNode previous = null;
-            try {
-                if (lastRenederedJsonParsed != null) {
-                    previous = lastRenederedJsonParsed;
-                }
-                else {
-                    previous = lastRenderedJson != null ? mapper.readTree(lastRenderedJson) : null;
-                }
+            long diffStart = System.nanoTime();
+            ArrayNode diff = BratDocumentDiff.diff(lastRenderedModel, current);
+            diffTime = System.nanoTime() - diffStart;
+
+            if (diff.isEmpty()) {
+                // No difference? Well, don't render at all :)
+                renderType = SKIP;
+                diffJsonStr = "[]";
             }
-            catch (IOException e) {
-                LOG.error("Unable to generate diff, falling back to full render.", e);
-                // Fall-through
-            }
-
-            if (previous != null && current != null) {
-                diff = JsonDiff.asJson(previous, current);
-                diffJsonStr = diff.toString();
+            else {
+                diffJsonStr = toJson(diff);
 
-                if (diff instanceof ArrayNode && ((ArrayNode) diff).isEmpty()) {
-                    // No difference? Well, don't render at all :)
-                    renderType = SKIP;
-                }
-                else if (diffJsonStr.length() < json.length()) {
+                if (diffJsonStr.length() < json.length()) {
                     // Only sent a patch if it is smaller than sending the full data. E.g. when
-                    // switching pages, the patch usually ends up being twice as large as the full
-                    // data.
+                    // switching pages, the patch usually ends up being twice as large as the
+                    // full data.
                     cmd = "renderDataPatch";
                     responseJson = diffJsonStr;
                     renderType = DIFFERENTIAL;
                 }
-
-                // LOG.info("Diff: " + diff);
-                // LOG.info("Full: {} Patch: {} Diff time: {}", json.length(), diff.length(),
-                // timer);
             }
         }
 
-        // Storing the last rendered JSON as string because JsonNodes are not serializable.
-        lastRenderedJson = json;
-        lastRenederedJsonParsed = current;
+        lastRenderedModel = current;
         lastRenderedWindowStart = aState.getWindowBeginOffset();
 
         timer.stop();
 
-        metrics.renderComplete(renderType, timer.getTime(), json, diffJsonStr);
+        metrics.renderComplete(renderType, timer.getTime(), diffTime, json, diffJsonStr);
         serverTiming("Brat-JSON", "Brat-JSON generation (" + renderType + ")", timer.getTime());
 
         if (SKIP.equals(renderType)) {
@@ -24,5 +24,19 @@ public interface BratMetrics
         FULL, DIFFERENTIAL, SKIP;
     }
 
-    void renderComplete(RenderType aType, long aTime, String aFull, String aDiff);
+    /**
+     * @param aType
+     *            the kind of rendering which has been sent to the browser.
+     * @param aTime
+     *            the total time spent on rendering in milliseconds.
+     * @param aDiffTime
+     *            the time spent on computing the difference to the previous rendering in
+     *            nanoseconds - {@code 0} if no difference was computed.
+     * @param aFull
+     *            the full rendering.
+     * @param aDiff
+     *            the difference to the previous rendering - {@code null} if no difference was
+     *            computed.
+     */
+    void renderComplete(RenderType aType, long aTime, long aDiffTime, String aFull, String aDiff);
 }
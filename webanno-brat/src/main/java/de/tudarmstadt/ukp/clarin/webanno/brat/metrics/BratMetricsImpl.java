@@ -17,6 +17,7 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.metrics;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.springframework.jmx.support.MetricType.COUNTER;
 
 import org.springframework.jmx.export.annotation.ManagedMetric;
@@ -46,6 +47,9 @@ public class BratMetricsImpl
     private long maxRenderTime = 0;
     private long lastRenderTime = 0;
 
+    private long diffTime = 0;
+    private long maxDiffTime = 0;
+
     @ManagedMetric(metricType = COUNTER)
     public long getFullRenderCount()
     {
@@ -106,6 +110,18 @@ public class BratMetricsImpl
         return lastRenderTime;
     }
 
+    @ManagedMetric(metricType = COUNTER, unit = "us")
+    public long getDiffTime()
+    {
+        return NANOSECONDS.toMicros(diffTime);
+    }
+
+    @ManagedMetric(metricType = COUNTER, unit = "us")
+    public long getMaxDiffTime()
+    {
+        return NANOSECONDS.toMicros(maxDiffTime);
+    }
+
     @ManagedMetric(metricType = COUNTER, unit = "chars")
     public long getSentRenderedSize()
     {
@@ -125,11 +141,13 @@ public class BratMetricsImpl
         renderTime = 0;
         maxRenderTime = 0;
         lastRenderTime = 0;
+        diffTime = 0;
+        maxDiffTime = 0;
     }
 
     @Override
-    public synchronized void renderComplete(RenderType aType, long aTime, String aFull,
-            String aDiff)
+    public synchronized void renderComplete(RenderType aType, long aTime, long aDiffTime,
+            String aFull, String aDiff)
     {
         switch (aType) {
         case SKIP:
@@ -155,5 +173,7 @@ public class BratMetricsImpl
         renderTime += aTime;
         maxRenderTime = Math.max(maxRenderTime, aTime);
         lastRenderTime = aTime;
+        diffTime += aDiffTime;
+        maxDiffTime = Math.max(maxDiffTime, aDiffTime);
     }
 }
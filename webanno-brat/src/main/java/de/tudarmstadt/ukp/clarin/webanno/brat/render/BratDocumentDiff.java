@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Computes a JSON patch (RFC 6902) which turns a previously rendered brat document into the
+ * current one.
+ * <p>
+ * Unlike a generic JSON diff, this makes use of the structure of the brat model: the elements of
+ * the lists in the document (entities, relations, comments, ...) are matched by their VID (the
+ * first item of their array representation) instead of aligning the lists using a longest common
+ * subsequence. Elements are only compared if they have the same VID, so the cost is roughly linear
+ * in the size of the document. Inserting or removing an annotation results in a single
+ * {@code add} or {@code remove} operation regardless of its position. Lists in which the first
+ * item does not uniquely identify the elements (e.g. token offsets) are compared position by
+ * position.
+ */
+public class BratDocumentDiff
+{
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private final ArrayNode patch = NODES.arrayNode();
+
+    private BratDocumentDiff()
+    {
+        // Use the static method
+    }
+
+    /**
+     * @param aPrevious
+     *            the previously rendered document.
+     * @param aCurrent
+     *            the current document.
+     * @return the patch operations. Empty if the documents are equal.
+     */
+    public static ArrayNode diff(JsonNode aPrevious, JsonNode aCurrent)
+    {
+        BratDocumentDiff diff = new BratDocumentDiff();
+        diff.diffNode("", aPrevious, aCurrent);
+        return diff.patch;
+    }
+
+    private void diffNode(String aPath, JsonNode aPrevious, JsonNode aCurrent)
+    {
+        if (aPrevious.equals(aCurrent)) {
+            return;
+        }
+
+        if (aPrevious.isObject() && aCurrent.isObject()) {
+            diffObject(aPath, (ObjectNode) aPrevious, (ObjectNode) aCurrent);
+        }
+        else if (aPrevious.isArray() && aCurrent.isArray() && !aPath.isEmpty()) {
+            diffArray(aPath, (ArrayNode) aPrevious, (ArrayNode) aCurrent);
+        }
+        else {
+            replace(aPath, aCurrent);
+        }
+    }
+
+    private void diffObject(String aPath, ObjectNode aPrevious, ObjectNode aCurrent)
+    {
+        Iterator<Entry<String, JsonNode>> i = aPrevious.fields();
+        while (i.hasNext()) {
+            Entry<String, JsonNode> field = i.next();
+            String path = aPath + "/" + escape(field.getKey());
+            JsonNode current = aCurrent.get(field.getKey());
+            if (current == null) {
+                patch.add(op("remove", path));
+            }
+            else {
+                diffNode(path, field.getValue(), current);
+            }
+        }
+
+        i = aCurrent.fields();
+        while (i.hasNext()) {
+            Entry<String, JsonNode> field = i.next();
+            if (!aPrevious.has(field.getKey())) {
+                patch.add(op("add", aPath + "/" + escape(field.getKey())).set("value",
+                        field.getValue()));
+            }
+        }
+    }
+
+    private void diffArray(String aPath, ArrayNode aPrevious, ArrayNode aCurrent)
+    {
+        Map<String, JsonNode> previousByKey = index(aPrevious);
+        Map<String, JsonNode> currentByKey = previousByKey != null ? index(aCurrent) : null;
+
+        if (currentByKey == null) {
+            diffArrayByPosition(aPath, aPrevious, aCurrent);
+            return;
+        }
+
+        // Remove elements which are gone - from the back so the indexes remain valid
+        List<String> keys = new ArrayList<>(aPrevious.size());
+        aPrevious.forEach(e -> keys.add(key(e)));
+        for (int n = keys.size() - 1; n >= 0; n--) {
+            if (!currentByKey.containsKey(keys.get(n))) {
+                patch.add(op("remove", aPath + "/" + n));
+                keys.remove(n);
+            }
+        }
+
+        // Now keys is a subsequence of the current keys (unless elements have been re-ordered)
+        for (int n = 0; n < aCurrent.size(); n++) {
+            JsonNode current = aCurrent.get(n);
+            String key = key(current);
+            JsonNode previous = previousByKey.get(key);
+
+            if (previous == null) {
+                patch.add(op("add", aPath + "/" + n).set("value", current));
+                keys.add(n, key);
+                continue;
+            }
+
+            if (!key.equals(keys.get(n))) {
+                int from = keys.indexOf(key);
+                patch.add(op("move", aPath + "/" + n).put("from", aPath + "/" + from));
+                keys.remove(from);
+                keys.add(n, key);
+            }
+
+            if (!previous.equals(current)) {
+                replace(aPath + "/" + n, current);
+            }
+        }
+    }
+
+    private void diffArrayByPosition(String aPath, ArrayNode aPrevious, ArrayNode aCurrent)
+    {
+        int common = Math.min(aPrevious.size(), aCurrent.size());
+        for (int n = 0; n < common; n++) {
+            if (!aPrevious.get(n).equals(aCurrent.get(n))) {
+                replace(aPath + "/" + n, aCurrent.get(n));
+            }
+        }
+
+        for (int n = aPrevious.size() - 1; n >= common; n--) {
+            patch.add(op("remove", aPath + "/" + n));
+        }
+
+        for (int n = common; n < aCurrent.size(); n++) {
+            patch.add(op("add", aPath + "/" + n).set("value", aCurrent.get(n)));
+        }
+    }
+
+    /**
+     * @return the elements of the given array by their key or {@code null} if the elements are
+     *         not uniquely identified by their keys.
+     */
+    private static Map<String, JsonNode> index(ArrayNode aArray)
+    {
+        Map<String, JsonNode> index = new HashMap<>();
+        for (JsonNode element : aArray) {
+            String key = key(element);
+            if (key == null || index.put(key, element) != null) {
+                return null;
+            }
+        }
+        return index;
+    }
+
+    private static String key(JsonNode aElement)
+    {
+        if (!aElement.isArray() || aElement.size() == 0 || !aElement.get(0).isValueNode()) {
+            return null;
+        }
+
+        return aElement.get(0).asText();
+    }
+
+    private void replace(String aPath, JsonNode aValue)
+    {
+        patch.add(op("replace", aPath).set("value", aValue));
+    }
+
+    private static ObjectNode op(String aOp, String aPath)
+    {
+        ObjectNode op = NODES.objectNode();
+        op.put("op", aOp);
+        op.put("path", aPath);
+        return op;
+    }
+
+    private static String escape(String aName)
+    {
+        return aName.replace("~", "~0").replace("/", "~1");
+    }
+}
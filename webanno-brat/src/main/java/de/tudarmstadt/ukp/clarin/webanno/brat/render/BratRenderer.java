@@ -18,6 +18,7 @@
 package de.tudarmstadt.ukp.clarin.webanno.brat.render;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CHAIN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VCommentType.YIELD;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil.getUiHoverText;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil.getUiLabelText;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectAnnotationByAddr;
@@ -25,6 +26,7 @@ import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.select;
@@ -198,7 +200,15 @@ public class BratRenderer
             }
         }
 
+        // Yields are only computed for the annotations which are actually displayed
+        Set<VID> entityVids = aResponse.getEntities().stream().map(Entity::getVid)
+                .collect(toSet());
+
         for (VComment vcomment : aVDoc.comments()) {
+            if (vcomment.getCommentType() == YIELD && !entityVids.contains(vcomment.getVid())) {
+                continue;
+            }
+
             String type;
             switch (vcomment.getCommentType()) {
             case ERROR:
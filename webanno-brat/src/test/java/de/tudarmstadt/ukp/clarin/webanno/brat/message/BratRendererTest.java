@@ -18,12 +18,15 @@
 package de.tudarmstadt.ukp.clarin.webanno.brat.message;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VCommentType.YIELD;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.SINGLE_TOKEN;
 import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
 import static org.apache.uima.fit.factory.CollectionReaderFactory.createReader;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.selectSingleAt;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.contentOf;
 import static org.mockito.ArgumentMatchers.any;
@@ -34,6 +37,7 @@ import java.io.File;
 
 import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.fit.factory.JCasFactory;
 import org.dkpro.core.io.tcf.TcfReader;
@@ -61,9 +65,11 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging.LineOrientedPagin
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging.SentenceOrientedPagingStrategy;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRendererImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VComment;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Comment;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
@@ -219,4 +225,41 @@ public class BratRendererTest
         assertThat(contentOf(new File("src/test/resources/multiline.json"), UTF_8))
                 .isEqualToNormalizingNewlines(contentOf(new File(jsonFilePath), UTF_8));
     }
+
+    @Test
+    public void thatYieldsAreOnlyComputedForDisplayedAnnotations() throws Exception
+    {
+        CAS cas = JCasFactory.createJCas().getCas();
+        CollectionReader reader = createReader(TextReader.class, TextReader.PARAM_SOURCE_LOCATION,
+                "src/test/resources/multiline.txt");
+        reader.getNext(cas);
+        createEngine(BreakIteratorSegmenter.class).process(cas);
+        AnnotatorState state = new AnnotatorStateImpl(Mode.ANNOTATION);
+        state.setPagingStrategy(new LineOrientedPagingStrategy());
+        state.getPreferences().setWindowSize(10);
+        state.setFirstVisibleUnit(WebAnnoCasUtil.getFirstSentence(cas));
+        state.setProject(project);
+        state.setAllAnnotationLayers(schemaService.listAnnotationLayer(project));
+
+        AnnotationFS token = selectSingleAt(cas, getType(cas, Token.class), 0, 4);
+        AnnotationFS pos = cas.createAnnotation(getType(cas, POS.class), 0, 4);
+        cas.addFsToIndexes(pos);
+
+        VDocument vdoc = new VDocument();
+        preRenderer.render(vdoc, state.getWindowBeginOffset(), state.getWindowEndOffset(), cas,
+                schemaService.listAnnotationLayer(project));
+        vdoc.add(new VComment(pos, YIELD, () -> "displayed"));
+        // The token layer is not rendered, so the yield of the token must not be computed
+        vdoc.add(new VComment(token, YIELD, () -> {
+            throw new IllegalStateException("Yield of hidden annotation computed");
+        }));
+
+        GetDocumentResponse response = new GetDocumentResponse();
+        BratRenderer renderer = new BratRenderer(schemaService,
+                new ColoringServiceImpl(schemaService));
+        renderer.render(response, state, vdoc, cas);
+
+        assertThat(response.getComments()).extracting(Comment::getComment)
+                .containsExactly("displayed");
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flipkart.zjsonpatch.JsonPatch;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+
+public class BratDocumentDiffTest
+{
+    private ObjectMapper mapper;
+    private JsonNode base;
+
+    @Before
+    public void setup() throws Exception
+    {
+        mapper = JSONUtil.getObjectMapper();
+        base = read("brat_normal.json");
+    }
+
+    @Test
+    public void thatEqualDocumentsProduceEmptyPatch() throws Exception
+    {
+        assertThat(BratDocumentDiff.diff(base, base.deepCopy())).isEmpty();
+    }
+
+    @Test
+    public void thatEntityAddedInMiddleProducesSingleOperation() throws Exception
+    {
+        JsonNode current = read("brat_added_entity_near_middle.json");
+
+        ArrayNode patch = assertPatchApplies(base, current);
+
+        assertThat(patch).hasSize(1);
+        assertThat(patch.get(0).get("op").asText()).isEqualTo("add");
+    }
+
+    @Test
+    public void thatEntityRemovedInMiddleProducesSingleOperation() throws Exception
+    {
+        JsonNode current = read("brat_removed_entity_in_middle.json");
+
+        ArrayNode patch = assertPatchApplies(base, current);
+
+        assertThat(patch).hasSize(1);
+        assertThat(patch.get(0).get("op").asText()).isEqualTo("remove");
+    }
+
+    @Test
+    public void thatEntityRemovedNearEndIsPatched() throws Exception
+    {
+        assertPatchApplies(base, read("brat_removed_entity_near_end.json"));
+        assertPatchApplies(read("brat_removed_entity_near_end.json"), base);
+    }
+
+    @Test
+    public void thatReorderedAndChangedEntitiesArePatched() throws Exception
+    {
+        ObjectNode current = base.deepCopy();
+        ArrayNode entities = (ArrayNode) current.get("entities");
+        JsonNode first = entities.remove(0);
+        entities.add(first);
+        ((ArrayNode) entities.get(0)).set(1, mapper.getNodeFactory().textNode("changed"));
+        current.put("text", "Changed text");
+        current.remove("comments");
+
+        assertPatchApplies(base, current);
+        assertPatchApplies(current, base);
+    }
+
+    private ArrayNode assertPatchApplies(JsonNode aPrevious, JsonNode aCurrent)
+    {
+        ArrayNode patch = BratDocumentDiff.diff(aPrevious, aCurrent);
+
+        assertThat(JsonPatch.apply(patch, aPrevious)).isEqualTo(aCurrent);
+
+        return patch;
+    }
+
+    private JsonNode read(String aName) throws Exception
+    {
+        return mapper.readTree(new File("src/test/resources/" + aName));
+    }
+}
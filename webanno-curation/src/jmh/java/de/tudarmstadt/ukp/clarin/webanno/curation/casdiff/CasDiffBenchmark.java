@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_TARGET_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.NER_DIFF_ADAPTER;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.POS_DIFF_ADAPTER;
+import static java.util.Arrays.asList;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+/**
+ * Measures {@link CasDiff#doDiff} on synthetic documents annotated by several annotators. Each
+ * annotator stacks multiple named entities with partially overlapping labels on every token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CasDiffBenchmark
+{
+    private static final String[] NE_LABELS = { "PER", "LOC", "ORG", "MISC", "OTH" };
+    private static final String[] POS_LABELS = { "NN", "VB", "JJ", "DT", "IN", "RB" };
+
+    @Param({ "3", "10" })
+    public int annotators;
+
+    @Param({ "1000" })
+    public int tokens;
+
+    @Param({ "1", "4" })
+    public int stacking;
+
+    private List<? extends DiffAdapter> adapters;
+    private Map<String, List<CAS>> casByUser;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        adapters = asList(POS_DIFF_ADAPTER, NER_DIFF_ADAPTER);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < tokens; i++) {
+            text.append("token ");
+        }
+
+        // Fixed seed so that all runs compare the same data
+        Random rnd = new Random(42);
+        casByUser = new LinkedHashMap<>();
+        for (int a = 0; a < annotators; a++) {
+            JCas jcas = JCasFactory.createText(text.toString());
+            for (int t = 0; t < tokens; t++) {
+                int begin = t * 6;
+                int end = begin + 5;
+
+                POS pos = new POS(jcas, begin, end);
+                pos.setPosValue(POS_LABELS[rnd.nextInt(POS_LABELS.length)]);
+                pos.addToIndexes();
+
+                for (int s = 0; s < stacking; s++) {
+                    NamedEntity ne = new NamedEntity(jcas, begin, end);
+                    ne.setValue(NE_LABELS[rnd.nextInt(NE_LABELS.length)]);
+                    ne.setIdentifier("id-" + rnd.nextInt(stacking * 2));
+                    ne.addToIndexes();
+                }
+            }
+            casByUser.put("user" + a, asList(jcas.getCas()));
+        }
+    }
+
+    @Benchmark
+    public DiffResult doDiff()
+    {
+        return CasDiff.doDiff(adapters, LINK_TARGET_AS_LABEL, casByUser).toResult();
+    }
+
+    @Benchmark
+    public DiffResult doDiffParallel()
+    {
+        return CasDiff.doDiff(adapters, LINK_TARGET_AS_LABEL, casByUser, -1, -1,
+                ForkJoinPool.commonPool()).toResult();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder().include(CasDiffBenchmark.class.getSimpleName()).build())
+                .run();
+    }
+}
@@ -20,6 +20,7 @@ package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectFsByAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.model.LinkMode.NONE;
 import static java.util.Arrays.asList;
@@ -43,6 +44,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.uima.cas.ArrayFS;
@@ -64,6 +68,7 @@ import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter_ImplBase;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.Position;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.internal.AID;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.internal.LabelSignature;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -77,12 +82,14 @@ public class CasDiff
 
     private final Map<Position, ConfigurationSet> configSets = new TreeMap<>();
 
-    private final Map<String, String[]> sortedFeaturesCache = new HashMap<>();
+    private final Map<String, String[]> labelFeaturesCache = new HashMap<>();
 
     private int begin;
 
     private int end;
 
+    private final List<DiffAdapter> adapters = new ArrayList<>();
+
     private final Map<String, DiffAdapter> typeAdapters = new HashMap<>();
 
     private final LinkCompareBehavior linkCompareBehavior;
@@ -97,6 +104,7 @@ public class CasDiff
         linkCompareBehavior = aLinkCompareBehavior;
         if (aAdapters != null) {
             for (DiffAdapter adapter : aAdapters) {
+                adapters.add(adapter);
                 typeAdapters.put(adapter.getType(), adapter);
             }
         }
@@ -129,6 +137,36 @@ public class CasDiff
         return doDiff(aAdapters, aLinkCompareBehavior, casMap, aBegin, aEnd);
     }
 
+    /**
+     * Calculate the differences between CASes in parallel. This method scopes the calculation of
+     * differences to a span instead of calculating them on the whole text.
+     * 
+     * @param aAdapters
+     *            a set of diff adapters telling how the diff algorithm should handle different
+     *            features
+     * @param aCasMap
+     *            a set of CASes, each associated with an ID
+     * @param aBegin
+     *            begin of the span for which differences should be calculated.
+     * @param aEnd
+     *            end of the span for which differences should be calculated.
+     * @param aPool
+     *            the pool used to calculate the differences.
+     * @return a diff result.
+     * @see #doDiff(Iterable, LinkCompareBehavior, Map, int, int, ForkJoinPool)
+     */
+    public static CasDiff doDiffSingle(Iterable<? extends DiffAdapter> aAdapters,
+            LinkCompareBehavior aLinkCompareBehavior, Map<String, CAS> aCasMap, int aBegin,
+            int aEnd, ForkJoinPool aPool)
+    {
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        for (Entry<String, CAS> e : aCasMap.entrySet()) {
+            casMap.put(e.getKey(), asList(e.getValue()));
+        }
+
+        return doDiff(aAdapters, aLinkCompareBehavior, casMap, aBegin, aEnd, aPool);
+    }
+
     /**
      * Calculate the differences between CASes.
      * 
@@ -194,6 +232,143 @@ public class CasDiff
         return diff;
     }
 
+    /**
+     * Calculate the differences between CASes in parallel. The work is partitioned by type and by
+     * CAS index because these never contribute to the same position. The partial results are
+     * merged into a result which is identical to the one calculated by
+     * {@link #doDiff(Iterable, LinkCompareBehavior, Map, int, int)}.
+     * <p>
+     * The annotations are selected from the CASes on the calling thread. Only reading the
+     * selected feature structures happens concurrently. The CASes must not be modified while the
+     * differences are calculated.
+     * 
+     * @param aAdapters
+     *            a set of diff adapters telling how the diff algorithm should handle different
+     *            features
+     * @param aCasMap
+     *            a set of CASes, each associated with an ID
+     * @param aBegin
+     *            begin of the span for which differences should be calculated.
+     * @param aEnd
+     *            end of the span for which differences should be calculated.
+     * @param aPool
+     *            the pool used to calculate the differences.
+     * @return a diff.
+     */
+    public static CasDiff doDiff(Iterable<? extends DiffAdapter> aAdapters,
+            LinkCompareBehavior aLinkCompareBehavior, Map<String, List<CAS>> aCasMap, int aBegin,
+            int aEnd, ForkJoinPool aPool)
+    {
+        if (aCasMap.isEmpty()) {
+            return new CasDiff(0, 0, aAdapters, aLinkCompareBehavior);
+        }
+
+        List<CAS> casList = aCasMap.values().iterator().next();
+        if (casList.isEmpty()) {
+            return new CasDiff(0, 0, aAdapters, aLinkCompareBehavior);
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        sanityCheck(aCasMap);
+
+        CasDiff diff = new CasDiff(aBegin, aEnd, aAdapters, aLinkCompareBehavior);
+
+        // Adapters for the same type must be processed in the same partition and in the same
+        // order as in the serial diff
+        Map<String, List<DiffAdapter>> adaptersByType = new LinkedHashMap<>();
+        for (DiffAdapter adapter : aAdapters) {
+            adaptersByType.computeIfAbsent(adapter.getType(), k -> new ArrayList<>()).add(adapter);
+        }
+
+        if (adaptersByType.isEmpty()) {
+            return diff;
+        }
+
+        // The partitions run on the threads of the pool. If the CASes are wrapped for thread
+        // checks, the wrappers are bound to the calling thread, so the partitions must access the
+        // real CASes. The result keeps the CASes as they were passed in.
+        Map<String, List<CAS>> realCases = new LinkedHashMap<>();
+        int casCount = 0;
+        for (Entry<String, List<CAS>> e : aCasMap.entrySet()) {
+            List<CAS> realCasList = new ArrayList<>();
+            int casId = 0;
+            for (CAS cas : e.getValue()) {
+                diff.registerCas(e.getKey(), casId, cas);
+                if (cas != null) {
+                    primeDocumentMetadata(cas);
+                }
+                realCasList.add(cas != null ? getRealCas(cas) : null);
+                casId++;
+            }
+            realCases.put(e.getKey(), realCasList);
+            casCount = Math.max(casCount, casId);
+        }
+
+        List<ForkJoinTask<CasDiff>> partitions = new ArrayList<>();
+        for (Entry<String, List<DiffAdapter>> typeAdapters : adaptersByType.entrySet()) {
+            String type = typeAdapters.getKey();
+            for (int casId = 0; casId < casCount; casId++) {
+                Map<String, List<Collection<AnnotationFS>>> selection = new LinkedHashMap<>();
+                for (Entry<String, List<CAS>> e : aCasMap.entrySet()) {
+                    CAS cas = casId < e.getValue().size() ? e.getValue().get(casId) : null;
+                    // null elements in the list can occur if a user has never worked on a CAS
+                    if (cas == null) {
+                        continue;
+                    }
+
+                    Collection<AnnotationFS> annotations = new ArrayList<>(
+                            diff.selectAnnotations(cas, type));
+                    for (int i = 0; i < typeAdapters.getValue().size(); i++) {
+                        selection.computeIfAbsent(e.getKey(), k -> new ArrayList<>())
+                                .add(annotations);
+                    }
+                }
+
+                if (selection.isEmpty()) {
+                    continue;
+                }
+
+                int partitionCasId = casId;
+                partitions.add(aPool.submit(() -> {
+                    CasDiff partition = new CasDiff(aBegin, aEnd, aAdapters,
+                            aLinkCompareBehavior);
+                    partition.cases = realCases;
+                    selection.forEach((casGroupId, annotationsList) -> annotationsList
+                            .forEach(annotations -> partition.addAnnotations(casGroupId,
+                                    partitionCasId, type, annotations)));
+                    return partition;
+                }));
+            }
+        }
+
+        for (ForkJoinTask<CasDiff> task : partitions) {
+            CasDiff partition = task.join();
+            diff.configSets.putAll(partition.configSets);
+            partition.typeAdapters.forEach(diff.typeAdapters::putIfAbsent);
+        }
+
+        LOG.trace("Parallel CASDiff completed in {} ms ({} partitions)",
+                System.currentTimeMillis() - startTime, partitions.size());
+
+        return diff;
+    }
+
+    /**
+     * The diff adapters look up the document metadata when generating positions and create it if
+     * it is missing. Looking it up once on the calling thread ensures that it exists and that
+     * concurrent lookups only read from the index.
+     */
+    private static void primeDocumentMetadata(CAS aCas)
+    {
+        try {
+            WebAnnoCasUtil.getDocumentMetadata(aCas);
+        }
+        catch (IllegalArgumentException e) {
+            // The type system does not include document metadata
+        }
+    }
+
     /**
      * Sanity check - all CASes should have the same text.
      */
@@ -267,22 +442,7 @@ public class CasDiff
      */
     private void addCas(String aCasGroupId, int aCasId, CAS aCas, String aType)
     {
-        // Remember that we have already seen this CAS.
-        List<CAS> casList = cases.get(aCasGroupId);
-        if (casList == null) {
-            casList = new ArrayList<>();
-            cases.put(aCasGroupId, casList);
-        }
-
-        // Avoid adding same CAS twice in cases where we add multiple types from a CAS. If the
-        // current CAS ID is greater than the size of the current CAS list, then we did not add
-        // it yet. Before, we checked whether the casList already contained the current CAS, but
-        // that failed when we had multiple "null" CASes.
-        if ((casList.size() - 1) < aCasId) {
-            casList.add(aCas);
-        }
-        assert (casList.size() - 1) == aCasId : "Expected CAS ID [" + (casList.size() - 1)
-                + "] but was [" + aCasId + "]";
+        registerCas(aCasGroupId, aCasId, aCas);
 
         // null elements in the list can occur if a user has never worked on a CAS
         // We add these to the internal list above, but then we bail out here.
@@ -309,34 +469,60 @@ public class CasDiff
             }
         }
 
+        addAnnotations(aCasGroupId, aCasId, aType, selectAnnotations(aCas, aType));
+    }
+
+    private void registerCas(String aCasGroupId, int aCasId, CAS aCas)
+    {
+        // Remember that we have already seen this CAS.
+        List<CAS> casList = cases.get(aCasGroupId);
+        if (casList == null) {
+            casList = new ArrayList<>();
+            cases.put(aCasGroupId, casList);
+        }
+
+        // Avoid adding same CAS twice in cases where we add multiple types from a CAS. If the
+        // current CAS ID is greater than the size of the current CAS list, then we did not add
+        // it yet. Before, we checked whether the casList already contained the current CAS, but
+        // that failed when we had multiple "null" CASes.
+        if ((casList.size() - 1) < aCasId) {
+            casList.add(aCas);
+        }
+        assert (casList.size() - 1) == aCasId : "Expected CAS ID [" + (casList.size() - 1)
+                + "] but was [" + aCasId + "]";
+    }
+
+    private Collection<AnnotationFS> selectAnnotations(CAS aCas, String aType)
+    {
         Type type = aCas.getTypeSystem().getType(aType);
         if (type == null) {
-            LOG.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId
-                    + "] contains no annotations of type [" + aType + "]");
-            return;
+            return Collections.emptyList();
         }
 
-        Collection<AnnotationFS> annotations;
         if (begin == -1 && end == -1) {
-            annotations = select(aCas, type);
+            return select(aCas, type);
         }
         else {
-            annotations = selectCovered(aCas, type, begin, end);
+            return selectCovered(aCas, type, begin, end);
         }
+    }
 
-        if (annotations.isEmpty()) {
+    private void addAnnotations(String aCasGroupId, int aCasId, String aType,
+            Collection<AnnotationFS> aAnnotations)
+    {
+        if (aAnnotations.isEmpty()) {
             LOG.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId
                     + "] contains no annotations of type [" + aType + "]");
             return;
         }
 
         LOG.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId + "] contains ["
-                + annotations.size() + "] annotations of type [" + aType + "]");
+                + aAnnotations.size() + "] annotations of type [" + aType + "]");
 
         int posBefore = configSets.keySet().size();
         LOG.debug("Positions before: [" + posBefore + "]");
 
-        for (AnnotationFS fs : annotations) {
+        for (AnnotationFS fs : aAnnotations) {
             List<Position> positions = new ArrayList<>();
 
             // Get/create configuration set at the current position
@@ -381,11 +567,16 @@ public class CasDiff
         }
 
         if (aSet.position.getFeature() == null) {
-            // Check if this configuration is already present
+            // Check if this configuration is already present. Only configurations with the same
+            // signature can be equal. If the signature is exact, it is not even necessary to
+            // compare the feature structures in detail.
+            LabelSignature signature = getSignature(aFS);
+            List<Configuration> candidates = getConfigurationsBySignature(aSet)
+                    .computeIfAbsent(signature, k -> new ArrayList<>());
             Configuration configuration = null;
-            for (Configuration cfg : aSet.configurations) {
+            for (Configuration cfg : candidates) {
                 // Handle main positions
-                if (equalsFS(cfg.getRepresentative(cases), aFS)) {
+                if (signature.isExact() || equalsFS(cfg.getRepresentative(cases), aFS)) {
                     configuration = cfg;
                     break;
                 }
@@ -395,6 +586,7 @@ public class CasDiff
             if (configuration == null) {
                 configuration = new Configuration(aSet.position);
                 aSet.configurations.add(configuration);
+                candidates.add(configuration);
             }
 
             configuration.add(aCasGroupId, aFS);
@@ -492,6 +684,21 @@ public class CasDiff
         aSet.casGroupIds.add(aCasGroupId);
     }
 
+    private Map<LabelSignature, List<Configuration>> getConfigurationsBySignature(
+            ConfigurationSet aSet)
+    {
+        if (aSet.configurationsBySignature == null) {
+            aSet.configurationsBySignature = new HashMap<>();
+            for (Configuration cfg : aSet.configurations) {
+                aSet.configurationsBySignature
+                        .computeIfAbsent(getSignature(cfg.getRepresentative(cases)),
+                                k -> new ArrayList<>())
+                        .add(cfg);
+            }
+        }
+        return aSet.configurationsBySignature;
+    }
+
     /**
      * The set of configurations seen at a particular position.
      */
@@ -503,6 +710,8 @@ public class CasDiff
         private final Position position;
         private List<Configuration> configurations = new ArrayList<>();
         private Set<String> casGroupIds = new LinkedHashSet<>();
+        // Only required while the diff is being built - rebuilt on demand
+        private transient Map<LabelSignature, List<Configuration>> configurationsBySignature;
 
         public ConfigurationSet(Position aPosition)
         {
@@ -617,19 +826,6 @@ public class CasDiff
 
         assert type1.getNumberOfFeatures() == type2.getNumberOfFeatures();
 
-        // Sort features by name to be independent over implementation details that may change the
-        // order of the features as returned from Type.getFeatures().
-        String[] cachedSortedFeatures = sortedFeaturesCache.get(type1.getName());
-        if (cachedSortedFeatures == null) {
-            cachedSortedFeatures = new String[type1.getNumberOfFeatures()];
-            int i = 0;
-            for (Feature f : aFS1.getType().getFeatures()) {
-                cachedSortedFeatures[i] = f.getShortName();
-                i++;
-            }
-            sortedFeaturesCache.put(type1.getName(), cachedSortedFeatures);
-        }
-
         DiffAdapter adapter = typeAdapters.get(type1.getName());
 
         if (adapter == null) {
@@ -637,21 +833,7 @@ public class CasDiff
             return true;
         }
 
-        // Only consider label features. In particular these must not include position features
-        // such as begin, end, etc.
-        List<String> sortedFeatures = new ArrayList<>(asList(cachedSortedFeatures));
-        Set<String> labelFeatures = adapter.getLabelFeatures();
-        sortedFeatures.removeIf(f -> !labelFeatures.contains(f));
-
-        if (!recurseIntoLinkFeatures) {
-            // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse into
-            // link features (or rather into any features that are covered by their own
-            // sub-positions). So when when comparing two spans that differ only in their slots
-            // (sub-positions) the main position could still exhibit agreement.
-            sortedFeatures.removeIf(f -> adapter.getLinkFeature(f) != null);
-        }
-
-        nextFeature: for (String feature : sortedFeatures) {
+        nextFeature: for (String feature : getLabelFeatures(type1, adapter)) {
             Feature f1 = type1.getFeatureByBaseName(feature);
             Feature f2 = type2.getFeatureByBaseName(feature);
 
@@ -782,6 +964,113 @@ public class CasDiff
         return true;
     }
 
+    /**
+     * Get the features of the given type which are relevant for comparing feature structures. The
+     * result is sorted by name to be independent of implementation details that may change the
+     * order of the features as returned from {@link Type#getFeatures()}.
+     */
+    private String[] getLabelFeatures(Type aType, DiffAdapter aAdapter)
+    {
+        String[] labelFeatures = labelFeaturesCache.get(aType.getName());
+        if (labelFeatures == null) {
+            // Only consider label features. In particular these must not include position features
+            // such as begin, end, etc.
+            Set<String> adapterLabelFeatures = aAdapter.getLabelFeatures();
+            List<String> features = new ArrayList<>();
+            for (Feature f : aType.getFeatures()) {
+                if (!adapterLabelFeatures.contains(f.getShortName())) {
+                    continue;
+                }
+
+                // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse
+                // into link features (or rather into any features that are covered by their own
+                // sub-positions). So when when comparing two spans that differ only in their slots
+                // (sub-positions) the main position could still exhibit agreement.
+                if (!recurseIntoLinkFeatures && aAdapter.getLinkFeature(f.getShortName()) != null) {
+                    continue;
+                }
+
+                features.add(f.getShortName());
+            }
+            Collections.sort(features);
+            labelFeatures = features.toArray(new String[features.size()]);
+            labelFeaturesCache.put(aType.getName(), labelFeatures);
+        }
+        return labelFeatures;
+    }
+
+    /**
+     * Calculate the signature of the label feature values of the given feature structure. Feature
+     * structures considered equal by {@link #equalsFS} always have the same signature. Missing
+     * features and default values are both represented as {@code null} because
+     * {@link #equalsFS} does not distinguish between them either.
+     */
+    private LabelSignature getSignature(FeatureStructure aFS)
+    {
+        Type type = aFS.getType();
+        String[] labelFeatures = getLabelFeatures(type, getAdapter(type.getName()));
+
+        boolean exact = true;
+        Object[] values = new Object[labelFeatures.length];
+        for (int i = 0; i < labelFeatures.length; i++) {
+            Feature f = type.getFeatureByBaseName(labelFeatures[i]);
+            if (f == null) {
+                continue;
+            }
+
+            Object value;
+            switch (f.getRange().getName()) {
+            case CAS.TYPE_NAME_BOOLEAN:
+                value = aFS.getBooleanValue(f) ? Boolean.TRUE : null;
+                break;
+            case CAS.TYPE_NAME_BYTE:
+                value = aFS.getByteValue(f) != 0 ? aFS.getByteValue(f) : null;
+                break;
+            case CAS.TYPE_NAME_DOUBLE: {
+                double v = aFS.getDoubleValue(f);
+                // NaN is not equal to itself
+                exact &= !Double.isNaN(v);
+                // Normalize -0.0 to 0.0
+                value = v != 0.0d ? v : null;
+                break;
+            }
+            case CAS.TYPE_NAME_FLOAT: {
+                float v = aFS.getFloatValue(f);
+                exact &= !Float.isNaN(v);
+                value = v != 0.0f ? v : null;
+                break;
+            }
+            case CAS.TYPE_NAME_INTEGER:
+                value = aFS.getIntValue(f) != 0 ? aFS.getIntValue(f) : null;
+                break;
+            case CAS.TYPE_NAME_LONG:
+                value = aFS.getLongValue(f) != 0l ? aFS.getLongValue(f) : null;
+                break;
+            case CAS.TYPE_NAME_SHORT:
+                value = aFS.getShortValue(f) != 0 ? aFS.getShortValue(f) : null;
+                break;
+            case CAS.TYPE_NAME_STRING:
+                value = aFS.getStringValue(f);
+                break;
+            default: {
+                FeatureStructure valueFS = aFS.getFeatureValue(f);
+                if (valueFS == null) {
+                    value = null;
+                }
+                else {
+                    // Feature structures are only summarized by their type - they need to be
+                    // compared in detail.
+                    value = new LabelSignature(valueFS.getType().getName(), new Object[0], false);
+                    exact = false;
+                }
+            }
+            }
+            values[i] = value;
+        }
+
+        return new LabelSignature(type.getName(), values, exact);
+    }
+
     private boolean equalsAnnotationFS(AnnotationFS aFS1, AnnotationFS aFS2)
     {
         // Null check
@@ -813,7 +1102,7 @@ public class CasDiff
          * Flag indicating that there is at least once CAS group containing more than one annotation
          * at this position - i.e. a stacked annotation.
          */
-        private boolean stacked = false;
+        private final Set<String> stackedCasGroupIds = new HashSet<>();
 
         public Set<String> getCasGroupIds()
         {
@@ -832,14 +1121,14 @@ public class CasDiff
 
         public boolean isStacked()
         {
-            return stacked;
+            return !stackedCasGroupIds.isEmpty();
         }
 
         private void add(String aCasGroupId, FeatureStructure aFS)
         {
             AID old = fsAddresses.put(aCasGroupId, new AID(getAddr(aFS)));
             if (old != null) {
-                stacked = true;
+                stackedCasGroupIds.add(aCasGroupId);
             }
         }
 
@@ -847,8 +1136,36 @@ public class CasDiff
         {
             AID old = fsAddresses.put(aCasGroupId, new AID(getAddr(aFS), aFeature, aSlot));
             if (old != null) {
-                stacked = true;
+                stackedCasGroupIds.add(aCasGroupId);
+            }
+        }
+
+        private void remove(String aCasGroupId)
+        {
+            fsAddresses.remove(aCasGroupId);
+            stackedCasGroupIds.remove(aCasGroupId);
+        }
+
+        private Configuration copy()
+        {
+            Configuration copy = new Configuration(position);
+            copy.fsAddresses.putAll(fsAddresses);
+            copy.stackedCasGroupIds.addAll(stackedCasGroupIds);
+            return copy;
+        }
+
+        private Configuration subset(Collection<String> aCasGroupIds)
+        {
+            Configuration subset = new Configuration(position);
+            for (Entry<String, AID> e : fsAddresses.entrySet()) {
+                if (aCasGroupIds.contains(e.getKey())) {
+                    subset.fsAddresses.put(e.getKey(), e.getValue());
+                    if (stackedCasGroupIds.contains(e.getKey())) {
+                        subset.stackedCasGroupIds.add(e.getKey());
+                    }
+                }
             }
+            return subset.fsAddresses.isEmpty() ? null : subset;
         }
 
         public AID getRepresentativeAID()
@@ -940,7 +1257,8 @@ public class CasDiff
 
         private final Map<Position, ConfigurationSet> data;
         private final Set<String> casGroupIds;
-        private final Map<ConfigurationSet, Boolean> completenessCache = new HashMap<>();
+        private final Map<ConfigurationSet, Boolean> completenessCache = //
+                new ConcurrentHashMap<>();
         private final boolean cachedHasDifferences;
 
         private DiffResult(CasDiff aDiff)
@@ -1169,43 +1487,153 @@ public class CasDiff
         return new DiffResult(this);
     }
 
-    // private Set<String> entryTypes = new LinkedHashSet<>();
-
-    // /**
-    // * Clear the attachment to CASes allowing the class to be serialized.
-    // */
-    // public void detach()
-    // {
-    // if (cases != null) {
-    // cases.clear();
-    // }
-    // }
-
-    // /**
-    // * Rebuilds the diff with the current offsets and entry types. This can be used to fix the
-    // diff
-    // * after reattaching to CASes that have changed. Mind that the diff results can be differnent
-    // * due to the changes.
-    // */
-    // public void rebuild()
-    // {
-    // Map<String, CAS> oldCases = cases;
-    // cases = new HashMap<>();
-    //
-    // for (String t : entryTypes) {
-    // for (Entry<String, CAS> e : oldCases.entrySet()) {
-    // addCas(e.getKey(), e.getValue(), t);
-    // }
-    // }
-    // }
-
-    // /**
-    // * Attach CASes back so that representatives can be resolved. CASes must not have been changed
-    // * or upgraded between detaching and reattaching - the CAS addresses of the feature structures
-    // * must still be the same.
-    // */
-    // public void attach(Map<String, CAS> aCases)
-    // {
-    // cases = new HashMap<>(aCases);
-    // }
+    /**
+     * Clear the attachment to CASes. This allows keeping the diff around without keeping the CASes
+     * in memory.
+     */
+    public void detach()
+    {
+        cases.replaceAll((casGroupId, casList) -> asList(new CAS[casList.size()]));
+    }
+
+    /**
+     * Attach CASes back so that representatives can be resolved. CASes must not have been changed
+     * or upgraded between detaching and reattaching - the CAS addresses of the feature structures
+     * must still be the same.
+     * 
+     * @param aCasMap
+     *            the CASes for all CAS groups which have been used to calculate the diff.
+     */
+    public void attach(Map<String, List<CAS>> aCasMap)
+    {
+        if (!aCasMap.keySet().equals(cases.keySet())) {
+            throw new IllegalArgumentException("CAS groups " + aCasMap.keySet()
+                    + " do not match the CAS groups of the diff " + cases.keySet());
+        }
+
+        cases.replaceAll((casGroupId, casList) -> aCasMap.get(casGroupId));
+    }
+
+    /**
+     * Recalculate the contributions of a single CAS group, e.g. because the CASes of that group
+     * have changed. The diff must be {@link #attach attached} to the CASes of all other groups.
+     * 
+     * @param aCasGroupId
+     *            the ID of the CAS group to recalculate.
+     * @param aCasList
+     *            the new CASes of the group.
+     */
+    public void recalculate(String aCasGroupId, List<CAS> aCasList)
+    {
+        if (!cases.containsKey(aCasGroupId)) {
+            throw new IllegalArgumentException("Unknown CAS group [" + aCasGroupId + "]");
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        // Remove the old contributions of the CAS group
+        Iterator<ConfigurationSet> i = configSets.values().iterator();
+        while (i.hasNext()) {
+            ConfigurationSet configSet = i.next();
+            if (!configSet.casGroupIds.remove(aCasGroupId)) {
+                continue;
+            }
+
+            configSet.configurations.removeIf(cfg -> {
+                cfg.remove(aCasGroupId);
+                return cfg.fsAddresses.isEmpty();
+            });
+            configSet.configurationsBySignature = null;
+
+            if (configSet.casGroupIds.isEmpty()) {
+                i.remove();
+            }
+        }
+
+        // Add the new contributions
+        cases.put(aCasGroupId, new ArrayList<>());
+        int casId = 0;
+        for (CAS cas : aCasList) {
+            for (DiffAdapter adapter : adapters) {
+                addCas(aCasGroupId, casId, cas, adapter.getType());
+            }
+            casId++;
+        }
+
+        LOG.trace("CASDiff for [{}] recalculated in {} ms", aCasGroupId,
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * @return a deep copy of this diff which can be {@link #recalculate recalculated} without
+     *         affecting results obtained from this diff.
+     */
+    public CasDiff copy()
+    {
+        CasDiff copy = new CasDiff(begin, end, adapters, linkCompareBehavior);
+        copy.recurseIntoLinkFeatures = recurseIntoLinkFeatures;
+        copy.typeAdapters.putAll(typeAdapters);
+        copy.labelFeaturesCache.putAll(labelFeaturesCache);
+        cases.forEach((casGroupId, casList) -> copy.cases.put(casGroupId,
+                new ArrayList<>(casList)));
+        for (ConfigurationSet configSet : configSets.values()) {
+            ConfigurationSet configSetCopy = new ConfigurationSet(configSet.position);
+            configSetCopy.casGroupIds.addAll(configSet.casGroupIds);
+            for (Configuration cfg : configSet.configurations) {
+                configSetCopy.configurations.add(cfg.copy());
+            }
+            copy.configSets.put(configSet.position, configSetCopy);
+        }
+        return copy;
+    }
+
+    /**
+     * Obtain the differences between some of the CAS groups of this diff. Since feature
+     * structures are grouped into configurations by comparing them to each other, the result is
+     * the same as if the diff had been calculated only over the CASes of these groups. Thus, a
+     * single diff over all annotators can be used to obtain the differences between every pair of
+     * annotators.
+     * <p>
+     * The subset shares the CASes with this diff. It can be calculated while other subsets are
+     * calculated or used concurrently, but this diff must not be changed at the same time.
+     * 
+     * @param aCasGroupIds
+     *            the IDs of the CAS groups to retain.
+     * @return a new diff containing only the given CAS groups.
+     */
+    public CasDiff subset(Collection<String> aCasGroupIds)
+    {
+        CasDiff subset = new CasDiff(begin, end, adapters, linkCompareBehavior);
+        subset.recurseIntoLinkFeatures = recurseIntoLinkFeatures;
+        subset.typeAdapters.putAll(typeAdapters);
+        subset.labelFeaturesCache.putAll(labelFeaturesCache);
+        cases.forEach((casGroupId, casList) -> {
+            if (aCasGroupIds.contains(casGroupId)) {
+                subset.cases.put(casGroupId, new ArrayList<>(casList));
+            }
+        });
+        for (ConfigurationSet configSet : configSets.values()) {
+            ConfigurationSet configSetSubset = new ConfigurationSet(configSet.position);
+            for (String casGroupId : configSet.casGroupIds) {
+                if (aCasGroupIds.contains(casGroupId)) {
+                    configSetSubset.casGroupIds.add(casGroupId);
+                }
+            }
+
+            // Positions at which none of the retained CAS groups has annotations would not have
+            // been generated by a diff over these groups
+            if (configSetSubset.casGroupIds.isEmpty()) {
+                continue;
+            }
+
+            for (Configuration cfg : configSet.configurations) {
+                Configuration cfgSubset = cfg.subset(aCasGroupIds);
+                if (cfgSubset != null) {
+                    configSetSubset.configurations.add(cfgSubset);
+                }
+            }
+            subset.configSets.put(configSet.position, configSetSubset);
+        }
+        return subset;
+    }
 }
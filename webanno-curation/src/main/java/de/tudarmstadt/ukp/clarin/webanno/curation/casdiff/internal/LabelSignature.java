@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.internal;
+
+import java.util.Arrays;
+
+/**
+ * Hashable summary of the label feature values of a feature structure. Two feature structures
+ * which would be considered equal by the diff have the same signature. If the signature is
+ * {@link #isExact() exact}, then the reverse is also true. Otherwise, feature structures having the
+ * same signature still need to be compared in detail.
+ */
+public final class LabelSignature
+{
+    private final String type;
+    private final Object[] values;
+    private final boolean exact;
+    private final int hash;
+
+    /**
+     * @param aType
+     *            the name of the type of the feature structure.
+     * @param aValues
+     *            the label feature values in a stable order. Default values must be represented as
+     *            {@code null}.
+     * @param aExact
+     *            whether equal signatures imply equal feature structures.
+     */
+    public LabelSignature(String aType, Object[] aValues, boolean aExact)
+    {
+        type = aType;
+        values = aValues;
+        exact = aExact;
+        hash = 31 * type.hashCode() + Arrays.hashCode(values);
+    }
+
+    public boolean isExact()
+    {
+        return exact;
+    }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+
+        if (!(aOther instanceof LabelSignature)) {
+            return false;
+        }
+
+        LabelSignature other = (LabelSignature) aOther;
+        return hash == other.hash && type.equals(other.type) && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return type + Arrays.toString(values);
+    }
+}
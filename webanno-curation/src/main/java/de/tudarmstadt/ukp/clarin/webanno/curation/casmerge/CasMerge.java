@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.FEAT_REL_SOURCE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.FEAT_REL_TARGET;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.CasModificationTracker.markModified;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.copyDocumentMetadata;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createSentence;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createToken;
@@ -202,6 +203,7 @@ public class CasMerge
 
         // Remove any annotations from the target CAS - keep type system, sentences and tokens
         clearAnnotations(aTargetCas);
+        markModified(aTargetCas);
 
         // If there is nothing to merge, bail out
         if (aCases.isEmpty()) {
@@ -483,6 +485,9 @@ public class CasMerge
         SpanAdapter adapter = (SpanAdapter) adapterCache.get(aAnnotationLayer);
         if (silenceEvents) {
             adapter.silenceEvents();
+            // Without the events, cached information derived from the CAS cannot be updated
+            // selectively
+            markModified(aTargetCas);
         }
 
         if (existsEquivalentAt(aTargetCas, adapter, aSourceFs)) {
@@ -532,6 +537,9 @@ public class CasMerge
         RelationAdapter relationAdapter = (RelationAdapter) adapterCache.get(aAnnotationLayer);
         if (silenceEvents) {
             relationAdapter.silenceEvents();
+            // Without the events, cached information derived from the CAS cannot be updated
+            // selectively
+            markModified(aTargetCas);
         }
 
         if (existsEquivalentAt(aTargetCas, relationAdapter, aSourceFs)) {
@@ -614,6 +622,9 @@ public class CasMerge
         TypeAdapter adapter = adapterCache.get(aAnnotationLayer);
         if (silenceEvents) {
             adapter.silenceEvents();
+            // Without the events, cached information derived from the CAS cannot be updated
+            // selectively
+            markModified(aTargetCas);
         }
 
         List<AnnotationFS> candidateHosts = getCandidateAnnotations(aTargetCas, adapter, aSourceFs);
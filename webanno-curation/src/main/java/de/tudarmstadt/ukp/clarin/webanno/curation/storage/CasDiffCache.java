@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.uima.cas.CAS;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Keeps diff results for documents around until one of the annotator CASes changes. If only some
+ * of the annotator CASes have changed, only the contributions of these annotators are
+ * recalculated.
+ * <p>
+ * Changes are detected using the CAS timestamps maintained by the CAS storage. The CASes passed
+ * to the cache must therefore be CASes which have been read from the storage and which have not
+ * been modified in memory.
+ */
+public interface CasDiffCache
+{
+    String SERVICE_NAME = "casDiffCache";
+
+    /**
+     * Get the differences between the annotator CASes for the given documents.
+     * 
+     * @param aDocuments
+     *            the documents. The CAS lists in the CAS map must be aligned with this list.
+     * @param aAdapters
+     *            a set of diff adapters telling how the diff algorithm should handle different
+     *            features
+     * @param aLinkCompareBehavior
+     *            the link compare behavior.
+     * @param aCasMap
+     *            a set of CASes, each associated with a user name. Elements of the lists may be
+     *            {@code null} if a user has no CAS for a document.
+     * @return the diff result.
+     * @throws IOException
+     *             if the CAS timestamps cannot be obtained.
+     */
+    DiffResult getDiff(List<SourceDocument> aDocuments, List<? extends DiffAdapter> aAdapters,
+            LinkCompareBehavior aLinkCompareBehavior, Map<String, List<CAS>> aCasMap)
+        throws IOException;
+
+    /**
+     * Get the differences between the annotator CASes for the given document.
+     * 
+     * @see #getDiff(List, List, LinkCompareBehavior, Map)
+     */
+    default DiffResult getDiffSingle(SourceDocument aDocument,
+            List<? extends DiffAdapter> aAdapters, LinkCompareBehavior aLinkCompareBehavior,
+            Map<String, CAS> aCasMap)
+        throws IOException
+    {
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        for (Entry<String, CAS> e : aCasMap.entrySet()) {
+            casMap.put(e.getKey(), asList(e.getValue()));
+        }
+
+        return getDiff(singletonList(aDocument), aAdapters, aLinkCompareBehavior, casMap);
+    }
+}
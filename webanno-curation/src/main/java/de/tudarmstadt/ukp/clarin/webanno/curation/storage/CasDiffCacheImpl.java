@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+@Component(CasDiffCache.SERVICE_NAME)
+public class CasDiffCacheImpl
+    implements CasDiffCache
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final int MAX_ENTRIES = 100;
+    private static final Duration IDLE_TIMEOUT = Duration.ofMinutes(30);
+
+    private final CasStorageService casStorageService;
+
+    private final Cache<DiffKey, CachedDiff> cache;
+
+    @Autowired
+    public CasDiffCacheImpl(CasStorageService aCasStorageService)
+    {
+        casStorageService = aCasStorageService;
+        cache = Caffeine.newBuilder() //
+                .maximumSize(MAX_ENTRIES) //
+                .expireAfterAccess(IDLE_TIMEOUT) //
+                .build();
+    }
+
+    @Override
+    public DiffResult getDiff(List<SourceDocument> aDocuments,
+            List<? extends DiffAdapter> aAdapters, LinkCompareBehavior aLinkCompareBehavior,
+            Map<String, List<CAS>> aCasMap)
+        throws IOException
+    {
+        Validate.notNull(aDocuments, "Documents must be specified");
+        for (List<CAS> casList : aCasMap.values()) {
+            Validate.isTrue(casList.size() == aDocuments.size(),
+                    "CAS lists must be aligned with the documents");
+        }
+
+        DiffKey key = new DiffKey(aDocuments, aAdapters, aLinkCompareBehavior, aCasMap.keySet());
+
+        Map<String, List<CasVersion>> versions = getVersions(aDocuments, aCasMap);
+
+        CachedDiff cached = cache.getIfPresent(key);
+
+        List<String> changedCasGroupIds = new ArrayList<>();
+        if (cached != null) {
+            for (Entry<String, List<CasVersion>> e : versions.entrySet()) {
+                if (!e.getValue().equals(cached.versions.get(e.getKey()))) {
+                    changedCasGroupIds.add(e.getKey());
+                }
+            }
+
+            if (changedCasGroupIds.isEmpty()) {
+                log.trace("Using cached diff for {}", aDocuments);
+                return cached.result;
+            }
+        }
+
+        CasDiff diff;
+        // If most of the CASes have changed, it is cheaper to calculate the diff from scratch
+        if (cached == null || changedCasGroupIds.size() * 2 > aCasMap.size()) {
+            diff = doDiff(aAdapters, aLinkCompareBehavior, aCasMap, -1, -1,
+                    ForkJoinPool.commonPool());
+        }
+        else {
+            log.trace("Recalculating cached diff for {} of {}", changedCasGroupIds, aDocuments);
+            diff = cached.diff.copy();
+            diff.attach(aCasMap);
+            for (String casGroupId : changedCasGroupIds) {
+                diff.recalculate(casGroupId, aCasMap.get(casGroupId));
+            }
+        }
+
+        DiffResult result = diff.toResult();
+        // Do not keep the CASes in memory via the cache
+        diff.detach();
+        // The diff adds document metadata to CASes which do not have any yet, so we need to
+        // obtain the versions again
+        cache.put(key, new CachedDiff(diff, result, getVersions(aDocuments, aCasMap)));
+
+        return result;
+    }
+
+    private Map<String, List<CasVersion>> getVersions(List<SourceDocument> aDocuments,
+            Map<String, List<CAS>> aCasMap)
+        throws IOException
+    {
+        Map<String, List<CasVersion>> versions = new LinkedHashMap<>();
+        for (Entry<String, List<CAS>> e : aCasMap.entrySet()) {
+            List<CasVersion> casVersions = new ArrayList<>();
+            for (int i = 0; i < aDocuments.size(); i++) {
+                casVersions.add(getVersion(aDocuments.get(i), e.getKey(), e.getValue().get(i)));
+            }
+            versions.put(e.getKey(), casVersions);
+        }
+        return versions;
+    }
+
+    private CasVersion getVersion(SourceDocument aDocument, String aUser, CAS aCas)
+        throws IOException
+    {
+        if (aCas == null) {
+            return new CasVersion(-1, -1);
+        }
+
+        long timestamp = casStorageService.getCasTimestamp(aDocument, aUser).orElse(-1l);
+        // The timestamp of the CAS on disk does not change if the CAS is modified in memory or
+        // if it is upgraded on load. Changes like this usually change the number of feature
+        // structures, so we use it as an additional safeguard.
+        int lastUsedFsId = ((CASImpl) getRealCas(aCas)).getBaseCAS().getLastUsedFsId();
+        return new CasVersion(timestamp, lastUsedFsId);
+    }
+
+    private static final class CachedDiff
+    {
+        private final CasDiff diff;
+        private final DiffResult result;
+        private final Map<String, List<CasVersion>> versions;
+
+        public CachedDiff(CasDiff aDiff, DiffResult aResult,
+                Map<String, List<CasVersion>> aVersions)
+        {
+            diff = aDiff;
+            result = aResult;
+            versions = aVersions;
+        }
+    }
+
+    private static final class CasVersion
+    {
+        private final long timestamp;
+        private final int lastUsedFsId;
+
+        public CasVersion(long aTimestamp, int aLastUsedFsId)
+        {
+            timestamp = aTimestamp;
+            lastUsedFsId = aLastUsedFsId;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof CasVersion)) {
+                return false;
+            }
+            CasVersion other = (CasVersion) aOther;
+            return timestamp == other.timestamp && lastUsedFsId == other.lastUsedFsId;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(timestamp, lastUsedFsId);
+        }
+    }
+
+    private static final class DiffKey
+    {
+        private final List<Long> documentIds = new ArrayList<>();
+        private final List<String> adapters = new ArrayList<>();
+        private final LinkCompareBehavior linkCompareBehavior;
+        private final List<String> casGroupIds;
+
+        public DiffKey(List<SourceDocument> aDocuments, List<? extends DiffAdapter> aAdapters,
+                LinkCompareBehavior aLinkCompareBehavior, Iterable<String> aCasGroupIds)
+        {
+            for (SourceDocument doc : aDocuments) {
+                documentIds.add(doc.getId());
+            }
+
+            for (DiffAdapter adapter : aAdapters) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(adapter.getClass().getName()).append(':').append(adapter.getType());
+                for (String feature : new TreeSet<>(adapter.getLabelFeatures())) {
+                    sb.append(' ').append(feature);
+                    if (adapter.getLinkFeature(feature) != null) {
+                        sb.append(adapter.getLinkFeature(feature));
+                    }
+                }
+                adapters.add(sb.toString());
+            }
+
+            linkCompareBehavior = aLinkCompareBehavior;
+
+            casGroupIds = new ArrayList<>();
+            aCasGroupIds.forEach(casGroupIds::add);
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof DiffKey)) {
+                return false;
+            }
+            DiffKey other = (DiffKey) aOther;
+            return documentIds.equals(other.documentIds) && adapters.equals(other.adapters)
+                    && linkCompareBehavior == other.linkCompareBehavior
+                    && casGroupIds.equals(other.casGroupIds);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(documentIds, adapters, linkCompareBehavior, casGroupIds);
+        }
+    }
+}
@@ -27,17 +27,23 @@ import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_TARGET_AS_LABEL;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter.DEPENDENCY_DIFF_ADAPTER;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.NER_DIFF_ADAPTER;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.POS_DIFF_ADAPTER;
 import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
 import static org.apache.uima.fit.factory.JCasFactory.createJCas;
 import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Type;
@@ -54,6 +60,9 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.ThreadLockingInvocationHandler;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
@@ -657,6 +666,228 @@ public class CasDiffTest
         // assertEquals(0.0, agreement.getAgreement(), 0.00001d);
     }
 
+    @Test
+    public void stackedSpansWithDifferentLabelsTest() throws Exception
+    {
+        JCas user1 = JCasFactory.createText("John");
+        makeNamedEntity(user1, "PER");
+        makeNamedEntity(user1, "LOC");
+
+        JCas user2 = JCasFactory.createText("John");
+        makeNamedEntity(user2, "LOC");
+        makeNamedEntity(user2, "PER");
+
+        JCas user3 = JCasFactory.createText("John");
+        makeNamedEntity(user3, "PER");
+        makeNamedEntity(user3, null);
+
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(user1.getCas()));
+        casByUser.put("user2", asList(user2.getCas()));
+        casByUser.put("user3", asList(user3.getCas()));
+
+        List<? extends DiffAdapter> diffAdapters = asList(NER_DIFF_ADAPTER);
+
+        DiffResult diff = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser).toResult();
+
+        assertEquals(1, diff.size());
+        ConfigurationSet configSet = diff.getConfigurationSets().iterator().next();
+        assertEquals(3, configSet.getConfigurations().size());
+        assertThat(configSet.getConfigurations())
+                .extracting(cfg -> (List<String>) new ArrayList<>(cfg.getCasGroupIds()))
+                .containsExactlyInAnyOrder(asList("user1", "user2", "user3"),
+                        asList("user1", "user2"), asList("user3"));
+    }
+
+    @Test
+    public void parallelDiffProducesSameResultAsSerialDiff() throws Exception
+    {
+        Random rnd = new Random(42);
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        for (int user = 0; user < 4; user++) {
+            List<CAS> casses = new ArrayList<>();
+            for (int doc = 0; doc < 3; doc++) {
+                // Users may not have worked on all documents
+                if (user == 3 && doc == 1) {
+                    casses.add(null);
+                    continue;
+                }
+
+                casses.add(makeRandomCas(rnd));
+            }
+            casByUser.put("user" + user, casses);
+        }
+
+        List<? extends DiffAdapter> diffAdapters = asList(POS_DIFF_ADAPTER, NER_DIFF_ADAPTER);
+
+        DiffResult serial = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser).toResult();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            DiffResult parallel = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser, -1, -1,
+                    pool).toResult();
+
+            assertThat(toString(parallel)).isEqualTo(toString(serial));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelDiffWorksOnThreadLockedCases() throws Exception
+    {
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        Map<String, List<CAS>> lockedCasByUser = new LinkedHashMap<>();
+        for (String role : asList("slot1", "slot1", "slot2")) {
+            JCas jcas = createJCas(createMultiLinkWithRoleTestTypeSystem());
+            makeLinkHostFS(jcas, 0, 0, makeLinkFS(jcas, role, 0, 0));
+            makeLinkHostFS(jcas, 10, 10, makeLinkFS(jcas, "slot1", 10, 10));
+
+            // Only the calling thread may access the CAS through the proxy
+            CAS cas = jcas.getCas();
+            String user = "user" + casByUser.size();
+            casByUser.put(user, asList(cas));
+            lockedCasByUser.put(user, asList((CAS) Proxy.newProxyInstance(
+                    cas.getClass().getClassLoader(), new Class[] { CAS.class },
+                    new ThreadLockingInvocationHandler(cas))));
+        }
+
+        // Comparing the link features requires looking up the representative of each
+        // configuration in its CAS
+        SpanDiffAdapter adapter = new SpanDiffAdapter(HOST_TYPE);
+        adapter.addLinkFeature("links", "role", "target");
+        List<? extends DiffAdapter> diffAdapters = asList(adapter);
+
+        DiffResult serial = doDiff(diffAdapters, LINK_ROLE_AS_LABEL, casByUser).toResult();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            DiffResult parallel = doDiff(diffAdapters, LINK_ROLE_AS_LABEL, lockedCasByUser, -1,
+                    -1, pool).toResult();
+
+            assertThat(toString(parallel)).isEqualTo(toString(serial));
+            assertThat(parallel.getDifferingConfigurationSets()).hasSize(1);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void recalculatedDiffMatchesNewDiff() throws Exception
+    {
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(makeRandomCas(new Random(1))));
+        casByUser.put("user2", asList(makeRandomCas(new Random(2))));
+        casByUser.put("user3", asList(makeRandomCas(new Random(3))));
+
+        List<? extends DiffAdapter> diffAdapters = asList(POS_DIFF_ADAPTER, NER_DIFF_ADAPTER);
+
+        CasDiff diff = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser);
+        DiffResult oldResult = diff.toResult();
+        String oldDump = toString(oldResult);
+        diff.detach();
+
+        casByUser.put("user2", asList(makeRandomCas(new Random(4))));
+
+        CasDiff recalculated = diff.copy();
+        recalculated.attach(casByUser);
+        recalculated.recalculate("user2", casByUser.get("user2"));
+
+        DiffResult expected = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser).toResult();
+        DiffResult actual = recalculated.toResult();
+
+        assertThat(actual.getPositions()).extracting(Object::toString).containsExactlyElementsOf(
+                expected.getPositions().stream().map(Object::toString).collect(toList()));
+        for (ConfigurationSet expectedSet : expected.getConfigurationSets()) {
+            ConfigurationSet actualSet = actual.getConfigurationSet(expectedSet.getPosition());
+            assertThat(actualSet.getCasGroupIds())
+                    .containsExactlyInAnyOrderElementsOf(expectedSet.getCasGroupIds());
+            assertThat(actualSet.getConfigurations()).extracting(Configuration::toString)
+                    .containsExactlyInAnyOrderElementsOf(expectedSet.getConfigurations().stream()
+                            .map(Configuration::toString).collect(toList()));
+            assertThat(actual.isAgreement(actualSet))
+                    .isEqualTo(expected.isAgreement(expectedSet));
+            assertThat(actual.isComplete(actualSet)).isEqualTo(expected.isComplete(expectedSet));
+        }
+
+        // Results obtained before the recalculation are not affected
+        assertThat(toString(oldResult)).isEqualTo(oldDump);
+    }
+
+    @Test
+    public void subsetMatchesDiffOverSubsetOfCasGroups() throws Exception
+    {
+        Random rnd = new Random(7);
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        for (int user = 0; user < 4; user++) {
+            casByUser.put("user" + user, asList(makeRandomCas(rnd), makeRandomCas(rnd)));
+        }
+
+        List<? extends DiffAdapter> diffAdapters = asList(POS_DIFF_ADAPTER, NER_DIFF_ADAPTER);
+
+        CasDiff diff = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser);
+
+        Map<String, List<CAS>> pairCasMap = new LinkedHashMap<>();
+        pairCasMap.put("user2", casByUser.get("user2"));
+        pairCasMap.put("user0", casByUser.get("user0"));
+
+        DiffResult expected = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, pairCasMap).toResult();
+        DiffResult actual = diff.subset(pairCasMap.keySet()).toResult();
+
+        assertThat(actual.getPositions()).extracting(Object::toString).containsExactlyElementsOf(
+                expected.getPositions().stream().map(Object::toString).collect(toList()));
+        for (ConfigurationSet expectedSet : expected.getConfigurationSets()) {
+            ConfigurationSet actualSet = actual.getConfigurationSet(expectedSet.getPosition());
+            assertThat(actualSet.getCasGroupIds())
+                    .containsExactlyInAnyOrderElementsOf(expectedSet.getCasGroupIds());
+            assertThat(actualSet.getConfigurations()).extracting(Configuration::toString)
+                    .containsExactlyInAnyOrderElementsOf(expectedSet.getConfigurations().stream()
+                            .map(Configuration::toString).collect(toList()));
+            assertThat(actual.isAgreement(actualSet))
+                    .isEqualTo(expected.isAgreement(expectedSet));
+            assertThat(actual.isComplete(actualSet)).isEqualTo(expected.isComplete(expectedSet));
+        }
+    }
+
+    private static CAS makeRandomCas(Random aRnd) throws Exception
+    {
+        JCas jcas = JCasFactory.createText("a b c d e f g h");
+        for (int begin = 0; begin < 15; begin += 2) {
+            POS pos = new POS(jcas, begin, begin + 1);
+            pos.setPosValue(aRnd.nextBoolean() ? "NN" : "VB");
+            pos.addToIndexes();
+
+            for (int i = aRnd.nextInt(3); i > 0; i--) {
+                NamedEntity ne = new NamedEntity(jcas, begin, begin + 1);
+                ne.setValue(aRnd.nextBoolean() ? "PER" : "LOC");
+                ne.addToIndexes();
+            }
+        }
+        return jcas.getCas();
+    }
+
+    private static String toString(DiffResult aResult)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (ConfigurationSet configSet : aResult.getConfigurationSets()) {
+            sb.append(configSet.getPosition()).append(" ").append(configSet.getCasGroupIds())
+                    .append("\n");
+            for (Configuration cfg : configSet.getConfigurations()) {
+                sb.append("  ").append(cfg).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void makeNamedEntity(JCas aJCas, String aValue)
+    {
+        NamedEntity ne = new NamedEntity(aJCas, 0, aJCas.getDocumentText().length());
+        ne.setValue(aValue);
+        ne.addToIndexes();
+    }
+
     @Rule
     public DkproTestContext testContext = new DkproTestContext();
 }
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_TARGET_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.NER_DIFF_ADAPTER;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+public class CasDiffCacheImplTest
+{
+    private @Mock CasStorageService casStorageService;
+
+    private CasDiffCacheImpl sut;
+    private SourceDocument document;
+    private List<? extends DiffAdapter> adapters;
+    private Map<String, Long> timestamps;
+    private Map<String, CAS> casses;
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        timestamps = new HashMap<>();
+        when(casStorageService.getCasTimestamp(any(), anyString()))
+                .thenAnswer(call -> Optional.ofNullable(timestamps.get(call.getArgument(1))));
+
+        sut = new CasDiffCacheImpl(casStorageService);
+
+        Project project = new Project();
+        project.setId(1l);
+        document = new SourceDocument("doc", project, "text");
+        document.setId(1l);
+
+        adapters = asList(NER_DIFF_ADAPTER);
+
+        casses = new LinkedHashMap<>();
+        casses.put("user1", makeCas("PER"));
+        casses.put("user2", makeCas("PER"));
+        casses.put("user3", makeCas("LOC"));
+        timestamps.put("user1", 1l);
+        timestamps.put("user2", 1l);
+        timestamps.put("user3", 1l);
+    }
+
+    @Test
+    public void thatUnchangedDiffIsReused() throws Exception
+    {
+        DiffResult diff1 = sut.getDiffSingle(document, adapters, LINK_TARGET_AS_LABEL, casses);
+        DiffResult diff2 = sut.getDiffSingle(document, adapters, LINK_TARGET_AS_LABEL, casses);
+
+        assertThat(diff2).isSameAs(diff1);
+    }
+
+    @Test
+    public void thatChangedCasIsRecalculated() throws Exception
+    {
+        DiffResult diff1 = sut.getDiffSingle(document, adapters, LINK_TARGET_AS_LABEL, casses);
+        ConfigurationSet set1 = diff1.getConfigurationSets().iterator().next();
+        assertThat(diff1.isAgreement(set1)).isFalse();
+
+        casses.put("user3", makeCas("PER"));
+        timestamps.put("user3", 2l);
+
+        DiffResult diff2 = sut.getDiffSingle(document, adapters, LINK_TARGET_AS_LABEL, casses);
+        ConfigurationSet set2 = diff2.getConfigurationSets().iterator().next();
+
+        assertThat(diff2).isNotSameAs(diff1);
+        assertThat(diff2.isAgreement(set2)).isTrue();
+        assertThat(diff2.isComplete(set2)).isTrue();
+        assertThat(set2.getConfigurations().get(0).getCasGroupIds())
+                .containsExactly("user1", "user2", "user3");
+        // The previous result is not affected
+        assertThat(diff1.isAgreement(set1)).isFalse();
+    }
+
+    @Test
+    public void thatDeletedAnnotationsAreRemoved() throws Exception
+    {
+        sut.getDiffSingle(document, adapters, LINK_TARGET_AS_LABEL, casses);
+
+        casses.put("user3", JCasFactory.createText("John").getCas());
+        timestamps.put("user3", 2l);
+
+        DiffResult diff = sut.getDiffSingle(document, adapters, LINK_TARGET_AS_LABEL, casses);
+        ConfigurationSet set = diff.getConfigurationSets().iterator().next();
+
+        assertThat(diff.getConfigurationSets()).hasSize(1);
+        assertThat(set.getConfigurations()).hasSize(1);
+        assertThat(set.getCasGroupIds()).containsExactly("user1", "user2");
+        assertThat(diff.isComplete(set)).isFalse();
+    }
+
+    private static CAS makeCas(String aValue) throws Exception
+    {
+        JCas jcas = JCasFactory.createText("John");
+        NamedEntity ne = new NamedEntity(jcas, 0, 4);
+        ne.setValue(aValue);
+        ne.addToIndexes();
+        return jcas.getCas();
+    }
+}
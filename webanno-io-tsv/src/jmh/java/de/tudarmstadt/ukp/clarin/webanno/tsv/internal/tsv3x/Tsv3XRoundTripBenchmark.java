@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullWriter;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvDocument;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+/**
+ * Compares writing and reading WebAnno TSV 3.x documents with the complete document being built
+ * in memory and with the document being built/completed one sentence at a time. Running with
+ * {@code -prof gc} additionally shows the allocation rates of both modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Tsv3XRoundTripBenchmark
+{
+    private static final String[] NE_LABELS = { "PER", "LOC", "ORG", "MISC", "OTH" };
+    private static final String[] POS_LABELS = { "NN", "VB", "JJ", "DT", "IN", "RB" };
+    private static final int TOKENS_PER_SENTENCE = 20;
+
+    @Param({ "1000", "10000" })
+    public int sentences;
+
+    @Param({ "false", "true" })
+    public boolean streaming;
+
+    private JCas source;
+    private String tsv;
+    private JCas target;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < sentences * TOKENS_PER_SENTENCE; i++) {
+            text.append("token ");
+        }
+
+        // Fixed seed so that all runs compare the same data
+        Random rnd = new Random(42);
+        source = JCasFactory.createText(text.toString());
+        for (int s = 0; s < sentences; s++) {
+            int sentenceBegin = s * TOKENS_PER_SENTENCE * 6;
+            new Sentence(source, sentenceBegin, sentenceBegin + TOKENS_PER_SENTENCE * 6 - 1)
+                    .addToIndexes();
+
+            Token prev = null;
+            for (int t = 0; t < TOKENS_PER_SENTENCE; t++) {
+                int begin = sentenceBegin + t * 6;
+                int end = begin + 5;
+
+                Token token = new Token(source, begin, end);
+                POS pos = new POS(source, begin, end);
+                pos.setPosValue(POS_LABELS[rnd.nextInt(POS_LABELS.length)]);
+                pos.addToIndexes();
+                token.setPos(pos);
+                Lemma lemma = new Lemma(source, begin, end);
+                lemma.setValue("token");
+                lemma.addToIndexes();
+                token.setLemma(lemma);
+                token.addToIndexes();
+
+                if (prev != null) {
+                    Dependency dep = new Dependency(source, begin, end);
+                    dep.setGovernor(prev);
+                    dep.setDependent(token);
+                    dep.setDependencyType("dep");
+                    dep.addToIndexes();
+                }
+                prev = token;
+
+                // Multi-token named entities, some of them stacked
+                if (t % 5 == 0) {
+                    NamedEntity ne = new NamedEntity(source, begin, end + 6);
+                    ne.setValue(NE_LABELS[rnd.nextInt(NE_LABELS.length)]);
+                    ne.addToIndexes();
+                    if (rnd.nextInt(10) == 0) {
+                        NamedEntity stacked = new NamedEntity(source, begin, end);
+                        stacked.setValue(NE_LABELS[rnd.nextInt(NE_LABELS.length)]);
+                        stacked.addToIndexes();
+                    }
+                }
+            }
+        }
+
+        tsv = write(new StringWriter(), false).toString();
+        target = JCasFactory.createJCas();
+
+        if (!tsv.equals(write(new StringWriter(), true).toString())) {
+            throw new IllegalStateException("Streaming output differs from in-memory output");
+        }
+
+        read();
+        if (!tsv.equals(write(target, new StringWriter(), false).toString())) {
+            throw new IllegalStateException("Document read back differs from original document");
+        }
+    }
+
+    @Benchmark
+    public Writer write()
+    {
+        return write(NullWriter.NULL_WRITER, streaming);
+    }
+
+    @Benchmark
+    public JCas read() throws IOException
+    {
+        target.reset();
+        try (LineNumberReader in = new LineNumberReader(new StringReader(tsv))) {
+            new Tsv3XDeserializer(streaming).read(in, target);
+        }
+        return target;
+    }
+
+    private Writer write(Writer aWriter, boolean aStreaming)
+    {
+        return write(source, aWriter, aStreaming);
+    }
+
+    private Writer write(JCas aJCas, Writer aWriter, boolean aStreaming)
+    {
+        TsvSchema schema = Tsv3XCasSchemaAnalyzer.analyze(aJCas.getTypeSystem());
+        PrintWriter out = new PrintWriter(aWriter);
+        if (aStreaming) {
+            Tsv3XCasStreamingDocumentBuilder builder = Tsv3XCasStreamingDocumentBuilder.of(schema,
+                    aJCas);
+            new Tsv3XSerializer().write(out, builder.getDocument(), builder);
+        }
+        else {
+            TsvDocument doc = Tsv3XCasDocumentBuilder.of(schema, aJCas);
+            new Tsv3XSerializer().write(out, doc);
+        }
+        out.flush();
+        return aWriter;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder().include(Tsv3XRoundTripBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
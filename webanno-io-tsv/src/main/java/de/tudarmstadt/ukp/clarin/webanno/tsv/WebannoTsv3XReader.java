@@ -42,6 +42,15 @@ public class WebannoTsv3XReader
     @ConfigurationParameter(name = PARAM_ENCODING, mandatory = true, defaultValue = "UTF-8")
     private String encoding;
 
+    /**
+     * Complete every sentence as soon as it has been read instead of keeping all annotations in
+     * an intermediate representation until the whole document has been read. This reduces the
+     * memory required for large documents. The resulting CAS is the same in either case.
+     */
+    public static final String PARAM_STREAMING = "streaming";
+    @ConfigurationParameter(name = PARAM_STREAMING, mandatory = true, defaultValue = "false")
+    private boolean streaming;
+
     @Override
     public void getNext(JCas aJCas) throws IOException, CollectionException
     {
@@ -50,7 +59,7 @@ public class WebannoTsv3XReader
 
         try (LineNumberReader br = new LineNumberReader(
                 new InputStreamReader(res.getInputStream(), encoding))) {
-            new Tsv3XDeserializer().read(br, aJCas);
+            new Tsv3XDeserializer(streaming).read(br, aJCas);
         }
     }
 }
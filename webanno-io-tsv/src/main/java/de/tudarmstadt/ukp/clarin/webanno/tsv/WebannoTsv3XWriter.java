@@ -29,11 +29,14 @@ import org.apache.uima.jcas.JCas;
 import org.dkpro.core.api.io.JCasFileWriter_ImplBase;
 import org.dkpro.core.api.parameter.ComponentParameters;
 
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.StreamingUnsupportedException;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Tsv3XCasDocumentBuilder;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Tsv3XCasSchemaAnalyzer;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Tsv3XCasStreamingDocumentBuilder;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Tsv3XSerializer;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvDocument;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSentence;
 
 /**
  * Writes the WebAnno TSV v3.x format.
@@ -55,19 +58,50 @@ public class WebannoTsv3XWriter
     @ConfigurationParameter(name = PARAM_FILENAME_EXTENSION, mandatory = true, defaultValue = ".tsv")
     private String filenameSuffix;
 
+    /**
+     * Build and write the document one sentence at a time instead of building the complete TSV
+     * document in memory before writing it. This reduces the memory required for large documents
+     * at the expense of processing the annotations twice. The output is the same in either case.
+     */
+    public static final String PARAM_STREAMING = "streaming";
+    @ConfigurationParameter(name = PARAM_STREAMING, mandatory = true, defaultValue = "false")
+    private boolean streaming;
+
     @Override
     public void process(JCas aJCas) throws AnalysisEngineProcessException
     {
         TsvSchema schema = Tsv3XCasSchemaAnalyzer.analyze(aJCas.getTypeSystem());
 
-        TsvDocument doc = Tsv3XCasDocumentBuilder.of(schema, aJCas);
+        TsvDocument doc;
+        Iterable<TsvSentence> sentences;
+        Tsv3XCasStreamingDocumentBuilder builder = streaming ? buildStreaming(schema, aJCas) : null;
+        if (builder != null) {
+            doc = builder.getDocument();
+            sentences = builder;
+        }
+        else {
+            doc = Tsv3XCasDocumentBuilder.of(schema, aJCas);
+            sentences = doc.getSentences();
+        }
 
         try (PrintWriter docOS = new PrintWriter(
                 new OutputStreamWriter(buffer(getOutputStream(aJCas, filenameSuffix)), encoding))) {
-            new Tsv3XSerializer().write(docOS, doc);
+            new Tsv3XSerializer().write(docOS, doc, sentences);
         }
         catch (IOException e) {
             throw new AnalysisEngineProcessException(e);
         }
     }
+
+    private Tsv3XCasStreamingDocumentBuilder buildStreaming(TsvSchema aSchema, JCas aJCas)
+    {
+        try {
+            return Tsv3XCasStreamingDocumentBuilder.of(aSchema, aJCas);
+        }
+        catch (StreamingUnsupportedException e) {
+            getLogger().warn("Unable to stream document, building it in memory instead: "
+                    + e.getMessage());
+            return null;
+        }
+    }
 }
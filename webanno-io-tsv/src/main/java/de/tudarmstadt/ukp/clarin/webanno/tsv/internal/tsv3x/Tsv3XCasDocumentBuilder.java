@@ -41,6 +41,7 @@ import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FeatureStructure;
@@ -80,20 +81,7 @@ public class Tsv3XCasDocumentBuilder
         }
 
         // Scan for chains
-        for (Type headType : aSchema.getChainHeadTypes()) {
-            for (FeatureStructure chainHead : CasUtil.selectFS(aJCas.getCas(), headType)) {
-                List<AnnotationFS> elements = new ArrayList<>();
-                AnnotationFS link = getFeature(chainHead, CHAIN_FIRST_FEAT, AnnotationFS.class);
-                while (link != null) {
-                    elements.add(link);
-                    link = getFeature(link, CHAIN_NEXT_FEAT, AnnotationFS.class);
-                }
-                if (!elements.isEmpty()) {
-                    Type elementType = headType.getFeatureByBaseName(CHAIN_FIRST_FEAT).getRange();
-                    doc.createChain(headType, elementType, elements);
-                }
-            }
-        }
+        scanChains(doc);
 
         // Build indexes over the token start and end positions such that we can quickly locate
         // tokens based on their offsets.
@@ -273,31 +261,56 @@ public class Tsv3XCasDocumentBuilder
         for (TsvSentence sentence : doc.getSentences()) {
             for (TsvToken token : sentence.getTokens()) {
                 scanUnitForActiveColumns(token);
-                scanUnitForAmbiguousSlotReferences(token);
+                scanUnitForAmbiguousSlotReferences(token, doc::addDisambiguationId);
                 for (TsvSubToken subToken : token.getSubTokens()) {
                     scanUnitForActiveColumns(subToken);
-                    scanUnitForAmbiguousSlotReferences(subToken);
+                    scanUnitForAmbiguousSlotReferences(subToken, doc::addDisambiguationId);
+                }
+            }
+        }
+
+        activatePlaceholderColumns(doc);
+
+        return doc;
+    }
+
+    static void scanChains(TsvDocument aDoc)
+    {
+        for (Type headType : aDoc.getSchema().getChainHeadTypes()) {
+            for (FeatureStructure chainHead : CasUtil.selectFS(aDoc.getJCas().getCas(),
+                    headType)) {
+                List<AnnotationFS> elements = new ArrayList<>();
+                AnnotationFS link = getFeature(chainHead, CHAIN_FIRST_FEAT, AnnotationFS.class);
+                while (link != null) {
+                    elements.add(link);
+                    link = getFeature(link, CHAIN_NEXT_FEAT, AnnotationFS.class);
+                }
+                if (!elements.isEmpty()) {
+                    Type elementType = headType.getFeatureByBaseName(CHAIN_FIRST_FEAT).getRange();
+                    aDoc.createChain(headType, elementType, elements);
                 }
             }
         }
+    }
 
-        // Activate the placeholder columns for any active types for which no other columns are
-        // active.
-        Set<Type> activeTypesNeedingPlaceholders = new HashSet<>(doc.getActiveTypes());
-        for (TsvColumn col : doc.getActiveColumns()) {
+    /**
+     * Activate the placeholder columns for any active types for which no other columns are active.
+     */
+    static void activatePlaceholderColumns(TsvDocument aDoc)
+    {
+        Set<Type> activeTypesNeedingPlaceholders = new HashSet<>(aDoc.getActiveTypes());
+        for (TsvColumn col : aDoc.getActiveColumns()) {
             activeTypesNeedingPlaceholders.remove(col.uimaType);
         }
-        for (TsvColumn col : doc.getSchema().getColumns()) {
+        for (TsvColumn col : aDoc.getSchema().getColumns()) {
             if (PLACEHOLDER.equals(col.featureType)
                     && activeTypesNeedingPlaceholders.contains(col.uimaType)) {
-                doc.activateColumn(col);
+                aDoc.activateColumn(col);
             }
         }
-
-        return doc;
     }
 
-    private static void scanUnitForActiveColumns(TsvUnit aUnit)
+    static void scanUnitForActiveColumns(TsvUnit aUnit)
     {
         for (TsvColumn col : aUnit.getDocument().getSchema().getColumns()) {
             List<AnnotationFS> annotationsForColumn = aUnit.getAnnotationsForColumn(col);
@@ -351,8 +364,14 @@ public class Tsv3XCasDocumentBuilder
     /**
      * If a slot feature has the target type Annotation, then any kind of annotation can be used as
      * slot filler. In this case, the targets are ambiguous and require an disambiguaton ID.
+     * 
+     * @param aUnit
+     *            the unit to scan.
+     * @param aAmbiguousTargetConsumer
+     *            receives the slot targets which require a disambiguation ID.
      */
-    private static void scanUnitForAmbiguousSlotReferences(TsvUnit aUnit)
+    static void scanUnitForAmbiguousSlotReferences(TsvUnit aUnit,
+            Consumer<AnnotationFS> aAmbiguousTargetConsumer)
     {
         for (TsvColumn col : aUnit.getDocument().getSchema().getColumns()) {
             if (SPAN.equals(col.layerType) && SLOT_TARGET.equals(col.featureType)
@@ -368,7 +387,7 @@ public class Tsv3XCasDocumentBuilder
                             if (targetFS == null) {
                                 throw new IllegalStateException("Slot link has no target: " + link);
                             }
-                            aUnit.getDocument().addDisambiguationId(targetFS);
+                            aAmbiguousTargetConsumer.accept(targetFS);
                         }
                     }
                 }
@@ -0,0 +1,682 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x;
+
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FeatureType.SLOT_TARGET;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.LayerType.CHAIN;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.LayerType.RELATION;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.LayerType.SPAN;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_REL_SOURCE;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_REL_TARGET;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_SLOT_TARGET;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static org.apache.uima.fit.util.FSUtil.getFeature;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.fit.util.JCasUtil.selectCovered;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.LayerType;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvColumn;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvDocument;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvFormatHeader;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSentence;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSubToken;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvToken;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvUnit;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Builds a {@link TsvDocument} one sentence at a time. In contrast to
+ * {@link Tsv3XCasDocumentBuilder#of(TsvSchema, JCas)}, only the units of a single sentence are
+ * held in memory at any time.
+ * <p>
+ * Creating the builder performs a pre-pass over all sentences which determines the active columns,
+ * the chains, the disambiguation IDs and the IDs of units which are referenced from other
+ * sentences. Iterating over the builder then builds the sentences again, one by one. Every
+ * sentence replaces the previous one in the document, so a sentence must be consumed before the
+ * next one is requested. The sentences are the same as those of a document built by
+ * {@link Tsv3XCasDocumentBuilder}.
+ * <p>
+ * Documents in which the token offsets are not ordered or in which relations do not follow the
+ * DKPro Core convention of having the same offsets as their target cannot be built this way. In
+ * this case, a {@link StreamingUnsupportedException} is thrown when the builder is created.
+ */
+public class Tsv3XCasStreamingDocumentBuilder
+    implements Iterable<TsvSentence>
+{
+    private static final long PHASE_ANNOTATIONS = 0;
+    private static final long PHASE_SLOT_REFERENCES = 1;
+
+    private final TsvDocument doc;
+    private final List<Sentence> sentences = new ArrayList<>();
+    private final List<Token> tokens = new ArrayList<>();
+    private final List<Type> types = new ArrayList<>();
+    // Index of the first token of every sentence plus the total number of tokens at the end
+    private int[] sentenceTokenOffsets;
+
+    // The following fields are only used during the pre-pass
+    private boolean prePass;
+    private Set<AnnotationFS> crossSentenceReferences;
+    private Map<AnnotationFS, long[]> disambiguationKeys;
+    private long slotReferenceCounter;
+    private String streamingUnsupportedReason;
+
+    private Tsv3XCasStreamingDocumentBuilder(TsvSchema aSchema, JCas aJCas)
+    {
+        TsvFormatHeader format = new TsvFormatHeader("WebAnno TSV", "3.3");
+        doc = new TsvDocument(format, aSchema, aJCas);
+    }
+
+    public static Tsv3XCasStreamingDocumentBuilder of(TsvSchema aSchema, JCas aJCas)
+        throws StreamingUnsupportedException
+    {
+        Tsv3XCasStreamingDocumentBuilder builder = new Tsv3XCasStreamingDocumentBuilder(aSchema,
+                aJCas);
+        builder.prepare();
+        return builder;
+    }
+
+    /**
+     * @return the document. It contains the header information, the chains and the disambiguation
+     *         IDs, but at most the sentence which has been built last.
+     */
+    public TsvDocument getDocument()
+    {
+        return doc;
+    }
+
+    private void prepare() throws StreamingUnsupportedException
+    {
+        JCas jcas = doc.getJCas();
+        TsvSchema schema = doc.getSchema();
+
+        List<Integer> offsets = new ArrayList<>();
+        for (Sentence uimaSentence : select(jcas, Sentence.class)) {
+            sentences.add(uimaSentence);
+            offsets.add(tokens.size());
+            tokens.addAll(selectCovered(Token.class, uimaSentence));
+        }
+        offsets.add(tokens.size());
+        sentenceTokenOffsets = offsets.stream().mapToInt(Integer::intValue).toArray();
+
+        // Locating tokens by binary search requires the token offsets to be ordered
+        for (int i = 1; i < tokens.size(); i++) {
+            Token prev = tokens.get(i - 1);
+            Token cur = tokens.get(i);
+            if (prev.getBegin() > cur.getBegin() || prev.getEnd() > cur.getEnd()) {
+                throw new StreamingUnsupportedException(
+                        "Token offsets are not ordered at token: " + cur);
+            }
+        }
+
+        for (Type type : schema.getUimaTypes()) {
+            if (schema.getIgnoredTypes().contains(type)) {
+                continue;
+            }
+
+            types.add(type);
+
+            if (!CasUtil.select(jcas.getCas(), type).isEmpty()) {
+                doc.activateType(type);
+            }
+        }
+
+        Tsv3XCasDocumentBuilder.scanChains(doc);
+
+        crossSentenceReferences = findCrossSentenceReferences();
+        disambiguationKeys = new HashMap<>();
+        slotReferenceCounter = 0;
+        streamingUnsupportedReason = null;
+        prePass = true;
+        try {
+            for (TsvSentence sentence : this) {
+                if (streamingUnsupportedReason != null) {
+                    throw new StreamingUnsupportedException(streamingUnsupportedReason);
+                }
+
+                for (TsvToken token : sentence.getTokens()) {
+                    scanUnit(token);
+                    for (TsvSubToken subToken : token.getSubTokens()) {
+                        scanUnit(subToken);
+                    }
+                }
+            }
+        }
+        finally {
+            prePass = false;
+        }
+
+        // Assign the disambiguation IDs in the order in which Tsv3XCasDocumentBuilder assigns them
+        disambiguationKeys.entrySet().stream()
+                .sorted((a, b) -> Arrays.compare(a.getValue(), b.getValue()))
+                .forEach(e -> doc.addDisambiguationId(e.getKey()));
+
+        Tsv3XCasDocumentBuilder.activatePlaceholderColumns(doc);
+
+        crossSentenceReferences = null;
+        disambiguationKeys = null;
+        doc.clearSentences();
+    }
+
+    private void scanUnit(TsvUnit aUnit)
+    {
+        Tsv3XCasDocumentBuilder.scanUnitForActiveColumns(aUnit);
+        Tsv3XCasDocumentBuilder.scanUnitForAmbiguousSlotReferences(aUnit,
+                fs -> recordDisambiguationKey(fs, PHASE_SLOT_REFERENCES, slotReferenceCounter++));
+    }
+
+    /**
+     * Relation sources and slot targets are referenced using the ID of the unit defining their ID.
+     * If the source or target is located in another sentence than the annotation referencing it,
+     * the unit is not available when the referencing annotation is written. Thus, we record the
+     * unit IDs of these annotations during the pre-pass.
+     */
+    private Set<AnnotationFS> findCrossSentenceReferences()
+    {
+        Set<AnnotationFS> references = new HashSet<>();
+        for (Type type : types) {
+            LayerType layerType = doc.getSchema().getLayerType(type);
+            if (RELATION.equals(layerType)) {
+                for (AnnotationFS rel : CasUtil.select(doc.getJCas().getCas(), type)) {
+                    AnnotationFS target = getFeature(rel, FEAT_REL_TARGET, AnnotationFS.class);
+                    AnnotationFS source = getFeature(rel, FEAT_REL_SOURCE, AnnotationFS.class);
+                    if (target != null && source != null && !inSameSentence(target, source)) {
+                        references.add(source);
+                    }
+                }
+            }
+            else if (SPAN.equals(layerType)) {
+                for (TsvColumn col : doc.getSchema().getColumns(type)) {
+                    if (!SLOT_TARGET.equals(col.featureType)) {
+                        continue;
+                    }
+
+                    for (AnnotationFS host : CasUtil.select(doc.getJCas().getCas(), type)) {
+                        FeatureStructure[] links = getFeature(host, col.uimaFeature,
+                                FeatureStructure[].class);
+                        if (links == null) {
+                            continue;
+                        }
+
+                        for (FeatureStructure link : links) {
+                            AnnotationFS target = getFeature(link, FEAT_SLOT_TARGET,
+                                    AnnotationFS.class);
+                            if (target != null && !inSameSentence(host, target)) {
+                                references.add(target);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return references;
+    }
+
+    private boolean inSameSentence(AnnotationFS aFS1, AnnotationFS aFS2)
+    {
+        Placement p1 = new Placement(aFS1, -1, aFS1.getBegin(), aFS1.getEnd());
+        Placement p2 = new Placement(aFS2, -1, aFS2.getBegin(), aFS2.getEnd());
+        return p1.firstSentence == p1.lastSentence && p2.firstSentence == p2.lastSentence
+                && p1.firstSentence == p2.firstSentence;
+    }
+
+    private void recordDisambiguationKey(AnnotationFS aFS, long... aKey)
+    {
+        disambiguationKeys.merge(aFS, aKey, (a, b) -> Arrays.compare(a, b) <= 0 ? a : b);
+    }
+
+    @Override
+    public Iterator<TsvSentence> iterator()
+    {
+        List<TypeCursor> cursors = new ArrayList<>();
+        for (int i = 0; i < types.size(); i++) {
+            cursors.add(new TypeCursor(i, types.get(i)));
+        }
+
+        return new Iterator<TsvSentence>()
+        {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < sentences.size();
+            }
+
+            @Override
+            public TsvSentence next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                TsvSentence sentence = buildSentence(next, cursors);
+                next++;
+                return sentence;
+            }
+        };
+    }
+
+    private TsvSentence buildSentence(int aSentenceIndex, List<TypeCursor> aCursors)
+    {
+        doc.clearSentences();
+
+        TsvSentence sentence = doc.createSentence(sentences.get(aSentenceIndex),
+                aSentenceIndex + 1);
+        for (int i = sentenceTokenOffsets[aSentenceIndex]; i < sentenceTokenOffsets[aSentenceIndex
+                + 1]; i++) {
+            TsvToken token = sentence.createToken(tokens.get(i));
+            if (prePass && crossSentenceReferences.contains(token.getUimaToken())) {
+                doc.mapFS2UnitId(token.getUimaToken(), token.getId());
+            }
+        }
+
+        // Annotations are considered if they start before the first token of the next sentence.
+        // Annotations located in the space between two sentences may still belong to the next
+        // sentence - these remain pending until that sentence is built.
+        int nextTokenIndex = sentenceTokenOffsets[aSentenceIndex + 1];
+        int limit = nextTokenIndex < tokens.size() ? tokens.get(nextTokenIndex).getBegin()
+                : Integer.MAX_VALUE;
+
+        for (TypeCursor cursor : aCursors) {
+            cursor.advance(aSentenceIndex, limit);
+            for (Placement placement : cursor.pending) {
+                if (placement.firstSentence <= aSentenceIndex) {
+                    addToSentence(sentence, aSentenceIndex, cursor, placement);
+                }
+            }
+            cursor.pending.removeIf(p -> p.lastSentence <= aSentenceIndex);
+        }
+
+        return sentence;
+    }
+
+    /**
+     * Adds the given annotation to the units of the given sentence. This follows the logic of
+     * {@link Tsv3XCasDocumentBuilder#of(TsvSchema, JCas)} but skips all units outside the
+     * sentence. The {@code aCall} arguments passed to {@link #addToUnit} number the units in the
+     * order in which they are processed there.
+     */
+    private void addToSentence(TsvSentence aSentence, int aSentenceIndex, TypeCursor aCursor,
+            Placement aPlacement)
+    {
+        AnnotationFS annotation = aPlacement.annotation;
+        LayerType layerType = aCursor.layerType;
+        int begin = aPlacement.begin;
+        int end = aPlacement.end;
+
+        Token uimaBeginToken = tokens.get(aPlacement.beginToken);
+        Token uimaEndToken = tokens.get(aPlacement.endToken);
+        TsvToken beginToken = getToken(aSentence, aSentenceIndex, aPlacement.beginToken);
+        TsvToken endToken = getToken(aSentence, aSentenceIndex, aPlacement.endToken);
+
+        boolean singleToken = aPlacement.beginToken == aPlacement.endToken;
+        boolean zeroWitdh = begin == end;
+        boolean multiTokenCapable = SPAN.equals(layerType) || CHAIN.equals(layerType);
+
+        if (uimaBeginToken.getBegin() == begin && uimaEndToken.getEnd() == end) {
+            if (beginToken != null) {
+                mapFS2Unit(annotation, beginToken);
+                addToUnit(beginToken, aCursor, aPlacement, 1);
+            }
+
+            if (multiTokenCapable && endToken != null) {
+                addToUnit(endToken, aCursor, aPlacement, 2);
+            }
+        }
+        else if (zeroWitdh) {
+            if (beginToken != null) {
+                int position = min(beginToken.getEnd(), end);
+                if (position < beginToken.getBegin()) {
+                    position = beginToken.getBegin();
+                }
+                TsvSubToken t = beginToken.createSubToken(position, position);
+                mapFS2Unit(annotation, t);
+                addToUnit(t, aCursor, aPlacement, 1);
+            }
+        }
+        else {
+            if (uimaBeginToken.getBegin() < begin && beginToken != null) {
+                TsvSubToken t = beginToken.createSubToken(begin,
+                        min(beginToken.getEnd(), end));
+                mapFS2Unit(annotation, t);
+                addToUnit(t, aCursor, aPlacement, 1);
+            }
+
+            if (begin <= uimaBeginToken.getBegin() && uimaBeginToken.getEnd() <= end
+                    && beginToken != null) {
+                addToUnit(beginToken, aCursor, aPlacement, 2);
+                mapFS2Unit(annotation, beginToken);
+            }
+
+            if (uimaEndToken.getEnd() > end) {
+                if (endToken != null) {
+                    TsvSubToken t = endToken.createSubToken(max(endToken.getBegin(), begin),
+                            end);
+                    addToUnit(t, aCursor, aPlacement, 3);
+
+                    if (!singleToken) {
+                        mapFS2Unit(annotation, t);
+                    }
+                }
+            }
+            else if (!singleToken && multiTokenCapable && endToken != null) {
+                addToUnit(endToken, aCursor, aPlacement, 3);
+            }
+        }
+
+        // The annotation must also be added to all tokens between the begin token and the end
+        // token
+        if (multiTokenCapable && !singleToken) {
+            int first = max(aPlacement.beginToken + 1, sentenceTokenOffsets[aSentenceIndex]);
+            int last = min(aPlacement.endToken, sentenceTokenOffsets[aSentenceIndex + 1]);
+            for (int i = first; i < last; i++) {
+                addToUnit(getToken(aSentence, aSentenceIndex, i), aCursor, aPlacement,
+                        4 + i - aPlacement.beginToken);
+            }
+        }
+
+        // Multi-token span annotations must get a disambiguation ID
+        if (prePass && SPAN.equals(layerType) && !singleToken
+                && aPlacement.firstSentence == aSentenceIndex) {
+            recordDisambiguationKey(annotation, PHASE_ANNOTATIONS, aCursor.typeIndex,
+                    aPlacement.ordinal, Long.MAX_VALUE, 0);
+        }
+    }
+
+    private void addToUnit(TsvUnit aUnit, TypeCursor aCursor, Placement aPlacement, long aCall)
+    {
+        AnnotationFS annotation = aPlacement.annotation;
+
+        // Disambiguation IDs are only determined during the pre-pass. Thus, we have to check here
+        // if the annotation is stacked and not rely on TsvUnit.addUimaAnnotation to do it.
+        if (!prePass || !SPAN.equals(aCursor.layerType)) {
+            aUnit.addUimaAnnotation(annotation);
+            return;
+        }
+
+        Type effectiveType = doc.getSchema().getEffectiveType(annotation);
+        List<AnnotationFS> annotations = aUnit.getUimaAnnotations(effectiveType);
+        boolean stacked = annotations != null && !annotations.isEmpty()
+                && !annotations.contains(annotation);
+
+        aUnit.addUimaAnnotation(annotation);
+
+        if (stacked) {
+            annotations = aUnit.getUimaAnnotations(effectiveType);
+            for (int i = 0; i < annotations.size(); i++) {
+                recordDisambiguationKey(annotations.get(i), PHASE_ANNOTATIONS, aCursor.typeIndex,
+                        aPlacement.ordinal, aCall, i);
+            }
+        }
+    }
+
+    private void mapFS2Unit(AnnotationFS aFS, TsvUnit aUnit)
+    {
+        doc.mapFS2Unit(aFS, aUnit);
+        if (prePass && crossSentenceReferences.contains(aFS)) {
+            doc.mapFS2UnitId(aFS, aUnit.getId());
+        }
+    }
+
+    private TsvToken getToken(TsvSentence aSentence, int aSentenceIndex, int aTokenIndex)
+    {
+        int offset = sentenceTokenOffsets[aSentenceIndex];
+        if (aTokenIndex < offset || aTokenIndex >= sentenceTokenOffsets[aSentenceIndex + 1]) {
+            return null;
+        }
+        return aSentence.getTokens().get(aTokenIndex - offset);
+    }
+
+    private int getSentenceIndex(int aTokenIndex)
+    {
+        // Find the last sentence starting at or before the token - this skips sentences which do
+        // not contain any tokens
+        int lo = 0;
+        int hi = sentences.size() - 1;
+        int result = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sentenceTokenOffsets[mid] <= aTokenIndex) {
+                result = mid;
+                lo = mid + 1;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return index of the last token beginning at or before the given offset or {@code -1}.
+     */
+    private int lastTokenBeginningAtOrBefore(int aOffset)
+    {
+        int lo = 0;
+        int hi = tokens.size() - 1;
+        int result = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens.get(mid).getBegin() <= aOffset) {
+                result = mid;
+                lo = mid + 1;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return index of the last token ending at or before the given offset or {@code -1}.
+     */
+    private int lastTokenEndingAtOrBefore(int aOffset)
+    {
+        int lo = 0;
+        int hi = tokens.size() - 1;
+        int result = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens.get(mid).getEnd() <= aOffset) {
+                result = mid;
+                lo = mid + 1;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Equivalent to {@code tokenEndIndex.ceilingEntry(aOffset)} in
+     * {@link Tsv3XCasDocumentBuilder}. If multiple tokens end at the same offset, the last one is
+     * returned, just like the map there retains the last one.
+     */
+    private int tokenEndingAtOrAfter(int aOffset)
+    {
+        int first = lastTokenEndingAtOrBefore(aOffset - 1) + 1;
+        if (first >= tokens.size()) {
+            return -1;
+        }
+        return lastTokenEndingAtOrBefore(tokens.get(first).getEnd());
+    }
+
+    /**
+     * Equivalent to {@code tokenEndIndex.higherEntry(aOffset)} in
+     * {@link Tsv3XCasDocumentBuilder}.
+     */
+    private int tokenEndingAfter(int aOffset)
+    {
+        return tokenEndingAtOrAfter(aOffset + 1);
+    }
+
+    /**
+     * Equivalent to {@code tokenEndIndex.lowerEntry(aOffset)} in
+     * {@link Tsv3XCasDocumentBuilder}.
+     */
+    private int tokenEndingBefore(int aOffset)
+    {
+        return lastTokenEndingAtOrBefore(aOffset - 1);
+    }
+
+    /**
+     * The position of an annotation relative to the tokens. This is determined in the same way as
+     * in {@link Tsv3XCasDocumentBuilder#of(TsvSchema, JCas)}.
+     */
+    private final class Placement
+    {
+        private final AnnotationFS annotation;
+        private final int ordinal;
+        private final int begin;
+        private final int end;
+        private final int beginToken;
+        private final int endToken;
+        private final int firstSentence;
+        private final int lastSentence;
+
+        private Placement(AnnotationFS aAnnotation, int aOrdinal, int aBegin, int aEnd)
+        {
+            annotation = aAnnotation;
+            ordinal = aOrdinal;
+            begin = aBegin;
+            end = aEnd;
+
+            if (tokens.isEmpty()) {
+                throw new IllegalStateException(
+                        "Unable to place annotation in document without tokens: " + aAnnotation);
+            }
+
+            int b = lastTokenBeginningAtOrBefore(begin);
+            // If the current annotation has leading whitespace, we have wrongly fetched the
+            // token before the start token - so let's try to correct this
+            if ((b != -1 && tokens.get(b).getEnd() < begin && tokenEndingAfter(begin) != -1)
+                    || b == -1) {
+                b = tokenEndingAfter(begin);
+            }
+            if (b == -1) {
+                throw new IllegalStateException("Unable to find begin token starting at or before "
+                        + begin + " (first token starts at " + tokens.get(0).getBegin()
+                        + ") for annotation: " + aAnnotation);
+            }
+
+            int e = tokenEndingAtOrAfter(end);
+            // If the current annotation has trailing whitespace, we have wrongly fetched the
+            // token after the end token - so let's try to correct this
+            if ((e != -1 && tokens.get(e).getBegin() > end && tokenEndingBefore(end) != -1)
+                    || e == -1) {
+                e = tokenEndingBefore(end);
+            }
+            if (e == -1) {
+                throw new IllegalStateException("Unable to find end token ending at or after "
+                        + end + " (last token ends at " + tokens.get(tokens.size() - 1).getEnd()
+                        + ") for annotation: " + aAnnotation);
+            }
+
+            // For zero-width annotations, the begin token must match the end token.
+            if (begin == end) {
+                b = e;
+            }
+
+            beginToken = b;
+            endToken = e;
+            firstSentence = getSentenceIndex(min(b, e));
+            lastSentence = getSentenceIndex(max(b, e));
+        }
+    }
+
+    /**
+     * Iterates over the annotations of a type in the same order as
+     * {@link Tsv3XCasDocumentBuilder#of(TsvSchema, JCas)} does and keeps those annotations which
+     * have been reached but which still need to be added to the current or a later sentence.
+     */
+    private final class TypeCursor
+    {
+        private final int typeIndex;
+        private final LayerType layerType;
+        private final Iterator<AnnotationFS> annotations;
+        private final List<Placement> pending = new ArrayList<>();
+        private AnnotationFS next;
+        private int ordinal;
+
+        private TypeCursor(int aTypeIndex, Type aType)
+        {
+            typeIndex = aTypeIndex;
+            layerType = doc.getSchema().getLayerType(aType);
+            annotations = CasUtil.select(doc.getJCas().getCas(), aType).iterator();
+            next = annotations.hasNext() ? annotations.next() : null;
+        }
+
+        private void advance(int aSentenceIndex, int aLimit)
+        {
+            while (next != null && next.getBegin() <= aLimit) {
+                int begin = next.getBegin();
+                int end = next.getEnd();
+
+                // According to DKPro Core conventions, the offsets of relations must match
+                // those of the target. Thus, we obtain the offsets from the target, just
+                // to be sure.
+                if (RELATION.equals(layerType)) {
+                    AnnotationFS targetFS = getFeature(next, FEAT_REL_TARGET, AnnotationFS.class);
+                    begin = targetFS.getBegin();
+                    end = targetFS.getEnd();
+                }
+
+                Placement placement = new Placement(next, ordinal, begin, end);
+                if (placement.firstSentence < aSentenceIndex) {
+                    // The pre-pass encounters the same annotations in the same order, so this
+                    // cannot happen once the builder has been created
+                    if (!prePass) {
+                        throw new IllegalStateException(
+                                "Annotation is located before its offsets suggest: " + next);
+                    }
+
+                    // Reported by the pre-pass after the current sentence has been built
+                    streamingUnsupportedReason = "Annotation is located before its offsets "
+                            + "suggest: " + next;
+                }
+                else {
+                    pending.add(placement);
+                }
+
+                ordinal++;
+                next = annotations.hasNext() ? annotations.next() : null;
+            }
+        }
+    }
+}
@@ -77,6 +77,7 @@ import static org.apache.uima.fit.util.FSUtil.setFeature;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -124,7 +125,28 @@ public class Tsv3XDeserializer
     private static final Pattern CHAIN_SUFFIX_PATTERN = Pattern
             .compile("^.*(?<!\\\\)->" + "(?<CHAIN>\\d+-\\d+)$");
 
-    private ThreadLocal<List<Runnable>> deferredActions = new ThreadLocal<>();
+    private ThreadLocal<List<DeferredAction>> deferredActions = new ThreadLocal<>();
+
+    private final boolean streaming;
+
+    public Tsv3XDeserializer()
+    {
+        this(false);
+    }
+
+    /**
+     * @param aStreaming
+     *            whether to complete every sentence as soon as it has been read. In this mode,
+     *            the annotations of a sentence are added to the CAS indexes and the references
+     *            between annotations are resolved at the end of the sentence, unless they depend
+     *            on later sentences. Only the annotations which may still be referenced are
+     *            retained in the units of completed sentences. Otherwise, all annotations are
+     *            added to the CAS once the whole document has been read.
+     */
+    public Tsv3XDeserializer(boolean aStreaming)
+    {
+        streaming = aStreaming;
+    }
 
     public void read(LineNumberReader aIn, JCas aJCas) throws IOException
     {
@@ -171,8 +193,8 @@ public class Tsv3XDeserializer
         }
 
         // Run deferred actions
-        for (Runnable action : deferredActions.get()) {
-            action.run();
+        for (DeferredAction action : deferredActions.get()) {
+            action.action.run();
         }
     }
 
@@ -357,6 +379,11 @@ public class Tsv3XDeserializer
         List<TsvColumn> headerColumns = aDoc.getSchema()
                 .getHeaderColumns(aDoc.getSchema().getColumns());
 
+        // In streaming mode, annotations which may still be extended by subsequent units are only
+        // added to the CAS indexes once the whole document has been read.
+        Set<FeatureStructure> extensibleFses = new LinkedHashSet<>();
+        Set<Type> referencedTypes = getReferencedTypes(aDoc, headerColumns);
+
         String line = aIn.readLine();
         try {
             while (!Tsv3XParserState.END.equals(state)) {
@@ -429,6 +456,9 @@ public class Tsv3XDeserializer
                     // The -1 here is to account for the tailing line break
                     sentence.getUimaSentence().setEnd(text.length() - 1);
                     sentence.getUimaSentence().addToIndexes();
+                    if (streaming) {
+                        completeSentence(aDoc, sentence, referencedTypes, extensibleFses);
+                    }
                     prevSentence = sentence;
                     sentence = null;
                     break;
@@ -506,6 +536,11 @@ public class Tsv3XDeserializer
             // have been determined since most of these annotations are actually multi-token
             // annotations.
             CAS cas = aDoc.getJCas().getCas();
+            if (streaming) {
+                extensibleFses.forEach(cas::addFsToIndexes);
+                return;
+            }
+
             Set<FeatureStructure> fses = new LinkedHashSet<>();
             for (TsvSentence s : aDoc.getSentences()) {
                 for (TsvToken t : s.getTokens()) {
@@ -526,6 +561,79 @@ public class Tsv3XDeserializer
         }
     }
 
+    /**
+     * Completes a sentence in streaming mode. All actions which only depend on the sentences read
+     * so far are run and the annotations of the sentence are added to the CAS indexes. Annotations
+     * carrying a disambiguation ID or which are part of a chain may still be extended by
+     * subsequent units - thus, these are only collected. Finally, all annotations which cannot be
+     * referenced by subsequent units are dropped from the units of the sentence.
+     */
+    private void completeSentence(TsvDocument aDoc, TsvSentence aSentence,
+            Set<Type> aReferencedTypes, Set<FeatureStructure> aExtensibleFses)
+    {
+        List<DeferredAction> actions = deferredActions.get();
+        List<DeferredAction> remainingActions = new ArrayList<>();
+        for (DeferredAction action : actions) {
+            if (action.sentence <= aSentence.getPosition()) {
+                action.action.run();
+            }
+            else {
+                remainingActions.add(action);
+            }
+        }
+        actions.clear();
+        actions.addAll(remainingActions);
+
+        Set<FeatureStructure> fses = new LinkedHashSet<>();
+        for (TsvToken t : aSentence.getTokens()) {
+            collectAnnotations(aDoc, t, fses, aExtensibleFses);
+            for (TsvSubToken st : t.getSubTokens()) {
+                collectAnnotations(aDoc, st, fses, aExtensibleFses);
+            }
+        }
+        fses.forEach(aDoc.getJCas().getCas()::addFsToIndexes);
+
+        for (TsvToken t : aSentence.getTokens()) {
+            t.retainUimaTypes(aReferencedTypes);
+            for (TsvSubToken st : t.getSubTokens()) {
+                st.retainUimaTypes(aReferencedTypes);
+            }
+        }
+    }
+
+    private void collectAnnotations(TsvDocument aDoc, TsvUnit aUnit, Set<FeatureStructure> aFses,
+            Set<FeatureStructure> aExtensibleFses)
+    {
+        for (Type type : aUnit.getUimaTypes()) {
+            for (AnnotationFS fs : aUnit.getUimaAnnotations(type)) {
+                if (aDoc.getDisambiguationId(fs) != null || aDoc.getChain(fs) != null) {
+                    aExtensibleFses.add(fs);
+                }
+                else {
+                    aFses.add(fs);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the types of the annotations which relations and slots may refer to via their unit.
+     */
+    private Set<Type> getReferencedTypes(TsvDocument aDoc, List<TsvColumn> aHeaderColumns)
+    {
+        Set<Type> types = new HashSet<>();
+        for (TsvColumn col : aHeaderColumns) {
+            if (RELATION_REF.equals(col.featureType) || SLOT_TARGET.equals(col.featureType)) {
+                types.add(col.getTargetTypeHint());
+            }
+            if (RELATION_REF.equals(col.featureType)
+                    && col.uimaType.getName().equals(Dependency.class.getName())) {
+                types.add(aDoc.getJCas().getTypeSystem().getType(Token.class.getName()));
+            }
+        }
+        return types;
+    }
+
     private void parseAnnotations(TsvDocument aDoc, TsvSentence aSentence, TsvUnit aUnit,
             String[] aFields, List<TsvColumn> aHeaderColumns)
     {
@@ -763,7 +871,7 @@ public class Tsv3XDeserializer
             // fall-through (to set the relation type)
         }
         case CHAIN_ELEMENT_TYPE: {
-            deferredActions.get().add(() -> {
+            defer(aUnit, aUnit.getId(), () -> {
                 // We need to do this later because first we need to wait until all the elements
                 // have been created from the link-type columns. Then we have to look the
                 // annotations up via their unit/stacking index.
@@ -793,7 +901,7 @@ public class Tsv3XDeserializer
             // We cannot set the source and target features set because we may not yet have
             // created the relevant annotations. So we defer setting these values until all
             // annotations have been created.
-            deferredActions.get().add(() -> {
+            defer(aUnit, aValue, () -> {
                 Type attachType = aCol.getTargetTypeHint();
 
                 // COMPATIBILITY NOTE:
@@ -844,15 +952,22 @@ public class Tsv3XDeserializer
         case SLOT_TARGET: {
             // Setting the target feature has to be deferred until we have created all the
             // annotations.
-            deferredActions.get().add(() -> {
-                String[] values;
-                if (NULL_COLUMN.equals(aValue)) {
-                    values = new String[0];
-                }
-                else {
-                    values = SLOT_SEP_PATTERN.split(aValue);
+            String[] values;
+            if (NULL_COLUMN.equals(aValue)) {
+                values = new String[0];
+            }
+            else {
+                values = SLOT_SEP_PATTERN.split(aValue);
+            }
+
+            String[] targetUnitIds = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (!NULL_VALUE.equals(values[i]) && !NULL_COLUMN.equals(values[i])) {
+                    targetUnitIds[i] = substringBefore(values[i], "[");
                 }
+            }
 
+            defer(aUnit, targetUnitIds, () -> {
                 FeatureStructure[] links = getFeature(aAnnotation, aCol.uimaFeature.getShortName(),
                         FeatureStructure[].class);
 
@@ -886,6 +1001,28 @@ public class Tsv3XDeserializer
         }
     }
 
+    /**
+     * Defer the given action until all annotations it depends on have been created. The action
+     * depends on the current unit and the units with the given IDs. {@code null} IDs are ignored.
+     * Unless in streaming mode, all deferred actions are run once the whole document has been
+     * read.
+     */
+    private void defer(TsvUnit aUnit, String aUnitId, Runnable aAction)
+    {
+        defer(aUnit, new String[] { aUnitId }, aAction);
+    }
+
+    private void defer(TsvUnit aUnit, String[] aUnitIds, Runnable aAction)
+    {
+        int sentence = aUnit.getSentence().getPosition();
+        for (String unitId : aUnitIds) {
+            if (streaming && unitId != null) {
+                sentence = Math.max(sentence, aUnit.getDocument().getSentencePosition(unitId));
+            }
+        }
+        deferredActions.get().add(new DeferredAction(sentence, aAction));
+    }
+
     private void setPrimitiveValue(TsvColumn aCol, AnnotationFS aAnnotation, String aValue)
     {
         // Unescape value - this needs to be done after extracting the disambiguation ID and
@@ -912,4 +1049,19 @@ public class Tsv3XDeserializer
                     "Line does not start with expected prefix [" + aPrefix + "]: [" + aLine + "]");
         }
     }
+
+    private static class DeferredAction
+    {
+        /**
+         * Position of the last sentence which needs to be read before the action can run.
+         */
+        private final int sentence;
+        private final Runnable action;
+
+        private DeferredAction(int aSentence, Runnable aAction)
+        {
+            sentence = aSentence;
+            action = aAction;
+        }
+    }
 }
@@ -66,6 +66,16 @@ import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvUnit;
 public class Tsv3XSerializer
 {
     public void write(PrintWriter aOut, TsvDocument aDocument)
+    {
+        write(aOut, aDocument, aDocument.getSentences());
+    }
+
+    /**
+     * Write the document header followed by the given sentences. The sentences do not need to be
+     * part of the document yet. This allows writing documents which are built one sentence at a
+     * time (cf. {@link Tsv3XCasStreamingDocumentBuilder}).
+     */
+    public void write(PrintWriter aOut, TsvDocument aDocument, Iterable<TsvSentence> aSentences)
     {
         write(aOut, aDocument.getFormatHeader());
 
@@ -74,7 +84,7 @@ public class Tsv3XSerializer
 
         write(aOut, headerColumns);
 
-        for (TsvSentence sentence : aDocument.getSentences()) {
+        for (TsvSentence sentence : aSentences) {
             aOut.print(LINE_BREAK);
             write(aOut, sentence, headerColumns);
         }
@@ -316,8 +326,13 @@ public class Tsv3XSerializer
 
         // The column contains the ID of the unit from which the relation is pointing to the
         // current unit, i.e. the sourceUnit of the relation.
-        TsvUnit sourceUnit = aDoc.findIdDefiningUnit(sourceFS);
-        aOut.print(sourceUnit.getId());
+        String sourceUnitId = aDoc.findIdDefiningUnitId(sourceFS);
+        if (sourceUnitId == null) {
+            throw new IllegalStateException(
+                    "Unable to find ID-defining unit for annotation: " + sourceFS);
+        }
+
+        aOut.print(sourceUnitId);
 
         // If the source/target is ambiguous, add the disambiguation IDs
         Integer sourceId = aDoc.getDisambiguationId(sourceFS);
@@ -364,13 +379,13 @@ public class Tsv3XSerializer
                     throw new IllegalStateException("Slot link has no target: " + links[i]);
                 }
 
-                TsvUnit target = aDoc.findIdDefiningUnit(targetFS);
-                if (target == null) {
+                String targetUnitId = aDoc.findIdDefiningUnitId(targetFS);
+                if (targetUnitId == null) {
                     throw new IllegalStateException(
                             "Unable to find ID-defining unit for annotation: " + targetFS);
                 }
 
-                aOut.print(target.getId());
+                aOut.print(targetUnitId);
                 writeDisambiguationId(aOut, aDoc, targetFS);
             }
         }
@@ -42,6 +42,7 @@ public class TsvDocument
     private final TsvSchema schema;
     private final JCas jcas;
     private final Map<AnnotationFS, TsvUnit> fs2unitIndex = new HashMap<>();
+    private final Map<AnnotationFS, String> fs2unitIdIndex = new HashMap<>();
     private final List<TsvSentence> sentences = new ArrayList<>();
     private final List<TsvChain> chains = new ArrayList<>();
     private final Map<AnnotationFS, TsvChain> fs2ChainIndex = new HashMap<>();
@@ -97,6 +98,39 @@ public class TsvDocument
         fs2unitIndex.put(aFS, aUnit);
     }
 
+    /**
+     * Get the ID of the unit which defines the TSV ID for the given feature structure. Unlike
+     * {@link #findIdDefiningUnit(AnnotationFS)}, this also works if the unit is not part of the
+     * document anymore, provided its ID has been recorded using
+     * {@link #mapFS2UnitId(AnnotationFS, String)}.
+     * 
+     * @param aFS
+     *            an annotation.
+     * 
+     * @return the ID of the unit defining the TSV ID for the given feature structure or
+     *         {@code null} if the unit is not known.
+     */
+    public String findIdDefiningUnitId(AnnotationFS aFS)
+    {
+        String id = fs2unitIdIndex.get(aFS);
+        if (id != null) {
+            return id;
+        }
+
+        TsvUnit unit = fs2unitIndex.get(aFS);
+        return unit != null ? unit.getId() : null;
+    }
+
+    /**
+     * Record the ID of the unit which defines the TSV ID for the given feature structure. This is
+     * used when the document is built one sentence at a time and a feature structure is referenced
+     * from a sentence other than the one containing its unit.
+     */
+    public void mapFS2UnitId(AnnotationFS aFS, String aUnitId)
+    {
+        fs2unitIdIndex.put(aFS, aUnitId);
+    }
+
     public TsvChain createChain(Type aHeadType, Type aElementType, List<AnnotationFS> aElements)
     {
         TsvChain chain = new TsvChain(chains.size() + 1, aHeadType, aElementType, aElements,
@@ -125,11 +159,27 @@ public class TsvDocument
 
     public TsvSentence createSentence(Sentence aUimaSentence)
     {
-        TsvSentence sentence = new TsvSentence(this, aUimaSentence, sentences.size() + 1);
+        return createSentence(aUimaSentence, sentences.size() + 1);
+    }
+
+    public TsvSentence createSentence(Sentence aUimaSentence, int aPosition)
+    {
+        TsvSentence sentence = new TsvSentence(this, aUimaSentence, aPosition);
         sentences.add(sentence);
         return sentence;
     }
 
+    /**
+     * Remove all sentences and the units they contain from the document. This is used when the
+     * document is built one sentence at a time. Chains, disambiguation IDs and recorded unit IDs
+     * are retained.
+     */
+    public void clearSentences()
+    {
+        sentences.clear();
+        fs2unitIndex.clear();
+    }
+
     public TsvToken createToken(TsvSentence aSentence, Token aUimaToken, int aPosition)
     {
         TsvToken token = new TsvToken(this, aSentence, aUimaToken, aPosition);
@@ -161,6 +211,19 @@ public class TsvDocument
         return sentences.get(aSentencePosition).getTokens().get(aTokenPosition);
     }
 
+    /**
+     * @return the position of the sentence referred to by the given unit ID (1-based).
+     */
+    public int getSentencePosition(String aUnitId)
+    {
+        Matcher m = PATTERN_UNIT_ID.matcher(aUnitId);
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Invalid unit ID: [" + aUnitId + "]");
+        }
+
+        return Integer.valueOf(m.group("SENT"));
+    }
+
     public List<TsvChain> getChains()
     {
         return chains;
@@ -20,6 +20,7 @@ package de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -146,6 +147,19 @@ public abstract class TsvUnit
         return uimaAnnotations.get(aUimaType);
     }
 
+    /**
+     * Drop the annotations of all types except the given ones from this unit. This is used to
+     * reduce the memory footprint of units which have been read completely but which may still be
+     * referenced by later units.
+     * 
+     * @param aUimaTypes
+     *            the types to retain.
+     */
+    public void retainUimaTypes(Collection<Type> aUimaTypes)
+    {
+        uimaAnnotations.keySet().retainAll(aUimaTypes);
+    }
+
     public List<Type> getUimaTypes()
     {
         return uimaAnnotations.keySet().stream().collect(Collectors.toList());
@@ -27,7 +27,9 @@ import static org.junit.Assume.assumeFalse;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
@@ -59,18 +61,25 @@ import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
 @RunWith(value = Parameterized.class)
 public class WebAnnoTsv3XReaderWriterRoundTripTest
 {
-    @Parameters(name = "{index}: running on file {0}")
-    public static Iterable<File> tsvFiles()
+    @Parameters(name = "{index}: running on file {0} (streaming: {1})")
+    public static Iterable<Object[]> tsvFiles()
     {
-        return asList(new File("src/test/resources/tsv3-suite/").listFiles(
-                (FilenameFilter) new PrefixFileFilter(asList("test", "issue", "sample"))));
+        List<Object[]> params = new ArrayList<>();
+        for (File folder : new File("src/test/resources/tsv3-suite/").listFiles(
+                (FilenameFilter) new PrefixFileFilter(asList("test", "issue", "sample")))) {
+            params.add(new Object[] { folder, false });
+            params.add(new Object[] { folder, true });
+        }
+        return params;
     }
 
     private File referenceFolder;
+    private boolean streaming;
 
-    public WebAnnoTsv3XReaderWriterRoundTripTest(File aFolder)
+    public WebAnnoTsv3XReaderWriterRoundTripTest(File aFolder, boolean aStreaming)
     {
         referenceFolder = aFolder;
+        streaming = aStreaming;
     }
 
     private boolean isKnownToFail(String aMethodName)
@@ -99,13 +108,14 @@ public class WebAnnoTsv3XReaderWriterRoundTripTest
         TypeSystemDescription merged = CasCreationUtils.mergeTypeSystems(asList(global, local));
 
         String targetFolder = "target/test-output/WebAnnoTsv3XReaderWriterRoundTripTest/"
-                + referenceFolder.getName();
+                + (streaming ? "streaming/" : "") + referenceFolder.getName();
 
         // @formatter:off
         CollectionReaderDescription reader = createReaderDescription(WebannoTsv3XReader.class,
                 merged,
                 WebannoTsv3XReader.PARAM_SOURCE_LOCATION, referenceFolder,
-                WebannoTsv3XReader.PARAM_PATTERNS, "reference.tsv");
+                WebannoTsv3XReader.PARAM_PATTERNS, "reference.tsv",
+                WebannoTsv3XReader.PARAM_STREAMING, streaming);
 
         AnalysisEngineDescription checker = createEngineDescription(
                 DKProCoreConventionsChecker.class);
@@ -114,7 +124,8 @@ public class WebAnnoTsv3XReaderWriterRoundTripTest
                 merged,
                 WebannoTsv3XWriter.PARAM_TARGET_LOCATION, targetFolder,
                 WebannoTsv3XWriter.PARAM_STRIP_EXTENSION, true,
-                WebannoTsv3XWriter.PARAM_OVERWRITE, true);
+                WebannoTsv3XWriter.PARAM_OVERWRITE, true,
+                WebannoTsv3XWriter.PARAM_STREAMING, streaming);
 
         AnalysisEngineDescription xmiWriter = createEngineDescription(XmiWriter.class,
                 merged,
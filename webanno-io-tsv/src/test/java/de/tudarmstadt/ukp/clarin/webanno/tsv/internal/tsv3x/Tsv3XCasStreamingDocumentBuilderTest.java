@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x;
+
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.factory.JCasFactory.createJCas;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescriptionFromPath;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.fit.testing.factory.TokenBuilder;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSentence;
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class Tsv3XCasStreamingDocumentBuilderTest
+{
+    @Test
+    public void thatSentencesMatchInMemoryDocument() throws Exception
+    {
+        JCas jcas = makeJCas("This is .\nA test .");
+        List<Token> tokens = new ArrayList<>(select(jcas, Token.class));
+        addDependency(jcas, tokens.get(0), tokens.get(1), tokens.get(1));
+        TsvSchema schema = Tsv3XCasSchemaAnalyzer.analyze(jcas.getTypeSystem());
+
+        List<String> expected = new ArrayList<>();
+        for (TsvSentence sentence : Tsv3XCasDocumentBuilder.of(schema, jcas).getSentences()) {
+            expected.add(sentence.toString());
+        }
+
+        List<String> actual = new ArrayList<>();
+        for (TsvSentence sentence : Tsv3XCasStreamingDocumentBuilder.of(schema, jcas)) {
+            actual.add(sentence.toString());
+        }
+
+        assertThat(actual).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    public void thatUnorderedTokensAreNotStreamed() throws Exception
+    {
+        JCas jcas = makeJCas("This is a test .");
+        new Token(jcas, 0, 7).addToIndexes();
+        TsvSchema schema = Tsv3XCasSchemaAnalyzer.analyze(jcas.getTypeSystem());
+
+        assertThatExceptionOfType(StreamingUnsupportedException.class)
+                .isThrownBy(() -> Tsv3XCasStreamingDocumentBuilder.of(schema, jcas))
+                .withMessageContaining("Token offsets are not ordered");
+    }
+
+    @Test
+    public void thatRelationLocatedAfterItsTargetIsNotStreamed() throws Exception
+    {
+        JCas jcas = makeJCas("This is .\nA test .");
+        List<Token> tokens = new ArrayList<>(select(jcas, Token.class));
+        // The relation is located in the second sentence, but its target in the first one
+        addDependency(jcas, tokens.get(0), tokens.get(1), tokens.get(4));
+        TsvSchema schema = Tsv3XCasSchemaAnalyzer.analyze(jcas.getTypeSystem());
+
+        assertThatExceptionOfType(StreamingUnsupportedException.class)
+                .isThrownBy(() -> Tsv3XCasStreamingDocumentBuilder.of(schema, jcas))
+                .withMessageContaining("Annotation is located before its offsets suggest");
+    }
+
+    private static void addDependency(JCas aJCas, Token aGovernor, Token aDependent,
+            Token aLocation)
+    {
+        Dependency dep = new Dependency(aJCas, aLocation.getBegin(), aLocation.getEnd());
+        dep.setGovernor(aGovernor);
+        dep.setDependent(aDependent);
+        dep.setDependencyType("dep");
+        dep.addToIndexes();
+    }
+
+    private static JCas makeJCas(String aText) throws UIMAException
+    {
+        TypeSystemDescription global = createTypeSystemDescription();
+        TypeSystemDescription local = createTypeSystemDescriptionFromPath(
+                "src/test/resources/desc/type/webannoTestTypes.xml");
+
+        JCas jcas = createJCas(mergeTypeSystems(asList(global, local)));
+
+        DocumentMetaData.create(jcas).setDocumentId("doc");
+
+        // The token builder treats every line as a sentence
+        TokenBuilder<Token, Sentence> tb = new TokenBuilder<>(Token.class, Sentence.class);
+        tb.buildTokens(jcas, aText);
+
+        return jcas;
+    }
+}
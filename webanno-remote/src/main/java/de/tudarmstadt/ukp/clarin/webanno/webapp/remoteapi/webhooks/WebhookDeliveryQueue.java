@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks;
+
+import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.WebhookService.X_AERO_NOTIFICATION;
+import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.WebhookService.X_AERO_SIGNATURE;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.joining;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.ssl.TrustStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.model.WebhookDelivery;
+
+/**
+ * Delivers webhook messages in the background. Every webhook has a bounded queue of its own which
+ * is processed by a dedicated thread, so a slow or unreachable webhook does not delay the others.
+ * Messages are stored in the {@link WebhookOutbox} until they have been delivered. Failed
+ * deliveries are retried with an exponentially growing delay. Messages which could not be queued
+ * (e.g. because the queue was full or the application has been restarted) are picked up from the
+ * outbox periodically. Messages are delivered at least once.
+ */
+@Component
+public class WebhookDeliveryQueue
+    implements InitializingBean, DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final WebhooksConfiguration configuration;
+    private final WebhookOutbox outbox;
+    private final RestTemplateBuilder restTemplateBuilder;
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final Set<Long> queuedDeliveries = ConcurrentHashMap.newKeySet();
+    private final WebhookDeliveryStatistics statistics = new WebhookDeliveryStatistics();
+
+    private ExecutorService workers;
+    private ScheduledExecutorService scheduler;
+    private PoolingHttpClientConnectionManager validatingConnectionManager;
+    private PoolingHttpClientConnectionManager nonValidatingConnectionManager;
+    private RestTemplate validatingRestTemplate;
+    private RestTemplate nonValidatingRestTemplate;
+
+    @Autowired
+    public WebhookDeliveryQueue(WebhooksConfiguration aConfiguration, WebhookOutbox aOutbox,
+            RestTemplateBuilder aRestTemplateBuilder)
+    {
+        configuration = aConfiguration;
+        outbox = aOutbox;
+        restTemplateBuilder = aRestTemplateBuilder;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        validatingConnectionManager = new PoolingHttpClientConnectionManager();
+        validatingRestTemplate = buildRestTemplate(validatingConnectionManager);
+
+        // Rest template without SSL certificate check for webhooks where that is disabled
+        TrustStrategy acceptingTrustStrategy = (X509Certificate[] chain, String authType) -> true;
+        SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(null, acceptingTrustStrategy)
+                .build();
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder
+                .<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext)).build();
+        nonValidatingConnectionManager = new PoolingHttpClientConnectionManager(registry);
+        nonValidatingRestTemplate = buildRestTemplate(nonValidatingConnectionManager);
+
+        workers = Executors.newCachedThreadPool(new BasicThreadFactory.Builder()
+                .namingPattern("webhook-delivery-%d").daemon(true).build());
+        scheduler = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+                .namingPattern("webhook-scheduler-%d").daemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::checkOutbox, 0,
+                configuration.getOutboxCheckInterval(), SECONDS);
+    }
+
+    private RestTemplate buildRestTemplate(PoolingHttpClientConnectionManager aConnectionManager)
+    {
+        aConnectionManager.setMaxTotal(configuration.getMaxConnections());
+        aConnectionManager.setDefaultMaxPerRoute(configuration.getMaxConnections());
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(aConnectionManager).build();
+
+        HttpComponentsClientHttpRequestFactory requestFactory =
+                new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setConnectTimeout(
+                (int) SECONDS.toMillis(configuration.getConnectTimeout()));
+        requestFactory.setReadTimeout((int) SECONDS.toMillis(configuration.getReadTimeout()));
+
+        return restTemplateBuilder.requestFactory(() -> requestFactory).build();
+    }
+
+    @Override
+    public void destroy()
+    {
+        // Undelivered messages remain in the outbox and are delivered after the next start
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (validatingConnectionManager != null) {
+            validatingConnectionManager.shutdown();
+        }
+        if (nonValidatingConnectionManager != null) {
+            nonValidatingConnectionManager.shutdown();
+        }
+    }
+
+    /**
+     * Stores the message in the outbox and queues it for delivery.
+     */
+    public void submit(Webhook aHook, String aTopic, String aPayload)
+    {
+        WebhookDelivery delivery = new WebhookDelivery(aHook.getUrl(), aTopic, aPayload);
+        try {
+            outbox.add(delivery);
+        }
+        catch (Exception e) {
+            // Try delivering the message anyway - it is only lost if that fails as well
+            log.error("Unable to store message for webhook [{}] in the outbox", aHook, e);
+        }
+
+        enqueue(getChannel(aHook), delivery);
+    }
+
+    public WebhookDeliveryStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * @return number of messages queued for delivery in memory.
+     */
+    public int getQueuedCount()
+    {
+        return channels.values().stream().mapToInt(channel -> channel.queue.size()).sum();
+    }
+
+    private Channel getChannel(Webhook aHook)
+    {
+        Channel channel = channels.computeIfAbsent(aHook.getUrl(), url -> {
+            Channel c = new Channel(aHook);
+            workers.execute(c);
+            return c;
+        });
+        // The configuration of the webhook may have changed since the channel was created
+        channel.hook = aHook;
+        return channel;
+    }
+
+    private void enqueue(Channel aChannel, WebhookDelivery aDelivery)
+    {
+        if (aDelivery.getId() != null && !queuedDeliveries.add(aDelivery.getId())) {
+            // Already queued
+            return;
+        }
+
+        requeue(aChannel, aDelivery);
+    }
+
+    private void requeue(Channel aChannel, WebhookDelivery aDelivery)
+    {
+        if (aChannel.queue.offer(aDelivery)) {
+            return;
+        }
+
+        if (aDelivery.getId() != null) {
+            log.warn("Delivery queue of webhook [{}] is full - message remains in the outbox",
+                    aChannel.hook);
+            queuedDeliveries.remove(aDelivery.getId());
+        }
+        else {
+            log.error("Delivery queue of webhook [{}] is full - message discarded",
+                    aChannel.hook);
+            statistics.recordDiscarded(1);
+        }
+    }
+
+    /**
+     * Queues messages from the outbox which are due for delivery but have not been queued.
+     */
+    private void checkOutbox()
+    {
+        try {
+            Map<String, Webhook> hooks = new HashMap<>();
+            for (Webhook hook : configuration.getGlobalHooks()) {
+                if (hook.isEnabled()) {
+                    hooks.put(hook.getUrl(), hook);
+                }
+            }
+
+            // Messages which were queued when the check started may have been delivered and
+            // removed from the queued set by the time we look at them. Same for messages which are
+            // submitted while the check runs.
+            Date now = new Date();
+            Set<Long> queued = new HashSet<>(queuedDeliveries);
+            for (WebhookDelivery delivery : outbox.listPending()) {
+                if (queued.contains(delivery.getId())
+                        || queuedDeliveries.contains(delivery.getId())
+                        || !delivery.getCreated().before(now)) {
+                    continue;
+                }
+
+                Webhook hook = hooks.get(delivery.getUrl());
+                if (hook == null || !hook.getTopics().contains(delivery.getTopic())) {
+                    log.warn("Discarding message for webhook [{}] which is no longer configured",
+                            delivery.getUrl());
+                    outbox.remove(singletonList(delivery));
+                    statistics.recordDiscarded(1);
+                    continue;
+                }
+
+                if (delivery.getNextAttempt() == null || !delivery.getNextAttempt().after(now)) {
+                    enqueue(getChannel(hook), delivery);
+                }
+            }
+        }
+        catch (Exception e) {
+            log.error("Unable to check the webhook outbox", e);
+        }
+    }
+
+    private void deliver(Channel aChannel, List<WebhookDelivery> aDeliveries)
+    {
+        // Only messages of the same topic can be sent in a single request
+        Map<String, List<WebhookDelivery>> byTopic = new LinkedHashMap<>();
+        for (WebhookDelivery delivery : aDeliveries) {
+            byTopic.computeIfAbsent(delivery.getTopic(), topic -> new ArrayList<>())
+                    .add(delivery);
+        }
+
+        for (List<WebhookDelivery> batch : byTopic.values()) {
+            Webhook hook = aChannel.hook;
+            try {
+                post(hook, batch);
+                statistics.recordRequest(true);
+            }
+            catch (Exception e) {
+                statistics.recordRequest(false);
+                handleFailure(aChannel, batch, e);
+                continue;
+            }
+
+            long now = System.currentTimeMillis();
+            for (WebhookDelivery delivery : batch) {
+                statistics.recordDelivered(now - delivery.getCreated().getTime());
+            }
+            removeFromOutbox(batch);
+        }
+    }
+
+    private void post(Webhook aHook, List<WebhookDelivery> aBatch)
+    {
+        String topic = aBatch.get(0).getTopic();
+        String json;
+        if (configuration.getBatchSize() > 1) {
+            json = aBatch.stream().map(WebhookDelivery::getPayload)
+                    .collect(joining(",", "[", "]"));
+        }
+        else {
+            json = aBatch.get(0).getPayload();
+        }
+
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.setContentType(MediaType.APPLICATION_JSON_UTF8);
+        requestHeaders.set(X_AERO_NOTIFICATION, topic);
+
+        // If a secret is set, then add a digest header that allows the client to verify
+        // the message integrity
+        if (isNotBlank(aHook.getSecret())) {
+            String digest = DigestUtils.shaHex(aHook.getSecret() + json);
+            requestHeaders.set(X_AERO_SIGNATURE, digest);
+        }
+
+        RestTemplate restTemplate = aHook.isVerifyCertificates() ? validatingRestTemplate
+                : nonValidatingRestTemplate;
+        HttpEntity<?> httpEntity = new HttpEntity<Object>(json, requestHeaders);
+        restTemplate.postForEntity(aHook.getUrl(), httpEntity, Void.class);
+    }
+
+    private void handleFailure(Channel aChannel, List<WebhookDelivery> aBatch, Exception aCause)
+    {
+        List<WebhookDelivery> retries = new ArrayList<>();
+        List<WebhookDelivery> discarded = new ArrayList<>();
+        for (WebhookDelivery delivery : aBatch) {
+            delivery.setAttempts(delivery.getAttempts() + 1);
+            if (delivery.getAttempts() >= configuration.getMaxAttempts()) {
+                discarded.add(delivery);
+            }
+            else {
+                delivery.setNextAttempt(new Date(
+                        System.currentTimeMillis() + getRetryDelay(delivery.getAttempts())));
+                retries.add(delivery);
+            }
+        }
+
+        if (!discarded.isEmpty()) {
+            log.error("Unable to invoke webhook [{}] - discarding {} message(s) after {} attempts",
+                    aChannel.hook, discarded.size(), configuration.getMaxAttempts(), aCause);
+            statistics.recordDiscarded(discarded.size());
+            removeFromOutbox(discarded);
+        }
+
+        if (!retries.isEmpty()) {
+            log.warn("Unable to invoke webhook [{}] - will retry {} message(s): {}",
+                    aChannel.hook, retries.size(), aCause.getMessage());
+            try {
+                outbox.update(persisted(retries));
+            }
+            catch (Exception e) {
+                log.error("Unable to update messages for webhook [{}] in the outbox",
+                        aChannel.hook, e);
+            }
+            for (WebhookDelivery delivery : retries) {
+                scheduler.schedule(() -> requeue(aChannel, delivery),
+                        getRetryDelay(delivery.getAttempts()), MILLISECONDS);
+            }
+        }
+    }
+
+    private long getRetryDelay(int aAttempts)
+    {
+        long delay = SECONDS.toMillis(configuration.getRetryDelay());
+        long maxDelay = SECONDS.toMillis(configuration.getMaxRetryDelay());
+        for (int i = 1; i < aAttempts && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, maxDelay);
+    }
+
+    private void removeFromOutbox(List<WebhookDelivery> aDeliveries)
+    {
+        List<WebhookDelivery> persisted = persisted(aDeliveries);
+        try {
+            outbox.remove(persisted);
+        }
+        catch (Exception e) {
+            log.error("Unable to remove messages from the webhook outbox", e);
+        }
+        // Remove only after the outbox has been updated, otherwise the outbox check could pick
+        // up the messages again
+        for (WebhookDelivery delivery : persisted) {
+            queuedDeliveries.remove(delivery.getId());
+        }
+    }
+
+    private static List<WebhookDelivery> persisted(List<WebhookDelivery> aDeliveries)
+    {
+        List<WebhookDelivery> persisted = new ArrayList<>();
+        for (WebhookDelivery delivery : aDeliveries) {
+            if (delivery.getId() != null) {
+                persisted.add(delivery);
+            }
+        }
+        return persisted;
+    }
+
+    private class Channel
+        implements Runnable
+    {
+        private final BlockingQueue<WebhookDelivery> queue;
+        private volatile Webhook hook;
+
+        public Channel(Webhook aHook)
+        {
+            hook = aHook;
+            queue = new ArrayBlockingQueue<>(configuration.getQueueSize());
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    List<WebhookDelivery> batch = new ArrayList<>();
+                    batch.add(queue.take());
+                    queue.drainTo(batch, configuration.getBatchSize() - 1);
+                    try {
+                        deliver(this, batch);
+                    }
+                    catch (Exception e) {
+                        log.error("Unable to deliver messages to webhook [{}]", hook, e);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                // Shutting down
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the outcome of webhook deliveries. The latency of a message is the time between the
+ * message being created and it having been delivered successfully, including any retries.
+ */
+public class WebhookDeliveryStatistics
+{
+    private final LongAdder deliveredCount = new LongAdder();
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder failedRequestCount = new LongAdder();
+    private final LongAdder discardedCount = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final LongAccumulator maxLatency = new LongAccumulator(Long::max, 0);
+
+    /**
+     * @param aLatencyMillis
+     *            latency of the message in milliseconds.
+     */
+    public void recordDelivered(long aLatencyMillis)
+    {
+        deliveredCount.increment();
+        totalLatency.add(aLatencyMillis);
+        maxLatency.accumulate(aLatencyMillis);
+    }
+
+    public void recordRequest(boolean aSuccessful)
+    {
+        requestCount.increment();
+        if (!aSuccessful) {
+            failedRequestCount.increment();
+        }
+    }
+
+    public void recordDiscarded(int aCount)
+    {
+        discardedCount.add(aCount);
+    }
+
+    public long getDeliveredCount()
+    {
+        return deliveredCount.sum();
+    }
+
+    public long getRequestCount()
+    {
+        return requestCount.sum();
+    }
+
+    public long getFailedRequestCount()
+    {
+        return failedRequestCount.sum();
+    }
+
+    public long getDiscardedCount()
+    {
+        return discardedCount.sum();
+    }
+
+    /**
+     * @return average latency in milliseconds of the delivered messages.
+     */
+    public double getAverageLatency()
+    {
+        long count = deliveredCount.sum();
+        if (count == 0) {
+            return 0.0;
+        }
+
+        return (double) totalLatency.sum() / count;
+    }
+
+    /**
+     * @return maximum latency in milliseconds of the delivered messages.
+     */
+    public long getMaxLatency()
+    {
+        return maxLatency.get();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks;
+
+import java.util.List;
+
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.model.WebhookDelivery;
+
+/**
+ * Persistent store for webhook messages which have not been delivered yet. Messages are added
+ * before they are queued for delivery and removed once they have been delivered or discarded, such
+ * that pending messages survive a restart.
+ */
+public interface WebhookOutbox
+{
+    void add(WebhookDelivery aDelivery);
+
+    void update(List<WebhookDelivery> aDeliveries);
+
+    void remove(List<WebhookDelivery> aDeliveries);
+
+    /**
+     * @return all pending messages ordered by the time they were created.
+     */
+    List<WebhookDelivery> listPending();
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks;
+
+import static org.springframework.transaction.annotation.Propagation.REQUIRES_NEW;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.model.WebhookDelivery;
+
+/**
+ * Stores the outbox in the database. The events triggering webhooks are handled after the
+ * transaction of the event source has been committed, so every operation runs in a transaction of
+ * its own.
+ */
+@Component
+public class WebhookOutboxImpl
+    implements WebhookOutbox
+{
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional(propagation = REQUIRES_NEW)
+    public void add(WebhookDelivery aDelivery)
+    {
+        entityManager.persist(aDelivery);
+    }
+
+    @Override
+    @Transactional(propagation = REQUIRES_NEW)
+    public void update(List<WebhookDelivery> aDeliveries)
+    {
+        for (WebhookDelivery delivery : aDeliveries) {
+            entityManager.createQuery(
+                    "UPDATE WebhookDelivery SET attempts = :attempts, nextAttempt = :nextAttempt "
+                            + "WHERE id = :id")
+                    .setParameter("attempts", delivery.getAttempts())
+                    .setParameter("nextAttempt", delivery.getNextAttempt())
+                    .setParameter("id", delivery.getId())
+                    .executeUpdate();
+        }
+    }
+
+    @Override
+    @Transactional(propagation = REQUIRES_NEW)
+    public void remove(List<WebhookDelivery> aDeliveries)
+    {
+        for (WebhookDelivery delivery : aDeliveries) {
+            entityManager.createQuery("DELETE FROM WebhookDelivery WHERE id = :id")
+                    .setParameter("id", delivery.getId())
+                    .executeUpdate();
+        }
+    }
+
+    @Override
+    @Transactional(propagation = REQUIRES_NEW)
+    public List<WebhookDelivery> listPending()
+    {
+        return entityManager
+                .createQuery("FROM WebhookDelivery ORDER BY created, id", WebhookDelivery.class)
+                .getResultList();
+    }
+}
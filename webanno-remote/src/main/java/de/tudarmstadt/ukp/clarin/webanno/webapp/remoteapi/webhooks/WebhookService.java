@@ -17,37 +17,18 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks;
 
-import static org.apache.commons.lang3.StringUtils.isNotBlank;
-
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.X509Certificate;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.net.ssl.SSLContext;
-
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.TrustStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.ApplicationEvent;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.event.TransactionalEventListener;
-import org.springframework.web.client.RestTemplate;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AnnotationStateChangeEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.DocumentStateChangedEvent;
@@ -81,25 +62,7 @@ public class WebhookService
     }
 
     private @Autowired WebhooksConfiguration configuration;
-    private @Autowired RestTemplateBuilder restTemplateBuilder;
-
-    private HttpComponentsClientHttpRequestFactory nonValidatingRequestFactory = null;
-
-    public WebhookService()
-        throws KeyManagementException, NoSuchAlgorithmException, KeyStoreException
-    {
-        TrustStrategy acceptingTrustStrategy = (X509Certificate[] chain, String authType) -> true;
-
-        SSLContext sslContext = org.apache.http.ssl.SSLContexts.custom()
-                .loadTrustMaterial(null, acceptingTrustStrategy).build();
-
-        SSLConnectionSocketFactory csf = new SSLConnectionSocketFactory(sslContext);
-
-        CloseableHttpClient httpClient = HttpClients.custom().setSSLSocketFactory(csf).build();
-
-        nonValidatingRequestFactory = new HttpComponentsClientHttpRequestFactory();
-        nonValidatingRequestFactory.setHttpClient(httpClient);
-    }
+    private @Autowired WebhookDeliveryQueue deliveryQueue;
 
     @Override
     public void afterPropertiesSet() throws Exception
@@ -118,7 +81,6 @@ public class WebhookService
     }
 
     @TransactionalEventListener(fallbackExecution = true)
-    @Async
     public void onApplicationEvent(ApplicationEvent aEvent)
     {
         String topic = EVENT_TOPICS.get(aEvent.getClass());
@@ -141,45 +103,22 @@ public class WebhookService
             return;
         }
 
+        String json;
+        try {
+            json = JSONUtil.toJsonString(message);
+        }
+        catch (IOException e) {
+            log.error("Unable to serialize [{}] message", topic, e);
+            return;
+        }
+
+        // The messages are only queued here and delivered in the background
         for (Webhook hook : configuration.getGlobalHooks()) {
             if (!hook.isEnabled() || !hook.getTopics().contains(topic)) {
                 continue;
             }
 
-            try {
-                // Configure rest template without SSL certification check if that is disabled.
-                RestTemplate restTemplate;
-                if (hook.isVerifyCertificates()) {
-                    restTemplate = restTemplateBuilder.build();
-                }
-                else {
-                    restTemplate = restTemplateBuilder
-                            .requestFactory(this::getNonValidatingRequestFactory).build();
-                }
-
-                HttpHeaders requestHeaders = new HttpHeaders();
-                requestHeaders.setContentType(MediaType.APPLICATION_JSON_UTF8);
-                requestHeaders.set(X_AERO_NOTIFICATION, topic);
-
-                // If a secret is set, then add a digest header that allows the client to verify
-                // the message integrity
-                String json = JSONUtil.toJsonString(message);
-                if (isNotBlank(hook.getSecret())) {
-                    String digest = DigestUtils.shaHex(hook.getSecret() + json);
-                    requestHeaders.set(X_AERO_SIGNATURE, digest);
-                }
-
-                HttpEntity<?> httpEntity = new HttpEntity<Object>(json, requestHeaders);
-                restTemplate.postForEntity(hook.getUrl(), httpEntity, Void.class);
-            }
-            catch (Exception e) {
-                log.error("Unable to invoke webhook [{}]", hook, e);
-            }
+            deliveryQueue.submit(hook, topic, json);
         }
     }
-
-    private HttpComponentsClientHttpRequestFactory getNonValidatingRequestFactory()
-    {
-        return nonValidatingRequestFactory;
-    }
 }
@@ -31,6 +31,49 @@ public class WebhooksConfiguration
 
     private List<Webhook> globalHooks = new ArrayList<>();
 
+    /**
+     * Maximum number of messages per webhook waiting for delivery in memory. Messages exceeding
+     * this limit remain in the outbox and are picked up later.
+     */
+    private int queueSize = 1000;
+
+    /**
+     * Maximum number of messages of the same topic sent in a single request. If larger than 1,
+     * messages are sent as a JSON array.
+     */
+    private int batchSize = 1;
+
+    /**
+     * Maximum number of delivery attempts before a message is discarded.
+     */
+    private int maxAttempts = 10;
+
+    /**
+     * Time (in seconds) to wait before the first retry. The time doubles with every further
+     * attempt up to {@link #maxRetryDelay}.
+     */
+    private int retryDelay = 5;
+
+    private int maxRetryDelay = 3600;
+
+    /**
+     * Interval (in seconds) in which the outbox is checked for messages which are not queued,
+     * e.g. after a restart.
+     */
+    private int outboxCheckInterval = 60;
+
+    /**
+     * Timeouts (in seconds) for connecting to a webhook and for waiting for its response.
+     */
+    private int connectTimeout = 10;
+
+    private int readTimeout = 30;
+
+    /**
+     * Maximum number of HTTP connections kept open to the webhooks.
+     */
+    private int maxConnections = 20;
+
     public List<Webhook> getGlobalHooks()
     {
         return globalHooks;
@@ -40,4 +83,94 @@ public class WebhooksConfiguration
     {
         globalHooks = aWebhooks;
     }
+
+    public int getQueueSize()
+    {
+        return queueSize;
+    }
+
+    public void setQueueSize(int aQueueSize)
+    {
+        queueSize = aQueueSize;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public void setBatchSize(int aBatchSize)
+    {
+        batchSize = aBatchSize;
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int aMaxAttempts)
+    {
+        maxAttempts = aMaxAttempts;
+    }
+
+    public int getRetryDelay()
+    {
+        return retryDelay;
+    }
+
+    public void setRetryDelay(int aRetryDelay)
+    {
+        retryDelay = aRetryDelay;
+    }
+
+    public int getMaxRetryDelay()
+    {
+        return maxRetryDelay;
+    }
+
+    public void setMaxRetryDelay(int aMaxRetryDelay)
+    {
+        maxRetryDelay = aMaxRetryDelay;
+    }
+
+    public int getOutboxCheckInterval()
+    {
+        return outboxCheckInterval;
+    }
+
+    public void setOutboxCheckInterval(int aOutboxCheckInterval)
+    {
+        outboxCheckInterval = aOutboxCheckInterval;
+    }
+
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int aConnectTimeout)
+    {
+        connectTimeout = aConnectTimeout;
+    }
+
+    public int getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int aReadTimeout)
+    {
+        readTimeout = aReadTimeout;
+    }
+
+    public int getMaxConnections()
+    {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int aMaxConnections)
+    {
+        maxConnections = aMaxConnections;
+    }
 }
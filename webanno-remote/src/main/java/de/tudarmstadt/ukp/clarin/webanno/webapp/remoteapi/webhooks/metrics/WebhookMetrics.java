@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.metrics;
+
+public interface WebhookMetrics
+{
+    /**
+     * Retrieve the number of webhook messages queued for delivery
+     */
+    public long getQueuedMessageCount();
+
+    /**
+     * Retrieve the number of webhook messages delivered successfully
+     */
+    public long getDeliveredMessageCount();
+
+    /**
+     * Retrieve the number of webhook messages discarded without having been delivered
+     */
+    public long getDiscardedMessageCount();
+
+    /**
+     * Retrieve the number of requests sent to webhooks
+     */
+    public long getRequestCount();
+
+    /**
+     * Retrieve the number of failed requests sent to webhooks
+     */
+    public long getFailedRequestCount();
+
+    /**
+     * Retrieve the average time in milliseconds from the creation of a webhook message until it
+     * has been delivered
+     */
+    public double getAverageDeliveryLatency();
+
+    /**
+     * Retrieve the maximum time in milliseconds from the creation of a webhook message until it
+     * has been delivered
+     */
+    public long getMaxDeliveryLatency();
+}
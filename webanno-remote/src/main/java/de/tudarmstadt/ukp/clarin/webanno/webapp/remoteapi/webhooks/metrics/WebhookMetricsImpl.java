@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.WebhookDeliveryQueue;
+
+@ManagedResource
+@Service
+@ConditionalOnProperty(prefix = "monitoring.metrics", name = "enabled", havingValue = "true")
+public class WebhookMetricsImpl
+    implements WebhookMetrics
+{
+    private final WebhookDeliveryQueue deliveryQueue;
+
+    @Autowired
+    public WebhookMetricsImpl(WebhookDeliveryQueue aDeliveryQueue)
+    {
+        deliveryQueue = aDeliveryQueue;
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getQueuedMessageCount()
+    {
+        return deliveryQueue.getQueuedCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getDeliveredMessageCount()
+    {
+        return deliveryQueue.getStatistics().getDeliveredCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getDiscardedMessageCount()
+    {
+        return deliveryQueue.getStatistics().getDiscardedCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getRequestCount()
+    {
+        return deliveryQueue.getStatistics().getRequestCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getFailedRequestCount()
+    {
+        return deliveryQueue.getStatistics().getFailedRequestCount();
+    }
+
+    @Override
+    @ManagedAttribute
+    public double getAverageDeliveryLatency()
+    {
+        return deliveryQueue.getStatistics().getAverageLatency();
+    }
+
+    @Override
+    @ManagedAttribute
+    public long getMaxDeliveryLatency()
+    {
+        return deliveryQueue.getStatistics().getMaxLatency();
+    }
+}
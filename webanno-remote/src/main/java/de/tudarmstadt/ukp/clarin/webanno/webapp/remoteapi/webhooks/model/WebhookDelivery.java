@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.model;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.PrePersist;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * A webhook message which has not been delivered yet.
+ */
+@Entity
+@Table(name = "webhook_delivery")
+public class WebhookDelivery
+    implements Serializable
+{
+    private static final long serialVersionUID = 4529170236455519362L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    @Column(nullable = false, length = 2048)
+    private String url;
+
+    @Column(nullable = false)
+    private String topic;
+
+    @Lob
+    @Column(length = 64000, nullable = false)
+    private String payload;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(nullable = true)
+    private Date nextAttempt;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(nullable = true)
+    private Date created;
+
+    public WebhookDelivery()
+    {
+        // For serialization and persistence
+    }
+
+    public WebhookDelivery(String aUrl, String aTopic, String aPayload)
+    {
+        url = aUrl;
+        topic = aTopic;
+        payload = aPayload;
+        created = new Date();
+    }
+
+    public Long getId()
+    {
+        return id;
+    }
+
+    public void setId(Long aId)
+    {
+        id = aId;
+    }
+
+    public String getUrl()
+    {
+        return url;
+    }
+
+    public void setUrl(String aUrl)
+    {
+        url = aUrl;
+    }
+
+    public String getTopic()
+    {
+        return topic;
+    }
+
+    public void setTopic(String aTopic)
+    {
+        topic = aTopic;
+    }
+
+    public String getPayload()
+    {
+        return payload;
+    }
+
+    public void setPayload(String aPayload)
+    {
+        payload = aPayload;
+    }
+
+    public int getAttempts()
+    {
+        return attempts;
+    }
+
+    public void setAttempts(int aAttempts)
+    {
+        attempts = aAttempts;
+    }
+
+    public Date getNextAttempt()
+    {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(Date aNextAttempt)
+    {
+        nextAttempt = aNextAttempt;
+    }
+
+    public Date getCreated()
+    {
+        return created;
+    }
+
+    public void setCreated(Date aCreated)
+    {
+        created = aCreated;
+    }
+
+    @PrePersist
+    protected void onCreate()
+    {
+        if (created == null) {
+            created = new Date();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("WebhookDelivery [id=");
+        builder.append(id);
+        builder.append(", url=");
+        builder.append(url);
+        builder.append(", topic=");
+        builder.append(topic);
+        builder.append(", attempts=");
+        builder.append(attempts);
+        builder.append("]");
+        return builder.toString();
+    }
+}
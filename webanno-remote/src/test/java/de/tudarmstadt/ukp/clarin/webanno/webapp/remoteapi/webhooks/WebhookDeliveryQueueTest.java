@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks;
+
+import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.WebhookService.DOCUMENT_STATE;
+import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.WebhookService.X_AERO_NOTIFICATION;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.model.WebhookDelivery;
+
+public class WebhookDeliveryQueueTest
+{
+    private HttpServer server;
+    private List<String> requests;
+    private AtomicInteger failuresLeft;
+    private CountDownLatch release;
+
+    private WebhooksConfiguration configuration;
+    private InMemoryOutbox outbox;
+    private WebhookDeliveryQueue sut;
+    private Webhook hook;
+
+    @Before
+    public void setup() throws Exception
+    {
+        requests = new CopyOnWriteArrayList<>();
+        failuresLeft = new AtomicInteger();
+        release = new CountDownLatch(0);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/hook", this::handle);
+        server.start();
+
+        hook = new Webhook();
+        hook.setUrl("http://localhost:" + server.getAddress().getPort() + "/hook");
+        hook.setTopics(asList(DOCUMENT_STATE));
+
+        configuration = new WebhooksConfiguration();
+        configuration.setGlobalHooks(asList(hook));
+        configuration.setRetryDelay(0);
+
+        outbox = new InMemoryOutbox();
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (sut != null) {
+            sut.destroy();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    public void thatMessageIsDelivered() throws Exception
+    {
+        startQueue();
+
+        sut.submit(hook, DOCUMENT_STATE, "{\"id\":1}");
+
+        await(() -> outbox.deliveries.isEmpty());
+        assertEquals(asList(DOCUMENT_STATE + " {\"id\":1}"), requests);
+        assertEquals(1, sut.getStatistics().getDeliveredCount());
+    }
+
+    @Test
+    public void thatFailedDeliveryIsRetried() throws Exception
+    {
+        failuresLeft.set(2);
+        startQueue();
+
+        sut.submit(hook, DOCUMENT_STATE, "{\"id\":1}");
+
+        await(() -> outbox.deliveries.isEmpty());
+        assertEquals(3, requests.size());
+        assertEquals(2, sut.getStatistics().getFailedRequestCount());
+        assertEquals(1, sut.getStatistics().getDeliveredCount());
+        assertEquals(0, sut.getStatistics().getDiscardedCount());
+    }
+
+    @Test
+    public void thatMessageIsDiscardedAfterMaxAttempts() throws Exception
+    {
+        failuresLeft.set(Integer.MAX_VALUE);
+        configuration.setMaxAttempts(3);
+        startQueue();
+
+        sut.submit(hook, DOCUMENT_STATE, "{\"id\":1}");
+
+        await(() -> sut.getStatistics().getDiscardedCount() == 1);
+        assertEquals(3, requests.size());
+        assertTrue(outbox.deliveries.isEmpty());
+    }
+
+    @Test
+    public void thatQueuedMessagesAreBatched() throws Exception
+    {
+        configuration.setBatchSize(10);
+        release = new CountDownLatch(1);
+        startQueue();
+
+        // The first request blocks until the other messages have been queued
+        sut.submit(hook, DOCUMENT_STATE, "{\"id\":1}");
+        await(() -> requests.size() == 1);
+        sut.submit(hook, DOCUMENT_STATE, "{\"id\":2}");
+        sut.submit(hook, DOCUMENT_STATE, "{\"id\":3}");
+        release.countDown();
+
+        await(() -> outbox.deliveries.isEmpty());
+        assertEquals(asList(DOCUMENT_STATE + " [{\"id\":1}]",
+                DOCUMENT_STATE + " [{\"id\":2},{\"id\":3}]"), requests);
+        assertEquals(3, sut.getStatistics().getDeliveredCount());
+    }
+
+    @Test
+    public void thatPendingMessagesAreDeliveredFromOutbox() throws Exception
+    {
+        // Message left over from before a restart
+        outbox.add(pendingDelivery(hook.getUrl(), "{\"id\":1}"));
+        // Message for a webhook which has been removed in the meantime
+        outbox.add(pendingDelivery("http://localhost/removed", "{}"));
+
+        startQueue();
+
+        await(() -> outbox.deliveries.isEmpty());
+        assertEquals(asList(DOCUMENT_STATE + " {\"id\":1}"), requests);
+        assertEquals(1, sut.getStatistics().getDiscardedCount());
+    }
+
+    private static WebhookDelivery pendingDelivery(String aUrl, String aPayload)
+    {
+        WebhookDelivery delivery = new WebhookDelivery(aUrl, DOCUMENT_STATE, aPayload);
+        delivery.setCreated(new Date(System.currentTimeMillis() - 60_000));
+        return delivery;
+    }
+
+    private void startQueue() throws Exception
+    {
+        sut = new WebhookDeliveryQueue(configuration, outbox, new RestTemplateBuilder());
+        sut.afterPropertiesSet();
+    }
+
+    private void handle(HttpExchange aExchange) throws IOException
+    {
+        String body = IOUtils.toString(aExchange.getRequestBody(), UTF_8);
+        requests.add(aExchange.getRequestHeaders().getFirst(X_AERO_NOTIFICATION) + " " + body);
+        try {
+            release.await(10, SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int status = failuresLeft.getAndDecrement() > 0 ? 500 : 200;
+        aExchange.sendResponseHeaders(status, -1);
+        aExchange.close();
+    }
+
+    private static void await(BooleanSupplier aCondition) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!aCondition.getAsBoolean()) {
+            assertTrue("Timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class InMemoryOutbox
+        implements WebhookOutbox
+    {
+        private final AtomicLong nextId = new AtomicLong(1);
+        private final List<WebhookDelivery> deliveries = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void add(WebhookDelivery aDelivery)
+        {
+            aDelivery.setId(nextId.getAndIncrement());
+            deliveries.add(aDelivery);
+        }
+
+        @Override
+        public void update(List<WebhookDelivery> aDeliveries)
+        {
+            // Deliveries are stored by reference
+        }
+
+        @Override
+        public void remove(List<WebhookDelivery> aDeliveries)
+        {
+            deliveries.removeAll(aDeliveries);
+        }
+
+        @Override
+        public List<WebhookDelivery> listPending()
+        {
+            return new ArrayList<>(deliveries);
+        }
+    }
+}
@@ -25,8 +25,8 @@ import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8_VALUE;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -73,7 +73,7 @@ public class WebhookServiceTest
     private @Autowired TestService testService;
 
     @Test
-    public void test()
+    public void test() throws Exception
     {
         Webhook hook = new Webhook();
         hook.setUrl("http://localhost:" + port + "/test/subscribe");
@@ -104,6 +104,15 @@ public class WebhookServiceTest
         applicationEventPublisher.publishEvent(
                 new AnnotationStateChangeEvent(this, ann, AnnotationDocumentState.IN_PROGRESS));
 
+        // Messages are delivered in the background
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((testService.projectStateChangeMsgs.isEmpty()
+                || testService.docStateChangeMsgs.isEmpty()
+                || testService.annStateChangeMsgs.isEmpty())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
         assertEquals(1, testService.projectStateChangeMsgs.size());
         assertEquals(1, testService.docStateChangeMsgs.size());
         assertEquals(1, testService.annStateChangeMsgs.size());
@@ -113,9 +122,11 @@ public class WebhookServiceTest
     @Controller
     public static class TestService
     {
-        private List<ProjectStateChangeMessage> projectStateChangeMsgs = new ArrayList<>();
-        private List<DocumentStateChangeMessage> docStateChangeMsgs = new ArrayList<>();
-        private List<AnnotationStateChangeMessage> annStateChangeMsgs = new ArrayList<>();
+        private List<ProjectStateChangeMessage> projectStateChangeMsgs =
+                new CopyOnWriteArrayList<>();
+        private List<DocumentStateChangeMessage> docStateChangeMsgs = new CopyOnWriteArrayList<>();
+        private List<AnnotationStateChangeMessage> annStateChangeMsgs =
+                new CopyOnWriteArrayList<>();
 
         @RequestMapping(value = "/subscribe", method = RequestMethod.POST, headers = X_AERO_NOTIFICATION
                 + "="
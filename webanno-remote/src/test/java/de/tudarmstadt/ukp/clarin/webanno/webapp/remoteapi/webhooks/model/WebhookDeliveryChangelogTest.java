@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.webhooks.model;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigurationPackage;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Creates the schema using the Liquibase changelog (instead of letting Hibernate create it) and
+ * checks that it matches the entity.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest(properties = {
+        "spring.liquibase.change-log="
+                + "classpath:/de/tudarmstadt/ukp/clarin/webanno/webapp/remoteapi/webhooks/model/"
+                + "db-changelog.xml",
+        "spring.jpa.hibernate.ddl-auto=validate",
+        "spring.jpa.hibernate.naming.implicit-strategy="
+                + "org.hibernate.boot.model.naming.ImplicitNamingStrategyLegacyJpaImpl",
+        "spring.jpa.hibernate.naming.physical-strategy="
+                + "org.hibernate.boot.model.naming.PhysicalNamingStrategyStandardImpl" })
+public class WebhookDeliveryChangelogTest
+{
+    private @Autowired TestEntityManager entityManager;
+
+    @Test
+    public void thatDeliveryCanBeStoredInSchemaCreatedByChangelog()
+    {
+        WebhookDelivery delivery = new WebhookDelivery("http://localhost/hook", "topic",
+                "{\"payload\": true}");
+        entityManager.persistAndFlush(delivery);
+        entityManager.clear();
+
+        WebhookDelivery stored = entityManager.find(WebhookDelivery.class, delivery.getId());
+        assertEquals("http://localhost/hook", stored.getUrl());
+        assertEquals("{\"payload\": true}", stored.getPayload());
+    }
+
+    @SpringBootConfiguration
+    @AutoConfigurationPackage
+    @EntityScan(basePackageClasses = WebhookDelivery.class)
+    public static class TestContext
+    {
+        // Only scan the webhook entities
+    }
+}
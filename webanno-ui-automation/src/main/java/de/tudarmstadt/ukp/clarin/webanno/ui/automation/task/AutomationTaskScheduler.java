@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.automation.task;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
+
+/**
+ * Runs the automation of MIRA templates in the background. The number of automations running at
+ * the same time is limited. Only a single automation is run for any given template at a time.
+ */
+@Component
+public class AutomationTaskScheduler
+    implements DisposableBean
+{
+    private static final int TASK_THREADS = 2;
+    private static final int PREDICTION_THREADS = 4;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<Long, TaskInfo> tasks = new ConcurrentHashMap<>();
+    private final ApplicationContext applicationContext;
+    private final ExecutorService taskExecutorService;
+    private final ExecutorService predictionExecutorService;
+
+    @Autowired
+    public AutomationTaskScheduler(ApplicationContext aApplicationContext)
+    {
+        applicationContext = aApplicationContext;
+        taskExecutorService = Executors.newFixedThreadPool(TASK_THREADS);
+        predictionExecutorService = Executors.newFixedThreadPool(PREDICTION_THREADS);
+    }
+
+    @Override
+    public void destroy() throws Exception
+    {
+        taskExecutorService.shutdownNow();
+        predictionExecutorService.shutdownNow();
+    }
+
+    /**
+     * Starts the automation of the given template on behalf of the given user.
+     * 
+     * @param aTemplate
+     *            the template.
+     * @param aUsername
+     *            the user starting the automation.
+     * @return {@code false} if the automation of the template is already running or scheduled.
+     */
+    public boolean startAutomation(MiraTemplate aTemplate, String aUsername)
+    {
+        MiraAutomationTask task = new MiraAutomationTask(aTemplate.getId(), aUsername,
+                SecurityContextHolder.getContext(), predictionExecutorService);
+
+        TaskInfo info = new TaskInfo(aTemplate.getId(), task);
+        if (tasks.putIfAbsent(aTemplate.getId(), info) != null) {
+            log.info("Automation of [{}] is already running", aTemplate.getTrainFeature()
+                    .getUiName());
+            return false;
+        }
+
+        try {
+            // This autowires the task fields manually.
+            AutowireCapableBeanFactory factory = applicationContext
+                    .getAutowireCapableBeanFactory();
+            factory.autowireBean(task);
+            factory.initializeBean(task, "transientTask");
+
+            taskExecutorService.execute(info);
+        }
+        catch (RuntimeException e) {
+            tasks.remove(aTemplate.getId(), info);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * @param aTemplate
+     *            the template.
+     * @return if the automation of the given template is running or scheduled.
+     */
+    public boolean isAutomationRunning(MiraTemplate aTemplate)
+    {
+        return aTemplate.getId() != null && tasks.containsKey(aTemplate.getId());
+    }
+
+    /**
+     * Cancels the automation of the given template.
+     * 
+     * @param aTemplate
+     *            the template.
+     * @return {@code false} if the automation of the template is not running.
+     */
+    public boolean cancelAutomation(MiraTemplate aTemplate)
+    {
+        TaskInfo info = aTemplate.getId() != null ? tasks.get(aTemplate.getId()) : null;
+
+        if (info == null) {
+            return false;
+        }
+
+        info.cancel(true);
+
+        return true;
+    }
+
+    private class TaskInfo
+        extends FutureTask<Void>
+    {
+        private final long templateId;
+
+        public TaskInfo(long aTemplateId, MiraAutomationTask aTask)
+        {
+            super(aTask, null);
+            templateId = aTemplateId;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                super.run();
+            }
+            finally {
+                // The task remains registered until it has actually stopped, even if it has been
+                // cancelled before, such that it cannot run concurrently with its successor
+                tasks.remove(templateId, this);
+            }
+        }
+    }
+}
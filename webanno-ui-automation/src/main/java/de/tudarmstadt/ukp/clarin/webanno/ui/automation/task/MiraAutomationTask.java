@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.automation.task;
+
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CorrectionDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.AutomationStatus;
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
+import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Status;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+import de.tudarmstadt.ukp.clarin.webanno.ui.automation.util.AutomationUtil;
+
+/**
+ * Trains the MIRA classifier of a template and predicts the annotations of the source documents.
+ * The progress is recorded in the {@link AutomationStatus} of the template. The task checks for
+ * interruption between the steps such that it can be cancelled.
+ */
+public class MiraAutomationTask
+    implements Runnable
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final long templateId;
+    private final String username;
+    private final SecurityContext securityContext;
+    private final ExecutorService predictionExecutor;
+
+    private @Autowired AnnotationSchemaService annotationService;
+    private @Autowired AutomationService automationService;
+    private @Autowired DocumentService documentService;
+    private @Autowired CurationDocumentService curationDocumentService;
+    private @Autowired CorrectionDocumentService correctionDocumentService;
+    private @Autowired UserDao userRepository;
+    private @Autowired EntityManagerFactory entityManagerFactory;
+
+    private EntityManager entityManager;
+    private MiraTemplate template;
+
+    public MiraAutomationTask(long aTemplateId, String aUsername,
+            SecurityContext aSecurityContext, ExecutorService aPredictionExecutor)
+    {
+        templateId = aTemplateId;
+        username = aUsername;
+        securityContext = aSecurityContext;
+        predictionExecutor = aPredictionExecutor;
+    }
+
+    @Override
+    public void run()
+    {
+        // Like a request, the task uses a single persistence context and a single CAS storage
+        // session for all its steps. The template is loaded into this persistence context - the
+        // instance used by the UI must not be shared with the task.
+        entityManager = entityManagerFactory.createEntityManager();
+        TransactionSynchronizationManager.bindResource(entityManagerFactory,
+                new EntityManagerHolder(entityManager));
+        try (CasStorageSession session = CasStorageSession.open()) {
+            template = automationService.getMiraTemplate(templateId);
+
+            // We are in a new thread. Set up the thread-specific MDC and the security context -
+            // the automation steps obtain the current user from the latter
+            Project project = template.getTrainFeature().getProject();
+            Logging.setMDC(project.getId(), username);
+            SecurityContextHolder.setContext(securityContext);
+
+            automate(project);
+        }
+        finally {
+            TransactionSynchronizationManager.unbindResource(entityManagerFactory);
+            EntityManagerFactoryUtils.closeEntityManager(entityManager);
+            SecurityContextHolder.clearContext();
+            Logging.clearMDC();
+        }
+    }
+
+    private void automate(Project aProject)
+    {
+        AutomationStatus status = automationService.existsAutomationStatus(template)
+                ? automationService.getAutomationStatus(template)
+                : new AutomationStatus();
+        try {
+            int annoDocs = 0;
+            int trainDocs = 0;
+            for (SourceDocument document : documentService.listSourceDocuments(aProject)) {
+                if (document.getState().equals(SourceDocumentState.CURATION_FINISHED)) {
+                    trainDocs++;
+                }
+                else {
+                    annoDocs++;
+                }
+            }
+            trainDocs += automationService.listTrainingDocuments(aProject).size();
+
+            status.setStartime(new Date());
+            status.setEndTime(status.getStartime());
+            status.setTrainDocs(trainDocs);
+            status.setAnnoDocs(annoDocs);
+            status.setTotalDocs(annoDocs + trainDocs);
+            status.setTemplate(template);
+            updateTemplate(t -> {
+                t.setAutomationStarted(true);
+                t.setResult("---");
+            });
+            updateStatus(status, Status.GENERATE_TRAIN_DOC);
+
+            AutomationUtil.addOtherFeatureTrainDocument(template, annotationService,
+                    automationService, userRepository);
+            AutomationUtil.otherFeatureClassifiers(template, documentService, automationService);
+            checkInterrupted();
+
+            AutomationUtil.addTabSepTrainDocument(template, automationService);
+            AutomationUtil.tabSepClassifiers(template, automationService);
+            checkInterrupted();
+
+            AutomationUtil.generateTrainDocument(template, documentService,
+                    curationDocumentService, annotationService, automationService,
+                    userRepository, true);
+            AutomationUtil.generatePredictDocument(template, documentService,
+                    correctionDocumentService, annotationService, automationService,
+                    userRepository);
+            checkInterrupted();
+
+            updateStatus(status, Status.GENERATE_CLASSIFIER);
+            String result = AutomationUtil.generateFinalClassifier(template, documentService,
+                    curationDocumentService, annotationService, automationService,
+                    userRepository);
+            updateTemplate(t -> t.setResult(result));
+            AutomationUtil.addOtherFeatureToPredictDocument(template, documentService,
+                    annotationService, automationService, userRepository);
+            checkInterrupted();
+
+            updateStatus(status, Status.PREDICTION);
+            AutomationUtil.predict(template, documentService, correctionDocumentService,
+                    automationService, userRepository, predictionExecutor);
+            AutomationUtil.deleteStaleFeatureCaches(template, automationService);
+
+            status.setStatus(Status.COMPLETED);
+            log.info("Automation of [{}] completed", template.getTrainFeature().getUiName());
+        }
+        catch (InterruptedException | ClosedByInterruptException e) {
+            // Clear the interrupt flag such that the status can still be saved
+            Thread.interrupted();
+            status.setStatus(Status.INTERRUPTED);
+            log.info("Automation of [{}] cancelled", template.getTrainFeature().getUiName());
+        }
+        catch (Exception e) {
+            status.setStatus(Status.INTERRUPTED);
+            log.error("Error during automation", e);
+        }
+        finally {
+            status.setEndTime(new Date());
+            updateTemplate(t -> t.setAutomationStarted(false));
+            automationService.createAutomationStatus(status);
+        }
+    }
+
+    private void updateStatus(AutomationStatus aStatus, Status aState)
+    {
+        aStatus.setStatus(aState);
+        automationService.createAutomationStatus(aStatus);
+    }
+
+    /**
+     * Applies the given change to the template and saves it. The template is refreshed first such
+     * that changes made in the UI while the automation is running are not overwritten.
+     */
+    private void updateTemplate(Consumer<MiraTemplate> aChange)
+    {
+        entityManager.refresh(template);
+        aChange.accept(template);
+        automationService.createTemplate(template);
+    }
+
+    private static void checkInterrupted() throws InterruptedException
+    {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
@@ -17,11 +17,16 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.ui.automation.util;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.MIRA_FEATURE_CACHE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getSelectedText;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectSentences;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectTokens;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectTokensCovered;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHARED_READ_ONLY_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.UNMANAGED_ACCESS;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
@@ -29,19 +34,29 @@ import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.persistence.NoResultException;
 
@@ -49,6 +64,8 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.LineIterator;
 import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
@@ -74,6 +91,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.AutomationStatus;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
 import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
@@ -468,22 +486,20 @@ public class AutomationUtil
                 continue;
             }
 
-            BufferedWriter trainOut = new BufferedWriter(new FileWriter(trainFile));
             TypeAdapter adapter = aAnnotationService.getAdapter(feature.getLayer());
-            for (TrainingDocument trainingDocument : aAutomationService
-                    .listTrainingDocuments(feature.getProject())) {
-                if ((trainingDocument.getFeature() != null
-                        && trainingDocument.getFeature().equals(feature))) {
-                    CAS cas = aAutomationService.readTrainingAnnotationCas(trainingDocument);
-                    for (AnnotationFS sentence : selectSentences(cas)) {
-                        trainOut.append(getMiraLine(aAnnotationService, sentence, feature, adapter)
-                                .toString()).append("\n");
+            try (MiraFeatureWriter trainOut = new MiraFeatureWriter(
+                    new BufferedWriter(new FileWriter(trainFile)))) {
+                for (TrainingDocument trainingDocument : aAutomationService
+                        .listTrainingDocuments(feature.getProject())) {
+                    if ((trainingDocument.getFeature() != null
+                            && trainingDocument.getFeature().equals(feature))) {
+                        writeTrainingDocument(trainOut, miraDir, trainingDocument, feature, feature,
+                                adapter, aAnnotationService, aAutomationService);
+                        trainingDocument.setProcessed(false);
+                        status.setTrainDocs(status.getTrainDocs() - 1);
                     }
-                    trainingDocument.setProcessed(false);
-                    status.setTrainDocs(status.getTrainDocs() - 1);
                 }
             }
-            trainOut.close();
         }
     }
 
@@ -528,7 +544,10 @@ public class AutomationUtil
             User user = aUserDao.getCurrentUser();
             AnnotationDocument annodoc = aRepository.createOrGetAnnotationDocument(aSourceDocument,
                     user);
-            CAS cas = aRepository.readAnnotationCas(annodoc);
+            // The CAS is only read - it must not be held exclusively because it is read again
+            // when the predictions are written to the correction CAS
+            CAS cas = aRepository.readAnnotationCas(annodoc.getDocument(), annodoc.getUser(),
+                    AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS);
             for (AnnotationFS sentence : selectSentences(cas)) {
                 switch (aFeature.getLayer().getAnchoringMode()) {
                 case TOKENS:
@@ -577,27 +596,14 @@ public class AutomationUtil
             }
             File trainFile = new File(miraDir,
                     trainingDocument.getId() + trainingDocument.getProject().getId() + ".train");
-            BufferedWriter trainOut = new BufferedWriter(new FileWriter(trainFile));
             File tabSepFile = new File(aAutomationService.getDocumentFolder(trainingDocument),
                     trainingDocument.getName());
-            LineIterator it = IOUtils.lineIterator(new FileReader(tabSepFile));
-            while (it.hasNext()) {
-                String line = it.next();
-                if (line.trim().equals("")) {
-                    trainOut.append("\n");
-                }
-                else {
-                    StringTokenizer st = new StringTokenizer(line, "\t");
-                    if (st.countTokens() != 2) {
-                        trainOut.close();
-                        throw new AutomationException("This is not a valid TAB-SEP document");
-                    }
-                    trainOut.append(getMiraLineForTabSep(st.nextToken(), st.nextToken()));
-                }
+            try (MiraFeatureWriter trainOut = new MiraFeatureWriter(
+                    new BufferedWriter(new FileWriter(trainFile)))) {
+                writeTabSepDocument(trainOut, tabSepFile, true);
             }
             trainingDocument.setProcessed(false);
             status.setTrainDocs(status.getTrainDocs() - 1);
-            trainOut.close();
         }
 
     }
@@ -665,94 +671,62 @@ public class AutomationUtil
 
         AutomationStatus status = aAutomationService.getAutomationStatus(aTemplate);
 
-        BufferedWriter trainOut = new BufferedWriter(new FileWriter(trainFile));
         TypeAdapter adapter = aAnnotationService.getAdapter(feature.getLayer());
-        // Training documents (Curated or webanno-compatible imported ones - read using UIMA)
-        List<TrainingDocument> trainingDocuments = aAutomationService
-                .listTrainingDocuments(feature.getProject());
-        int trainingDocsCount = 0;
-        for (TrainingDocument trainingDocument : trainingDocuments) {
-            if ((trainingDocument.getFeature() != null
-                    && trainingDocument.getFeature().equals(feature))
-                    && !trainingDocument.getFormat().equals(WebAnnoConst.TAB_SEP)) {
-                CAS cas = aAutomationService.readTrainingAnnotationCas(trainingDocument);
-                for (AnnotationFS sentence : selectSentences(cas)) {
-                    if (aBase) { // base training document
-                        trainOut.append(
-                                getMiraLine(aAnnotationService, sentence, null, adapter).toString())
-                                .append("\n");
-                    }
-                    else { // training document with other features
-                        trainOut.append(getMiraLine(aAnnotationService, sentence, feature, adapter)
-                                .toString()).append("\n");
+        try (MiraFeatureWriter trainOut = new MiraFeatureWriter(
+                new BufferedWriter(new FileWriter(trainFile)))) {
+            // Training documents (Curated or webanno-compatible imported ones - read using UIMA)
+            List<TrainingDocument> trainingDocuments = aAutomationService
+                    .listTrainingDocuments(feature.getProject());
+            int trainingDocsCount = 0;
+            for (TrainingDocument trainingDocument : trainingDocuments) {
+                if ((trainingDocument.getFeature() != null
+                        && trainingDocument.getFeature().equals(feature))
+                        && !trainingDocument.getFormat().equals(WebAnnoConst.TAB_SEP)) {
+                    // The base training document does not contain the labels
+                    writeTrainingDocument(trainOut, miraDir, trainingDocument,
+                            aBase ? null : feature, feature, adapter, aAnnotationService,
+                            aAutomationService);
+                    trainingDocument.setProcessed(!aBase);
+                    if (!aBase) {
+                        status.setTrainDocs(status.getTrainDocs() - 1);
                     }
                 }
-                trainingDocument.setProcessed(!aBase);
-                if (!aBase) {
-                    status.setTrainDocs(status.getTrainDocs() - 1);
-                }
             }
-        }
-        // for curated docuemnts
-        List<SourceDocument> sourceDocuments = aRepository
-                .listSourceDocuments(feature.getProject());
-        for (SourceDocument sourceDocument : sourceDocuments) {
-            if (sourceDocument.getState().equals(SourceDocumentState.CURATION_FINISHED)) {
-                CAS cas = aCurationDocumentService.readCurationCas(sourceDocument);
-                for (AnnotationFS sentence : selectSentences(cas)) {
-                    if (aBase) { // base training document
-                        trainOut.append(
-                                getMiraLine(aAnnotationService, sentence, null, adapter).toString())
-                                .append("\n");
+            // for curated docuemnts
+            List<SourceDocument> sourceDocuments = aRepository
+                    .listSourceDocuments(feature.getProject());
+            for (SourceDocument sourceDocument : sourceDocuments) {
+                if (sourceDocument.getState().equals(SourceDocumentState.CURATION_FINISHED)) {
+                    CAS cas = aCurationDocumentService.readCurationCas(sourceDocument);
+                    for (AnnotationFS sentence : selectSentences(cas)) {
+                        writeSentence(trainOut, aAnnotationService, sentence,
+                                aBase ? null : feature, adapter);
                     }
-                    else { // training document with other features
-                        trainOut.append(getMiraLine(aAnnotationService, sentence, feature, adapter)
-                                .toString()).append("\n");
+                    if (!aBase) {
+                        status.setTrainDocs(status.getTrainDocs() - 1);
                     }
                 }
-                if (!aBase) {
-                    status.setTrainDocs(status.getTrainDocs() - 1);
-                }
-            }
-            trainingDocsCount++;
-            LOG.info("Processed source document " + trainingDocsCount + " of "
-                    + trainingDocuments.size());
-        }
-        // Tab-sep documents to be used as a target layer train document
-        int goldStandardDocsCounter = 0;
-        List<TrainingDocument> goldStandardDocs = aAutomationService
-                .listTabSepDocuments(feature.getProject());
-        for (TrainingDocument document : goldStandardDocs) {
-            if (document.getFormat().equals(WebAnnoConst.TAB_SEP) && document.getFeature() != null
-                    && document.getFeature().equals(feature)) {
-                File tabSepFile = new File(aAutomationService.getDocumentFolder(document),
-                        document.getName());
-                LineIterator it = IOUtils.lineIterator(new FileReader(tabSepFile));
-                while (it.hasNext()) {
-                    String line = it.next();
-                    if (line.trim().equals("")) {
-                        trainOut.append("\n");
-                    }
-                    else {
-                        StringTokenizer st = new StringTokenizer(line, "\t");
-                        if (st.countTokens() != 2) {
-                            trainOut.close();
-                            throw new AutomationException("This is not a valid TAB-SEP document");
-                        }
-                        if (aBase) {
-                            trainOut.append(getMiraLineForTabSep(st.nextToken(), ""));
-                        }
-                        else {
-                            trainOut.append(getMiraLineForTabSep(st.nextToken(), st.nextToken()));
-                        }
-                    }
+                trainingDocsCount++;
+                LOG.info("Processed source document " + trainingDocsCount + " of "
+                        + trainingDocuments.size());
+            }
+            // Tab-sep documents to be used as a target layer train document
+            int goldStandardDocsCounter = 0;
+            List<TrainingDocument> goldStandardDocs = aAutomationService
+                    .listTabSepDocuments(feature.getProject());
+            for (TrainingDocument document : goldStandardDocs) {
+                if (document.getFormat().equals(WebAnnoConst.TAB_SEP)
+                        && document.getFeature() != null
+                        && document.getFeature().equals(feature)) {
+                    File tabSepFile = new File(aAutomationService.getDocumentFolder(document),
+                            document.getName());
+                    writeTabSepDocument(trainOut, tabSepFile, !aBase);
                 }
+                goldStandardDocsCounter++;
+                LOG.info("Processed gold standard document " + goldStandardDocsCounter + " of "
+                        + goldStandardDocs.size());
             }
-            goldStandardDocsCounter++;
-            LOG.info("Processed gold standard document " + goldStandardDocsCounter + " of "
-                    + goldStandardDocs.size());
         }
-        trainOut.close();
 
         LOG.info("Completed generating training document");
     }
@@ -774,31 +748,122 @@ public class AutomationUtil
         TypeAdapter adapter = aAnnotationService.getAdapter(feature.getLayer());
         for (SourceDocument document : aRepository.listSourceDocuments(feature.getProject())) {
             File predFile = new File(miraDir, document.getId() + ".pred.ft");
-            BufferedWriter predOut = new BufferedWriter(new FileWriter(predFile));
-            CAS cas;
-            try {
-                cas = aCorrectionDocumentService.readCorrectionCas(document);
+            // Release the CASes as soon as the features are written - otherwise they would remain
+            // locked for the entire automation run
+            try (CasStorageSession session = CasStorageSession.openNested()) {
+                CAS cas;
+                try {
+                    cas = aCorrectionDocumentService.readCorrectionCas(document);
+                }
+                catch (Exception e) {
+                    AnnotationDocument annoDoc = aRepository.createOrGetAnnotationDocument(document,
+                            user);
+                    cas = aRepository.readAnnotationCas(document, annoDoc.getUser(),
+                            AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS);
+                }
+
+                try (MiraFeatureWriter predOut = new MiraFeatureWriter(
+                        new BufferedWriter(new FileWriter(predFile)))) {
+                    for (AnnotationFS sentence : selectSentences(cas)) {
+                        writeSentence(predOut, aAnnotationService, sentence, null, adapter);
+                    }
+                }
             }
-            catch (Exception e) {
-                AnnotationDocument annoDoc = aRepository.createOrGetAnnotationDocument(document,
-                        user);
-                cas = aRepository.readAnnotationCas(annoDoc);
+        }
+    }
+
+    /**
+     * Writes the MIRA features of a training document. The features are cached per document and
+     * only re-generated if the training document has changed since they were last generated.
+     */
+    private static void writeTrainingDocument(MiraFeatureWriter aOut, File aMiraDir,
+            TrainingDocument aDocument, AnnotationFeature aLabelFeature,
+            AnnotationFeature aFeature, TypeAdapter aAdapter,
+            AnnotationSchemaService aAnnotationService, AutomationService aAutomationService)
+        throws IOException, CASException
+    {
+        File cacheFile = new File(new File(aMiraDir, MIRA_FEATURE_CACHE),
+                aDocument.getId() + "-" + aFeature.getId()
+                        + (aLabelFeature == null ? ".base" : "") + ".ft");
+        File casFile = aAutomationService.getCasFile(aDocument);
+        if (!cacheFile.exists() || !casFile.exists()
+                || cacheFile.lastModified() <= casFile.lastModified()) {
+            FileUtils.forceMkdirParent(cacheFile);
+            CAS cas = aAutomationService.readTrainingAnnotationCas(aDocument);
+            File tmpFile = new File(cacheFile.getPath() + ".tmp");
+            try (MiraFeatureWriter cacheOut = new MiraFeatureWriter(
+                    new BufferedWriter(new FileWriter(tmpFile)))) {
+                for (AnnotationFS sentence : selectSentences(cas)) {
+                    writeSentence(cacheOut, aAnnotationService, sentence, aLabelFeature, aAdapter);
+                }
             }
+            Files.move(tmpFile.toPath(), cacheFile.toPath(), REPLACE_EXISTING);
+            LOG.debug("Generated MIRA features for training document [{}]({})",
+                    aDocument.getName(), aDocument.getId());
+        }
+        aOut.writeFile(cacheFile);
+    }
 
-            for (AnnotationFS sentence : selectSentences(cas)) {
-                predOut.append(getMiraLine(aAnnotationService, sentence, null, adapter).toString())
-                        .append("\n");
+    /**
+     * Deletes the cached MIRA features of training documents which no longer exist in the project
+     * of the template.
+     */
+    public static void deleteStaleFeatureCaches(MiraTemplate aTemplate,
+            AutomationService aAutomationService)
+        throws IOException
+    {
+        File cacheDir = new File(aAutomationService.getMiraDir(aTemplate.getTrainFeature()),
+                MIRA_FEATURE_CACHE);
+        File[] cacheFiles = cacheDir.listFiles();
+        if (cacheFiles == null) {
+            return;
+        }
+
+        Set<String> documentIds = new HashSet<>();
+        for (TrainingDocument document : aAutomationService
+                .listTrainingDocuments(aTemplate.getTrainFeature().getProject())) {
+            documentIds.add(String.valueOf(document.getId()));
+        }
+
+        for (File cacheFile : cacheFiles) {
+            String documentId = StringUtils.substringBefore(cacheFile.getName(), "-");
+            if (!documentIds.contains(documentId)) {
+                FileUtils.forceDelete(cacheFile);
+                LOG.debug("Deleted stale MIRA features [{}]", cacheFile.getName());
             }
-            predOut.close();
         }
     }
 
-    private static StringBuffer getMiraLine(AnnotationSchemaService aAnnotationService,
-            AnnotationFS sentence, AnnotationFeature aLayerFeature, TypeAdapter aAdapter)
-        throws CASException
+    /**
+     * Writes the MIRA features of a TAB-SEP document (token TAB label).
+     */
+    private static void writeTabSepDocument(MiraFeatureWriter aOut, File aTabSepFile,
+            boolean aWithLabel)
+        throws IOException, AutomationException
     {
-        StringBuffer sb = new StringBuffer();
+        try (LineIterator it = IOUtils.lineIterator(new FileReader(aTabSepFile))) {
+            while (it.hasNext()) {
+                String line = it.next();
+                if (line.trim().equals("")) {
+                    aOut.endSentence();
+                }
+                else {
+                    StringTokenizer st = new StringTokenizer(line, "\t");
+                    if (st.countTokens() != 2) {
+                        throw new AutomationException("This is not a valid TAB-SEP document");
+                    }
+                    String token = st.nextToken();
+                    aOut.writeToken(token, true, aWithLabel ? st.nextToken() : "");
+                }
+            }
+        }
+    }
 
+    private static void writeSentence(MiraFeatureWriter aOut,
+            AnnotationSchemaService aAnnotationService, AnnotationFS sentence,
+            AnnotationFeature aLayerFeature, TypeAdapter aAdapter)
+        throws IOException, CASException
+    {
         String tag = "";
         List<String> annotations = new ArrayList<>();
         Map<Integer, String> multAnno = null;
@@ -816,45 +881,10 @@ public class AutomationUtil
             }
         }
 
+        boolean affixes = aLayerFeature == null
+                || AnchoringMode.SINGLE_TOKEN.equals(aLayerFeature.getLayer().getAnchoringMode());
         int i = 0;
         for (AnnotationFS token : selectTokensCovered(sentence)) {
-            String word = token.getCoveredText();
-
-            char[] words = word.toCharArray();
-
-            String prefix1 = "", prefix2 = "", prefix3 = "", prefix4 = "", suffix1 = "",
-                    suffix2 = "", suffix3 = "", suffix4 = "";
-            if (aLayerFeature == null || AnchoringMode.SINGLE_TOKEN
-                    .equals(aLayerFeature.getLayer().getAnchoringMode())) {
-                prefix1 = Character.toString(words[0]) + " ";
-                prefix2 = (words.length > 1 ? prefix1.trim()
-                        + (Character.toString(words[1]).trim().equals("") ? "__nil__"
-                                : Character.toString(words[1]))
-                        : "__nil__") + " ";
-                prefix3 = (words.length > 2 ? prefix2.trim()
-                        + (Character.toString(words[2]).trim().equals("") ? "__nil__"
-                                : Character.toString(words[2]))
-                        : "__nil__") + " ";
-                prefix4 = (words.length > 3 ? prefix3.trim()
-                        + (Character.toString(words[3]).trim().equals("") ? "__nil__"
-                                : Character.toString(words[3]))
-                        : "__nil__") + " ";
-                suffix1 = Character.toString(words[words.length - 1]) + " ";
-                suffix2 = (words.length > 1
-                        ? (Character.toString(words[words.length - 2]).trim().equals("") ? "__nil__"
-                                : Character.toString(words[words.length - 2])) + suffix1.trim()
-                        : "__nil__") + " ";
-                suffix3 = (words.length > 2
-                        ? (Character.toString(words[words.length - 3]).trim().equals("") ? "__nil__"
-                                : Character.toString(words[words.length - 3])) + suffix2.trim()
-                        : "__nil__") + " ";
-                suffix4 = (words.length > 3
-                        ? (Character.toString(words[words.length - 4]).trim().equals("") ? "__nil__"
-                                : Character.toString(words[words.length - 4])) + suffix3.trim()
-                        : "__nil__") + " ";
-            }
-            String nl = "\n";
-
             if (aLayerFeature != null) {
                 if (AnchoringMode.TOKENS.equals(aLayerFeature.getLayer().getAnchoringMode())) {
                     tag = multAnno.get(getAddr(token)) == null ? "O" : multAnno.get(getAddr(token));
@@ -863,54 +893,10 @@ public class AutomationUtil
                     tag = annotations.size() == 0 ? NILL : annotations.get(i);
                     i++;
                 }
-
             }
-            sb.append(word).append(" ").append(prefix1).append(prefix2).append(prefix3)
-                    .append(prefix4).append(suffix1).append(suffix2).append(suffix3).append(suffix4)
-                    .append(tag).append(nl);
+            aOut.writeToken(token.getCoveredText(), affixes, tag);
         }
-        return sb;
-
-    }
-
-    private static StringBuffer getMiraLineForTabSep(String aToken, String aFeature)
-        throws CASException
-    {
-        StringBuffer sb = new StringBuffer();
-        char[] words = aToken.toCharArray();
-        String prefix1 = Character.toString(words[0]) + " ";
-        String prefix2 = (words.length > 1
-                ? prefix1.trim() + (Character.toString(words[1]).trim().equals("") ? "__nil__"
-                        : Character.toString(words[1]))
-                : "__nil__") + " ";
-        String prefix3 = (words.length > 2
-                ? prefix2.trim() + (Character.toString(words[2]).trim().equals("") ? "__nil__"
-                        : Character.toString(words[2]))
-                : "__nil__") + " ";
-        String prefix4 = (words.length > 3
-                ? prefix3.trim() + (Character.toString(words[3]).trim().equals("") ? "__nil__"
-                        : Character.toString(words[3]))
-                : "__nil__") + " ";
-        String suffix1 = Character.toString(words[words.length - 1]) + " ";
-        String suffix2 = (words.length > 1
-                ? (Character.toString(words[words.length - 2]).trim().equals("") ? "__nil__"
-                        : Character.toString(words[words.length - 2])) + suffix1.trim()
-                : "__nil__") + " ";
-        String suffix3 = (words.length > 2
-                ? (Character.toString(words[words.length - 3]).trim().equals("") ? "__nil__"
-                        : Character.toString(words[words.length - 3])) + suffix2.trim()
-                : "__nil__") + " ";
-        String suffix4 = (words.length > 3
-                ? (Character.toString(words[words.length - 4]).trim().equals("") ? "__nil__"
-                        : Character.toString(words[words.length - 4])) + suffix3.trim()
-                : "__nil__") + " ";
-
-        String nl = "\n";
-        sb.append(aToken).append(" ").append(prefix1).append(prefix2).append(prefix3)
-                .append(prefix4).append(suffix1).append(suffix2).append(suffix3).append(suffix4)
-                .append(aFeature).append(nl);
-        return sb;
-
+        aOut.endSentence();
     }
 
     /**
@@ -1549,8 +1535,16 @@ public class AutomationUtil
             List<List<String>> aPredictions)
         throws IOException
     {
-        LineIterator it = IOUtils.lineIterator(new FileReader(aBaseFile));
-        StringBuilder trainBuffer = new StringBuilder();
+        try (LineIterator it = IOUtils.lineIterator(new FileReader(aBaseFile));
+                Writer trainBuffer = new BufferedWriter(new FileWriter(aTrainFile))) {
+            buildTrainFile(it, trainBuffer, aPredictions);
+        }
+    }
+
+    private static void buildTrainFile(LineIterator it, Writer trainBuffer,
+            List<List<String>> aPredictions)
+        throws IOException
+    {
         int i = 0;
         while (it.hasNext()) {
             String line = it.next();
@@ -1579,8 +1573,6 @@ public class AutomationUtil
             trainBuffer.append(label).append("\n");
             i++;
         }
-        IOUtils.write(trainBuffer.toString(), new FileOutputStream(aTrainFile));
-
     }
 
     // add additional features predicted so that it will have the same number of features as the
@@ -1589,8 +1581,16 @@ public class AutomationUtil
             List<List<String>> aPredictions, AnnotationFeature aFeature)
         throws IOException
     {
-        LineIterator it = IOUtils.lineIterator(new FileReader(apredFt));
-        StringBuilder predBuffer = new StringBuilder();
+        try (LineIterator it = IOUtils.lineIterator(new FileReader(apredFt));
+                Writer predBuffer = new BufferedWriter(new FileWriter(aPredFile))) {
+            buildPredictFile(it, predBuffer, aPredictions, aFeature);
+        }
+    }
+
+    private static void buildPredictFile(LineIterator it, Writer predBuffer,
+            List<List<String>> aPredictions, AnnotationFeature aFeature)
+        throws IOException
+    {
         int i = 0;
         while (it.hasNext()) {
             String line = it.next();
@@ -1622,8 +1622,6 @@ public class AutomationUtil
             predBuffer.append("\n");
             i++;
         }
-
-        IOUtils.write(predBuffer.toString(), new FileOutputStream(aPredFile));
     }
 
     /**
@@ -1738,42 +1736,107 @@ public class AutomationUtil
         }
     }
 
+    /**
+     * Predicts the annotations of all source documents using the final classifier and writes them
+     * to the correction CASes. The documents are decoded in parallel using the given executor. The
+     * MIRA decoder is not thread-safe, so each worker loads its own copy of the model. The CASes
+     * are only accessed by the calling thread. The progress is recorded in the automation status.
+     */
     public static void predict(MiraTemplate aTemplate, DocumentService aRepository,
             CorrectionDocumentService aCorrectionDocumentService,
-            AutomationService aAutomationService, UserDao aUserDao)
-        throws UIMAException, ClassNotFoundException, IOException, AnnotationException
+            AutomationService aAutomationService, UserDao aUserDao, ExecutorService aExecutor)
+        throws UIMAException, ClassNotFoundException, IOException, AnnotationException,
+        InterruptedException
     {
         AnnotationFeature layerFeature = aTemplate.getTrainFeature();
 
         File miraDir = aAutomationService.getMiraDir(layerFeature);
         AutomationStatus status = aAutomationService.getAutomationStatus(aTemplate);
-        for (SourceDocument document : aRepository.listSourceDocuments(layerFeature.getProject())) {
-            File predFile = new File(miraDir, document.getId() + ".pred");
-            Mira mira = new Mira();
-            int shiftColumns = 0;
-            int nbest = 1;
-            int beamSize = 0;
-            boolean maxPosteriors = false;
-            String modelName = aAutomationService.getMiraModel(layerFeature, false, null)
-                    .getAbsolutePath();
-            String testName = predFile.getAbsolutePath();
-            File predcitedFile = new File(predFile.getAbsolutePath() + "-pred");
-            PrintStream stream = new PrintStream(predcitedFile);
-            BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
-            if (testName != null) {
-                input = new BufferedReader(new FileReader(testName));
+        User user = aUserDao.getCurrentUser();
+        String modelFile = aAutomationService.getMiraModel(layerFeature, false, null)
+                .getAbsolutePath();
+
+        // Decoders which have already loaded the model but are not used by any worker right now
+        Queue<Mira> idleDecoders = new ConcurrentLinkedQueue<>();
+
+        CompletionService<Pair<SourceDocument, List<String>>> completionService =
+                new ExecutorCompletionService<>(aExecutor);
+        List<Future<Pair<SourceDocument, List<String>>>> predictions = new ArrayList<>();
+        try {
+            for (SourceDocument document : aRepository
+                    .listSourceDocuments(layerFeature.getProject())) {
+                predictions.add(completionService.submit(() -> {
+                    Mira idleDecoder = idleDecoders.poll();
+                    Mira decoder = idleDecoder != null ? idleDecoder : loadDecoder(modelFile);
+                    try {
+                        return Pair.of(document, decode(decoder, miraDir, document));
+                    }
+                    finally {
+                        idleDecoders.add(decoder);
+                    }
+                }));
+            }
+
+            // The CASes and the status are only accessed by the calling thread - the workers
+            // only decode
+            for (int i = 0; i < predictions.size(); i++) {
+                Pair<SourceDocument, List<String>> prediction = completionService.take().get();
+                SourceDocument document = prediction.getKey();
+                writePredictions(document, prediction.getValue(), layerFeature, user, aRepository,
+                        aCorrectionDocumentService);
+                LOG.info("Completed prediction for document [{}]({})", document.getName(),
+                        document.getId());
+                status.setAnnoDocs(status.getAnnoDocs() - 1);
+                aAutomationService.createAutomationStatus(status);
             }
-            mira.loadModel(modelName);
-            mira.setShiftColumns(shiftColumns);
-            mira.nbest = nbest;
-            mira.beamSize = beamSize;
-            mira.maxPosteriors = maxPosteriors;
-            mira.test(input, stream);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        finally {
+            // Stop the remaining predictions if a prediction failed or if we were interrupted
+            predictions.forEach(prediction -> prediction.cancel(true));
+        }
+    }
 
-            LOG.info("Prediction is written to a MIRA File. To be done is writing back to the CAS");
-            LineIterator it = IOUtils.lineIterator(new FileReader(predcitedFile));
-            List<String> annotations = new ArrayList<>();
+    private static Mira loadDecoder(String aModelFile) throws IOException, ClassNotFoundException
+    {
+        Mira mira = new Mira();
+        mira.loadModel(aModelFile);
+        mira.setShiftColumns(0);
+        mira.nbest = 1;
+        mira.beamSize = 0;
+        mira.maxPosteriors = false;
+        return mira;
+    }
+
+    private static List<String> decode(Mira aMira, File aMiraDir, SourceDocument aDocument)
+        throws IOException
+    {
+        File predFile = new File(aMiraDir, aDocument.getId() + ".pred");
+        File predcitedFile = new File(predFile.getAbsolutePath() + "-pred");
+        try (BufferedReader input = new BufferedReader(new FileReader(predFile));
+                PrintStream stream = new PrintStream(predcitedFile)) {
+            aMira.test(input, stream);
+        }
 
+        LOG.info("Prediction is written to a MIRA File. To be done is writing back to the CAS");
+        List<String> annotations = new ArrayList<>();
+        try (FileReader reader = new FileReader(predcitedFile)) {
+            LineIterator it = IOUtils.lineIterator(reader);
             while (it.hasNext()) {
                 String line = it.next();
                 if (line.trim().equals("")) {
@@ -1787,24 +1850,30 @@ public class AutomationUtil
                 }
                 annotations.add(tag);
             }
+        }
+        return annotations;
+    }
 
-            LOG.info("[{}] predictions found to be written to the CAS", annotations.size());
-            CAS cas = null;
-            User user = aUserDao.getCurrentUser();
-            try {
-                AnnotationDocument annoDocument = aRepository.getAnnotationDocument(document, user);
-                cas = aRepository.readAnnotationCas(annoDocument);
-                automate(cas, layerFeature, annotations);
-                // We need to clear the timestamp since we read from the annotation CAS and write
-                // to the correction CAS - this makes the comparison between the time stamp
-                // stored in the CAS and the on-disk timestamp of the correction CAS invalid
-                CasMetadataUtils.clearCasMetadata(cas);
-                aCorrectionDocumentService.writeCorrectionCas(cas, document);
-                status.setAnnoDocs(status.getAnnoDocs() - 1);
-            }
-            catch (DataRetrievalFailureException e) {
-                LOG.error("Error during prediction", e);
-            }
+    private static void writePredictions(SourceDocument aDocument, List<String> aAnnotations,
+            AnnotationFeature aLayerFeature, User aUser, DocumentService aRepository,
+            CorrectionDocumentService aCorrectionDocumentService)
+        throws UIMAException, IOException, AnnotationException
+    {
+        LOG.info("[{}] predictions found to be written to the CAS", aAnnotations.size());
+        try {
+            AnnotationDocument annoDocument = aRepository.getAnnotationDocument(aDocument, aUser);
+            // Work on a copy of the annotation CAS - only the correction CAS is written and the
+            // CAS of the user must not be changed or locked while the user may be annotating
+            CAS cas = aRepository.readAnnotationCas(annoDocument, UNMANAGED_ACCESS);
+            automate(cas, aLayerFeature, aAnnotations);
+            // We need to clear the timestamp since we read from the annotation CAS and write
+            // to the correction CAS - this makes the comparison between the time stamp
+            // stored in the CAS and the on-disk timestamp of the correction CAS invalid
+            CasMetadataUtils.clearCasMetadata(cas);
+            aCorrectionDocumentService.writeCorrectionCas(cas, aDocument);
+        }
+        catch (DataRetrievalFailureException e) {
+            LOG.error("Error during prediction", e);
         }
     }
 
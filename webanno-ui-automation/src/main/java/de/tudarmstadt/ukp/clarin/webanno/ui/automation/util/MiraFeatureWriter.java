@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.automation.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Writes the training or prediction data for MIRA. For every token, a line consisting of the
+ * token, optionally its prefixes and suffixes of up to four characters, and its label is written.
+ * Sentences are terminated by an empty line. The data is written directly to the underlying
+ * writer, which should be buffered.
+ */
+public class MiraFeatureWriter
+    implements Closeable
+{
+    private static final String NIL = "__nil__";
+
+    private final Writer out;
+
+    public MiraFeatureWriter(Writer aOut)
+    {
+        out = aOut;
+    }
+
+    /**
+     * Writes the line for a token.
+     * 
+     * @param aToken
+     *            the token.
+     * @param aAffixes
+     *            whether to write the prefixes and suffixes of the token.
+     * @param aLabel
+     *            the label.
+     * @throws IOException
+     *             if the line cannot be written.
+     */
+    public void writeToken(CharSequence aToken, boolean aAffixes, String aLabel)
+        throws IOException
+    {
+        out.append(aToken).append(' ');
+        if (aAffixes) {
+            writeAffixes(aToken);
+        }
+        out.append(aLabel).append('\n');
+    }
+
+    public void endSentence() throws IOException
+    {
+        out.append('\n');
+    }
+
+    /**
+     * Copies data which has previously been written to the given file.
+     * 
+     * @param aFile
+     *            the file.
+     * @throws IOException
+     *             if the file cannot be read or its contents cannot be written.
+     */
+    public void writeFile(File aFile) throws IOException
+    {
+        try (Reader in = new FileReader(aFile)) {
+            IOUtils.copy(in, out);
+        }
+    }
+
+    /**
+     * Writes the prefixes and suffixes of one to four characters of the token. The first
+     * character of a prefix and the last character of a suffix are omitted if they are
+     * whitespace - any other whitespace character is written as {@code __nil__}. If the token is
+     * too short for an affix, {@code __nil__} is written instead.
+     */
+    private void writeAffixes(CharSequence aToken) throws IOException
+    {
+        int length = aToken.length();
+
+        out.append(aToken.charAt(0)).append(' ');
+        for (int n = 2; n <= 4; n++) {
+            if (length >= n) {
+                writeChar(aToken.charAt(0), false);
+                for (int i = 1; i < n; i++) {
+                    writeChar(aToken.charAt(i), true);
+                }
+            }
+            else {
+                out.append(NIL);
+            }
+            out.append(' ');
+        }
+
+        out.append(aToken.charAt(length - 1)).append(' ');
+        for (int n = 2; n <= 4; n++) {
+            if (length >= n) {
+                for (int i = length - n; i < length - 1; i++) {
+                    writeChar(aToken.charAt(i), true);
+                }
+                writeChar(aToken.charAt(length - 1), false);
+            }
+            else {
+                out.append(NIL);
+            }
+            out.append(' ');
+        }
+    }
+
+    private void writeChar(char aChar, boolean aNilIfWhitespace) throws IOException
+    {
+        // Same notion of whitespace as String.trim()
+        if (aChar > ' ') {
+            out.append(aChar);
+        }
+        else if (aNilIfWhitespace) {
+            out.append(NIL);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.automation.task;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHARED_READ_ONLY_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.UNMANAGED_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.SINGLE_TOKEN;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.CasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CorrectionDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.AutomationStatus;
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
+import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Status;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class AutomationTaskSchedulerTest
+{
+    private static final String POS = "de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS";
+    private static final String TEXT = "John likes Mary .\nMary likes John .\nJohn sees Mary .";
+    private static final String[] TAGS = { "NNP", "VBZ", "NNP", "." };
+
+    public @Rule TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private AnnotationConfigApplicationContext context;
+    private DocumentService documentService;
+    private CorrectionDocumentService correctionDocumentService;
+    private AutomationStatus status;
+    private MiraTemplate template;
+    private List<CAS> correctionCases;
+    private Map<String, Thread> exclusiveOwners;
+
+    private AutomationTaskScheduler sut;
+
+    @Before
+    public void setup() throws Exception
+    {
+        Project project = new Project("project");
+        project.setId(1l);
+
+        AnnotationLayer layer = new AnnotationLayer(POS, "POS", "span", project, true,
+                SINGLE_TOKEN, NO_OVERLAP);
+        layer.setId(1l);
+        AnnotationFeature feature = new AnnotationFeature(1l, layer, "PosValue",
+                CAS.TYPE_NAME_STRING);
+
+        template = new MiraTemplate();
+        template.setId(1l);
+        template.setTrainFeature(feature);
+
+        SourceDocument curatedDoc = new SourceDocument("curated", project, "text");
+        curatedDoc.setId(1l);
+        curatedDoc.setState(SourceDocumentState.CURATION_FINISHED);
+        SourceDocument newDoc = new SourceDocument("new", project, "text");
+        newDoc.setId(2l);
+        newDoc.setState(SourceDocumentState.NEW);
+
+        // The CAS storage service can only be used within a CAS storage session and a CAS which
+        // is held exclusively by one thread cannot be obtained by another thread.
+        exclusiveOwners = new ConcurrentHashMap<>();
+        documentService = mock(DocumentService.class);
+        when(documentService.listSourceDocuments(project)).thenReturn(asList(curatedDoc, newDoc));
+        when(documentService.createOrGetAnnotationDocument(any(SourceDocument.class),
+                any(User.class))).thenAnswer(call -> new AnnotationDocument("admin", project,
+                        "admin", call.getArgument(0)));
+        when(documentService.getAnnotationDocument(any(SourceDocument.class), any(User.class)))
+                .thenAnswer(call -> new AnnotationDocument("admin", project, "admin",
+                        call.getArgument(0)));
+        when(documentService.readAnnotationCas(any(AnnotationDocument.class)))
+                .thenAnswer(exclusive(call -> "admin@"
+                        + call.<AnnotationDocument> getArgument(0).getDocument().getId(),
+                        call -> createCas(false)));
+        when(documentService.readAnnotationCas(any(SourceDocument.class), anyString(),
+                eq(AUTO_CAS_UPGRADE), eq(SHARED_READ_ONLY_ACCESS)))
+                        .thenAnswer(shared(call -> call.getArgument(1) + "@"
+                                + call.<SourceDocument> getArgument(0).getId(),
+                                call -> createCas(false)));
+        when(documentService.readAnnotationCas(any(AnnotationDocument.class),
+                eq(UNMANAGED_ACCESS))).thenAnswer(shared(call -> "admin@"
+                        + call.<AnnotationDocument> getArgument(0).getDocument().getId(),
+                        call -> createCas(false)));
+
+        CurationDocumentService curationDocumentService = mock(CurationDocumentService.class);
+        when(curationDocumentService.readCurationCas(curatedDoc))
+                .thenAnswer(exclusive(call -> "curation@" + curatedDoc.getId(),
+                        call -> createCas(true)));
+
+        // The new document has not been automated before, so it has no correction CAS yet
+        correctionCases = new CopyOnWriteArrayList<>();
+        correctionDocumentService = mock(CorrectionDocumentService.class);
+        when(correctionDocumentService.readCorrectionCas(curatedDoc))
+                .thenAnswer(exclusive(call -> "correction@" + curatedDoc.getId(),
+                        call -> createCas(false)));
+        when(correctionDocumentService.readCorrectionCas(newDoc))
+                .thenThrow(new FileNotFoundException());
+        doAnswer(exclusive(call -> "correction@"
+                + call.<SourceDocument> getArgument(1).getId(), call -> {
+                    correctionCases.add(call.getArgument(0));
+                    return null;
+                })).when(correctionDocumentService).writeCorrectionCas(any(CAS.class),
+                        any(SourceDocument.class));
+
+        File miraDir = temporaryFolder.newFolder("mira");
+        status = new AutomationStatus();
+        AutomationService automationService = mock(AutomationService.class);
+        when(automationService.getMiraDir(any(AnnotationFeature.class))).thenReturn(miraDir);
+        when(automationService.getMiraModel(any(AnnotationFeature.class), anyBoolean(), any()))
+                .thenReturn(new File(miraDir, "model"));
+        when(automationService.listTrainingDocuments(project)).thenReturn(emptyList());
+        when(automationService.listTabSepDocuments(project)).thenReturn(emptyList());
+        when(automationService.getMiraTemplate(template.getId())).thenReturn(template);
+        when(automationService.existsAutomationStatus(template)).thenReturn(true);
+        when(automationService.getAutomationStatus(template)).thenReturn(status);
+
+        TypeAdapter adapter = mock(TypeAdapter.class);
+        when(adapter.getAnnotationTypeName()).thenReturn(POS);
+        AnnotationSchemaService annotationService = mock(AnnotationSchemaService.class);
+        when(annotationService.getAdapter(layer)).thenReturn(adapter);
+
+        UserDao userDao = mock(UserDao.class);
+        when(userDao.getCurrentUser()).thenReturn(new User("admin"));
+
+        EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+        when(entityManagerFactory.createEntityManager()).thenReturn(mock(EntityManager.class));
+
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(DocumentService.class, () -> documentService);
+        context.registerBean(CurationDocumentService.class, () -> curationDocumentService);
+        context.registerBean(CorrectionDocumentService.class, () -> correctionDocumentService);
+        context.registerBean(AutomationService.class, () -> automationService);
+        context.registerBean(AnnotationSchemaService.class, () -> annotationService);
+        context.registerBean(UserDao.class, () -> userDao);
+        context.registerBean(EntityManagerFactory.class, () -> entityManagerFactory);
+        context.refresh();
+
+        sut = new AutomationTaskScheduler(context);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        sut.destroy();
+        context.close();
+    }
+
+    @Test
+    public void thatAutomationCompletes() throws Exception
+    {
+        assertThat(sut.startAutomation(template, "admin")).isTrue();
+        assertThat(sut.startAutomation(template, "admin")).isFalse();
+
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (sut.isAutomationRunning(template) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(sut.isAutomationRunning(template)).isFalse();
+        assertThat(status.getStatus()).isEqualTo(Status.COMPLETED);
+        verify(correctionDocumentService, atLeastOnce()).writeCorrectionCas(any(CAS.class),
+                any(SourceDocument.class));
+
+        // Every token of both documents has been labeled
+        assertThat(correctionCases).hasSize(2);
+        for (CAS cas : correctionCases) {
+            assertThat(CasUtil.select(cas, CasUtil.getType(cas, POS))).hasSize(12);
+        }
+    }
+
+    /**
+     * Obtains the CAS with the given key exclusively. The CAS is never released, so all exclusive
+     * access to a CAS must happen in the same thread.
+     */
+    private <T> Answer<T> exclusive(Function<InvocationOnMock, String> aKey, Answer<T> aAnswer)
+    {
+        return call -> {
+            // Fails if the calling thread has no CAS storage session
+            CasStorageSession.get();
+            String key = aKey.apply(call);
+            Thread owner = exclusiveOwners.putIfAbsent(key, Thread.currentThread());
+            if (owner != null && owner != Thread.currentThread()) {
+                throw new IOException("CAS [" + key + "] is held exclusively by another thread");
+            }
+            return aAnswer.answer(call);
+        };
+    }
+
+    /**
+     * Obtains the CAS with the given key without holding it - but like the CAS storage, this
+     * briefly needs exclusive access to the CAS.
+     */
+    private <T> Answer<T> shared(Function<InvocationOnMock, String> aKey, Answer<T> aAnswer)
+    {
+        return call -> {
+            // Fails if the calling thread has no CAS storage session
+            CasStorageSession.get();
+            String key = aKey.apply(call);
+            Thread owner = exclusiveOwners.get(key);
+            if (owner != null && owner != Thread.currentThread()) {
+                throw new IOException("CAS [" + key + "] is held exclusively by another thread");
+            }
+            return aAnswer.answer(call);
+        };
+    }
+
+    private static CAS createCas(boolean aWithLabels) throws Exception
+    {
+        CAS cas = CasFactory.createText(TEXT);
+        Type sentenceType = CasUtil.getType(cas, Sentence.class);
+        Type tokenType = CasUtil.getType(cas, Token.class);
+        Type posType = CasUtil.getType(cas, POS);
+
+        int offset = 0;
+        for (String line : TEXT.split("\n")) {
+            cas.addFsToIndexes(cas.createAnnotation(sentenceType, offset, offset + line.length()));
+            int i = 0;
+            for (String token : line.split(" ")) {
+                cas.addFsToIndexes(
+                        cas.createAnnotation(tokenType, offset, offset + token.length()));
+                if (aWithLabels) {
+                    AnnotationFS pos = cas.createAnnotation(posType, offset,
+                            offset + token.length());
+                    pos.setFeatureValueFromString(posType.getFeatureByBaseName("PosValue"),
+                            TAGS[i]);
+                    cas.addFsToIndexes(pos);
+                }
+                offset += token.length() + 1;
+                i++;
+            }
+        }
+        return cas;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.automation.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class MiraFeatureWriterTest
+{
+    private static final String[] TOKENS = { "a", "ab", "abc", "abcd", "abcde", "a b", " ab",
+            "ab ", " a", "a ", "a\tb c", "  ab  ", " ", "\t\t" };
+
+    @Test
+    public void thatTokenWithAffixesMatchesLegacyFormat() throws Exception
+    {
+        for (String token : TOKENS) {
+            assertThat(write(token, true, "TAG"))
+                    .as("token [%s]", token)
+                    .isEqualTo(legacyLine(token, "TAG"));
+        }
+    }
+
+    @Test
+    public void thatTokenWithoutLabelMatchesLegacyFormat() throws Exception
+    {
+        for (String token : TOKENS) {
+            assertThat(write(token, true, ""))
+                    .as("token [%s]", token)
+                    .isEqualTo(legacyLine(token, ""));
+        }
+    }
+
+    @Test
+    public void thatTokenWithoutAffixesIsWrittenWithLabel() throws Exception
+    {
+        assertThat(write("word", false, "tag")).isEqualTo("word tag\n");
+    }
+
+    @Test
+    public void thatSentencesAreSeparatedByEmptyLine() throws Exception
+    {
+        StringWriter buffer = new StringWriter();
+        try (MiraFeatureWriter out = new MiraFeatureWriter(buffer)) {
+            out.writeToken("a", false, "X");
+            out.endSentence();
+            out.writeToken("b", false, "Y");
+            out.endSentence();
+        }
+
+        assertThat(buffer.toString()).isEqualTo("a X\n\nb Y\n\n");
+    }
+
+    private static String write(String aToken, boolean aAffixes, String aLabel) throws Exception
+    {
+        StringWriter buffer = new StringWriter();
+        try (MiraFeatureWriter out = new MiraFeatureWriter(buffer)) {
+            out.writeToken(aToken, aAffixes, aLabel);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * The line as it was built before the introduction of the {@link MiraFeatureWriter}.
+     */
+    private static String legacyLine(String aToken, String aFeature)
+    {
+        char[] words = aToken.toCharArray();
+        String prefix1 = Character.toString(words[0]) + " ";
+        String prefix2 = (words.length > 1
+                ? prefix1.trim() + (Character.toString(words[1]).trim().equals("") ? "__nil__"
+                        : Character.toString(words[1]))
+                : "__nil__") + " ";
+        String prefix3 = (words.length > 2
+                ? prefix2.trim() + (Character.toString(words[2]).trim().equals("") ? "__nil__"
+                        : Character.toString(words[2]))
+                : "__nil__") + " ";
+        String prefix4 = (words.length > 3
+                ? prefix3.trim() + (Character.toString(words[3]).trim().equals("") ? "__nil__"
+                        : Character.toString(words[3]))
+                : "__nil__") + " ";
+        String suffix1 = Character.toString(words[words.length - 1]) + " ";
+        String suffix2 = (words.length > 1
+                ? (Character.toString(words[words.length - 2]).trim().equals("") ? "__nil__"
+                        : Character.toString(words[words.length - 2])) + suffix1.trim()
+                : "__nil__") + " ";
+        String suffix3 = (words.length > 2
+                ? (Character.toString(words[words.length - 3]).trim().equals("") ? "__nil__"
+                        : Character.toString(words[words.length - 3])) + suffix2.trim()
+                : "__nil__") + " ";
+        String suffix4 = (words.length > 3
+                ? (Character.toString(words[words.length - 4]).trim().equals("") ? "__nil__"
+                        : Character.toString(words[words.length - 4])) + suffix3.trim()
+                : "__nil__") + " ";
+
+        return aToken + " " + prefix1 + prefix2 + prefix3 + prefix4 + suffix1 + suffix2 + suffix3
+                + suffix4 + aFeature + "\n";
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiffSingle;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.NER_DIFF_ADAPTER;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.POS_DIFF_ADAPTER;
+import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SuggestionBuilder.getSentenceState;
+import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SuggestionBuilder.groupBySentence;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.OffsetIndex;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Compares two ways of determining which sentences the annotators agree on when the curation
+ * container is built: calculating the differences separately for every sentence and calculating
+ * them once and assigning them to the sentences afterwards (as done by
+ * {@link SuggestionBuilder#buildCurationContainer}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SuggestionBuilderBenchmark
+{
+    private static final String[] NE_LABELS = { "PER", "LOC", "ORG", "MISC", "OTH" };
+    private static final String[] POS_LABELS = { "NN", "VB", "JJ", "DT", "IN", "RB" };
+    private static final int TOKENS_PER_SENTENCE = 20;
+
+    @Param({ "3", "10" })
+    public int annotators;
+
+    @Param({ "100", "1000" })
+    public int sentences;
+
+    private List<? extends DiffAdapter> adapters;
+    private Map<String, CAS> casByUser;
+    private CAS segmentCas;
+    private int documentLength;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        adapters = asList(POS_DIFF_ADAPTER, NER_DIFF_ADAPTER);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < sentences * TOKENS_PER_SENTENCE; i++) {
+            text.append("token ");
+        }
+        documentLength = text.length();
+
+        // Fixed seed so that all runs compare the same data
+        Random rnd = new Random(42);
+        casByUser = new LinkedHashMap<>();
+        for (int a = 0; a < annotators; a++) {
+            JCas jcas = JCasFactory.createText(text.toString());
+            for (int s = 0; s < sentences; s++) {
+                int sentenceBegin = s * TOKENS_PER_SENTENCE * 6;
+                new Sentence(jcas, sentenceBegin, sentenceBegin + TOKENS_PER_SENTENCE * 6 - 1)
+                        .addToIndexes();
+
+                for (int t = 0; t < TOKENS_PER_SENTENCE; t++) {
+                    int begin = sentenceBegin + t * 6;
+                    int end = begin + 5;
+
+                    // The annotators mostly agree such that there are sentences in both states
+                    POS pos = new POS(jcas, begin, end);
+                    pos.setPosValue(rnd.nextInt(100) == 0
+                            ? POS_LABELS[rnd.nextInt(POS_LABELS.length)]
+                            : POS_LABELS[t % POS_LABELS.length]);
+                    pos.addToIndexes();
+
+                    if (t % 5 == 0 && rnd.nextInt(100) != 0) {
+                        NamedEntity ne = new NamedEntity(jcas, begin, end);
+                        ne.setValue(NE_LABELS[t % NE_LABELS.length]);
+                        ne.addToIndexes();
+                    }
+                }
+            }
+            casByUser.put("user" + a, jcas.getCas());
+        }
+        segmentCas = casByUser.values().iterator().next();
+
+        if (!perSentence().equals(singlePass())) {
+            throw new IllegalStateException("Strategies produce different sentence states");
+        }
+    }
+
+    @Benchmark
+    public Map<Integer, SentenceState> perSentence()
+    {
+        Map<Integer, SentenceState> states = new LinkedHashMap<>();
+        for (AnnotationFS sentence : CasUtil.select(segmentCas, sentenceType())) {
+            DiffResult diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casByUser,
+                    sentence.getBegin(), sentence.getEnd()).toResult();
+            states.put(sentence.getBegin(), getSentenceState(diff, diff.getConfigurationSets()));
+        }
+        return states;
+    }
+
+    @Benchmark
+    public Map<Integer, SentenceState> singlePass()
+    {
+        DiffResult diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casByUser, 0, documentLength,
+                ForkJoinPool.commonPool()).toResult();
+        Map<Integer, List<ConfigurationSet>> setsBySentence = groupBySentence(diff, casByUser,
+                OffsetIndex.of(segmentCas, sentenceType()));
+
+        Map<Integer, SentenceState> states = new LinkedHashMap<>();
+        for (AnnotationFS sentence : CasUtil.select(segmentCas, sentenceType())) {
+            states.put(sentence.getBegin(), getSentenceState(diff,
+                    setsBySentence.getOrDefault(sentence.getBegin(), emptyList())));
+        }
+        return states;
+    }
+
+    private Type sentenceType()
+    {
+        return CasUtil.getType(segmentCas, Sentence.class);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder().include(SuggestionBuilderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -32,19 +32,26 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.Mode.CORRECTION;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.NEW_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SentenceState.AGREE;
 import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SentenceState.DISAGREE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
@@ -59,12 +66,15 @@ import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.OffsetIndex;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanPosition;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.CasMerge;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CasDiffCache;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
@@ -97,6 +107,7 @@ public class SuggestionBuilder
     private final CurationDocumentService curationDocumentService;
     private final UserDao userRepository;
     private final CasStorageService casStorageService;
+    private final CasDiffCache casDiffCache;
 
     private int diffRangeBegin;
     private int diffRangeEnd;
@@ -105,6 +116,16 @@ public class SuggestionBuilder
             CorrectionDocumentService aCorrectionDocumentService,
             CurationDocumentService aCurationDocumentService,
             AnnotationSchemaService aAnnotationService, UserDao aUserDao)
+    {
+        this(aCasStorageService, aDocumentService, aCorrectionDocumentService,
+                aCurationDocumentService, aAnnotationService, aUserDao, null);
+    }
+
+    public SuggestionBuilder(CasStorageService aCasStorageService, DocumentService aDocumentService,
+            CorrectionDocumentService aCorrectionDocumentService,
+            CurationDocumentService aCurationDocumentService,
+            AnnotationSchemaService aAnnotationService, UserDao aUserDao,
+            CasDiffCache aCasDiffCache)
     {
         documentService = aDocumentService;
         correctionDocumentService = aCorrectionDocumentService;
@@ -112,6 +133,7 @@ public class SuggestionBuilder
         schemaService = aAnnotationService;
         userRepository = aUserDao;
         casStorageService = aCasStorageService;
+        casDiffCache = aCasDiffCache;
     }
 
     public CurationContainer buildCurationContainer(AnnotatorState aState)
@@ -138,6 +160,8 @@ public class SuggestionBuilder
 
         AnnotationDocument randomAnnotationDocument = null;
         CAS mergeCas;
+        // CAS from which the sentences are taken
+        CAS segmentCas;
 
         // get the correction/automation CAS for the logged in user
         if (aState.getMode().equals(AUTOMATION) || aState.getMode().equals(CORRECTION)) {
@@ -146,14 +170,16 @@ public class SuggestionBuilder
             mergeCas = getMergeCas(aState, sourceDocument, casses, randomAnnotationDocument, false,
                     false, false);
             String username = casses.keySet().iterator().next();
-            updateSegment(aState, segmentBeginEnd, segmentNumber, segmentAdress,
-                    casses.get(username), username, aState.getWindowBeginOffset(),
+            segmentCas = casses.get(username);
+            updateSegment(aState, segmentBeginEnd, segmentNumber, segmentAdress, segmentCas,
+                    username, aState.getWindowBeginOffset(),
                     aState.getWindowEndOffset());
         }
         else {
             casses = listCassesforCuration(finishedAnnotationDocuments, aState.getMode());
             mergeCas = getMergeCas(aState, sourceDocument, casses, randomAnnotationDocument, false,
                     false, false);
+            segmentCas = mergeCas;
             updateSegment(aState, segmentBeginEnd, segmentNumber, segmentAdress, mergeCas,
                     CURATION_USER, getFirstSentence(mergeCas).getBegin(),
                     mergeCas.getDocumentText().length());
@@ -168,52 +194,26 @@ public class SuggestionBuilder
 
         List<DiffAdapter> adapters = getDiffAdapters(schemaService, aState.getAnnotationLayers());
 
-        long diffStart = System.currentTimeMillis();
-        log.debug("Calculating differences...");
-        int count = 0;
+        // Calculate the differences in a single pass over the whole range and then assign them to
+        // the sentences instead of calculating the differences separately for every sentence
+        Map<Integer, List<ConfigurationSet>> setsBySentence;
+        DiffResult diff;
+        try (StopWatch watch = new StopWatch(log, "CasDiff")) {
+            diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casses, diffRangeBegin, diffRangeEnd,
+                    ForkJoinPool.commonPool()).toResult();
+            setsBySentence = groupBySentence(diff, casses,
+                    OffsetIndex.of(segmentCas, getType(segmentCas, Sentence.class)));
+        }
+
         for (Integer begin : segmentBeginEnd.keySet()) {
             Integer end = segmentBeginEnd.get(begin);
 
-            count++;
-            if (count % 100 == 0) {
-                log.debug("Processing differences: {} of {} sentences...", count,
-                        segmentBeginEnd.size());
-            }
-
-            DiffResult diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casses, begin, end)
-                    .toResult();
-
             SourceListView curationSegment = new SourceListView();
             curationSegment.setBegin(begin);
             curationSegment.setEnd(end);
             curationSegment.setSentenceNumber(segmentNumber.get(begin));
-            if (diff.hasDifferences() || !diff.getIncompleteConfigurationSets().isEmpty()) {
-                // Is this confSet a diff due to stacked annotations (with same configuration)?
-                boolean stackedDiff = false;
-
-                stackedDiffSet: for (ConfigurationSet d : diff.getDifferingConfigurationSets()
-                        .values()) {
-                    for (Configuration c : d.getConfigurations()) {
-                        if (c.getCasGroupIds().size() != d.getCasGroupIds().size()) {
-                            stackedDiff = true;
-                            break stackedDiffSet;
-                        }
-                    }
-                }
-
-                if (stackedDiff) {
-                    curationSegment.setSentenceState(DISAGREE);
-                }
-                else if (!diff.getIncompleteConfigurationSets().isEmpty()) {
-                    curationSegment.setSentenceState(DISAGREE);
-                }
-                else {
-                    curationSegment.setSentenceState(AGREE);
-                }
-            }
-            else {
-                curationSegment.setSentenceState(AGREE);
-            }
+            curationSegment.setSentenceState(getSentenceState(diff,
+                    setsBySentence.getOrDefault(begin, emptyList())));
 
             for (String username : segmentAdress.keySet()) {
                 curationSegment.getSentenceAddress().put(username,
@@ -221,12 +221,96 @@ public class SuggestionBuilder
             }
             curationContainer.getCurationViewByBegin().put(begin, curationSegment);
         }
-        log.debug("Difference calculation completed in {}ms",
-                (System.currentTimeMillis() - diffStart));
 
         return curationContainer;
     }
 
+    /**
+     * Assigns the configuration sets of a diff to the sentences covering the annotations they
+     * refer to. The sentences then receive the same sets as if the differences had been calculated
+     * separately for every sentence.
+     *
+     * @param aDiff
+     *            the diff.
+     * @param aCasses
+     *            the CASes the diff has been calculated on.
+     * @param aSentences
+     *            the sentences.
+     * @return the configuration sets by sentence begin offset.
+     */
+    static Map<Integer, List<ConfigurationSet>> groupBySentence(DiffResult aDiff,
+            Map<String, CAS> aCasses, OffsetIndex aSentences)
+    {
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        aCasses.forEach((user, cas) -> casMap.put(user, asList(cas)));
+
+        Map<Integer, List<ConfigurationSet>> setsBySentence = new HashMap<>();
+        for (ConfigurationSet set : aDiff.getConfigurationSets()) {
+            int begin;
+            int end;
+            if (!set.getConfigurations().isEmpty()) {
+                FeatureStructure fs = set.getConfigurations().get(0).getRepresentative(casMap);
+                if (!(fs instanceof AnnotationFS)) {
+                    continue;
+                }
+                begin = ((AnnotationFS) fs).getBegin();
+                end = ((AnnotationFS) fs).getEnd();
+            }
+            else if (set.getPosition() instanceof SpanPosition) {
+                begin = ((SpanPosition) set.getPosition()).getBegin();
+                end = ((SpanPosition) set.getPosition()).getEnd();
+            }
+            else {
+                continue;
+            }
+
+            // Usually, only a single sentence covers the annotation, but a zero-width annotation
+            // at the boundary between two sentences is covered by both
+            int i = aSentences.indexOfContaining(begin);
+            if (i == -1) {
+                continue;
+            }
+            for (; i < aSentences.size() && aSentences.getBegin(i) <= begin; i++) {
+                if (end <= aSentences.getEnd(i)) {
+                    setsBySentence.computeIfAbsent(aSentences.getBegin(i), k -> new ArrayList<>())
+                            .add(set);
+                }
+            }
+        }
+        return setsBySentence;
+    }
+
+    /**
+     * Determines whether the annotators agree on a sentence.
+     *
+     * @param aDiff
+     *            the diff.
+     * @param aSets
+     *            the configuration sets of the sentence.
+     * @return the state of the sentence.
+     */
+    static SentenceState getSentenceState(DiffResult aDiff, Collection<ConfigurationSet> aSets)
+    {
+        for (ConfigurationSet set : aSets) {
+            if (!aDiff.isComplete(set)) {
+                return DISAGREE;
+            }
+
+            if (aDiff.isAgreement(set)) {
+                continue;
+            }
+
+            // Is this confSet a diff due to stacked annotations (with same configuration)?
+            for (Configuration c : set.getConfigurations()) {
+                if (c.getCasGroupIds().size() != set.getCasGroupIds().size()) {
+                    return DISAGREE;
+                }
+            }
+        }
+
+        return AGREE;
+    }
+
     /**
      * Get a sentence at the end of an annotation
      */
@@ -263,18 +347,21 @@ public class SuggestionBuilder
             Mode aMode)
         throws UIMAException, ClassNotFoundException, IOException
     {
-        Map<String, CAS> casses = new HashMap<>();
+        List<Pair<SourceDocument, String>> docsAndUsers = new ArrayList<>();
         for (AnnotationDocument annotationDocument : annotationDocuments) {
-            String username = annotationDocument.getUser();
-
             if (!annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
                 continue;
             }
 
-            CAS cas = documentService.readAnnotationCas(annotationDocument.getDocument(),
-                    annotationDocument.getUser(), AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS);
-            casses.put(username, cas);
+            docsAndUsers.add(Pair.of(annotationDocument.getDocument(),
+                    annotationDocument.getUser()));
         }
+
+        // Load the CASes of all annotators in parallel
+        Map<String, CAS> casses = new HashMap<>();
+        documentService
+                .readAnnotationCases(docsAndUsers, AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS)
+                .forEach((docAndUser, cas) -> casses.put(docAndUser.getValue(), cas));
         return casses;
     }
 
@@ -436,8 +523,15 @@ public class SuggestionBuilder
 
         DiffResult diff;
         try (StopWatch watch = new StopWatch(log, "CasDiff")) {
-            diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, aCasses, 0,
-                    mergeCas.getDocumentText().length()).toResult();
+            if (casDiffCache != null) {
+                diff = casDiffCache.getDiffSingle(aState.getDocument(), adapters,
+                        LINK_ROLE_AS_LABEL, aCasses);
+            }
+            else {
+                diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, aCasses, 0,
+                        mergeCas.getDocumentText().length(), ForkJoinPool.commonPool())
+                                .toResult();
+            }
         }
 
         try (StopWatch watch = new StopWatch(log, "CasMerge")) {
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.FEAT_REL_SOURCE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.FEAT_REL_TARGET;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiffSingle;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter.DEPENDENCY_DIFF_ADAPTER;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.NER_DIFF_ADAPTER;
+import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SentenceState.AGREE;
+import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SentenceState.DISAGREE;
+import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SuggestionBuilder.getSentenceState;
+import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SuggestionBuilder.groupBySentence;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.select;
+import static org.apache.uima.fit.util.CasUtil.selectAt;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.uima.cas.ArrayFS;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.CasFactory;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.OffsetIndex;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Checks that assigning the differences calculated over the whole document to the sentences
+ * yields the same sentence states as calculating the differences separately for every sentence.
+ */
+public class SuggestionBuilderTest
+{
+    private static final String NAMED_ENTITY = "de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity";
+    private static final String DEPENDENCY = "de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency";
+    private static final String HOST_TYPE = "webanno.custom.LinkHost";
+    private static final String LINK_TYPE = "webanno.custom.LinkType";
+
+    // The first two sentences touch each other such that a zero-width annotation at offset 11 is
+    // covered by both of them
+    private static final String TEXT = "aaa bbb ccc ddd eee fff ggg hhh";
+    private static final int[][] SENTENCES = { { 0, 11 }, { 11, 23 }, { 24, 31 } };
+
+    private TypeSystemDescription tsd;
+    private Map<String, CAS> casByUser;
+
+    @Before
+    public void setup() throws Exception
+    {
+        TypeSystemDescription linkTsd = new TypeSystemDescription_impl();
+        TypeDescription linkTD = linkTsd.addType(LINK_TYPE, "", CAS.TYPE_NAME_TOP);
+        linkTD.addFeature("role", "", CAS.TYPE_NAME_STRING);
+        linkTD.addFeature("target", "", CAS.TYPE_NAME_ANNOTATION);
+        TypeDescription hostTD = linkTsd.addType(HOST_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        hostTD.addFeature("links", "", CAS.TYPE_NAME_FS_ARRAY, LINK_TYPE, false);
+
+        tsd = CasCreationUtils.mergeTypeSystems(asList(linkTsd,
+                TypeSystemDescriptionFactory.createTypeSystemDescription()));
+
+        casByUser = new LinkedHashMap<>();
+        for (String user : asList("user1", "user2", "user3")) {
+            casByUser.put(user, createCas());
+        }
+    }
+
+    @Test
+    public void thatRelationIsAssignedToSentenceOfItsTarget() throws Exception
+    {
+        // The source of the relation is in the first sentence, the target in the last one
+        casByUser.forEach((user, cas) -> makeRelation(cas, 0, 24,
+                "user3".equals(user) ? "dobj" : "nsubj"));
+
+        assertSameStates(asList(DEPENDENCY_DIFF_ADAPTER), AGREE, AGREE, DISAGREE);
+    }
+
+    @Test
+    public void thatRelationSourceOutsideSentenceDoesNotAffectSentence() throws Exception
+    {
+        // The annotators agree on the label, but one of them has connected a different source
+        casByUser.forEach((user, cas) -> makeRelation(cas, "user3".equals(user) ? 4 : 0, 24,
+                "nsubj"));
+
+        assertSameStates(asList(DEPENDENCY_DIFF_ADAPTER), AGREE, AGREE, DISAGREE);
+    }
+
+    @Test
+    public void thatZeroWidthSpanAtSentenceBoundaryIsAssignedToBothSentences() throws Exception
+    {
+        // Only some annotators have created the zero-width annotation
+        makeNamedEntity(casByUser.get("user1"), 11, 11, "PER");
+        makeNamedEntity(casByUser.get("user2"), 11, 11, "PER");
+        // A zero-width annotation at the begin of a sentence which does not touch another one
+        casByUser.values().forEach(cas -> makeNamedEntity(cas, 24, 24, "LOC"));
+
+        assertSameStates(asList(NER_DIFF_ADAPTER), DISAGREE, DISAGREE, AGREE);
+    }
+
+    @Test
+    public void thatLinkFeatureSlotsAreAssignedToSentenceOfHost() throws Exception
+    {
+        // The slot fillers are in the second sentence, the host is in the first one
+        casByUser.forEach((user, cas) -> makeLinkHost(cas, 0, 3,
+                "user3".equals(user) ? "slot2" : "slot1", 12, 15));
+        // All annotators agree on the host in the last sentence
+        casByUser.values().forEach(cas -> makeLinkHost(cas, 24, 27, "slot1", 28, 31));
+
+        SpanDiffAdapter adapter = new SpanDiffAdapter(HOST_TYPE);
+        adapter.addLinkFeature("links", "role", "target");
+
+        assertSameStates(asList(adapter), DISAGREE, AGREE, AGREE);
+    }
+
+    @Test
+    public void thatStackedAnnotationsAreHandledLikePerSentenceDiff() throws Exception
+    {
+        // Identical stacked annotations from all annotators are no disagreement
+        casByUser.values().forEach(cas -> {
+            makeNamedEntity(cas, 0, 3, "PER");
+            makeNamedEntity(cas, 0, 3, "PER");
+        });
+        // Stacked annotations from only one annotator are a disagreement
+        casByUser.values().forEach(cas -> makeNamedEntity(cas, 12, 15, "LOC"));
+        makeNamedEntity(casByUser.get("user2"), 12, 15, "ORG");
+        // Stacked annotations with different labels are no disagreement if every annotator has
+        // created all of them
+        casByUser.values().forEach(cas -> {
+            makeNamedEntity(cas, 24, 27, "PER");
+            makeNamedEntity(cas, 24, 27, "LOC");
+        });
+
+        assertSameStates(asList(NER_DIFF_ADAPTER), AGREE, DISAGREE, AGREE);
+    }
+
+    private void assertSameStates(List<? extends DiffAdapter> aAdapters,
+            SentenceState... aExpected)
+    {
+        Map<Integer, SentenceState> expected = perSentence(aAdapters);
+        assertThat(expected.values()).containsExactly(aExpected);
+        assertThat(singlePass(aAdapters)).isEqualTo(expected);
+    }
+
+    private Map<Integer, SentenceState> perSentence(List<? extends DiffAdapter> aAdapters)
+    {
+        CAS segmentCas = casByUser.values().iterator().next();
+        Map<Integer, SentenceState> states = new LinkedHashMap<>();
+        for (AnnotationFS sentence : select(segmentCas, getType(segmentCas, Sentence.class))) {
+            DiffResult diff = doDiffSingle(aAdapters, LINK_ROLE_AS_LABEL, casByUser,
+                    sentence.getBegin(), sentence.getEnd()).toResult();
+            states.put(sentence.getBegin(), getSentenceState(diff, diff.getConfigurationSets()));
+        }
+        return states;
+    }
+
+    private Map<Integer, SentenceState> singlePass(List<? extends DiffAdapter> aAdapters)
+    {
+        CAS segmentCas = casByUser.values().iterator().next();
+        Type sentenceType = getType(segmentCas, Sentence.class);
+        DiffResult diff = doDiffSingle(aAdapters, LINK_ROLE_AS_LABEL, casByUser, 0,
+                TEXT.length(), ForkJoinPool.commonPool()).toResult();
+        Map<Integer, List<ConfigurationSet>> setsBySentence = groupBySentence(diff, casByUser,
+                OffsetIndex.of(segmentCas, sentenceType));
+
+        Map<Integer, SentenceState> states = new LinkedHashMap<>();
+        for (AnnotationFS sentence : select(segmentCas, sentenceType)) {
+            states.put(sentence.getBegin(), getSentenceState(diff,
+                    setsBySentence.getOrDefault(sentence.getBegin(), emptyList())));
+        }
+        return states;
+    }
+
+    private CAS createCas() throws Exception
+    {
+        CAS cas = CasFactory.createCas(tsd);
+        cas.setDocumentText(TEXT);
+        for (int[] sentence : SENTENCES) {
+            cas.addFsToIndexes(cas.createAnnotation(getType(cas, Sentence.class), sentence[0],
+                    sentence[1]));
+        }
+        Matcher m = Pattern.compile("\\S+").matcher(TEXT);
+        while (m.find()) {
+            cas.addFsToIndexes(cas.createAnnotation(getType(cas, Token.class), m.start(),
+                    m.end()));
+        }
+        return cas;
+    }
+
+    private static void makeNamedEntity(CAS aCas, int aBegin, int aEnd, String aValue)
+    {
+        Type type = getType(aCas, NAMED_ENTITY);
+        AnnotationFS ne = aCas.createAnnotation(type, aBegin, aEnd);
+        ne.setStringValue(type.getFeatureByBaseName("value"), aValue);
+        aCas.addFsToIndexes(ne);
+    }
+
+    private static void makeRelation(CAS aCas, int aSourceBegin, int aTargetBegin, String aLabel)
+    {
+        AnnotationFS source = getToken(aCas, aSourceBegin);
+        AnnotationFS target = getToken(aCas, aTargetBegin);
+
+        // Like WebAnno, the relation has the offsets of its target
+        Type type = getType(aCas, DEPENDENCY);
+        AnnotationFS relation = aCas.createAnnotation(type, target.getBegin(), target.getEnd());
+        relation.setFeatureValue(type.getFeatureByBaseName(FEAT_REL_SOURCE), source);
+        relation.setFeatureValue(type.getFeatureByBaseName(FEAT_REL_TARGET), target);
+        relation.setStringValue(type.getFeatureByBaseName("DependencyType"), aLabel);
+        aCas.addFsToIndexes(relation);
+    }
+
+    private static void makeLinkHost(CAS aCas, int aBegin, int aEnd, String aRole,
+            int aTargetBegin, int aTargetEnd)
+    {
+        Type linkType = getType(aCas, LINK_TYPE);
+        FeatureStructure link = aCas.createFS(linkType);
+        link.setStringValue(linkType.getFeatureByBaseName("role"), aRole);
+        link.setFeatureValue(linkType.getFeatureByBaseName("target"),
+                selectAt(aCas, getType(aCas, Token.class), aTargetBegin, aTargetEnd).get(0));
+
+        ArrayFS links = aCas.createArrayFS(1);
+        links.set(0, link);
+
+        Type hostType = getType(aCas, HOST_TYPE);
+        AnnotationFS host = aCas.createAnnotation(hostType, aBegin, aEnd);
+        host.setFeatureValue(hostType.getFeatureByBaseName("links"), links);
+        aCas.addFsToIndexes(host);
+    }
+
+    private static AnnotationFS getToken(CAS aCas, int aBegin)
+    {
+        return select(aCas, getType(aCas, Token.class)).stream()
+                .filter(token -> token.getBegin() == aBegin).findFirst().get();
+    }
+}
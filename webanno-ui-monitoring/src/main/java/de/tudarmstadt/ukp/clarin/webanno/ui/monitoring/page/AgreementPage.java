@@ -30,6 +30,7 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
@@ -73,6 +74,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasBulkReadException;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -412,9 +414,13 @@ public class AgreementPage
 
         List<SourceDocument> sourceDocuments = documentService.listSourceDocuments(project);
 
-        cachedCASes = new LinkedHashMap<>();
+        // Determine which CASes need to be loaded. A null entry is a skip marker for a document
+        // the user has not finished yet - this is necessary because we expect the CAS lists for all
+        // users to have the same size
+        Map<String, List<SourceDocument>> docsByUser = new LinkedHashMap<>();
+        List<Pair<SourceDocument, String>> docsAndUsers = new ArrayList<>();
         for (User user : users) {
-            List<CAS> cases = new ArrayList<>();
+            List<SourceDocument> docs = new ArrayList<>();
 
             // Bulk-fetch all source documents for which there is already an annotation document for
             // the user which is faster then checking for their existence individually
@@ -422,32 +428,61 @@ public class AgreementPage
                     .listAnnotationDocuments(project, user).stream()
                     .map(AnnotationDocument::getDocument).distinct().collect(Collectors.toList());
 
-            nextDocument: for (SourceDocument document : sourceDocuments) {
-                CAS cas = null;
-
-                try {
-                    if (docsForUser.contains(document)) {
-                        AnnotationDocument annotationDocument = documentService
-                                .getAnnotationDocument(document, user);
-
-                        if (traits.isLimitToFinishedDocuments()
-                                && !annotationDocument.getState().equals(FINISHED)) {
-                            // Add a skip marker (null) for the current CAS to the CAS list - this
-                            // is necessary because we expect the CAS lists for all users to have
-                            // the same size
-                            cases.add(null);
-                            continue nextDocument;
-                        }
+            for (SourceDocument document : sourceDocuments) {
+                if (traits.isLimitToFinishedDocuments() && docsForUser.contains(document)) {
+                    AnnotationDocument annotationDocument = documentService
+                            .getAnnotationDocument(document, user);
+                    if (!annotationDocument.getState().equals(FINISHED)) {
+                        docs.add(null);
+                        continue;
                     }
+                }
+
+                docs.add(document);
+                docsAndUsers.add(Pair.of(document, user.getUsername()));
+            }
 
-                    // Reads the user's annotation document or the initial source document -
-                    // depending on what is available
-                    cas = documentService.readAnnotationCas(document, user.getUsername(),
-                            AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS);
+            docsByUser.put(user.getUsername(), docs);
+        }
+
+        // Reads the users' annotation documents or the initial source documents - depending on
+        // what is available. The CASes are loaded in parallel.
+        Map<Pair<SourceDocument, String>, CAS> loadedCases;
+        try {
+            loadedCases = documentService.readAnnotationCases(docsAndUsers, AUTO_CAS_UPGRADE,
+                    SHARED_READ_ONLY_ACCESS);
+        }
+        catch (CasBulkReadException e) {
+            LOG.warn("Unable to load {} CASes in bulk - retrying them individually",
+                    e.getFailures().size(), e);
+            loadedCases = e.getCases();
+        }
+        catch (Exception e) {
+            LOG.warn("Unable to load CASes in bulk - loading them individually", e);
+            loadedCases = Collections.emptyMap();
+        }
+
+        cachedCASes = new LinkedHashMap<>();
+        for (Entry<String, List<SourceDocument>> docsOfUser : docsByUser.entrySet()) {
+            String username = docsOfUser.getKey();
+            List<CAS> cases = new ArrayList<>();
+
+            for (SourceDocument document : docsOfUser.getValue()) {
+                if (document == null) {
+                    cases.add(null);
+                    continue;
                 }
-                catch (Exception e) {
-                    error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
-                    LOG.error("Unable to load data", e);
+
+                CAS cas = loadedCases.get(Pair.of(document, username));
+                if (cas == null) {
+                    try {
+                        cas = documentService.readAnnotationCas(document, username,
+                                AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS);
+                    }
+                    catch (Exception e) {
+                        error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
+                        LOG.error("Unable to load data", e);
+                    }
                 }
 
                 if (cas != null) {
@@ -456,7 +491,6 @@ public class AgreementPage
                     FeatureStructure dmd = WebAnnoCasUtil.getDocumentMetadata(cas);
                     FSUtil.setFeature(dmd, "documentId", document.getName());
                     FSUtil.setFeature(dmd, "collectionId", document.getProject().getName());
-
                 }
 
                 // The next line can enter null values into the list if a user didn't work on this
@@ -464,7 +498,7 @@ public class AgreementPage
                 cases.add(cas);
             }
 
-            cachedCASes.put(user.getUsername(), cases);
+            cachedCASes.put(username, cases);
         }
 
         cachedProject = project;
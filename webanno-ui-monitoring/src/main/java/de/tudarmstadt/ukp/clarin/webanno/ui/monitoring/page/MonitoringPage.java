@@ -24,7 +24,6 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTra
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.IGNORE_TO_NEW;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_IGNORE;
-import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.ANNOTATION_FINISHED;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_FINISHED;
@@ -35,8 +34,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransit
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.CURATION_IN_PROGRESS_TO_CURATION_FINISHED;
 import static java.util.Collections.emptyMap;
 import static java.util.Objects.isNull;
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toList;
 
 import java.awt.Color;
 import java.io.Serializable;
@@ -48,10 +46,8 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.TreeMap;
-import java.util.function.BinaryOperator;
 
 import javax.persistence.NoResultException;
 
@@ -102,11 +98,11 @@ import org.wicketstuff.annotation.mount.MountPath;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentStatistics;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
 import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
-import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition;
@@ -153,7 +149,6 @@ public class MonitoringPage
     private @SpringBean DocumentService documentService;
     private @SpringBean ProjectService projectService;
     private @SpringBean UserDao userRepository;
-    private @SpringBean CurationDocumentService curationService;
 
     private ProjectSelectionForm projectSelectionForm;
     private MonitoringDetailForm monitoringDetailForm;
@@ -517,27 +512,18 @@ public class MonitoringPage
             return emptyMap();
         }
 
-        Map<String, List<AnnotationDocument>> docsPerUser = documentService
-                .listFinishedAnnotationDocuments(aProject).stream()
-                .collect(groupingBy(AnnotationDocument::getUser));
-
-        // We explicitly use HashMap::new below since we *really* want a mutable map and
-        // Collectors.toMap(...) doesn't make guarantees about the mutability of the map type it
-        // internally creates.
-        Map<String, Integer> finishedDocumentsPerUser = docsPerUser.entrySet().stream().collect(
-                toMap(Entry::getKey, e -> e.getValue().size(), throwingMerger(), HashMap::new));
+        DocumentStatistics statistics = documentService.getStatistics(aProject);
 
         // Make sure we also have all annotators in the map who have not actually annotated
         // anything
-        projectService.listProjectUsersWithPermissions(aProject, ANNOTATOR).stream()
-                .map(User::getUsername)
-                .forEach(user -> finishedDocumentsPerUser.computeIfAbsent(user, _it -> 0));
+        Map<String, Integer> finishedDocumentsPerUser = new HashMap<>();
+        for (String annotator : statistics.getAnnotators()) {
+            finishedDocumentsPerUser.put(annotator,
+                    (int) statistics.getFinishedDocumentCount(annotator));
+        }
 
         // Add the finished documents for the curation user
-        List<SourceDocument> curatedDocuments = curationService.listCuratedDocuments(aProject);
-
-        // Little hack: to ensure that the curation user comes first on screen, add a space
-        finishedDocumentsPerUser.put(CURATION_USER, curatedDocuments.size());
+        finishedDocumentsPerUser.put(CURATION_USER, (int) statistics.getCuratedDocumentCount());
 
         return finishedDocumentsPerUser;
     }
@@ -548,25 +534,19 @@ public class MonitoringPage
             return emptyMap();
         }
 
-        Map<String, Integer> finishedDocumentsPerUser = getFinishedDocumentsPerUser(aProject);
+        DocumentStatistics statistics = documentService.getStatistics(aProject);
 
         Map<String, Integer> percentageFinishedPerUser = new HashMap<>();
-        List<User> annotators = new ArrayList<>(
-                projectService.listProjectUsersWithPermissions(aProject, ANNOTATOR));
-
-        // Little hack: to ensure that the curation user comes first on screen, add a space
-        annotators.add(new User(CURATION_USER));
-
-        for (User annotator : annotators) {
-            Map<SourceDocument, AnnotationDocument> docsForUser = documentService
-                    .listAnnotatableDocuments(aProject, annotator);
-
-            int finished = finishedDocumentsPerUser.get(annotator.getUsername());
-            int annotatableDocs = docsForUser.size();
-            percentageFinishedPerUser.put(annotator.getUsername(),
-                    (int) Math.round((double) (finished * 100) / annotatableDocs));
+        for (String annotator : statistics.getAnnotators()) {
+            percentageFinishedPerUser.put(annotator,
+                    percentage(statistics.getFinishedDocumentCount(annotator),
+                            statistics.getAnnotatableDocumentCount(annotator)));
         }
 
+        // The curation user has no annotation documents which could be ignored
+        percentageFinishedPerUser.put(CURATION_USER, percentage(
+                statistics.getCuratedDocumentCount(), statistics.getSourceDocumentCount()));
+
         return percentageFinishedPerUser;
     }
 
@@ -575,18 +555,31 @@ public class MonitoringPage
         Map<String, Integer> overallProjectProgress = new LinkedHashMap<>();
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
         User user = userRepository.get(username);
-        for (Project project : projectService.listProjects()) {
-            if (projectService.isCurator(project, user)
-                    || projectService.isManager(project, user)) {
-                int annoFinished = documentService.listFinishedAnnotationDocuments(project).size();
-                int allAnno = documentService.numberOfExpectedAnnotationDocuments(project);
-                int progress = (int) Math.round((double) (annoFinished * 100) / (allAnno));
-                overallProjectProgress.put(project.getName(), progress);
-            }
+
+        List<Project> projects = projectService.listProjects().stream()
+                .filter(project -> projectService.isCurator(project, user)
+                        || projectService.isManager(project, user))
+                .collect(toList());
+
+        Map<Long, DocumentStatistics> statistics = documentService.getStatistics(projects);
+        for (Project project : projects) {
+            DocumentStatistics projectStatistics = statistics.get(project.getId());
+            overallProjectProgress.put(project.getName(),
+                    percentage(projectStatistics.getFinishedAnnotationDocumentCount(),
+                            projectStatistics.getExpectedAnnotationDocumentCount()));
         }
         return overallProjectProgress;
     }
 
+    private static int percentage(long aPart, long aTotal)
+    {
+        if (aTotal == 0) {
+            return 0;
+        }
+
+        return (int) Math.round((double) (aPart * 100) / aTotal);
+    }
+
     private static SerializableComparator<String> USER_COMPARATOR = (u1,
             u2) -> new CompareToBuilder().append(u1, CURATION_USER).append(u2, CURATION_USER)
                     .append(u1, u2).toComparison();
@@ -1107,11 +1100,4 @@ public class MonitoringPage
             return Optional.empty();
         }
     }
-
-    private static <T> BinaryOperator<T> throwingMerger()
-    {
-        return (u, v) -> {
-            throw new IllegalStateException(String.format("Duplicate key %s", u));
-        };
-    }
 }